@@ -0,0 +1,102 @@
+package benchmark;
+
+import mapper.VectorEncoding;
+import org.apache.lucene.store.ByteArrayDataOutput;
+import org.apache.lucene.util.BytesRef;
+import script.CosineScript;
+import script.HammingScript;
+import script.HashHammingScript;
+import script.NormL2Script;
+import script.VectorLeafFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Builds the query parameters and the doc values of each method the way they are sent and indexed.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-02 10:15
+ */
+final class BenchmarkVectors {
+    static final String FIELD = "vector";
+
+    private BenchmarkVectors() {
+    }
+
+    /**
+     * The leaf factory of {@code method}, as created by the script engine without a search lookup.
+     */
+    static VectorLeafFactory factory(String method,int dims,Random random) {
+        Map<String, Object> params = new HashMap<>();
+        params.put("method",method);
+        params.put("field",FIELD);
+        if ("hamming".equals(method)) {
+            StringBuilder value = new StringBuilder();
+            for (int i = 0; i < dims; i++) {
+                value.append(random.nextBoolean() ? '1' : '0');
+            }
+            params.put("value",value.toString());
+        } else {
+            List<Double> value = new ArrayList<>();
+            for (double v : vector(method,dims,random)) {
+                value.add(v);
+            }
+            params.put("value",value);
+        }
+        switch (method) {
+            case "cosine":
+                return (VectorLeafFactory) new CosineScript().getScript(params,null);
+            case "hamming":
+                return (VectorLeafFactory) new HammingScript().getScript(params,null);
+            case "hash-hamming":
+                return (VectorLeafFactory) new HashHammingScript().getScript(params,null);
+            case "norm-l2":
+                return (VectorLeafFactory) new NormL2Script().getScript(params,null);
+            default:
+                throw new IllegalArgumentException("Unknown method " + method);
+        }
+    }
+
+    /**
+     * The payload of one document: plain binary doubles for {@link VectorEncoding#DOUBLE}, the vector field
+     * layout with its norm for the other encodings.
+     */
+    static byte[] payload(String method,VectorEncoding encoding,int dims,Random random) {
+        if ("hamming".equals(method)) {
+            // one char per position, read from a value of 8 bytes per char
+            byte[] chars = new byte[dims * 8];
+            for (int i = 0; i < dims; i++) {
+                chars[i * 2 + 1] = (byte) (random.nextBoolean() ? '1' : '0');
+            }
+            return chars;
+        }
+        double[] vector = vector(method,dims,random);
+        return encoding == VectorEncoding.DOUBLE ? encoding.encode(vector) : encoding.encodeWithNorm(vector);
+    }
+
+    /**
+     * Frames a payload like {@link org.elasticsearch.index.mapper.BinaryFieldMapper.CustomBinaryDocValuesField}.
+     */
+    static BytesRef docValue(byte[] payload) throws IOException {
+        byte[] bytes = new byte[payload.length + 10];
+        ByteArrayDataOutput out = new ByteArrayDataOutput(bytes);
+        out.writeVInt(1);
+        out.writeVInt(payload.length);
+        out.writeBytes(payload,0,payload.length);
+        return new BytesRef(bytes,0,out.getPosition());
+    }
+
+    private static double[] vector(String method,int dims,Random random) {
+        double[] vector = new double[dims];
+        for (int i = 0; i < dims; i++) {
+            // hash-hamming hashes are given one byte per value
+            vector[i] = "hash-hamming".equals(method) ? random.nextInt(256) : random.nextGaussian();
+        }
+        return vector;
+    }
+}
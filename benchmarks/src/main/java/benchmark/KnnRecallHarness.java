@@ -0,0 +1,151 @@
+package benchmark;
+
+import index.HnswIndexService;
+import index.VectorSimilarity;
+import mapper.VectorEncoding;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.RAMDirectory;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.index.mapper.BinaryFieldMapper;
+import query.KnnQuery;
+import script.SimilarityScorer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Recall and latency of the {@code knn} query against the exact brute-force scan, for a range of
+ * {@code ef_search} values, on one segment of random vectors.
+ * <pre>
+ * java -cp target/benchmarks.jar benchmark.KnnRecallHarness [docs] [dims] [queries] [k]
+ * </pre>
+ * The exact results come from the same query with {@code ef_search} at least the number of documents,
+ * which scans the segment with the script scorers.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-06 17:40
+ */
+public final class KnnRecallHarness {
+    private static final int[] EF_SEARCH = {10,20,50,100,200,400};
+
+    public static void main(String[] args) throws IOException {
+        final int docs = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        final int dims = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        final int queries = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+        final int k = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+        final Random random = new Random(0);
+        try (RAMDirectory directory = new RAMDirectory()) {
+            try (IndexWriter writer = new IndexWriter(directory,new IndexWriterConfig())) {
+                for (int i = 0; i < docs; i++) {
+                    Document document = new Document();
+                    document.add(new BinaryFieldMapper.CustomBinaryDocValuesField(BenchmarkVectors.FIELD,
+                            VectorEncoding.DOUBLE.encode(gaussian(dims,random))));
+                    writer.addDocument(document);
+                }
+                writer.forceMerge(1);
+            }
+            final double[][] queryVectors = new double[queries][];
+            for (int i = 0; i < queries; i++) {
+                queryVectors[i] = gaussian(dims,random);
+            }
+            try (DirectoryReader reader = DirectoryReader.open(directory)) {
+                final IndexSearcher searcher = new IndexSearcher(reader);
+                for (VectorSimilarity similarity : VectorSimilarity.values()) {
+                    run(searcher,similarity,queryVectors,k,docs);
+                }
+            }
+        }
+    }
+
+    private static void run(IndexSearcher searcher,VectorSimilarity similarity,double[][] queryVectors,int k,int docs)
+            throws IOException {
+        final HnswIndexService service = new HnswIndexService(new ByteSizeValue(4,ByteSizeUnit.GB),16,100);
+        final List<Set<Integer>> expected = new ArrayList<>();
+        final long[] exactNanos = new long[queryVectors.length];
+        for (int i = 0; i < queryVectors.length; i++) {
+            final long start = System.nanoTime();
+            final TopDocs topDocs = searcher.search(query(similarity,queryVectors[i],k,docs,false,service),k);
+            exactNanos[i] = System.nanoTime() - start;
+            expected.add(docIds(topDocs));
+        }
+        System.out.printf("%s: %d docs, exact scan mean %.2fms p99 %.2fms%n",similarity,docs,
+                mean(exactNanos),percentile(exactNanos,0.99));
+
+        final long buildStart = System.nanoTime();
+        searcher.search(query(similarity,queryVectors[0],k,EF_SEARCH[0],false,service),k);
+        System.out.printf("  graph built in %dms, %s%n",(System.nanoTime() - buildStart) / 1000000,
+                new ByteSizeValue(service.cache().ramBytesUsed()));
+
+        for (boolean rescore : new boolean[]{false,true}) {
+            for (int ef : EF_SEARCH) {
+                final long[] nanos = new long[queryVectors.length];
+                int found = 0;
+                for (int i = 0; i < queryVectors.length; i++) {
+                    final long start = System.nanoTime();
+                    final TopDocs topDocs = searcher.search(query(similarity,queryVectors[i],k,ef,rescore,service),k);
+                    nanos[i] = System.nanoTime() - start;
+                    for (int doc : docIds(topDocs)) {
+                        if (expected.get(i).contains(doc)) {
+                            found++;
+                        }
+                    }
+                }
+                System.out.printf("  ef_search %4d%s: recall@%d %.3f, mean %.3fms p99 %.3fms%n",ef,
+                        rescore ? " rescore" : "        ",k,found / (double) (k * queryVectors.length),
+                        mean(nanos),percentile(nanos,0.99));
+            }
+        }
+    }
+
+    private static KnnQuery query(VectorSimilarity similarity,double[] vector,int k,int ef,boolean rescore,
+                                  HnswIndexService service) {
+        final SimilarityScorer exact = SimilarityScorer.of("benchmark",BenchmarkVectors.FIELD,null,vector,similarity);
+        return new KnnQuery(BenchmarkVectors.FIELD,vector,k,ef,similarity,rescore,exact,service);
+    }
+
+    private static Set<Integer> docIds(TopDocs topDocs) {
+        final Set<Integer> docs = new HashSet<>();
+        for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
+            docs.add(scoreDoc.doc);
+        }
+        return docs;
+    }
+
+    /**
+     * Scaled so that distances stay under 1, beyond it every {@code norm-l2} score is 0.
+     */
+    private static double[] gaussian(int dims,Random random) {
+        final double[] vector = new double[dims];
+        final double scale = 0.5d / Math.sqrt(dims);
+        for (int i = 0; i < dims; i++) {
+            vector[i] = random.nextGaussian() * scale;
+        }
+        return vector;
+    }
+
+    private static double mean(long[] nanos) {
+        long sum = 0;
+        for (long n : nanos) {
+            sum += n;
+        }
+        return sum / (double) nanos.length / 1000000d;
+    }
+
+    private static double percentile(long[] nanos,double p) {
+        final long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        return sorted[Math.min(sorted.length - 1,(int) (p * sorted.length))] / 1000000d;
+    }
+}
@@ -0,0 +1,103 @@
+package benchmark;
+
+import mapper.VectorEncoding;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.store.RAMDirectory;
+import org.elasticsearch.index.mapper.BinaryFieldMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import script.DocVectorValues;
+import script.VectorLeafFactory;
+import script.VectorScorer;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full scan of every leaf of an in-memory index, going through the binary doc values the way a
+ * {@code script_score} query does. One operation is one document, run with {@code -prof gc} to get the
+ * bytes allocated per document.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-02 11:05
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5,time = 1)
+@Measurement(iterations = 5,time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LeafScanBenchmark {
+    private static final int DOCS = 20000;
+
+    @Param({"cosine","hamming","hash-hamming","norm-l2"})
+    public String method;
+
+    @Param({"64","256","1024","2048"})
+    public int dims;
+
+    @Param({"double","float","int8"})
+    public String encoding;
+
+    private RAMDirectory directory;
+    private DirectoryReader reader;
+    private VectorLeafFactory factory;
+    private VectorEncoding vectorEncoding;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        Random random = new Random(0);
+        vectorEncoding = VectorEncoding.fromString(encoding);
+        factory = BenchmarkVectors.factory(method,dims,random);
+        directory = new RAMDirectory();
+        try (IndexWriter writer = new IndexWriter(directory,new IndexWriterConfig())) {
+            for (int i = 0; i < DOCS; i++) {
+                Document document = new Document();
+                document.add(new BinaryFieldMapper.CustomBinaryDocValuesField(BenchmarkVectors.FIELD,
+                        BenchmarkVectors.payload(method,vectorEncoding,dims,random)));
+                writer.addDocument(document);
+            }
+        }
+        reader = DirectoryReader.open(directory);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        reader.close();
+        directory.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DOCS)
+    public void scan(Blackhole blackhole) throws IOException {
+        for (LeafReaderContext context : reader.leaves()) {
+            DocVectorValues docVector = new DocVectorValues(context.reader().getBinaryDocValues(BenchmarkVectors.FIELD),
+                    vectorEncoding,vectorEncoding != VectorEncoding.DOUBLE);
+            VectorScorer scorer = factory.newScorer();
+            int maxDoc = context.reader().maxDoc();
+            for (int doc = 0; doc < maxDoc; doc++) {
+                if (docVector.advanceExact(doc)) {
+                    blackhole.consume(scorer.score(docVector));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package benchmark;
+
+import mapper.VectorEncoding;
+import org.apache.lucene.util.BytesRef;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import script.DocVectorValues;
+import script.VectorKernel;
+import script.VectorScorer;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-document cost of the scorers on doc values already in memory: decoding and distance, no I/O.
+ * One operation is one document, run with {@code -prof gc} to get the bytes allocated per document.
+ * The kernels are compared in the same run, one fork each.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-02 10:40
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5,time = 1)
+@Measurement(iterations = 5,time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ScoringBenchmark {
+    private static final int DOCS = 1024;
+
+    @Param({"cosine","hamming","hash-hamming","norm-l2"})
+    public String method;
+
+    @Param({"64","128","256","512","1024","2048"})
+    public int dims;
+
+    @Param({"double","float","int8"})
+    public String encoding;
+
+    @Param({"scalar","unrolled"})
+    public String kernel;
+
+    private BytesRef[] docs;
+    private DocVectorValues docVector;
+    private VectorScorer scorer;
+
+    @Setup
+    public void setup() throws IOException {
+        VectorKernel.select(kernel);
+        Random random = new Random(0);
+        VectorEncoding vectorEncoding = VectorEncoding.fromString(encoding);
+        scorer = BenchmarkVectors.factory(method,dims,random).newScorer();
+        docVector = new DocVectorValues(null,vectorEncoding,vectorEncoding != VectorEncoding.DOUBLE);
+        docs = new BytesRef[DOCS];
+        for (int i = 0; i < DOCS; i++) {
+            docs[i] = BenchmarkVectors.docValue(BenchmarkVectors.payload(method,vectorEncoding,dims,random));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DOCS)
+    public void score(Blackhole blackhole) {
+        for (BytesRef doc : docs) {
+            docVector.reset(doc);
+            blackhole.consume(scorer.score(docVector));
+        }
+    }
+}
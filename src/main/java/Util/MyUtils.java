@@ -16,6 +16,44 @@ public class MyUtils {
         return sb.toString();
     }
 
+    /**
+     * Packs the low byte of every value into longs, eight values per word, so that
+     * {@link #hammingDistance(long[],long[])} gives the same bit count as comparing
+     * the strings of {@link #doubleToBinaryString(double...)}.
+     */
+    public static long[] packHash(double... doubles) {
+        long[] words = new long[(doubles.length + 7) >>> 3];
+        for (int i = 0; i < doubles.length; i++) {
+            words[i >>> 3] |= ((long) ((byte) doubles[i] & 0xFF)) << ((i & 7) << 3);
+        }
+        return words;
+    }
+
+    public static int hammingDistance(long[] a,long[] b) {
+        int distance = 0;
+        for (int i = 0; i < a.length; i++) {
+            distance += Long.bitCount(a[i] ^ b[i]);
+        }
+        return distance;
+    }
+
+    /**
+     * Scales the vector in place to unit L2 norm, the zero vector is left as is.
+     */
+    public static void normalize(double[] vector) {
+        double norm = 0d;
+        for (double v : vector) {
+            norm += v * v;
+        }
+        if (norm == 0d) {
+            return;
+        }
+        norm = Math.sqrt(norm);
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] /= norm;
+        }
+    }
+
     public static void main(String[] args){
         String s=doubleToBinaryString(new double[]{125.0,4.0});
         System.out.println(s);
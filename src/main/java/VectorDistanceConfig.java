@@ -1,3 +1,9 @@
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import script.PreparedQuery;
+import script.VectorKernel;
+
 /**
  * @author yshhuang@foxmail.com
  * @date 2019-08-22 15:34
@@ -5,4 +11,34 @@
 public class VectorDistanceConfig {
     public static final String ENGINE_TYPE = "vector-distance";
     public static final String SCRIPT_SOURCE="yshhuang";
+
+    //maximum heap used by the cached HNSW graphs, least recently used graphs are evicted beyond it
+    public static final Setting<ByteSizeValue> HNSW_CACHE_SIZE =
+            Setting.memorySizeSetting("vector_distance.hnsw.cache_size","10%",Setting.Property.NodeScope);
+    //number of neighbours per node of the HNSW graphs, twice as many on the bottom level
+    public static final Setting<Integer> HNSW_M =
+            Setting.intSetting("vector_distance.hnsw.m",16,2,Setting.Property.NodeScope);
+    //number of candidates tracked while building the HNSW graphs
+    public static final Setting<Integer> HNSW_EF_CONSTRUCTION =
+            Setting.intSetting("vector_distance.hnsw.ef_construction",100,1,Setting.Property.NodeScope);
+    //maximum heap used by the cached bitsets of the knn query filters
+    public static final Setting<ByteSizeValue> FILTER_CACHE_SIZE =
+            Setting.memorySizeSetting("vector_distance.filter_cache.size","2%",Setting.Property.NodeScope);
+    //maximum heap used by the cached top hits of the knn and exact_knn queries, 0 disables them
+    public static final Setting<ByteSizeValue> RESULT_CACHE_SIZE =
+            Setting.memorySizeSetting("vector_distance.result_cache.size","1%",Setting.Property.NodeScope);
+    //off-heap memory used by the cached vector columns of float and int8 fields, 0 disables them
+    public static final Setting<ByteSizeValue> COLUMN_CACHE_SIZE =
+            Setting.byteSizeSetting("vector_distance.column_cache.size",new ByteSizeValue(0),Setting.Property.NodeScope);
+    //segments whose column would be larger are read from the doc values, a column is indexed by int
+    public static final Setting<ByteSizeValue> COLUMN_CACHE_MAX_COLUMN_SIZE =
+            Setting.byteSizeSetting("vector_distance.column_cache.max_column_size",new ByteSizeValue(1,ByteSizeUnit.GB),
+                    new ByteSizeValue(0),new ByteSizeValue(Integer.MAX_VALUE),Setting.Property.NodeScope);
+    //heap used by the prepared query vectors kept across requests, 0 disables the cache, see script.PreparedQuery
+    public static final Setting<ByteSizeValue> QUERY_CACHE_SIZE =
+            Setting.byteSizeSetting("vector_distance.query_cache.size",PreparedQuery.DEFAULT_CACHE_SIZE,
+                    Setting.Property.NodeScope);
+    //distance kernels, one of auto, scalar or unrolled, see script.VectorKernel
+    public static final Setting<String> KERNEL =
+            Setting.simpleString("vector_distance.kernel",VectorKernel.AUTO,Setting.Property.NodeScope);
 }
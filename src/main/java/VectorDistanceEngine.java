@@ -1,20 +1,14 @@
-import org.apache.lucene.index.BinaryDocValues;
-import org.apache.lucene.index.LeafReaderContext;
-import org.apache.lucene.index.PostingsEnum;
-import org.apache.lucene.index.Term;
-import org.apache.lucene.store.ByteArrayDataInput;
+import index.VectorColumnCache;
 import org.elasticsearch.script.ScoreScript;
 import org.elasticsearch.script.ScriptContext;
 import org.elasticsearch.script.ScriptEngine;
-import org.elasticsearch.search.lookup.SearchLookup;
+import script.CosineScript;
+import script.HammingScript;
 import script.HashHammingScript;
 import script.NormL2Script;
+import script.SparseVectorScript;
+import script.VectorLeafFactory;
 
-import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.CharBuffer;
-import java.nio.DoubleBuffer;
-import java.util.ArrayList;
 import java.util.Map;
 
 /**
@@ -22,7 +16,11 @@ import java.util.Map;
  * @date 2019-08-26 14:26
  */
 public class VectorDistanceEngine implements ScriptEngine {
+    private final VectorColumnCache columns;
 
+    public VectorDistanceEngine(VectorColumnCache columns) {
+        this.columns = columns;
+    }
 
     /**
      * The language name used in the script APIs to refer to this scripting backend.
@@ -55,13 +53,17 @@ public class VectorDistanceEngine implements ScriptEngine {
             String method = p.get("method").toString();
             switch (method) {
                 case "cosine":
-                    return cosine(p,lookup);
+                    return columns(new CosineScript().getScript(noProbe(p),lookup));
                 case "hamming":
-                    return hamming(p,lookup);
+                    return new HammingScript().getScript(p,lookup);
                 case "hash-hamming":
                     return new HashHammingScript().getScript(p,lookup);
                 case "norm-l2":
-                    return new NormL2Script().getScript(p,lookup);
+                    return columns(new NormL2Script().getScript(noProbe(p),lookup));
+                case "sparse-dot":
+                    return new SparseVectorScript(false).getScript(p,lookup);
+                case "sparse-cosine":
+                    return new SparseVectorScript(true).getScript(p,lookup);
                 default:
                     return null;
             }
@@ -69,185 +71,24 @@ public class VectorDistanceEngine implements ScriptEngine {
         return context.factoryClazz.cast(factory);
     }
 
-    private ScoreScript.LeafFactory hamming(Map<String, Object> p,SearchLookup lookup) {
-        return new ScoreScript.LeafFactory() {
-            // The field to compare against
-            final String field;
-            //The query embedded value
-            final String value;
-
-            {
-                if (p.containsKey("field") == false) {
-                    throw new IllegalArgumentException("Missing parameter [field]");
-                }
-
-                field = p.get("field").toString();
-                value = p.get("value").toString();
-                if (value == null) {
-                    throw new IllegalArgumentException("Must have 'value' as a parameter");
-                }
-            }
-
-            @Override
-            public ScoreScript newInstance(LeafReaderContext context) throws IOException {
-                return new ScoreScript(p,lookup,context) {
-                    Boolean is_value = false;
-                    // Use Lucene LeafReadContext to access binary values directly.
-                    BinaryDocValues accessor = context.reader().getBinaryDocValues(field);
-
-                    @Override
-                    public void setDocument(int docId) {
-                        try {
-                            accessor.advanceExact(docId);
-                            is_value = true;
-                        } catch (Exception e) {
-                            e.printStackTrace();
-                            is_value = false;
-                        }
-                    }
-
-                    @Override
-                    public double execute() {
-                        //If there is no field value return 0 rather than fail.
-                        if (!is_value) return 0.0d;
-
-                        final int inputStringLength = value.length();
-                        final byte[] bytes;
-                        try {
-                            bytes = accessor.binaryValue().bytes;
-                        } catch (IOException e) {
-                            return 0d;
-                        }
-                        final ByteArrayDataInput docString = new ByteArrayDataInput(bytes);
-                        docString.readVInt();
-                        final int docStringLength = docString.readVInt(); // returns the number of bytes to read
-                        if (docStringLength != inputStringLength * 8) {
-                            return 0d;
-                        }
-                        final int position = docString.getPosition();
-                        final CharBuffer charBuffer =
-                                ByteBuffer.wrap(bytes,position,docStringLength).asCharBuffer();
-
-                        final char[] chars = new char[inputStringLength];
-                        charBuffer.get(chars);
-                        int counter = 0;
-                        for (int k = 0; k < value.length(); k++) {
-                            if (value.charAt(k) != chars[k]) {
-                                counter++;
-                            }
-                        }
-                        return 1 - 1.0 * counter / value.length();
-                    }
-                };
-            }
-
-            @Override
-            public boolean needs_score() {
-                return false;
-            }
-        };
+    /**
+     * Reads the vectors from the cached columns when they are enabled.
+     */
+    private ScoreScript.LeafFactory columns(ScoreScript.LeafFactory factory) {
+        ((VectorLeafFactory) factory).columns(columns);
+        return factory;
     }
 
-    public ScoreScript.LeafFactory cosine(Map<String, Object> p,SearchLookup lookup) {
-        return new ScoreScript.LeafFactory() {
-            //The normalized vector score from the query
-            double queryVectorNorm;
-            // The field to compare against
-            final String field;
-            //The query embedded value
-            final Object value;
-            //The final comma delimited value representation of the query value
-            double[] inputVector;
-
-            {
-                if (p.containsKey("field") == false) {
-                    throw new IllegalArgumentException("Missing parameter [field]");
-                }
-                field = p.get("field").toString();
-                value = p.get("value");
-
-                //Determine if raw comma-delimited value or embedding was passed
-                if (value != null) {
-                    final ArrayList<Double> tmp = (ArrayList<Double>) value;
-                    inputVector = new double[tmp.size()];
-                    for (int i = 0; i < inputVector.length; i++) {
-                        inputVector[i] = tmp.get(i);
-                    }
-                } else {
-                    throw new IllegalArgumentException("Must have 'value' as a parameter");
-                }
-
-                queryVectorNorm = 0d;
-                // compute query inputVector norm once
-                for (double v : inputVector) {
-                    queryVectorNorm += Math.pow(v,2.0);
-                }
-            }
-
-            @Override
-            public ScoreScript newInstance(LeafReaderContext context) throws IOException {
-                return new ScoreScript(p,lookup,context) {
-                    Boolean is_value = false;
-                    // Use Lucene LeafReadContext to access binary values directly.
-                    BinaryDocValues accessor = context.reader().getBinaryDocValues(field);
-
-                    @Override
-                    public void setDocument(int docId) {
-                        try {
-                            accessor.advanceExact(docId);
-                            is_value = true;
-                        } catch (Exception e) {
-                            e.printStackTrace();
-                            is_value = false;
-                        }
-                    }
-
-                    @Override
-                    public double execute() {
-                        //If there is no field value return 0 rather than fail.
-                        if (!is_value) return 0.0d;
-
-                        final int inputVectorSize = inputVector.length;
-                        final byte[] bytes;
-                        try {
-                            bytes = accessor.binaryValue().bytes;
-                        } catch (IOException e) {
-                            return 0d;
-                        }
-                        final ByteArrayDataInput docVector = new ByteArrayDataInput(bytes);
-
-                        docVector.readVInt();
-
-                        final int docVectorLength = docVector.readVInt(); // returns the number of bytes to read
-                        if (docVectorLength != inputVectorSize * 8) {
-                            return 0d;
-                        }
-                        final int position = docVector.getPosition();
-                        final DoubleBuffer doubleBuffer =
-                                ByteBuffer.wrap(bytes,position,docVectorLength).asDoubleBuffer();
-
-                        final double[] doubles = new double[inputVectorSize];
-                        doubleBuffer.get(doubles);
-                        double docVectorNorm = 0d;
-                        double score = 0d;
-
-                        //calculate dot product of document value and query value
-                        for (int i = 0; i < inputVectorSize; i++) {
-                            score += doubles[i] * inputVector[i];
-                            docVectorNorm += Math.pow(doubles[i],2.0);
-                        }
-                        if (docVectorNorm == 0 || queryVectorNorm == 0) return 0d;
-                        score = score / (Math.sqrt(docVectorNorm) * Math.sqrt(queryVectorNorm));
-                        return score;
-                    }
-                };
-            }
-
-            @Override
-            public boolean needs_score() {
-                return false;
-            }
-        };
+    /**
+     * Rejects 'nprobe': a score script can't drop the documents outside the probed partitions, they would still
+     * match with a score of 0. Partitions are only probed with the {@code vector_partitions} query.
+     */
+    private static Map<String, Object> noProbe(Map<String, Object> p) {
+        if (p.containsKey("nprobe")) {
+            throw new IllegalArgumentException("[nprobe] is not a script parameter, use the [vector_partitions] query "
+                    + "of the function_score to only score the closest partitions");
+        }
+        return p;
     }
 
     @Override
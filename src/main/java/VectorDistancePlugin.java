@@ -1,18 +1,217 @@
+import action.NearDuplicatesAction;
+import action.NearDuplicatesTask;
+import action.TransportNearDuplicatesAction;
+import action.TransportVectorBatchSearchAction;
+import action.TransportVectorStatsAction;
+import action.VectorBatchSearchAction;
+import action.VectorStatsAction;
+import index.CodebookService;
+import index.FilterBitsetCache;
+import index.HnswIndexService;
+import index.VectorColumnCache;
+import ingest.HashSubstringsProcessor;
+import ingest.SparseVectorEncodeProcessor;
+import ingest.VectorEncodeProcessor;
+import ingest.VectorPartitionProcessor;
+import mapper.VectorFieldMapper;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
+import org.elasticsearch.cluster.node.DiscoveryNodes;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.io.stream.NamedWriteableRegistry;
+import org.elasticsearch.common.settings.ClusterSettings;
+import org.elasticsearch.common.settings.IndexScopedSettings;
+import org.elasticsearch.common.settings.Setting;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.settings.SettingsFilter;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.env.Environment;
+import org.elasticsearch.env.NodeEnvironment;
+import org.elasticsearch.index.Index;
+import org.elasticsearch.index.IndexModule;
+import org.elasticsearch.index.IndexService;
+import org.elasticsearch.index.IndexSettings;
+import org.elasticsearch.index.mapper.Mapper;
+import org.elasticsearch.index.shard.IndexEventListener;
+import org.elasticsearch.indices.cluster.IndicesClusterStateService.AllocatedIndices.IndexRemovalReason;
+import org.elasticsearch.ingest.Processor;
+import org.elasticsearch.plugins.ActionPlugin;
+import org.elasticsearch.plugins.IngestPlugin;
+import org.elasticsearch.plugins.MapperPlugin;
 import org.elasticsearch.plugins.Plugin;
 import org.elasticsearch.plugins.ScriptPlugin;
+import org.elasticsearch.plugins.SearchPlugin;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestHandler;
 import org.elasticsearch.script.ScriptContext;
 import org.elasticsearch.script.ScriptEngine;
+import org.elasticsearch.script.ScriptService;
+import org.elasticsearch.tasks.Task;
+import org.elasticsearch.threadpool.ExecutorBuilder;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.watcher.ResourceWatcherService;
+import query.ExactKnnQueryBuilder;
+import query.HammingRadiusQueryBuilder;
+import query.KnnQueryBuilder;
+import query.SegmentSearchExecutor;
+import query.TopHitsCache;
+import query.VectorPartitionsQueryBuilder;
+import query.VectorRescorerBuilder;
+import rest.RestNearDuplicatesAction;
+import rest.RestTrainCodebookAction;
+import rest.RestVectorBatchSearchAction;
+import rest.RestVectorStatsAction;
+import script.PreparedQuery;
+import script.ScoringStats;
+import script.VectorKernel;
 
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
 
 /**
  * @author yshhuang@foxmail.com
  * @date 2019-08-22 15:29
  */
-public class VectorDistancePlugin extends Plugin implements ScriptPlugin {
+public class VectorDistancePlugin extends Plugin implements ScriptPlugin, MapperPlugin, IngestPlugin, SearchPlugin,
+        ActionPlugin {
+    private final HnswIndexService hnswIndexService;
+    private final CodebookService codebookService;
+    private final VectorColumnCache columnCache;
+    private final FilterBitsetCache filterCache;
+    private final TopHitsCache resultCache;
+    private final SegmentSearchExecutor segmentSearchExecutor = new SegmentSearchExecutor();
+
+    public VectorDistancePlugin(Settings settings,Path configPath) {
+        this.hnswIndexService = new HnswIndexService(VectorDistanceConfig.HNSW_CACHE_SIZE.get(settings),
+                VectorDistanceConfig.HNSW_M.get(settings),VectorDistanceConfig.HNSW_EF_CONSTRUCTION.get(settings));
+        this.codebookService = new CodebookService(configPath);
+        this.columnCache = new VectorColumnCache(VectorDistanceConfig.COLUMN_CACHE_SIZE.get(settings),
+                VectorDistanceConfig.COLUMN_CACHE_MAX_COLUMN_SIZE.get(settings));
+        this.filterCache = new FilterBitsetCache(VectorDistanceConfig.FILTER_CACHE_SIZE.get(settings));
+        this.resultCache = new TopHitsCache(VectorDistanceConfig.RESULT_CACHE_SIZE.get(settings));
+        VectorKernel.select(VectorDistanceConfig.KERNEL.get(settings));
+        PreparedQuery.cacheSize(VectorDistanceConfig.QUERY_CACHE_SIZE.get(settings));
+    }
+
+    @Override
+    public List<Setting<?>> getSettings() {
+        return Arrays.asList(VectorDistanceConfig.HNSW_CACHE_SIZE,VectorDistanceConfig.HNSW_M,
+                VectorDistanceConfig.HNSW_EF_CONSTRUCTION,VectorDistanceConfig.COLUMN_CACHE_SIZE,
+                VectorDistanceConfig.COLUMN_CACHE_MAX_COLUMN_SIZE,VectorDistanceConfig.KERNEL,
+                VectorDistanceConfig.QUERY_CACHE_SIZE,VectorDistanceConfig.FILTER_CACHE_SIZE,
+                VectorDistanceConfig.RESULT_CACHE_SIZE);
+    }
+
+    @Override
+    public List<ExecutorBuilder<?>> getExecutorBuilders(Settings settings) {
+        return Collections.singletonList(SegmentSearchExecutor.executorBuilder(settings));
+    }
+
+    @Override
+    public Collection<Object> createComponents(Client client,ClusterService clusterService,ThreadPool threadPool,
+                                               ResourceWatcherService resourceWatcherService,ScriptService scriptService,
+                                               NamedXContentRegistry xContentRegistry,Environment environment,
+                                               NodeEnvironment nodeEnvironment,
+                                               NamedWriteableRegistry namedWriteableRegistry) {
+        segmentSearchExecutor.setThreadPool(threadPool);
+        // injected in the stats action
+        return Arrays.asList(hnswIndexService,columnCache,filterCache,resultCache);
+    }
+
+    @Override
+    public void onIndexModule(IndexModule indexModule) {
+        indexModule.addSearchOperationListener(segmentSearchExecutor.searchOperationListener());
+        indexModule.addSearchOperationListener(ScoringStats.searchOperationListener());
+        // plugins only get to the circuit breakers of the node through the services of its indices
+        indexModule.addIndexEventListener(new IndexEventListener() {
+            @Override
+            public void afterIndexCreated(IndexService indexService) {
+                hnswIndexService.setBreakerService(indexService.getBigArrays().breakerService());
+                resultCache.setBreakerService(indexService.getBigArrays().breakerService());
+                columnCache.setBreakerService(indexService.getBigArrays().breakerService());
+            }
+
+            @Override
+            public void afterIndexRemoved(Index index,IndexSettings indexSettings,IndexRemovalReason reason) {
+                ScoringStats.remove(index.getName());
+            }
+        });
+    }
+
     @Override
     public ScriptEngine getScriptEngine(Settings settings,Collection<ScriptContext<?>> contexts) {
-        return new VectorDistanceEngine();
+        return new VectorDistanceEngine(columnCache);
+    }
+
+    @Override
+    public Map<String, Mapper.TypeParser> getMappers() {
+        return Collections.singletonMap(VectorFieldMapper.CONTENT_TYPE,new VectorFieldMapper.TypeParser(codebookService));
+    }
+
+    @Override
+    public Map<String, Processor.Factory> getProcessors(Processor.Parameters parameters) {
+        Map<String, Processor.Factory> processors = new HashMap<>();
+        processors.put(VectorEncodeProcessor.TYPE,new VectorEncodeProcessor.Factory(codebookService));
+        processors.put(VectorPartitionProcessor.TYPE,new VectorPartitionProcessor.Factory(codebookService));
+        processors.put(HashSubstringsProcessor.TYPE,new HashSubstringsProcessor.Factory());
+        processors.put(SparseVectorEncodeProcessor.TYPE,new SparseVectorEncodeProcessor.Factory());
+        return processors;
+    }
+
+    @Override
+    public List<QuerySpec<?>> getQueries() {
+        return Arrays.asList(
+                new QuerySpec<>(KnnQueryBuilder.NAME,
+                        in -> new KnnQueryBuilder(in,hnswIndexService,filterCache,resultCache),
+                        parser -> KnnQueryBuilder.fromXContent(parser,hnswIndexService,filterCache,resultCache)),
+                new QuerySpec<>(ExactKnnQueryBuilder.NAME,
+                        in -> new ExactKnnQueryBuilder(in,columnCache,segmentSearchExecutor,resultCache),
+                        parser -> ExactKnnQueryBuilder.fromXContent(parser,columnCache,segmentSearchExecutor,
+                                resultCache)),
+                new QuerySpec<>(VectorPartitionsQueryBuilder.NAME,
+                        in -> new VectorPartitionsQueryBuilder(in,codebookService),
+                        parser -> VectorPartitionsQueryBuilder.fromXContent(parser,codebookService)),
+                new QuerySpec<>(HammingRadiusQueryBuilder.NAME,HammingRadiusQueryBuilder::new,
+                        HammingRadiusQueryBuilder::fromXContent));
+    }
+
+    @Override
+    public List<RescorerSpec<?>> getRescorers() {
+        return Collections.singletonList(new RescorerSpec<>(VectorRescorerBuilder.NAME,VectorRescorerBuilder::new,
+                VectorRescorerBuilder::fromXContent));
+    }
+
+    @Override
+    public List<NamedWriteableRegistry.Entry> getNamedWriteables() {
+        // the status of a near duplicates task, read by the tasks API on other nodes
+        return Collections.singletonList(new NamedWriteableRegistry.Entry(Task.Status.class,
+                NearDuplicatesTask.Status.NAME,NearDuplicatesTask.Status::new));
+    }
+
+    @Override
+    public List<ActionHandler<? extends ActionRequest, ? extends ActionResponse>> getActions() {
+        return Arrays.asList(
+                new ActionHandler<>(VectorBatchSearchAction.INSTANCE,TransportVectorBatchSearchAction.class),
+                new ActionHandler<>(VectorStatsAction.INSTANCE,TransportVectorStatsAction.class),
+                new ActionHandler<>(NearDuplicatesAction.INSTANCE,TransportNearDuplicatesAction.class));
+    }
+
+    @Override
+    public List<RestHandler> getRestHandlers(Settings settings,RestController restController,ClusterSettings clusterSettings,
+                                             IndexScopedSettings indexScopedSettings,SettingsFilter settingsFilter,
+                                             IndexNameExpressionResolver indexNameExpressionResolver,
+                                             Supplier<DiscoveryNodes> nodesInCluster) {
+        return Arrays.asList(new RestTrainCodebookAction(settings,restController),
+                new RestVectorBatchSearchAction(settings,restController),
+                new RestVectorStatsAction(settings,restController),
+                new RestNearDuplicatesAction(settings,restController));
     }
 }
@@ -0,0 +1,30 @@
+package action;
+
+import org.elasticsearch.action.Action;
+import org.elasticsearch.client.ElasticsearchClient;
+
+/**
+ * Finds the pairs of near duplicate vectors within every shard of the requested indices.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-18 11:00
+ */
+public class NearDuplicatesAction extends Action<NearDuplicatesRequest, NearDuplicatesResponse,
+        NearDuplicatesRequestBuilder> {
+    public static final NearDuplicatesAction INSTANCE = new NearDuplicatesAction();
+    public static final String NAME = "indices:data/read/vector/near_duplicates";
+
+    private NearDuplicatesAction() {
+        super(NAME);
+    }
+
+    @Override
+    public NearDuplicatesRequestBuilder newRequestBuilder(ElasticsearchClient client) {
+        return new NearDuplicatesRequestBuilder(client,this);
+    }
+
+    @Override
+    public NearDuplicatesResponse newResponse() {
+        return new NearDuplicatesResponse();
+    }
+}
@@ -0,0 +1,208 @@
+package action;
+
+import index.NearDuplicateJoin;
+import org.elasticsearch.action.ActionRequestValidationException;
+import org.elasticsearch.action.support.broadcast.BroadcastRequest;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.tasks.Task;
+import org.elasticsearch.tasks.TaskId;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+
+import static org.elasticsearch.action.ValidateActions.addValidationError;
+
+/**
+ * The pairs of documents of a same shard whose vectors of {@code field} score at least {@code threshold}
+ * with {@code method}, see {@link NearDuplicateJoin}.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-18 11:00
+ */
+public class NearDuplicatesRequest extends BroadcastRequest<NearDuplicatesRequest> {
+    public static final int DEFAULT_TABLES = 4;
+    public static final int DEFAULT_BITS = 16;
+    public static final int DEFAULT_MAX_PAIRS = 10000;
+    public static final int DEFAULT_MAX_BUCKET_SIZE = 1000;
+    public static final ByteSizeValue DEFAULT_MEMORY_LIMIT = new ByteSizeValue(64,ByteSizeUnit.MB);
+
+    private String field;
+    private String method = "cosine";
+    private double threshold = 0.95;
+    private int tables = DEFAULT_TABLES;
+    private int bits = DEFAULT_BITS;
+    private int maxPairs = DEFAULT_MAX_PAIRS;
+    private int maxBucketSize = DEFAULT_MAX_BUCKET_SIZE;
+    private ByteSizeValue memoryLimit = DEFAULT_MEMORY_LIMIT;
+    private long seed = 0L;
+    // only on the coordinating node, set when the response is read from the tasks API
+    private boolean shouldStoreResult;
+
+    public NearDuplicatesRequest() {
+    }
+
+    public NearDuplicatesRequest(String... indices) {
+        super(indices);
+    }
+
+    public String field() {
+        return field;
+    }
+
+    public NearDuplicatesRequest field(String field) {
+        this.field = field;
+        return this;
+    }
+
+    public String method() {
+        return method;
+    }
+
+    public NearDuplicatesRequest method(String method) {
+        this.method = Objects.requireNonNull(method);
+        return this;
+    }
+
+    public double threshold() {
+        return threshold;
+    }
+
+    public NearDuplicatesRequest threshold(double threshold) {
+        this.threshold = threshold;
+        return this;
+    }
+
+    public int tables() {
+        return tables;
+    }
+
+    public NearDuplicatesRequest tables(int tables) {
+        this.tables = tables;
+        return this;
+    }
+
+    public int bits() {
+        return bits;
+    }
+
+    public NearDuplicatesRequest bits(int bits) {
+        this.bits = bits;
+        return this;
+    }
+
+    public int maxPairs() {
+        return maxPairs;
+    }
+
+    public NearDuplicatesRequest maxPairs(int maxPairs) {
+        this.maxPairs = maxPairs;
+        return this;
+    }
+
+    public int maxBucketSize() {
+        return maxBucketSize;
+    }
+
+    public NearDuplicatesRequest maxBucketSize(int maxBucketSize) {
+        this.maxBucketSize = maxBucketSize;
+        return this;
+    }
+
+    public ByteSizeValue memoryLimit() {
+        return memoryLimit;
+    }
+
+    public NearDuplicatesRequest memoryLimit(ByteSizeValue memoryLimit) {
+        this.memoryLimit = Objects.requireNonNull(memoryLimit);
+        return this;
+    }
+
+    public long seed() {
+        return seed;
+    }
+
+    public NearDuplicatesRequest seed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    public NearDuplicatesRequest setShouldStoreResult(boolean shouldStoreResult) {
+        this.shouldStoreResult = shouldStoreResult;
+        return this;
+    }
+
+    @Override
+    public boolean getShouldStoreResult() {
+        return shouldStoreResult;
+    }
+
+    @Override
+    public ActionRequestValidationException validate() {
+        ActionRequestValidationException validationException = super.validate();
+        if (field == null) {
+            validationException = addValidationError("[field] is missing",validationException);
+        }
+        if (Arrays.asList("cosine","norm-l2","hash-hamming").contains(method) == false) {
+            validationException = addValidationError("[method] must be one of [cosine], [norm-l2] or [hash-hamming]",
+                    validationException);
+        }
+        if (tables <= 0) {
+            validationException = addValidationError("[tables] must be positive",validationException);
+        }
+        if (bits <= 0 || bits > NearDuplicateJoin.MAX_BITS) {
+            validationException = addValidationError("[bits] must be between 1 and " + NearDuplicateJoin.MAX_BITS,
+                    validationException);
+        }
+        if (maxPairs <= 0) {
+            validationException = addValidationError("[max_pairs] must be positive",validationException);
+        }
+        if (maxBucketSize < 2) {
+            validationException = addValidationError("[max_bucket_size] must be at least 2",validationException);
+        }
+        return validationException;
+    }
+
+    @Override
+    public Task createTask(long id,String type,String action,TaskId parentTaskId,Map<String, String> headers) {
+        return new NearDuplicatesTask(id,type,action,getDescription(),parentTaskId,headers);
+    }
+
+    @Override
+    public String getDescription() {
+        return "near duplicates of " + Arrays.toString(indices()) + " field [" + field + "] method [" + method
+                + "] threshold [" + threshold + "]";
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        field = in.readString();
+        method = in.readString();
+        threshold = in.readDouble();
+        tables = in.readVInt();
+        bits = in.readVInt();
+        maxPairs = in.readVInt();
+        maxBucketSize = in.readVInt();
+        memoryLimit = new ByteSizeValue(in);
+        seed = in.readLong();
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeString(field);
+        out.writeString(method);
+        out.writeDouble(threshold);
+        out.writeVInt(tables);
+        out.writeVInt(bits);
+        out.writeVInt(maxPairs);
+        out.writeVInt(maxBucketSize);
+        memoryLimit.writeTo(out);
+        out.writeLong(seed);
+    }
+}
@@ -0,0 +1,62 @@
+package action;
+
+import org.elasticsearch.action.ActionRequestBuilder;
+import org.elasticsearch.client.ElasticsearchClient;
+import org.elasticsearch.common.unit.ByteSizeValue;
+
+/**
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-18 11:05
+ */
+public class NearDuplicatesRequestBuilder extends ActionRequestBuilder<NearDuplicatesRequest, NearDuplicatesResponse,
+        NearDuplicatesRequestBuilder> {
+
+    public NearDuplicatesRequestBuilder(ElasticsearchClient client,NearDuplicatesAction action) {
+        super(client,action,new NearDuplicatesRequest());
+    }
+
+    public NearDuplicatesRequestBuilder setField(String field) {
+        request.field(field);
+        return this;
+    }
+
+    public NearDuplicatesRequestBuilder setMethod(String method) {
+        request.method(method);
+        return this;
+    }
+
+    public NearDuplicatesRequestBuilder setThreshold(double threshold) {
+        request.threshold(threshold);
+        return this;
+    }
+
+    public NearDuplicatesRequestBuilder setTables(int tables) {
+        request.tables(tables);
+        return this;
+    }
+
+    public NearDuplicatesRequestBuilder setBits(int bits) {
+        request.bits(bits);
+        return this;
+    }
+
+    public NearDuplicatesRequestBuilder setMaxPairs(int maxPairs) {
+        request.maxPairs(maxPairs);
+        return this;
+    }
+
+    public NearDuplicatesRequestBuilder setMaxBucketSize(int maxBucketSize) {
+        request.maxBucketSize(maxBucketSize);
+        return this;
+    }
+
+    public NearDuplicatesRequestBuilder setMemoryLimit(ByteSizeValue memoryLimit) {
+        request.memoryLimit(memoryLimit);
+        return this;
+    }
+
+    public NearDuplicatesRequestBuilder setSeed(long seed) {
+        request.seed(seed);
+        return this;
+    }
+}
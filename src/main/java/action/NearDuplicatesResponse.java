@@ -0,0 +1,117 @@
+package action;
+
+import org.elasticsearch.action.support.DefaultShardOperationFailedException;
+import org.elasticsearch.action.support.broadcast.BroadcastResponse;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Writeable;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The near duplicate pairs of every shard, best first.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-18 11:10
+ */
+public class NearDuplicatesResponse extends BroadcastResponse {
+    private List<Pair> pairs;
+    // pairs above the threshold, including those beyond max_pairs
+    private long totalPairs;
+
+    public NearDuplicatesResponse() {
+        this.pairs = Collections.emptyList();
+    }
+
+    public NearDuplicatesResponse(List<Pair> pairs,long totalPairs,int totalShards,int successfulShards,int failedShards,
+                                  List<DefaultShardOperationFailedException> shardFailures) {
+        super(totalShards,successfulShards,failedShards,shardFailures);
+        this.pairs = pairs;
+        this.totalPairs = totalPairs;
+    }
+
+    public List<Pair> pairs() {
+        return pairs;
+    }
+
+    public long totalPairs() {
+        return totalPairs;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        pairs = in.readList(Pair::new);
+        totalPairs = in.readVLong();
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeList(pairs);
+        out.writeVLong(totalPairs);
+    }
+
+    @Override
+    protected void addCustomXContentFields(XContentBuilder builder,Params params) throws IOException {
+        builder.field("total_pairs",totalPairs);
+        builder.startArray("pairs");
+        for (Pair pair : pairs) {
+            builder.startObject();
+            builder.field("_index",pair.index);
+            builder.field("_id",pair.id);
+            builder.field("duplicate_id",pair.duplicateId);
+            builder.field("_score",pair.score);
+            builder.endObject();
+        }
+        builder.endArray();
+    }
+
+    public static final class Pair implements Writeable {
+        private final String index;
+        private final String id;
+        private final String duplicateId;
+        private final float score;
+
+        public Pair(String index,String id,String duplicateId,float score) {
+            this.index = index;
+            this.id = id;
+            this.duplicateId = duplicateId;
+            this.score = score;
+        }
+
+        public Pair(StreamInput in) throws IOException {
+            this.index = in.readString();
+            this.id = in.readString();
+            this.duplicateId = in.readString();
+            this.score = in.readFloat();
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            out.writeString(index);
+            out.writeString(id);
+            out.writeString(duplicateId);
+            out.writeFloat(score);
+        }
+
+        public String index() {
+            return index;
+        }
+
+        public String id() {
+            return id;
+        }
+
+        public String duplicateId() {
+            return duplicateId;
+        }
+
+        public float score() {
+            return score;
+        }
+    }
+}
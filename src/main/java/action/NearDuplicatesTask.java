@@ -0,0 +1,133 @@
+package action;
+
+import index.NearDuplicateJoin;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.tasks.CancellableTask;
+import org.elasticsearch.tasks.TaskCancelledException;
+import org.elasticsearch.tasks.TaskId;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * The task of a near duplicates request and of each of its shards. Cancelling the request cancels the shards,
+ * which stop at their next check; a shard task reports the progress of its join as its status.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-18 11:20
+ */
+public class NearDuplicatesTask extends CancellableTask {
+    private final NearDuplicateJoin.Progress progress = new NearDuplicateJoin.Progress();
+
+    public NearDuplicatesTask(long id,String type,String action,String description,TaskId parentTaskId,
+                              Map<String, String> headers) {
+        super(id,type,action,description,parentTaskId,headers);
+    }
+
+    @Override
+    public boolean shouldCancelChildrenOnCancellation() {
+        return true;
+    }
+
+    public NearDuplicateJoin.Progress progress() {
+        return progress;
+    }
+
+    /**
+     * Throws a {@link TaskCancelledException} if the task was cancelled.
+     */
+    public void ensureNotCancelled() {
+        if (isCancelled()) {
+            throw new TaskCancelledException("near duplicates cancelled: " + getReasonCancelled());
+        }
+    }
+
+    @Override
+    public Status getStatus() {
+        return new Status(progress);
+    }
+
+    public static final class Status implements org.elasticsearch.tasks.Task.Status {
+        public static final String NAME = "vector_near_duplicates";
+
+        private final String phase;
+        private final long docs;
+        private final long hashedDocs;
+        private final long skippedDocs;
+        private final int partitions;
+        private final int joinedPartitions;
+        private final long buckets;
+        private final long skippedBuckets;
+        private final long comparisons;
+        private final long pairs;
+        private final long spilledBytes;
+
+        Status(NearDuplicateJoin.Progress progress) {
+            this.phase = progress.phase;
+            this.docs = progress.docs;
+            this.hashedDocs = progress.hashedDocs;
+            this.skippedDocs = progress.skippedDocs;
+            this.partitions = progress.partitions;
+            this.joinedPartitions = progress.joinedPartitions;
+            this.buckets = progress.buckets;
+            this.skippedBuckets = progress.skippedBuckets;
+            this.comparisons = progress.comparisons;
+            this.pairs = progress.pairs;
+            this.spilledBytes = progress.spilledBytes;
+        }
+
+        public Status(StreamInput in) throws IOException {
+            this.phase = in.readString();
+            this.docs = in.readVLong();
+            this.hashedDocs = in.readVLong();
+            this.skippedDocs = in.readVLong();
+            this.partitions = in.readVInt();
+            this.joinedPartitions = in.readVInt();
+            this.buckets = in.readVLong();
+            this.skippedBuckets = in.readVLong();
+            this.comparisons = in.readVLong();
+            this.pairs = in.readVLong();
+            this.spilledBytes = in.readVLong();
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            out.writeString(phase);
+            out.writeVLong(docs);
+            out.writeVLong(hashedDocs);
+            out.writeVLong(skippedDocs);
+            out.writeVInt(partitions);
+            out.writeVInt(joinedPartitions);
+            out.writeVLong(buckets);
+            out.writeVLong(skippedBuckets);
+            out.writeVLong(comparisons);
+            out.writeVLong(pairs);
+            out.writeVLong(spilledBytes);
+        }
+
+        @Override
+        public String getWriteableName() {
+            return NAME;
+        }
+
+        @Override
+        public XContentBuilder toXContent(XContentBuilder builder,Params params) throws IOException {
+            builder.startObject();
+            builder.field("phase",phase);
+            builder.field("docs",docs);
+            builder.field("hashed_docs",hashedDocs);
+            builder.field("skipped_docs",skippedDocs);
+            builder.field("partitions",partitions);
+            builder.field("joined_partitions",joinedPartitions);
+            builder.field("buckets",buckets);
+            builder.field("skipped_buckets",skippedBuckets);
+            builder.field("comparisons",comparisons);
+            builder.field("pairs",pairs);
+            builder.humanReadableField("spilled_in_bytes","spilled",new ByteSizeValue(spilledBytes));
+            return builder.endObject();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package action;
+
+import org.elasticsearch.action.support.broadcast.BroadcastShardRequest;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.index.shard.ShardId;
+import org.elasticsearch.tasks.Task;
+import org.elasticsearch.tasks.TaskId;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * The part of a {@link NearDuplicatesRequest} run on one shard, its task reports the progress of the shard.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-18 11:10
+ */
+public class ShardNearDuplicatesRequest extends BroadcastShardRequest {
+    private NearDuplicatesRequest request;
+
+    public ShardNearDuplicatesRequest() {
+    }
+
+    ShardNearDuplicatesRequest(ShardId shardId,NearDuplicatesRequest request) {
+        super(shardId,request);
+        this.request = request;
+    }
+
+    public NearDuplicatesRequest request() {
+        return request;
+    }
+
+    @Override
+    public Task createTask(long id,String type,String action,TaskId parentTaskId,Map<String, String> headers) {
+        return new NearDuplicatesTask(id,type,action,getDescription(),parentTaskId,headers);
+    }
+
+    @Override
+    public String getDescription() {
+        return "near duplicates of shard " + shardId() + " field [" + request.field() + "]";
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        request = new NearDuplicatesRequest();
+        request.readFrom(in);
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        request.writeTo(out);
+    }
+}
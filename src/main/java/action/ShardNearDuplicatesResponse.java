@@ -0,0 +1,51 @@
+package action;
+
+import org.elasticsearch.action.support.broadcast.BroadcastShardResponse;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.index.shard.ShardId;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * The near duplicate pairs of one shard, best first.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-18 11:15
+ */
+public class ShardNearDuplicatesResponse extends BroadcastShardResponse {
+    private List<NearDuplicatesResponse.Pair> pairs;
+    private long totalPairs;
+
+    public ShardNearDuplicatesResponse() {
+    }
+
+    ShardNearDuplicatesResponse(ShardId shardId,List<NearDuplicatesResponse.Pair> pairs,long totalPairs) {
+        super(shardId);
+        this.pairs = pairs;
+        this.totalPairs = totalPairs;
+    }
+
+    public List<NearDuplicatesResponse.Pair> pairs() {
+        return pairs;
+    }
+
+    public long totalPairs() {
+        return totalPairs;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        pairs = in.readList(NearDuplicatesResponse.Pair::new);
+        totalPairs = in.readVLong();
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeList(pairs);
+        out.writeVLong(totalPairs);
+    }
+}
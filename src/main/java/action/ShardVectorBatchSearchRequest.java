@@ -0,0 +1,63 @@
+package action;
+
+import org.elasticsearch.action.support.broadcast.BroadcastShardRequest;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.index.shard.ShardId;
+import org.elasticsearch.search.internal.AliasFilter;
+
+import java.io.IOException;
+
+/**
+ * The part of a {@link VectorBatchSearchRequest} run on one shard.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-15 11:30
+ */
+public class ShardVectorBatchSearchRequest extends BroadcastShardRequest {
+    private VectorBatchSearchRequest request;
+    // filter of the aliases the request resolved to this index through
+    private AliasFilter aliasFilter;
+    // time of the coordinating node, for the date math of the filter
+    private long nowInMillis;
+
+    public ShardVectorBatchSearchRequest() {
+    }
+
+    ShardVectorBatchSearchRequest(ShardId shardId,VectorBatchSearchRequest request,AliasFilter aliasFilter,
+                                  long nowInMillis) {
+        super(shardId,request);
+        this.request = request;
+        this.aliasFilter = aliasFilter;
+        this.nowInMillis = nowInMillis;
+    }
+
+    public VectorBatchSearchRequest request() {
+        return request;
+    }
+
+    public AliasFilter aliasFilter() {
+        return aliasFilter;
+    }
+
+    public long nowInMillis() {
+        return nowInMillis;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        request = new VectorBatchSearchRequest();
+        request.readFrom(in);
+        aliasFilter = new AliasFilter(in);
+        nowInMillis = in.readVLong();
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        request.writeTo(out);
+        aliasFilter.writeTo(out);
+        out.writeVLong(nowInMillis);
+    }
+}
@@ -0,0 +1,51 @@
+package action;
+
+import org.elasticsearch.action.support.broadcast.BroadcastShardResponse;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.index.shard.ShardId;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The top hits of every query vector on one shard, best first.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-15 11:35
+ */
+public class ShardVectorBatchSearchResponse extends BroadcastShardResponse {
+    private List<List<VectorBatchSearchResponse.Hit>> hits;
+
+    public ShardVectorBatchSearchResponse() {
+    }
+
+    ShardVectorBatchSearchResponse(ShardId shardId,List<List<VectorBatchSearchResponse.Hit>> hits) {
+        super(shardId);
+        this.hits = hits;
+    }
+
+    public List<List<VectorBatchSearchResponse.Hit>> hits() {
+        return hits;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        final int queries = in.readVInt();
+        hits = new ArrayList<>(queries);
+        for (int q = 0; q < queries; q++) {
+            hits.add(in.readList(VectorBatchSearchResponse.Hit::new));
+        }
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeVInt(hits.size());
+        for (List<VectorBatchSearchResponse.Hit> queryHits : hits) {
+            out.writeList(queryHits);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package action;
+
+import index.NearDuplicateJoin;
+import org.apache.lucene.search.IndexSearcher;
+import org.elasticsearch.action.support.ActionFilters;
+import org.elasticsearch.action.support.DefaultShardOperationFailedException;
+import org.elasticsearch.action.support.broadcast.BroadcastShardOperationFailedException;
+import org.elasticsearch.action.support.broadcast.TransportBroadcastAction;
+import org.elasticsearch.cluster.ClusterState;
+import org.elasticsearch.cluster.block.ClusterBlockException;
+import org.elasticsearch.cluster.block.ClusterBlockLevel;
+import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
+import org.elasticsearch.cluster.routing.GroupShardsIterator;
+import org.elasticsearch.cluster.routing.ShardIterator;
+import org.elasticsearch.cluster.routing.ShardRouting;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.env.Environment;
+import org.elasticsearch.index.IndexService;
+import org.elasticsearch.index.engine.Engine;
+import org.elasticsearch.index.fieldvisitor.FieldsVisitor;
+import org.elasticsearch.index.query.QueryShardContext;
+import org.elasticsearch.index.shard.IndexShard;
+import org.elasticsearch.indices.IndicesService;
+import org.elasticsearch.tasks.Task;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.TransportService;
+import script.VectorReader;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Runs a {@link NearDuplicateJoin} on one copy of every shard, then keeps the best pairs of all shards on the
+ * coordinating node.
+ * <p>
+ * Joins read every vector of their shard, so they run on the generic thread pool rather than taking search
+ * threads for minutes, and spill to the temporary directory of the node.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-18 11:30
+ */
+public class TransportNearDuplicatesAction extends TransportBroadcastAction<NearDuplicatesRequest,
+        NearDuplicatesResponse, ShardNearDuplicatesRequest, ShardNearDuplicatesResponse> {
+    private final IndicesService indicesService;
+    private final Environment environment;
+
+    @Inject
+    public TransportNearDuplicatesAction(Settings settings,ThreadPool threadPool,ClusterService clusterService,
+                                         TransportService transportService,IndicesService indicesService,
+                                         Environment environment,ActionFilters actionFilters,
+                                         IndexNameExpressionResolver indexNameExpressionResolver) {
+        super(settings,NearDuplicatesAction.NAME,threadPool,clusterService,transportService,actionFilters,
+                indexNameExpressionResolver,NearDuplicatesRequest::new,ShardNearDuplicatesRequest::new,
+                ThreadPool.Names.GENERIC);
+        this.indicesService = indicesService;
+        this.environment = environment;
+    }
+
+    @Override
+    protected ShardNearDuplicatesRequest newShardRequest(int numShards,ShardRouting shard,NearDuplicatesRequest request) {
+        return new ShardNearDuplicatesRequest(shard.shardId(),request);
+    }
+
+    @Override
+    protected ShardNearDuplicatesResponse newShardResponse() {
+        return new ShardNearDuplicatesResponse();
+    }
+
+    @Override
+    protected ShardNearDuplicatesResponse shardOperation(ShardNearDuplicatesRequest shardRequest,Task task)
+            throws IOException {
+        final NearDuplicatesRequest request = shardRequest.request();
+        final NearDuplicatesTask joinTask = (NearDuplicatesTask) task;
+        final IndexService indexService = indicesService.indexServiceSafe(shardRequest.shardId().getIndex());
+        final IndexShard indexShard = indexService.getShard(shardRequest.shardId().id());
+        try (Engine.Searcher searcher = indexShard.acquireSearcher("vector_near_duplicates")) {
+            final QueryShardContext context = indexService.newQueryShardContext(shardRequest.shardId().id(),
+                    searcher.reader(),System::currentTimeMillis,null);
+            final VectorReader vectors = VectorReader.of(request.field(),context.fieldMapper(request.field()));
+            final NearDuplicateJoin join = new NearDuplicateJoin(vectors,request.method(),
+                    request.tables(),request.bits(),request.threshold(),request.maxPairs(),request.maxBucketSize(),
+                    request.memoryLimit().getBytes(),request.seed(),environment.tmpFile(),joinTask.progress(),
+                    joinTask::ensureNotCancelled);
+            final List<NearDuplicateJoin.Pair> pairs = join.run(searcher.reader());
+            // a document can be in many pairs, its id is read once
+            final IndexSearcher indexSearcher = searcher.searcher();
+            final Map<Integer, String> ids = new HashMap<>();
+            final String index = shardRequest.shardId().getIndexName();
+            final List<NearDuplicatesResponse.Pair> result = new ArrayList<>(pairs.size());
+            for (NearDuplicateJoin.Pair pair : pairs) {
+                result.add(new NearDuplicatesResponse.Pair(index,id(indexSearcher,indexService,ids,pair.docA()),
+                        id(indexSearcher,indexService,ids,pair.docB()),pair.score()));
+            }
+            return new ShardNearDuplicatesResponse(shardRequest.shardId(),result,joinTask.progress().pairs);
+        }
+    }
+
+    private static String id(IndexSearcher searcher,IndexService indexService,Map<Integer, String> ids,int doc)
+            throws IOException {
+        String id = ids.get(doc);
+        if (id == null) {
+            final FieldsVisitor visitor = new FieldsVisitor(false);
+            searcher.doc(doc,visitor);
+            visitor.postProcess(indexService.mapperService());
+            id = visitor.uid().id();
+            ids.put(doc,id);
+        }
+        return id;
+    }
+
+    @Override
+    protected NearDuplicatesResponse newResponse(NearDuplicatesRequest request,AtomicReferenceArray shardsResponses,
+                                                 ClusterState clusterState) {
+        int successfulShards = 0;
+        int failedShards = 0;
+        long totalPairs = 0L;
+        final List<DefaultShardOperationFailedException> shardFailures = new ArrayList<>();
+        List<NearDuplicatesResponse.Pair> pairs = new ArrayList<>();
+        for (int i = 0; i < shardsResponses.length(); i++) {
+            final Object shardResponse = shardsResponses.get(i);
+            if (shardResponse == null) {
+                // not active shards are ignored
+            } else if (shardResponse instanceof BroadcastShardOperationFailedException) {
+                failedShards++;
+                shardFailures.add(new DefaultShardOperationFailedException((BroadcastShardOperationFailedException) shardResponse));
+            } else {
+                successfulShards++;
+                pairs.addAll(((ShardNearDuplicatesResponse) shardResponse).pairs());
+                totalPairs += ((ShardNearDuplicatesResponse) shardResponse).totalPairs();
+            }
+        }
+        pairs.sort((a,b) -> Float.compare(b.score(),a.score()));
+        if (pairs.size() > request.maxPairs()) {
+            pairs = new ArrayList<>(pairs.subList(0,request.maxPairs()));
+        }
+        return new NearDuplicatesResponse(pairs,totalPairs,shardsResponses.length(),successfulShards,failedShards,
+                shardFailures);
+    }
+
+    @Override
+    protected GroupShardsIterator<ShardIterator> shards(ClusterState clusterState,NearDuplicatesRequest request,
+                                                        String[] concreteIndices) {
+        return clusterService.operationRouting().searchShards(clusterState,concreteIndices,null,null);
+    }
+
+    @Override
+    protected ClusterBlockException checkGlobalBlock(ClusterState state,NearDuplicatesRequest request) {
+        return state.blocks().globalBlockedException(ClusterBlockLevel.READ);
+    }
+
+    @Override
+    protected ClusterBlockException checkRequestBlock(ClusterState state,NearDuplicatesRequest request,
+                                                      String[] concreteIndices) {
+        return state.blocks().indicesBlockedException(ClusterBlockLevel.READ,concreteIndices);
+    }
+}
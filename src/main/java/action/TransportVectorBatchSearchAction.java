@@ -0,0 +1,196 @@
+package action;
+
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.index.LeafReaderContext;
+import org.elasticsearch.action.support.ActionFilters;
+import org.elasticsearch.action.support.DefaultShardOperationFailedException;
+import org.elasticsearch.action.support.broadcast.BroadcastShardOperationFailedException;
+import org.elasticsearch.action.support.broadcast.TransportBroadcastAction;
+import org.elasticsearch.cluster.ClusterState;
+import org.elasticsearch.cluster.block.ClusterBlockException;
+import org.elasticsearch.cluster.block.ClusterBlockLevel;
+import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
+import org.elasticsearch.cluster.routing.GroupShardsIterator;
+import org.elasticsearch.cluster.routing.ShardIterator;
+import org.elasticsearch.cluster.routing.ShardRouting;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.IndexService;
+import org.elasticsearch.index.engine.Engine;
+import org.elasticsearch.index.fieldvisitor.FieldsVisitor;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.index.query.QueryShardContext;
+import org.elasticsearch.index.query.Rewriteable;
+import org.elasticsearch.index.shard.IndexShard;
+import org.elasticsearch.indices.IndicesService;
+import org.elasticsearch.search.internal.AliasFilter;
+import org.elasticsearch.tasks.Task;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.TransportService;
+import query.BatchTopK;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Runs a {@link VectorBatchSearchRequest} on one copy of every shard with a {@link BatchTopK}, then merges the
+ * top hits of every query on the coordinating node.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-15 14:00
+ */
+public class TransportVectorBatchSearchAction extends TransportBroadcastAction<VectorBatchSearchRequest,
+        VectorBatchSearchResponse, ShardVectorBatchSearchRequest, ShardVectorBatchSearchResponse> {
+    private final IndicesService indicesService;
+    private final IndexNameExpressionResolver indexNameExpressionResolver;
+
+    @Inject
+    public TransportVectorBatchSearchAction(Settings settings,ThreadPool threadPool,ClusterService clusterService,
+                                            TransportService transportService,IndicesService indicesService,
+                                            ActionFilters actionFilters,
+                                            IndexNameExpressionResolver indexNameExpressionResolver) {
+        super(settings,VectorBatchSearchAction.NAME,threadPool,clusterService,transportService,actionFilters,
+                indexNameExpressionResolver,VectorBatchSearchRequest::new,ShardVectorBatchSearchRequest::new,
+                ThreadPool.Names.SEARCH);
+        this.indicesService = indicesService;
+        this.indexNameExpressionResolver = indexNameExpressionResolver;
+    }
+
+    @Override
+    protected ShardVectorBatchSearchRequest newShardRequest(int numShards,ShardRouting shard,
+                                                            VectorBatchSearchRequest request) {
+        // the aliases of the request filter their indices as they do for a search
+        final ClusterState clusterState = clusterService.state();
+        final Set<String> indicesAndAliases = indexNameExpressionResolver.resolveExpressions(clusterState,request.indices());
+        final AliasFilter aliasFilter = indicesService.buildAliasFilter(clusterState,shard.getIndexName(),indicesAndAliases);
+        return new ShardVectorBatchSearchRequest(shard.shardId(),request,aliasFilter,System.currentTimeMillis());
+    }
+
+    @Override
+    protected ShardVectorBatchSearchResponse newShardResponse() {
+        return new ShardVectorBatchSearchResponse();
+    }
+
+    @Override
+    protected ShardVectorBatchSearchResponse shardOperation(ShardVectorBatchSearchRequest shardRequest,Task task)
+            throws IOException {
+        final VectorBatchSearchRequest request = shardRequest.request();
+        final IndexService indexService = indicesService.indexServiceSafe(shardRequest.shardId().getIndex());
+        final IndexShard indexShard = indexService.getShard(shardRequest.shardId().id());
+        try (Engine.Searcher searcher = indexShard.acquireSearcher("vector_batch_search")) {
+            final QueryShardContext context = indexService.newQueryShardContext(shardRequest.shardId().id(),
+                    searcher.reader(),shardRequest::nowInMillis,null);
+            final BatchTopK topK = BatchTopK.create(context,request.field(),request.queryVectors(),
+                    request.similarity(),request.k());
+            final IndexSearcher indexSearcher = searcher.searcher();
+            QueryBuilder filter = request.filter();
+            final QueryBuilder aliasFilter = shardRequest.aliasFilter().getQueryBuilder();
+            if (aliasFilter != null) {
+                filter = filter == null ? aliasFilter : QueryBuilders.boolQuery().filter(filter).filter(aliasFilter);
+            }
+            final Weight filterWeight;
+            if (filter == null) {
+                filterWeight = null;
+            } else {
+                final Query query = context.toFilter(Rewriteable.rewrite(filter,context,true)).query();
+                filterWeight = indexSearcher.createWeight(indexSearcher.rewrite(query),false,1f);
+            }
+            for (LeafReaderContext leaf : searcher.reader().leaves()) {
+                DocIdSetIterator candidates = null;
+                if (filterWeight != null) {
+                    final Scorer scorer = filterWeight.scorer(leaf);
+                    if (scorer == null) {
+                        continue;
+                    }
+                    candidates = scorer.iterator();
+                }
+                topK.scan(leaf,candidates);
+            }
+            // the same documents come back for many queries, their id is read once
+            final Map<Integer, String> ids = new HashMap<>();
+            final String index = shardRequest.shardId().getIndexName();
+            final List<List<VectorBatchSearchResponse.Hit>> hits = new ArrayList<>(topK.queries());
+            for (int q = 0; q < topK.queries(); q++) {
+                final ScoreDoc[] topDocs = topK.topDocs(q);
+                final List<VectorBatchSearchResponse.Hit> queryHits = new ArrayList<>(topDocs.length);
+                for (ScoreDoc scoreDoc : topDocs) {
+                    String id = ids.get(scoreDoc.doc);
+                    if (id == null) {
+                        final FieldsVisitor visitor = new FieldsVisitor(false);
+                        indexSearcher.doc(scoreDoc.doc,visitor);
+                        visitor.postProcess(indexService.mapperService());
+                        id = visitor.uid().id();
+                        ids.put(scoreDoc.doc,id);
+                    }
+                    queryHits.add(new VectorBatchSearchResponse.Hit(index,id,scoreDoc.score));
+                }
+                hits.add(queryHits);
+            }
+            return new ShardVectorBatchSearchResponse(shardRequest.shardId(),hits);
+        }
+    }
+
+    @Override
+    protected VectorBatchSearchResponse newResponse(VectorBatchSearchRequest request,AtomicReferenceArray shardsResponses,
+                                                    ClusterState clusterState) {
+        int successfulShards = 0;
+        int failedShards = 0;
+        final List<DefaultShardOperationFailedException> shardFailures = new ArrayList<>();
+        final List<List<VectorBatchSearchResponse.Hit>> merged = new ArrayList<>(request.queryVectors().length);
+        for (int q = 0; q < request.queryVectors().length; q++) {
+            merged.add(new ArrayList<>());
+        }
+        for (int i = 0; i < shardsResponses.length(); i++) {
+            final Object shardResponse = shardsResponses.get(i);
+            if (shardResponse == null) {
+                // not active shards are ignored
+            } else if (shardResponse instanceof BroadcastShardOperationFailedException) {
+                failedShards++;
+                shardFailures.add(new DefaultShardOperationFailedException((BroadcastShardOperationFailedException) shardResponse));
+            } else {
+                successfulShards++;
+                final List<List<VectorBatchSearchResponse.Hit>> shardHits = ((ShardVectorBatchSearchResponse) shardResponse).hits();
+                for (int q = 0; q < merged.size(); q++) {
+                    merged.get(q).addAll(shardHits.get(q));
+                }
+            }
+        }
+        for (int q = 0; q < merged.size(); q++) {
+            final List<VectorBatchSearchResponse.Hit> queryHits = merged.get(q);
+            queryHits.sort((a,b) -> Float.compare(b.score(),a.score()));
+            if (queryHits.size() > request.k()) {
+                merged.set(q,new ArrayList<>(queryHits.subList(0,request.k())));
+            }
+        }
+        return new VectorBatchSearchResponse(merged,shardsResponses.length(),successfulShards,failedShards,shardFailures);
+    }
+
+    @Override
+    protected GroupShardsIterator<ShardIterator> shards(ClusterState clusterState,VectorBatchSearchRequest request,
+                                                        String[] concreteIndices) {
+        return clusterService.operationRouting().searchShards(clusterState,concreteIndices,null,null);
+    }
+
+    @Override
+    protected ClusterBlockException checkGlobalBlock(ClusterState state,VectorBatchSearchRequest request) {
+        return state.blocks().globalBlockedException(ClusterBlockLevel.READ);
+    }
+
+    @Override
+    protected ClusterBlockException checkRequestBlock(ClusterState state,VectorBatchSearchRequest request,
+                                                      String[] concreteIndices) {
+        return state.blocks().indicesBlockedException(ClusterBlockLevel.READ,concreteIndices);
+    }
+}
@@ -0,0 +1,85 @@
+package action;
+
+import index.FilterBitsetCache;
+import index.HnswIndexService;
+import index.VectorColumnCache;
+import org.elasticsearch.action.FailedNodeException;
+import org.elasticsearch.action.support.ActionFilters;
+import org.elasticsearch.action.support.nodes.BaseNodeRequest;
+import org.elasticsearch.action.support.nodes.TransportNodesAction;
+import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.TransportService;
+import query.TopHitsCache;
+import script.PreparedQuery;
+import script.ScoringStats;
+
+import java.util.List;
+
+/**
+ * Reads the stats of the plugin on every requested node, on the management thread pool.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-17 16:50
+ */
+public class TransportVectorStatsAction extends TransportNodesAction<VectorStatsRequest, VectorStatsResponse,
+        TransportVectorStatsAction.NodeRequest, VectorNodeStats> {
+    private final HnswIndexService hnswIndexService;
+    private final VectorColumnCache columnCache;
+    private final FilterBitsetCache filterCache;
+    private final TopHitsCache resultCache;
+
+    @Inject
+    public TransportVectorStatsAction(Settings settings,ThreadPool threadPool,ClusterService clusterService,
+                                      TransportService transportService,ActionFilters actionFilters,
+                                      IndexNameExpressionResolver indexNameExpressionResolver,
+                                      HnswIndexService hnswIndexService,VectorColumnCache columnCache,
+                                      FilterBitsetCache filterCache,TopHitsCache resultCache) {
+        super(settings,VectorStatsAction.NAME,threadPool,clusterService,transportService,actionFilters,
+                indexNameExpressionResolver,VectorStatsRequest::new,NodeRequest::new,ThreadPool.Names.MANAGEMENT,
+                VectorNodeStats.class);
+        this.hnswIndexService = hnswIndexService;
+        this.columnCache = columnCache;
+        this.filterCache = filterCache;
+        this.resultCache = resultCache;
+    }
+
+    @Override
+    protected VectorStatsResponse newResponse(VectorStatsRequest request,List<VectorNodeStats> nodes,
+                                              List<FailedNodeException> failures) {
+        return new VectorStatsResponse(clusterService.getClusterName(),nodes,failures);
+    }
+
+    @Override
+    protected NodeRequest newNodeRequest(String nodeId,VectorStatsRequest request) {
+        return new NodeRequest(nodeId);
+    }
+
+    @Override
+    protected VectorNodeStats newNodeResponse() {
+        return new VectorNodeStats();
+    }
+
+    @Override
+    protected VectorNodeStats nodeOperation(NodeRequest request) {
+        return new VectorNodeStats(clusterService.localNode(),ScoringStats.snapshots(),
+                VectorNodeStats.CacheStats.of(PreparedQuery.cache()),
+                VectorNodeStats.CacheStats.of(columnCache.cache()),columnCache.breakerSkips(),
+                VectorNodeStats.CacheStats.of(hnswIndexService.cache()),hnswIndexService.skippedBuilds(),
+                VectorNodeStats.CacheStats.of(filterCache.cache()),
+                VectorNodeStats.CacheStats.of(resultCache.cache()),resultCache.breakerSkips());
+    }
+
+    public static final class NodeRequest extends BaseNodeRequest {
+
+        public NodeRequest() {
+        }
+
+        NodeRequest(String nodeId) {
+            super(nodeId);
+        }
+    }
+}
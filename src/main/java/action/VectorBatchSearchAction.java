@@ -0,0 +1,30 @@
+package action;
+
+import org.elasticsearch.action.Action;
+import org.elasticsearch.client.ElasticsearchClient;
+
+/**
+ * Scores a batch of query vectors at once on every shard of the requested indices.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-15 11:05
+ */
+public class VectorBatchSearchAction extends Action<VectorBatchSearchRequest, VectorBatchSearchResponse,
+        VectorBatchSearchRequestBuilder> {
+    public static final VectorBatchSearchAction INSTANCE = new VectorBatchSearchAction();
+    public static final String NAME = "indices:data/read/vector/batch_search";
+
+    private VectorBatchSearchAction() {
+        super(NAME);
+    }
+
+    @Override
+    public VectorBatchSearchRequestBuilder newRequestBuilder(ElasticsearchClient client) {
+        return new VectorBatchSearchRequestBuilder(client,this);
+    }
+
+    @Override
+    public VectorBatchSearchResponse newResponse() {
+        return new VectorBatchSearchResponse();
+    }
+}
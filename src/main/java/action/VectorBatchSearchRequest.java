@@ -0,0 +1,135 @@
+package action;
+
+import index.VectorSimilarity;
+import org.elasticsearch.action.ActionRequestValidationException;
+import org.elasticsearch.action.support.broadcast.BroadcastRequest;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.index.query.QueryBuilder;
+
+import java.io.IOException;
+import java.util.Objects;
+
+import static org.elasticsearch.action.ValidateActions.addValidationError;
+
+/**
+ * A batch of query vectors scored against the vectors of {@code field} of the documents matching {@code filter}.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-15 11:00
+ */
+public class VectorBatchSearchRequest extends BroadcastRequest<VectorBatchSearchRequest> {
+    public static final int DEFAULT_K = 10;
+    public static final int MAX_QUERY_VECTORS = 1000;
+
+    private String field;
+    private double[][] queryVectors;
+    private int k = DEFAULT_K;
+    private VectorSimilarity similarity = VectorSimilarity.COSINE;
+    // may be null to score every document
+    private QueryBuilder filter;
+
+    public VectorBatchSearchRequest() {
+    }
+
+    public VectorBatchSearchRequest(String... indices) {
+        super(indices);
+    }
+
+    public String field() {
+        return field;
+    }
+
+    public VectorBatchSearchRequest field(String field) {
+        this.field = field;
+        return this;
+    }
+
+    public double[][] queryVectors() {
+        return queryVectors;
+    }
+
+    public VectorBatchSearchRequest queryVectors(double[][] queryVectors) {
+        this.queryVectors = queryVectors;
+        return this;
+    }
+
+    public int k() {
+        return k;
+    }
+
+    public VectorBatchSearchRequest k(int k) {
+        this.k = k;
+        return this;
+    }
+
+    public VectorSimilarity similarity() {
+        return similarity;
+    }
+
+    public VectorBatchSearchRequest similarity(VectorSimilarity similarity) {
+        this.similarity = Objects.requireNonNull(similarity);
+        return this;
+    }
+
+    public QueryBuilder filter() {
+        return filter;
+    }
+
+    public VectorBatchSearchRequest filter(QueryBuilder filter) {
+        this.filter = filter;
+        return this;
+    }
+
+    @Override
+    public ActionRequestValidationException validate() {
+        ActionRequestValidationException validationException = super.validate();
+        if (field == null) {
+            validationException = addValidationError("[field] is missing",validationException);
+        }
+        if (queryVectors == null || queryVectors.length == 0) {
+            validationException = addValidationError("[query_vectors] is missing",validationException);
+        } else if (queryVectors.length > MAX_QUERY_VECTORS) {
+            validationException = addValidationError("at most [" + MAX_QUERY_VECTORS + "] query vectors can be sent at once",
+                    validationException);
+        } else {
+            for (double[] vector : queryVectors) {
+                if (vector.length == 0 || vector.length != queryVectors[0].length) {
+                    validationException = addValidationError("[query_vectors] must all have the same number of dimensions",
+                            validationException);
+                    break;
+                }
+            }
+        }
+        if (k <= 0) {
+            validationException = addValidationError("[k] must be positive",validationException);
+        }
+        return validationException;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        field = in.readString();
+        queryVectors = new double[in.readVInt()][];
+        for (int i = 0; i < queryVectors.length; i++) {
+            queryVectors[i] = in.readDoubleArray();
+        }
+        k = in.readVInt();
+        similarity = in.readEnum(VectorSimilarity.class);
+        filter = in.readOptionalNamedWriteable(QueryBuilder.class);
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeString(field);
+        out.writeVInt(queryVectors.length);
+        for (double[] vector : queryVectors) {
+            out.writeDoubleArray(vector);
+        }
+        out.writeVInt(k);
+        out.writeEnum(similarity);
+        out.writeOptionalNamedWriteable(filter);
+    }
+}
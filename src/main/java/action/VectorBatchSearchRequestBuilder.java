@@ -0,0 +1,43 @@
+package action;
+
+import index.VectorSimilarity;
+import org.elasticsearch.action.ActionRequestBuilder;
+import org.elasticsearch.client.ElasticsearchClient;
+import org.elasticsearch.index.query.QueryBuilder;
+
+/**
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-15 11:10
+ */
+public class VectorBatchSearchRequestBuilder extends ActionRequestBuilder<VectorBatchSearchRequest,
+        VectorBatchSearchResponse, VectorBatchSearchRequestBuilder> {
+
+    public VectorBatchSearchRequestBuilder(ElasticsearchClient client,VectorBatchSearchAction action) {
+        super(client,action,new VectorBatchSearchRequest());
+    }
+
+    public VectorBatchSearchRequestBuilder setField(String field) {
+        request.field(field);
+        return this;
+    }
+
+    public VectorBatchSearchRequestBuilder setQueryVectors(double[][] queryVectors) {
+        request.queryVectors(queryVectors);
+        return this;
+    }
+
+    public VectorBatchSearchRequestBuilder setK(int k) {
+        request.k(k);
+        return this;
+    }
+
+    public VectorBatchSearchRequestBuilder setSimilarity(VectorSimilarity similarity) {
+        request.similarity(similarity);
+        return this;
+    }
+
+    public VectorBatchSearchRequestBuilder setFilter(QueryBuilder filter) {
+        request.filter(filter);
+        return this;
+    }
+}
@@ -0,0 +1,115 @@
+package action;
+
+import org.elasticsearch.action.support.DefaultShardOperationFailedException;
+import org.elasticsearch.action.support.broadcast.BroadcastResponse;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Writeable;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The top hits of every query vector of a {@link VectorBatchSearchRequest}, in the order of the queries.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-15 11:20
+ */
+public class VectorBatchSearchResponse extends BroadcastResponse {
+    private List<List<Hit>> hits;
+
+    public VectorBatchSearchResponse() {
+        this.hits = Collections.emptyList();
+    }
+
+    public VectorBatchSearchResponse(List<List<Hit>> hits,int totalShards,int successfulShards,int failedShards,
+                                     List<DefaultShardOperationFailedException> shardFailures) {
+        super(totalShards,successfulShards,failedShards,shardFailures);
+        this.hits = hits;
+    }
+
+    /**
+     * The hits of every query, best first.
+     */
+    public List<List<Hit>> hits() {
+        return hits;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        final int queries = in.readVInt();
+        hits = new ArrayList<>(queries);
+        for (int q = 0; q < queries; q++) {
+            hits.add(in.readList(Hit::new));
+        }
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeVInt(hits.size());
+        for (List<Hit> queryHits : hits) {
+            out.writeList(queryHits);
+        }
+    }
+
+    @Override
+    protected void addCustomXContentFields(XContentBuilder builder,Params params) throws IOException {
+        builder.startArray("responses");
+        for (List<Hit> queryHits : hits) {
+            builder.startObject();
+            builder.startArray("hits");
+            for (Hit hit : queryHits) {
+                builder.startObject();
+                builder.field("_index",hit.index);
+                builder.field("_id",hit.id);
+                builder.field("_score",hit.score);
+                builder.endObject();
+            }
+            builder.endArray();
+            builder.endObject();
+        }
+        builder.endArray();
+    }
+
+    public static final class Hit implements Writeable {
+        private final String index;
+        private final String id;
+        private final float score;
+
+        public Hit(String index,String id,float score) {
+            this.index = index;
+            this.id = id;
+            this.score = score;
+        }
+
+        public Hit(StreamInput in) throws IOException {
+            this.index = in.readString();
+            this.id = in.readString();
+            this.score = in.readFloat();
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            out.writeString(index);
+            out.writeString(id);
+            out.writeFloat(score);
+        }
+
+        public String index() {
+            return index;
+        }
+
+        public String id() {
+            return id;
+        }
+
+        public float score() {
+            return score;
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package action;
+
+import index.SegmentCache;
+import org.elasticsearch.action.support.nodes.BaseNodeResponse;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Writeable;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.xcontent.ToXContentFragment;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import script.ScoringStats;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * The stats of the plugin on one node: what scoring every method and field cost, and the use of its caches.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-17 16:45
+ */
+public class VectorNodeStats extends BaseNodeResponse implements ToXContentFragment {
+    private List<ScoringStats.Snapshot> scoring;
+    private CacheStats queryCache;
+    private CacheStats columnCache;
+    // columns not loaded because the fielddata breaker had no room for them
+    private long columnCacheBreakerSkips;
+    private CacheStats hnswCache;
+    // graphs not built because they were too large for the cache or the request breaker
+    private long hnswSkippedBuilds;
+    private CacheStats filterCache;
+    private CacheStats resultCache;
+    // hits not cached because the request breaker had no room for them
+    private long resultCacheBreakerSkips;
+
+    VectorNodeStats() {
+    }
+
+    public VectorNodeStats(DiscoveryNode node,List<ScoringStats.Snapshot> scoring,CacheStats queryCache,
+                           CacheStats columnCache,long columnCacheBreakerSkips,CacheStats hnswCache,long hnswSkippedBuilds,
+                           CacheStats filterCache,CacheStats resultCache,long resultCacheBreakerSkips) {
+        super(node);
+        this.scoring = scoring;
+        this.queryCache = queryCache;
+        this.columnCache = columnCache;
+        this.columnCacheBreakerSkips = columnCacheBreakerSkips;
+        this.hnswCache = hnswCache;
+        this.hnswSkippedBuilds = hnswSkippedBuilds;
+        this.filterCache = filterCache;
+        this.resultCache = resultCache;
+        this.resultCacheBreakerSkips = resultCacheBreakerSkips;
+    }
+
+    public static VectorNodeStats readNodeStats(StreamInput in) throws IOException {
+        final VectorNodeStats stats = new VectorNodeStats();
+        stats.readFrom(in);
+        return stats;
+    }
+
+    public List<ScoringStats.Snapshot> scoring() {
+        return scoring;
+    }
+
+    public CacheStats queryCache() {
+        return queryCache;
+    }
+
+    public CacheStats columnCache() {
+        return columnCache;
+    }
+
+    public long columnCacheBreakerSkips() {
+        return columnCacheBreakerSkips;
+    }
+
+    public CacheStats hnswCache() {
+        return hnswCache;
+    }
+
+    public long hnswSkippedBuilds() {
+        return hnswSkippedBuilds;
+    }
+
+    public CacheStats filterCache() {
+        return filterCache;
+    }
+
+    public CacheStats resultCache() {
+        return resultCache;
+    }
+
+    public long resultCacheBreakerSkips() {
+        return resultCacheBreakerSkips;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        scoring = in.readList(ScoringStats.Snapshot::new);
+        queryCache = new CacheStats(in);
+        columnCache = new CacheStats(in);
+        columnCacheBreakerSkips = in.readVLong();
+        hnswCache = new CacheStats(in);
+        hnswSkippedBuilds = in.readVLong();
+        filterCache = new CacheStats(in);
+        resultCache = new CacheStats(in);
+        resultCacheBreakerSkips = in.readVLong();
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeList(scoring);
+        queryCache.writeTo(out);
+        columnCache.writeTo(out);
+        out.writeVLong(columnCacheBreakerSkips);
+        hnswCache.writeTo(out);
+        out.writeVLong(hnswSkippedBuilds);
+        filterCache.writeTo(out);
+        resultCache.writeTo(out);
+        out.writeVLong(resultCacheBreakerSkips);
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder,Params params) throws IOException {
+        builder.field("name",getNode().getName());
+        builder.startArray("scoring");
+        for (ScoringStats.Snapshot stats : scoring) {
+            stats.toXContent(builder,params);
+        }
+        builder.endArray();
+        builder.startObject("query_cache");
+        queryCache.toXContent(builder,params);
+        builder.endObject();
+        builder.startObject("column_cache");
+        columnCache.toXContent(builder,params);
+        builder.field("breaker_skips",columnCacheBreakerSkips);
+        builder.endObject();
+        builder.startObject("hnsw_cache");
+        hnswCache.toXContent(builder,params);
+        builder.field("skipped_builds",hnswSkippedBuilds);
+        builder.endObject();
+        builder.startObject("filter_cache");
+        filterCache.toXContent(builder,params);
+        builder.endObject();
+        builder.startObject("result_cache");
+        resultCache.toXContent(builder,params);
+        builder.field("breaker_skips",resultCacheBreakerSkips);
+        return builder.endObject();
+    }
+
+    /**
+     * The use of one cache.
+     */
+    public static final class CacheStats implements Writeable, ToXContentFragment {
+        private final long count;
+        private final long memoryInBytes;
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+
+        public CacheStats(long count,long memoryInBytes,long hits,long misses,long evictions) {
+            this.count = count;
+            this.memoryInBytes = memoryInBytes;
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+        }
+
+        public CacheStats(StreamInput in) throws IOException {
+            this.count = in.readVLong();
+            this.memoryInBytes = in.readVLong();
+            this.hits = in.readVLong();
+            this.misses = in.readVLong();
+            this.evictions = in.readVLong();
+        }
+
+        public static CacheStats of(SegmentCache<?> cache) {
+            final Cache.CacheStats stats = cache.stats();
+            return new CacheStats(cache.count(),cache.ramBytesUsed(),stats.getHits(),stats.getMisses(),cache.evictions());
+        }
+
+        /**
+         * The stats of {@code cache}, all 0 if it is null.
+         */
+        public static CacheStats of(Cache<?, ?> cache) {
+            if (cache == null) {
+                return new CacheStats(0L,0L,0L,0L,0L);
+            }
+            final Cache.CacheStats stats = cache.stats();
+            return new CacheStats(cache.count(),cache.weight(),stats.getHits(),stats.getMisses(),stats.getEvictions());
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            out.writeVLong(count);
+            out.writeVLong(memoryInBytes);
+            out.writeVLong(hits);
+            out.writeVLong(misses);
+            out.writeVLong(evictions);
+        }
+
+        public long count() {
+            return count;
+        }
+
+        public long memoryInBytes() {
+            return memoryInBytes;
+        }
+
+        public long hits() {
+            return hits;
+        }
+
+        public long misses() {
+            return misses;
+        }
+
+        public long evictions() {
+            return evictions;
+        }
+
+        @Override
+        public XContentBuilder toXContent(XContentBuilder builder,Params params) throws IOException {
+            builder.field("count",count);
+            builder.humanReadableField("memory_size_in_bytes","memory_size",new ByteSizeValue(memoryInBytes));
+            builder.field("hits",hits);
+            builder.field("misses",misses);
+            builder.field("evictions",evictions);
+            return builder;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package action;
+
+import org.elasticsearch.action.Action;
+import org.elasticsearch.client.ElasticsearchClient;
+
+/**
+ * Collects the scoring and cache stats of the plugin on every requested node.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-17 16:40
+ */
+public class VectorStatsAction extends Action<VectorStatsRequest, VectorStatsResponse, VectorStatsRequestBuilder> {
+    public static final VectorStatsAction INSTANCE = new VectorStatsAction();
+    public static final String NAME = "cluster:monitor/vector_distance/stats";
+
+    private VectorStatsAction() {
+        super(NAME);
+    }
+
+    @Override
+    public VectorStatsRequestBuilder newRequestBuilder(ElasticsearchClient client) {
+        return new VectorStatsRequestBuilder(client,this);
+    }
+
+    @Override
+    public VectorStatsResponse newResponse() {
+        return new VectorStatsResponse();
+    }
+}
@@ -0,0 +1,14 @@
+package action;
+
+import org.elasticsearch.action.support.nodes.BaseNodesRequest;
+
+/**
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-17 16:40
+ */
+public class VectorStatsRequest extends BaseNodesRequest<VectorStatsRequest> {
+
+    public VectorStatsRequest(String... nodesIds) {
+        super(nodesIds);
+    }
+}
@@ -0,0 +1,16 @@
+package action;
+
+import org.elasticsearch.action.support.nodes.NodesOperationRequestBuilder;
+import org.elasticsearch.client.ElasticsearchClient;
+
+/**
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-17 16:40
+ */
+public class VectorStatsRequestBuilder extends NodesOperationRequestBuilder<VectorStatsRequest, VectorStatsResponse,
+        VectorStatsRequestBuilder> {
+
+    public VectorStatsRequestBuilder(ElasticsearchClient client,VectorStatsAction action) {
+        super(client,action,new VectorStatsRequest());
+    }
+}
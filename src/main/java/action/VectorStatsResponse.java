@@ -0,0 +1,49 @@
+package action;
+
+import org.elasticsearch.action.FailedNodeException;
+import org.elasticsearch.action.support.nodes.BaseNodesResponse;
+import org.elasticsearch.cluster.ClusterName;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.ToXContentFragment;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * The stats of every node, keyed by node id.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-17 16:45
+ */
+public class VectorStatsResponse extends BaseNodesResponse<VectorNodeStats> implements ToXContentFragment {
+
+    public VectorStatsResponse() {
+    }
+
+    public VectorStatsResponse(ClusterName clusterName,List<VectorNodeStats> nodes,List<FailedNodeException> failures) {
+        super(clusterName,nodes,failures);
+    }
+
+    @Override
+    protected List<VectorNodeStats> readNodesFrom(StreamInput in) throws IOException {
+        return in.readList(VectorNodeStats::readNodeStats);
+    }
+
+    @Override
+    protected void writeNodesTo(StreamOutput out,List<VectorNodeStats> nodes) throws IOException {
+        out.writeStreamableList(nodes);
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder,Params params) throws IOException {
+        builder.startObject("nodes");
+        for (VectorNodeStats node : getNodes()) {
+            builder.startObject(node.getNode().getId());
+            node.toXContent(builder,params);
+            builder.endObject();
+        }
+        return builder.endObject();
+    }
+}
@@ -0,0 +1,248 @@
+package index;
+
+import org.elasticsearch.common.xcontent.ToXContentObject;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * The centroids of a coarse quantizer, which splits the vectors of an index into {@code nlist} partitions.
+ * <p>
+ * Every document is assigned at ingest to the partition of its nearest centroid, a query then only scores the
+ * documents of the {@code nprobe} partitions closest to its vector. For {@link VectorSimilarity#COSINE}
+ * vectors and centroids are normalized, the centroids are those of spherical k-means.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-09 10:30
+ */
+public final class Codebook implements ToXContentObject {
+    private final String name;
+    private final int dims;
+    private final VectorSimilarity similarity;
+    // nlist * dims values, centroid c starts at c * dims
+    private final float[] centroids;
+
+    public Codebook(String name,int dims,VectorSimilarity similarity,float[] centroids) {
+        if (dims <= 0 || centroids.length == 0 || centroids.length % dims != 0) {
+            throw new IllegalArgumentException("codebook [" + name + "] has [" + centroids.length
+                    + "] centroid values, not a positive multiple of its [" + dims + "] dimensions");
+        }
+        this.name = name;
+        this.dims = dims;
+        this.similarity = similarity;
+        this.centroids = centroids;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public int dims() {
+        return dims;
+    }
+
+    public VectorSimilarity similarity() {
+        return similarity;
+    }
+
+    public int nlist() {
+        return centroids.length / dims;
+    }
+
+    /**
+     * Copies the centroids, one after the other, into {@code dst} starting at {@code pos}.
+     */
+    public void copyCentroids(float[] dst,int pos) {
+        System.arraycopy(centroids,0,dst,pos,centroids.length);
+    }
+
+    /**
+     * The partition of {@code vector}.
+     */
+    public int nearest(double[] vector) {
+        return nearest(vector,1)[0];
+    }
+
+    /**
+     * The {@code nprobe} partitions closest to {@code vector}, closest first.
+     */
+    public int[] nearest(double[] vector,int nprobe) {
+        final float[] query = prepare(vector);
+        final int n = Math.min(Math.max(nprobe,1),nlist());
+        final NeighborQueue queue = new NeighborQueue(n,true);
+        for (int c = 0; c < nlist(); c++) {
+            queue.insertWithOverflow(c,similarity.distance(query,0,centroids,c * dims,dims),n);
+        }
+        final int[] partitions = new int[queue.size()];
+        for (int i = partitions.length - 1; i >= 0; i--) {
+            partitions[i] = queue.pop();
+        }
+        return partitions;
+    }
+
+    private float[] prepare(double[] vector) {
+        if (vector.length != dims) {
+            throw new IllegalArgumentException("codebook [" + name + "] has [" + dims + "] dimensions but the vector has ["
+                    + vector.length + "]");
+        }
+        final float[] prepared = new float[dims];
+        for (int i = 0; i < dims; i++) {
+            prepared[i] = (float) vector[i];
+        }
+        similarity.prepare(prepared,0,dims);
+        return prepared;
+    }
+
+    /**
+     * Trains {@code nlist} centroids on a sample of vectors with k-means, seeded with k-means++.
+     */
+    public static Codebook train(String name,List<double[]> sample,int nlist,VectorSimilarity similarity,
+                                 int iterations,long seed) {
+        if (sample.isEmpty()) {
+            throw new IllegalArgumentException("cannot train codebook [" + name + "] without vectors");
+        }
+        final int dims = sample.get(0).length;
+        final int n = sample.size();
+        final int k = Math.min(nlist,n);
+        final float[] vectors = new float[n * dims];
+        for (int i = 0; i < n; i++) {
+            final double[] vector = sample.get(i);
+            if (vector.length != dims) {
+                throw new IllegalArgumentException("cannot train codebook [" + name + "] on vectors of ["
+                        + vector.length + "] and [" + dims + "] dimensions");
+            }
+            for (int d = 0; d < dims; d++) {
+                vectors[i * dims + d] = (float) vector[d];
+            }
+            similarity.prepare(vectors,i * dims,dims);
+        }
+        final Random random = new Random(seed);
+        final float[] centroids = new float[k * dims];
+        seed(vectors,n,dims,centroids,k,similarity,random);
+
+        final int[] assignment = new int[n];
+        final double[] sums = new double[k * dims];
+        final int[] counts = new int[k];
+        for (int iteration = 0; iteration < iterations; iteration++) {
+            boolean changed = iteration == 0;
+            for (int i = 0; i < n; i++) {
+                int best = 0;
+                float bestDistance = Float.POSITIVE_INFINITY;
+                for (int c = 0; c < k; c++) {
+                    final float d = similarity.distance(vectors,i * dims,centroids,c * dims,dims);
+                    if (d < bestDistance) {
+                        bestDistance = d;
+                        best = c;
+                    }
+                }
+                if (assignment[i] != best) {
+                    assignment[i] = best;
+                    changed = true;
+                }
+            }
+            if (changed == false) {
+                break;
+            }
+            Arrays.fill(sums,0d);
+            Arrays.fill(counts,0);
+            for (int i = 0; i < n; i++) {
+                final int c = assignment[i];
+                counts[c]++;
+                for (int d = 0; d < dims; d++) {
+                    sums[c * dims + d] += vectors[i * dims + d];
+                }
+            }
+            for (int c = 0; c < k; c++) {
+                if (counts[c] == 0) {
+                    // empty partition: restart it from a random vector
+                    System.arraycopy(vectors,random.nextInt(n) * dims,centroids,c * dims,dims);
+                    continue;
+                }
+                for (int d = 0; d < dims; d++) {
+                    centroids[c * dims + d] = (float) (sums[c * dims + d] / counts[c]);
+                }
+                similarity.prepare(centroids,c * dims,dims);
+            }
+        }
+        return new Codebook(name,dims,similarity,centroids);
+    }
+
+    /**
+     * k-means++: every next centroid is drawn with a probability proportional to its distance to the closest one.
+     */
+    private static void seed(float[] vectors,int n,int dims,float[] centroids,int k,VectorSimilarity similarity,
+                             Random random) {
+        final double[] closest = new double[n];
+        System.arraycopy(vectors,random.nextInt(n) * dims,centroids,0,dims);
+        for (int i = 0; i < n; i++) {
+            closest[i] = Math.max(0f,similarity.distance(vectors,i * dims,centroids,0,dims));
+        }
+        for (int c = 1; c < k; c++) {
+            double total = 0d;
+            for (int i = 0; i < n; i++) {
+                total += closest[i];
+            }
+            int chosen = n - 1;
+            double target = random.nextDouble() * total;
+            for (int i = 0; i < n; i++) {
+                target -= closest[i];
+                if (target <= 0) {
+                    chosen = i;
+                    break;
+                }
+            }
+            System.arraycopy(vectors,chosen * dims,centroids,c * dims,dims);
+            for (int i = 0; i < n; i++) {
+                closest[i] = Math.min(closest[i],Math.max(0f,similarity.distance(vectors,i * dims,centroids,c * dims,dims)));
+            }
+        }
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder,Params params) throws IOException {
+        builder.startObject();
+        builder.field("name",name);
+        builder.field("dims",dims);
+        builder.field("similarity",similarity.toString());
+        builder.startArray("centroids");
+        for (int c = 0; c < nlist(); c++) {
+            builder.startArray();
+            for (int d = 0; d < dims; d++) {
+                builder.value(centroids[c * dims + d]);
+            }
+            builder.endArray();
+        }
+        builder.endArray();
+        return builder.endObject();
+    }
+
+    /**
+     * Reads a codebook written by {@link #toXContent}.
+     */
+    public static Codebook fromMap(String name,Map<String, Object> map) {
+        final Object similarity = map.get("similarity");
+        final Object centroids = map.get("centroids");
+        if (centroids instanceof List == false || ((List<?>) centroids).isEmpty()) {
+            throw new IllegalArgumentException("codebook [" + name + "] has no [centroids]");
+        }
+        final List<?> rows = (List<?>) centroids;
+        final int dims = ((List<?>) rows.get(0)).size();
+        final float[] values = new float[rows.size() * dims];
+        for (int c = 0; c < rows.size(); c++) {
+            final List<?> row = (List<?>) rows.get(c);
+            if (row.size() != dims) {
+                throw new IllegalArgumentException("codebook [" + name + "] has centroids of [" + row.size()
+                        + "] and [" + dims + "] dimensions");
+            }
+            for (int d = 0; d < dims; d++) {
+                values[c * dims + d] = ((Number) row.get(d)).floatValue();
+            }
+        }
+        return new Codebook(name,dims,
+                similarity == null ? VectorSimilarity.COSINE : VectorSimilarity.fromString(similarity.toString()),values);
+    }
+}
@@ -0,0 +1,117 @@
+package index;
+
+import org.elasticsearch.ResourceNotFoundException;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * The codebooks of the node, read from {@code <config>/vector-distance/codebooks/<name>.json}: coarse quantizers
+ * ({@link Codebook}) or, when the file has {@code "type": "pq"}, product quantizers ({@link ProductQuantizer}).
+ * <p>
+ * A codebook is loaded on first use and reloaded when its file changes, checked at most every 10 seconds,
+ * so a retrained codebook only needs to be copied to the config directory of every node. It must be the same
+ * everywhere documents are ingested and searched, otherwise documents end up in the wrong partitions.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-09 11:15
+ */
+public final class CodebookService {
+    private static final Pattern VALID_NAME = Pattern.compile("[a-zA-Z0-9_\\-]+");
+    // how long a loaded codebook is used before its file is checked again
+    private static final long CHECK_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final Path directory;
+    private final Map<String, Loaded> codebooks = new ConcurrentHashMap<>();
+
+    public CodebookService(Path configPath) {
+        this.directory = configPath.resolve("vector-distance").resolve("codebooks");
+    }
+
+    public Path directory() {
+        return directory;
+    }
+
+    /**
+     * Returns the coarse quantizer {@code name}, throws a {@link ResourceNotFoundException} if the node has no such file.
+     */
+    public Codebook get(String name) {
+        return load(name,Codebook.class);
+    }
+
+    /**
+     * Returns the product quantizer {@code name}, throws a {@link ResourceNotFoundException} if the node has no such file.
+     */
+    public ProductQuantizer productQuantizer(String name) {
+        return load(name,ProductQuantizer.class);
+    }
+
+    /**
+     * Checks that {@code name} can be the name of a codebook file, without loading it.
+     */
+    public static void checkName(String name) {
+        if (name == null || VALID_NAME.matcher(name).matches() == false) {
+            throw new IllegalArgumentException("invalid codebook name [" + name + "]");
+        }
+    }
+
+    private <T> T load(String name,Class<T> type) {
+        checkName(name);
+        final Loaded cached = codebooks.get(name);
+        final long now = System.nanoTime();
+        if (cached != null && now - cached.checked < CHECK_INTERVAL_NANOS) {
+            return cast(name,cached.codebook,type);
+        }
+        final Path file = directory.resolve(name + ".json");
+        try {
+            if (Files.exists(file) == false) {
+                throw new ResourceNotFoundException("codebook [{}] not found in [{}]",name,directory);
+            }
+            final long modified = Files.getLastModifiedTime(file).toMillis();
+            final Object codebook;
+            if (cached != null && cached.modified == modified) {
+                codebook = cached.codebook;
+            } else {
+                final Map<String, Object> map;
+                try (InputStream in = Files.newInputStream(file)) {
+                    map = XContentHelper.convertToMap(XContentType.JSON.xContent(),in,false);
+                }
+                codebook = ProductQuantizer.TYPE.equals(map.get("type"))
+                        ? ProductQuantizer.fromMap(name,map) : Codebook.fromMap(name,map);
+            }
+            codebooks.put(name,new Loaded(codebook,modified,now));
+            return cast(name,codebook,type);
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to read codebook [" + name + "]",e);
+        }
+    }
+
+    private static <T> T cast(String name,Object codebook,Class<T> type) {
+        if (type.isInstance(codebook) == false) {
+            throw new IllegalArgumentException("codebook [" + name + "] is not a "
+                    + (type == ProductQuantizer.class ? "product quantizer" : "coarse quantizer"));
+        }
+        return type.cast(codebook);
+    }
+
+    private static final class Loaded {
+        final Object codebook;
+        final long modified;
+        final long checked;
+
+        Loaded(Object codebook,long modified,long checked) {
+            this.codebook = codebook;
+            this.modified = modified;
+            this.checked = checked;
+        }
+    }
+}
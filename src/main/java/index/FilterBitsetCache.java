@@ -0,0 +1,55 @@
+package index;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.util.BitSet;
+import org.apache.lucene.util.SparseFixedBitSet;
+import org.elasticsearch.common.unit.ByteSizeValue;
+
+import java.io.IOException;
+
+/**
+ * Keeps the documents matching the filters of vector queries as per-segment bitsets, in a bounded
+ * {@link SegmentCache} keyed by the filter query.
+ * <p>
+ * A bitset knows its cardinality, so a query learns how selective its filter is on a segment before it picks how
+ * to search it, and a filter repeated by every request of a tenant is only run once per segment. Bitsets ignore
+ * deleted documents, which are checked with the live docs of the reader.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-18 13:10
+ */
+public final class FilterBitsetCache {
+    private final SegmentCache<BitSet> bitsets;
+
+    public FilterBitsetCache(ByteSizeValue cacheSize) {
+        this.bitsets = new SegmentCache<>("filter bitset",cacheSize);
+    }
+
+    /**
+     * The documents of the segment matching the query of {@code filter}, an empty bitset if none does.
+     */
+    public BitSet bitset(LeafReaderContext context,Weight filter) throws IOException {
+        if (filter.isCacheable(context) == false) {
+            return build(context,filter);
+        }
+        final BitSet bitset = bitsets.get(context.reader(),filter.getQuery(),query -> build(context,filter));
+        return bitset != null ? bitset : build(context,filter);
+    }
+
+    private static BitSet build(LeafReaderContext context,Weight filter) throws IOException {
+        final Scorer scorer = filter.scorer(context);
+        final int maxDoc = context.reader().maxDoc();
+        if (scorer == null) {
+            return new SparseFixedBitSet(maxDoc);
+        }
+        final DocIdSetIterator iterator = scorer.iterator();
+        return BitSet.of(iterator,maxDoc);
+    }
+
+    public SegmentCache<BitSet> cache() {
+        return bitsets;
+    }
+}
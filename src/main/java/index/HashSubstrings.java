@@ -0,0 +1,113 @@
+package index;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Multi-index hashing: a hash of {@code bits} bits is split into {@code m} disjoint substrings, each indexed as
+ * a term {@code <substring>_<bits in hex>}.
+ * <p>
+ * If two hashes are within hamming distance {@code r}, at least one of their substrings is within
+ * {@code r / m} (rounded down), otherwise the distance would be at least {@code m * (r / m + 1) > r}. The
+ * candidates of a radius search are therefore the documents holding a term of the {@code r / m} neighbourhood
+ * of one of the substrings of the query, which are few when {@code r / m} is small.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-14 10:05
+ */
+public final class HashSubstrings {
+    /**
+     * Radius searches enumerating more terms are rejected, a larger {@code m} gives smaller neighbourhoods.
+     */
+    public static final int MAX_TERMS = 100000;
+
+    private HashSubstrings() {
+    }
+
+    /**
+     * Checks that {@code m} substrings of a hash of {@code bits} bits fit in a long each.
+     */
+    public static void checkSubstrings(int bits,int m) {
+        if (m <= 0 || m > bits) {
+            throw new IllegalArgumentException("[m] must be between 1 and the [" + bits + "] bits of the hash");
+        }
+        if ((bits + m - 1) / m > 64) {
+            throw new IllegalArgumentException("substrings of a hash of [" + bits + "] bits into [" + m
+                    + "] are longer than 64 bits");
+        }
+    }
+
+    /**
+     * The terms of the {@code m} substrings of {@code hash}, as packed by {@code MyUtils.packHash}.
+     */
+    public static List<String> terms(long[] hash,int bits,int m) {
+        checkSubstrings(bits,m);
+        final List<String> terms = new ArrayList<>(m);
+        for (int i = 0; i < m; i++) {
+            terms.add(term(i,substring(hash,start(bits,m,i),start(bits,m,i + 1))));
+        }
+        return terms;
+    }
+
+    /**
+     * The terms of every substring within {@code radius / m} bits of the substrings of {@code hash}.
+     */
+    public static List<String> neighbourhood(long[] hash,int bits,int m,int radius) {
+        checkSubstrings(bits,m);
+        final int subRadius = radius / m;
+        long count = 0;
+        for (int i = 0; i < m; i++) {
+            count += ballSize(start(bits,m,i + 1) - start(bits,m,i),subRadius);
+        }
+        if (count > MAX_TERMS) {
+            throw new IllegalArgumentException("a radius of [" + radius + "] bits with [m=" + m + "] looks up [" + count
+                    + "] terms, more than [" + MAX_TERMS + "]: lower the radius or index more substrings");
+        }
+        final List<String> terms = new ArrayList<>((int) count);
+        for (int i = 0; i < m; i++) {
+            final int length = start(bits,m,i + 1) - start(bits,m,i);
+            enumerate(i,substring(hash,start(bits,m,i),start(bits,m,i + 1)),length,0,Math.min(subRadius,length),terms);
+        }
+        return terms;
+    }
+
+    // flips up to 'flips' more bits at positions >= from
+    private static void enumerate(int index,long value,int length,int from,int flips,List<String> terms) {
+        terms.add(term(index,value));
+        if (flips == 0) {
+            return;
+        }
+        for (int bit = from; bit < length; bit++) {
+            enumerate(index,value ^ (1L << bit),length,bit + 1,flips - 1,terms);
+        }
+    }
+
+    // number of values within 'radius' bits of a value of 'length' bits
+    private static long ballSize(int length,int radius) {
+        long size = 0;
+        long binomial = 1;
+        for (int k = 0; k <= Math.min(radius,length); k++) {
+            size += binomial;
+            binomial = binomial * (length - k) / (k + 1);
+        }
+        return size;
+    }
+
+    private static int start(int bits,int m,int i) {
+        return (int) ((long) bits * i / m);
+    }
+
+    private static long substring(long[] hash,int from,int to) {
+        long value = 0L;
+        for (int bit = from; bit < to; bit++) {
+            if ((hash[bit >>> 6] >>> (bit & 63) & 1L) != 0) {
+                value |= 1L << (bit - from);
+            }
+        }
+        return value;
+    }
+
+    private static String term(int index,long value) {
+        return index + "_" + Long.toHexString(value);
+    }
+}
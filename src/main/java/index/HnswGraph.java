@@ -0,0 +1,301 @@
+package index;
+
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.apache.lucene.util.SparseFixedBitSet;
+
+import java.util.Random;
+
+/**
+ * Hierarchical navigable small world graph over the vectors of one segment.
+ * <p>
+ * Nodes are the ordinals of {@link SegmentVectors}. Every node is linked to at most {@code 2 * maxConn}
+ * neighbours on level 0 and {@code maxConn} on the upper levels, neighbours are chosen with the diversity
+ * heuristic of the HNSW paper. The graph is immutable once built and can be searched concurrently.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-05 14:20
+ */
+public final class HnswGraph implements Accountable {
+    private final SegmentVectors vectors;
+    private final VectorSimilarity similarity;
+    private final int maxConn;
+    // node -> [count, neighbours...] on level 0
+    private final int[][] levelZero;
+    // node -> level - 1 -> [count, neighbours...], null for nodes that only live on level 0
+    private final int[][][] upperLevels;
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+    private long linksBytes;
+
+    private HnswGraph(SegmentVectors vectors,VectorSimilarity similarity,int maxConn) {
+        this.vectors = vectors;
+        this.similarity = similarity;
+        this.maxConn = maxConn;
+        this.levelZero = new int[vectors.size()][];
+        this.upperLevels = new int[vectors.size()][][];
+    }
+
+    /**
+     * Builds the graph of {@code vectors}, which must have been prepared for {@code similarity}.
+     *
+     * @param maxConn   number of neighbours per node on the upper levels
+     * @param beamWidth number of candidates tracked while inserting a node
+     */
+    public static HnswGraph build(SegmentVectors vectors,VectorSimilarity similarity,int maxConn,int beamWidth,long seed) {
+        final HnswGraph graph = new HnswGraph(vectors,similarity,maxConn);
+        final Random random = new Random(seed);
+        final double levelMultiplier = 1d / Math.log(Math.max(2,maxConn));
+        for (int node = 0; node < vectors.size(); node++) {
+            final int level = (int) (-Math.log(1d - random.nextDouble()) * levelMultiplier);
+            graph.insert(node,level,beamWidth);
+        }
+        return graph;
+    }
+
+    /**
+     * The heap of the graph of up to {@code count} vectors of {@code dims} dimensions, before it is built: the
+     * vectors, the level 0 links of every node and the upper levels of {@code 1 / (maxConn - 1)} nodes on average.
+     */
+    public static long estimateRamBytesUsed(int count,int dims,int maxConn) {
+        final long vector = 4L * dims + 4L;
+        final long levelZero = RamUsageEstimator.alignObjectSize(
+                RamUsageEstimator.NUM_BYTES_ARRAY_HEADER + 4L * (2 * maxConn + 1));
+        // the links of a level and the node's array of levels
+        final long upperLevel = RamUsageEstimator.alignObjectSize(
+                RamUsageEstimator.NUM_BYTES_ARRAY_HEADER + 4L * (maxConn + 1))
+                + RamUsageEstimator.NUM_BYTES_ARRAY_HEADER + RamUsageEstimator.NUM_BYTES_OBJECT_REF;
+        final long perNode = vector + levelZero + 2L * RamUsageEstimator.NUM_BYTES_OBJECT_REF
+                + upperLevel / (Math.max(2,maxConn) - 1);
+        return 4L * RamUsageEstimator.NUM_BYTES_ARRAY_HEADER + count * perNode;
+    }
+
+    public SegmentVectors vectors() {
+        return vectors;
+    }
+
+    public VectorSimilarity similarity() {
+        return similarity;
+    }
+
+    public int size() {
+        return vectors.size();
+    }
+
+    /**
+     * Finds the {@code topN} nodes closest to {@code query} (prepared for the similarity) among those whose
+     * document is accepted, tracking {@code ef} candidates on level 0.
+     *
+     * @return the nodes and their distance, furthest first
+     */
+    public NeighborQueue search(float[] query,int topN,int ef,Bits acceptDocs) {
+        final NeighborQueue results = new NeighborQueue(topN,true);
+        if (entryPoint < 0) {
+            return results;
+        }
+        int ep = entryPoint;
+        float epDistance = distance(query,0,ep);
+        for (int level = maxLevel; level > 0; level--) {
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                final int[] links = links(ep,level);
+                for (int i = 1; i <= links[0]; i++) {
+                    final float d = distance(query,0,links[i]);
+                    if (d < epDistance) {
+                        ep = links[i];
+                        epDistance = d;
+                        changed = true;
+                    }
+                }
+            }
+        }
+        final NeighborQueue candidates = searchLayer(query,0,ep,epDistance,Math.max(ef,topN),0,acceptDocs);
+        while (candidates.size() > topN) {
+            candidates.pop();
+        }
+        while (candidates.size() > 0) {
+            final float d = candidates.topDistance();
+            results.add(candidates.pop(),d);
+        }
+        return results;
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        return vectors.ramBytesUsed() + linksBytes
+                + RamUsageEstimator.shallowSizeOf(levelZero) + RamUsageEstimator.shallowSizeOf(upperLevels);
+    }
+
+    private void insert(int node,int level,int beamWidth) {
+        levelZero[node] = new int[2 * maxConn + 1];
+        linksBytes += RamUsageEstimator.sizeOf(levelZero[node]);
+        if (level > 0) {
+            upperLevels[node] = new int[level][maxConn + 1];
+            linksBytes += RamUsageEstimator.shallowSizeOf(upperLevels[node])
+                    + level * RamUsageEstimator.sizeOf(upperLevels[node][0]);
+        }
+        if (entryPoint < 0) {
+            entryPoint = node;
+            maxLevel = level;
+            return;
+        }
+        final float[] values = vectors.vectors();
+        final int offset = vectors.offset(node);
+        int ep = entryPoint;
+        float epDistance = distance(values,offset,ep);
+        for (int l = maxLevel; l > level; l--) {
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                final int[] links = links(ep,l);
+                for (int i = 1; i <= links[0]; i++) {
+                    final float d = distance(values,offset,links[i]);
+                    if (d < epDistance) {
+                        ep = links[i];
+                        epDistance = d;
+                        changed = true;
+                    }
+                }
+            }
+        }
+        for (int l = Math.min(level,maxLevel); l >= 0; l--) {
+            final NeighborQueue candidates = searchLayer(values,offset,ep,epDistance,beamWidth,l,null);
+            // closest first
+            final int[] nodes = new int[candidates.size()];
+            final float[] distances = new float[candidates.size()];
+            for (int i = nodes.length - 1; i >= 0; i--) {
+                distances[i] = candidates.topDistance();
+                nodes[i] = candidates.pop();
+            }
+            ep = nodes[0];
+            epDistance = distances[0];
+            final int[] links = links(node,l);
+            selectNeighbors(nodes,distances,nodes.length,links,maxConn(l));
+            for (int i = 1; i <= links[0]; i++) {
+                connect(links[i],node,l);
+            }
+        }
+        if (level > maxLevel) {
+            maxLevel = level;
+            entryPoint = node;
+        }
+    }
+
+    /**
+     * Greedy beam search on one level.
+     *
+     * @return at most {@code ef} accepted nodes, furthest first
+     */
+    private NeighborQueue searchLayer(float[] query,int queryOffset,int ep,float epDistance,int ef,int level,Bits acceptDocs) {
+        final SparseFixedBitSet visited = new SparseFixedBitSet(vectors.size());
+        final NeighborQueue candidates = new NeighborQueue(ef,false);
+        final NeighborQueue results = new NeighborQueue(ef,true);
+        candidates.add(ep,epDistance);
+        visited.set(ep);
+        if (accept(ep,acceptDocs)) {
+            results.add(ep,epDistance);
+        }
+        while (candidates.size() > 0) {
+            if (results.size() >= ef && candidates.topDistance() > results.topDistance()) {
+                break;
+            }
+            final int candidate = candidates.pop();
+            final int[] links = links(candidate,level);
+            for (int i = 1; i <= links[0]; i++) {
+                final int neighbour = links[i];
+                if (visited.get(neighbour)) {
+                    continue;
+                }
+                visited.set(neighbour);
+                final float d = distance(query,queryOffset,neighbour);
+                if (results.size() < ef || d < results.topDistance()) {
+                    candidates.add(neighbour,d);
+                    if (accept(neighbour,acceptDocs)) {
+                        results.insertWithOverflow(neighbour,d,ef);
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Adds {@code neighbour} to the links of {@code node}, pruning them with the heuristic when full.
+     */
+    private void connect(int node,int neighbour,int level) {
+        final int[] links = links(node,level);
+        final int max = maxConn(level);
+        if (links[0] < max) {
+            links[++links[0]] = neighbour;
+            return;
+        }
+        final int count = links[0] + 1;
+        final int[] nodes = new int[count];
+        final float[] distances = new float[count];
+        final float[] values = vectors.vectors();
+        final int offset = vectors.offset(node);
+        for (int i = 0; i < links[0]; i++) {
+            nodes[i] = links[i + 1];
+        }
+        nodes[count - 1] = neighbour;
+        for (int i = 0; i < count; i++) {
+            distances[i] = distance(values,offset,nodes[i]);
+        }
+        // insertion sort by distance, count is small
+        for (int i = 1; i < count; i++) {
+            final int n = nodes[i];
+            final float d = distances[i];
+            int j = i - 1;
+            while (j >= 0 && distances[j] > d) {
+                nodes[j + 1] = nodes[j];
+                distances[j + 1] = distances[j];
+                j--;
+            }
+            nodes[j + 1] = n;
+            distances[j + 1] = d;
+        }
+        selectNeighbors(nodes,distances,count,links,max);
+    }
+
+    /**
+     * Keeps a candidate, taken closest first, only if it is closer to the node than to every neighbour kept
+     * so far, which spreads the links in all directions.
+     */
+    private void selectNeighbors(int[] nodes,float[] distances,int count,int[] links,int max) {
+        final float[] values = vectors.vectors();
+        final int dims = vectors.dims();
+        links[0] = 0;
+        for (int i = 0; i < count && links[0] < max; i++) {
+            final int candidate = nodes[i];
+            boolean diverse = true;
+            for (int j = 1; j <= links[0]; j++) {
+                final float d = similarity.distance(values,vectors.offset(candidate),values,vectors.offset(links[j]),dims);
+                if (d < distances[i]) {
+                    diverse = false;
+                    break;
+                }
+            }
+            if (diverse) {
+                links[++links[0]] = candidate;
+            }
+        }
+    }
+
+    private boolean accept(int node,Bits acceptDocs) {
+        return acceptDocs == null || acceptDocs.get(vectors.doc(node));
+    }
+
+    private int maxConn(int level) {
+        return level == 0 ? 2 * maxConn : maxConn;
+    }
+
+    private int[] links(int node,int level) {
+        return level == 0 ? levelZero[node] : upperLevels[node][level - 1];
+    }
+
+    private float distance(float[] query,int queryOffset,int node) {
+        return similarity.distance(query,queryOffset,vectors.vectors(),vectors.offset(node),vectors.dims());
+    }
+}
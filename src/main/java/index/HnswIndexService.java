@@ -0,0 +1,104 @@
+package index;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.lucene.index.LeafReaderContext;
+import org.elasticsearch.common.breaker.CircuitBreaker;
+import org.elasticsearch.common.breaker.CircuitBreakingException;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.indices.breaker.CircuitBreakerService;
+import script.VectorReader;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Builds the HNSW graphs of the segments on first use and keeps them in a bounded {@link SegmentCache}.
+ * <p>
+ * The heap of a graph is estimated from the segment before it is built. A graph which wouldn't fit in the
+ * cache is not built, it would be evicted at once and rebuilt by every query. A build is charged to the
+ * {@code request} circuit breaker until the graph is cached, and is not started if the breaker would trip.
+ * The segment is then scanned exactly.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-06 11:20
+ */
+public final class HnswIndexService {
+    // graphs are built in doc id order with a fixed seed, so a segment always gets the same graph
+    private static final long SEED = 42L;
+
+    private static final Logger logger = LogManager.getLogger(HnswIndexService.class);
+
+    private final SegmentCache<HnswGraph> graphs;
+    private final long cacheSize;
+    private final int maxConn;
+    private final int beamWidth;
+    // known once an index is created on the node
+    private volatile CircuitBreakerService breakerService;
+    private final LongAdder skippedBuilds = new LongAdder();
+
+    public HnswIndexService(ByteSizeValue cacheSize,int maxConn,int beamWidth) {
+        this.graphs = new SegmentCache<>("hnsw",cacheSize);
+        this.cacheSize = cacheSize.getBytes();
+        this.maxConn = maxConn;
+        this.beamWidth = beamWidth;
+    }
+
+    public void setBreakerService(CircuitBreakerService breakerService) {
+        this.breakerService = breakerService;
+    }
+
+    /**
+     * The graph of the vectors of {@code vectors} with {@code dims} dimensions on this segment,
+     * null if the segment cannot be cached or its graph is too large to be built.
+     */
+    public HnswGraph graph(LeafReaderContext context,VectorReader vectors,VectorSimilarity similarity,int dims)
+            throws IOException {
+        final String id = vectors.field() + "/" + similarity + "/" + dims;
+        // every document may have a vector
+        final long estimate = HnswGraph.estimateRamBytesUsed(context.reader().maxDoc(),dims,maxConn);
+        if (estimate > cacheSize) {
+            skip(id,estimate,"larger than the cache of [" + new ByteSizeValue(cacheSize) + "]");
+            return null;
+        }
+        try {
+            return graphs.get(context.reader(),id,key -> build(context,vectors,similarity,dims,estimate));
+        } catch (CircuitBreakingException e) {
+            skip(id,estimate,e.getMessage());
+            return null;
+        }
+    }
+
+    private HnswGraph build(LeafReaderContext context,VectorReader vectors,VectorSimilarity similarity,int dims,
+                            long estimate) throws IOException {
+        final CircuitBreaker breaker = breakerService == null ? null : breakerService.getBreaker(CircuitBreaker.REQUEST);
+        if (breaker != null) {
+            breaker.addEstimateBytesAndMaybeBreak(estimate,"<hnsw_graph>");
+        }
+        try {
+            return HnswGraph.build(SegmentVectors.load(vectors.docValues(context),dims,similarity),similarity,
+                    maxConn,beamWidth,SEED);
+        } finally {
+            if (breaker != null) {
+                // the cache accounts for the graph from now on
+                breaker.addWithoutBreaking(-estimate);
+            }
+        }
+    }
+
+    private void skip(String id,long estimate,String reason) {
+        skippedBuilds.increment();
+        logger.debug("not building hnsw graph [{}] of [{}]: {}",id,new ByteSizeValue(estimate),reason);
+    }
+
+    /**
+     * Number of graphs not built because of their size, their segments were scanned exactly.
+     */
+    public long skippedBuilds() {
+        return skippedBuilds.sum();
+    }
+
+    public SegmentCache<HnswGraph> cache() {
+        return graphs;
+    }
+}
@@ -0,0 +1,552 @@
+package index;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.IOUtils;
+import script.DocVectorValues;
+import script.HashHammingScript;
+import script.VectorKernel;
+import script.VectorReader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Finds the pairs of documents of a shard whose vectors are more similar than a threshold, without comparing
+ * every document with every other.
+ * <p>
+ * Vectors are read once and hashed into {@code tables} locality sensitive hash tables of {@code bits} bits:
+ * <ul>
+ * <li>{@code cosine} and {@code norm-l2}: random hyperplanes, bit j of a table is the side of hyperplane j the
+ * vector is on. Near duplicates have a small angle whatever their distance to the origin, so both similarities
+ * use the same hyperplanes.</li>
+ * <li>{@code hash-hamming}: bit sampling, a table keeps {@code bits} random bits of the hash.</li>
+ * </ul>
+ * Only the documents of a same bucket are compared, with the scores of the scripts of the same names. Buckets
+ * larger than {@code maxBucketSize} are skipped and counted, they are the hyperplanes failing to separate dense
+ * regions and would be quadratic. A pair colliding in several tables is only compared in the first one whose
+ * bucket isn't skipped, so the oversized buckets of all tables are found before any is joined.
+ * <p>
+ * When the entries of all tables wouldn't fit in {@code memoryLimit}, they are spilled by hash of their bucket
+ * to partition files under {@code tmpDir}, which are then read twice one at a time, to find the oversized buckets
+ * and then to join them. At most
+ * {@value #MAX_PARTITIONS} partitions are used, larger shards take more memory per partition.
+ * Hyperplanes and sampled bits come from {@code seed}, so every shard of a request buckets the same way.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-18 10:30
+ */
+public final class NearDuplicateJoin {
+    public static final int MAX_BITS = 48;
+    static final int MAX_PARTITIONS = 256;
+    // documents between two checks of the cancellation
+    private static final int CHECK_INTERVAL = 4096;
+    // estimated heap of an entry of a table, a record adds its keys and vector
+    private static final int ENTRY_BYTES = 24;
+
+    private final VectorReader vectors;
+    private final VectorSimilarity similarity;
+    // true to join the hashes of 'hash-hamming'
+    private final boolean hashes;
+    private final int tables;
+    private final int bits;
+    private final double threshold;
+    private final int maxPairs;
+    private final int maxBucketSize;
+    private final long memoryLimit;
+    private final long seed;
+    private final Path tmpDir;
+    private final Progress progress;
+    private final Runnable ensureNotCancelled;
+    private final VectorKernel kernel = VectorKernel.get();
+
+    // dimensions of dense vectors or bytes of hashes, known from the first vector
+    private int dims = -1;
+    private double[][] hyperplanes;
+    private int[][] sampledBits;
+    private final PriorityQueue<Pair> top;
+
+    public NearDuplicateJoin(VectorReader vectors,String method,int tables,int bits,double threshold,int maxPairs,
+                             int maxBucketSize,long memoryLimit,long seed,Path tmpDir,Progress progress,
+                             Runnable ensureNotCancelled) {
+        switch (method) {
+            case "cosine":
+                this.similarity = VectorSimilarity.COSINE;
+                this.hashes = false;
+                break;
+            case "norm-l2":
+                this.similarity = VectorSimilarity.L2;
+                this.hashes = false;
+                break;
+            case "hash-hamming":
+                this.similarity = null;
+                this.hashes = true;
+                break;
+            default:
+                throw new IllegalArgumentException("near duplicates can only be found with [cosine], [norm-l2] or "
+                        + "[hash-hamming], got [" + method + "]");
+        }
+        if (tables < 1 || bits < 1 || bits > MAX_BITS) {
+            throw new IllegalArgumentException("[tables] must be positive and [bits] between 1 and " + MAX_BITS);
+        }
+        this.vectors = vectors;
+        this.tables = tables;
+        this.bits = bits;
+        this.threshold = threshold;
+        this.maxPairs = maxPairs;
+        this.maxBucketSize = maxBucketSize;
+        this.memoryLimit = memoryLimit;
+        this.seed = seed;
+        this.tmpDir = tmpDir;
+        this.progress = progress;
+        this.ensureNotCancelled = ensureNotCancelled;
+        this.top = new PriorityQueue<>(Math.max(1,Math.min(maxPairs,1024)),Comparator.comparingDouble(p -> p.score));
+    }
+
+    /**
+     * The pairs above the threshold, best first and at most {@code maxPairs}, with top level doc ids.
+     */
+    public List<Pair> run(IndexReader reader) throws IOException {
+        final int maxDoc = reader.maxDoc();
+        progress.docs = maxDoc;
+        progress.phase = "hashing";
+        Partitions partitions = null;
+        try {
+            int seen = 0;
+            for (LeafReaderContext leaf : reader.leaves()) {
+                final Bits liveDocs = leaf.reader().getLiveDocs();
+                final DocVectorValues docVector = vectors.docValues(leaf);
+                for (int doc = docVector.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = docVector.nextDoc()) {
+                    if (++seen % CHECK_INTERVAL == 0) {
+                        ensureNotCancelled.run();
+                    }
+                    if (liveDocs != null && liveDocs.get(doc) == false) {
+                        continue;
+                    }
+                    if (dims < 0) {
+                        if (init(docVector) == false) {
+                            progress.skippedDocs++;
+                            continue;
+                        }
+                        partitions = new Partitions(partitionCount(maxDoc));
+                        progress.partitions = partitions.count();
+                    }
+                    final Record record = read(leaf.docBase + doc,docVector);
+                    if (record == null) {
+                        progress.skippedDocs++;
+                        continue;
+                    }
+                    progress.hashedDocs++;
+                    for (int t = 0; t < tables; t++) {
+                        partitions.add(t,record);
+                    }
+                }
+            }
+            if (partitions == null) {
+                return new ArrayList<>();
+            }
+            partitions.finishWriting();
+            progress.phase = "sizing buckets";
+            final Set<Long> oversized = new HashSet<>();
+            for (int p = 0; p < partitions.count(); p++) {
+                ensureNotCancelled.run();
+                findOversized(partitions.read(p,false),oversized);
+            }
+            progress.phase = "comparing";
+            for (int p = 0; p < partitions.count(); p++) {
+                ensureNotCancelled.run();
+                join(partitions.read(p,true),oversized);
+                progress.joinedPartitions++;
+            }
+        } finally {
+            if (partitions != null) {
+                partitions.close();
+            }
+        }
+        progress.phase = "done";
+        final List<Pair> pairs = new ArrayList<>(top);
+        pairs.sort((a,b) -> Float.compare(b.score,a.score));
+        return pairs;
+    }
+
+    /**
+     * Draws the hyperplanes or sampled bits for the dimensions of the first vector, false if it has none.
+     */
+    private boolean init(DocVectorValues docVector) {
+        final Random random = new Random(seed);
+        if (docVector.dims() <= 0) {
+            return false;
+        }
+        dims = docVector.dims();
+        if (hashes) {
+            sampledBits = new int[tables][bits];
+            for (int t = 0; t < tables; t++) {
+                for (int b = 0; b < bits; b++) {
+                    sampledBits[t][b] = random.nextInt(dims * 8);
+                }
+            }
+        } else {
+            hyperplanes = new double[tables * bits][dims];
+            for (double[] hyperplane : hyperplanes) {
+                for (int d = 0; d < dims; d++) {
+                    hyperplane[d] = random.nextGaussian();
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The number of partitions for the entries of {@code maxDoc} documents to fit in the memory limit.
+     */
+    private int partitionCount(int maxDoc) {
+        final long total = (long) maxDoc * (recordBytes() + (long) tables * ENTRY_BYTES);
+        if (total <= memoryLimit) {
+            return 1;
+        }
+        // a spilled entry is read back with its own copy of the record
+        final long perPartition = Math.max(1L,memoryLimit);
+        final long spilled = (long) maxDoc * tables * (recordBytes() + ENTRY_BYTES);
+        return (int) Math.min(MAX_PARTITIONS,Math.max(2L,(spilled + perPartition - 1) / perPartition));
+    }
+
+    private long recordBytes() {
+        final int payload = hashes ? ((dims + 7) >>> 3) * 8 : dims * 8;
+        return 48 + 8L * tables + payload;
+    }
+
+    /**
+     * The record of the current document, null if its vector doesn't have the dimensions of the first one.
+     */
+    private Record read(int doc,DocVectorValues docVector) {
+        final long[] keys = new long[tables];
+        if (hashes) {
+            final long[] hash = new long[(dims + 7) >>> 3];
+            if (HashHammingScript.readHash(docVector,dims,hash) == false) {
+                return null;
+            }
+            for (int t = 0; t < tables; t++) {
+                long key = 0L;
+                for (int b = 0; b < bits; b++) {
+                    final int bit = sampledBits[t][b];
+                    key |= ((hash[bit >>> 6] >>> (bit & 63)) & 1L) << b;
+                }
+                keys[t] = ((long) t << MAX_BITS) | key;
+            }
+            return new Record(doc,keys,null,hash);
+        }
+        if (docVector.dims() != dims) {
+            return null;
+        }
+        final double[] vector = new double[dims];
+        docVector.copyTo(vector,0);
+        for (int t = 0; t < tables; t++) {
+            long key = 0L;
+            for (int b = 0; b < bits; b++) {
+                if (kernel.dot(vector,hyperplanes[t * bits + b],0,0,dims) >= 0) {
+                    key |= 1L << b;
+                }
+            }
+            keys[t] = ((long) t << MAX_BITS) | key;
+        }
+        return new Record(doc,keys,vector,null);
+    }
+
+    /**
+     * Adds the keys of the buckets of a partition larger than {@code maxBucketSize} to {@code oversized}.
+     */
+    private void findOversized(List<Entry> entries,Set<Long> oversized) {
+        entries.sort(Comparator.comparingLong(Entry::key));
+        for (int start = 0, end; start < entries.size(); start = end) {
+            final long key = entries.get(start).key();
+            end = start + 1;
+            while (end < entries.size() && entries.get(end).key() == key) {
+                end++;
+            }
+            if (end - start > maxBucketSize) {
+                oversized.add(key);
+            }
+        }
+    }
+
+    /**
+     * Compares the documents of every bucket of a partition.
+     */
+    private void join(List<Entry> entries,Set<Long> oversized) {
+        entries.sort(Comparator.comparingLong(Entry::key));
+        long comparisons = 0L;
+        for (int start = 0, end; start < entries.size(); start = end) {
+            final long key = entries.get(start).key();
+            end = start + 1;
+            while (end < entries.size() && entries.get(end).key() == key) {
+                end++;
+            }
+            if (end - start < 2) {
+                continue;
+            }
+            progress.buckets++;
+            if (end - start > maxBucketSize) {
+                progress.skippedBuckets++;
+                continue;
+            }
+            for (int i = start; i < end; i++) {
+                final Entry a = entries.get(i);
+                for (int j = i + 1; j < end; j++) {
+                    final Entry b = entries.get(j);
+                    if (comparedBefore(a.record,b.record,a.table,oversized)) {
+                        continue;
+                    }
+                    if (++comparisons % CHECK_INTERVAL == 0) {
+                        ensureNotCancelled.run();
+                    }
+                    final double score = score(a.record,b.record);
+                    if (score >= threshold) {
+                        offer(a.record.doc,b.record.doc,(float) score);
+                    }
+                }
+            }
+            progress.comparisons += comparisons;
+            comparisons = 0L;
+        }
+    }
+
+    // true if the pair shares the bucket of an earlier table which was joined
+    private static boolean comparedBefore(Record a,Record b,int table,Set<Long> oversized) {
+        for (int t = 0; t < table; t++) {
+            if (a.keys[t] == b.keys[t] && oversized.contains(a.keys[t]) == false) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private double score(Record a,Record b) {
+        if (hashes) {
+            final int size = dims * 8;
+            return 1.0 * (size - kernel.hamming(a.hash,b.hash)) / size;
+        }
+        if (similarity == VectorSimilarity.COSINE) {
+            final double norms = Math.sqrt(kernel.dot(a.vector,a.vector,0,0,dims) * kernel.dot(b.vector,b.vector,0,0,dims));
+            return norms == 0 ? 0d : kernel.dot(a.vector,b.vector,0,0,dims) / norms;
+        }
+        return Math.max(0d,1d - Math.sqrt(kernel.squaredDistance(a.vector,b.vector,0,0,dims)));
+    }
+
+    private void offer(int docA,int docB,float score) {
+        progress.pairs++;
+        if (top.size() < maxPairs) {
+            top.add(new Pair(Math.min(docA,docB),Math.max(docA,docB),score));
+        } else if (maxPairs > 0 && top.peek().score < score) {
+            top.poll();
+            top.add(new Pair(Math.min(docA,docB),Math.max(docA,docB),score));
+        }
+    }
+
+    /**
+     * The entries of the tables split by hash of their bucket, kept in memory or written to temporary files.
+     */
+    private final class Partitions implements Closeable {
+        private final List<List<Entry>> memory = new ArrayList<>();
+        private final Path[] files;
+        private final DataOutputStream[] outs;
+
+        Partitions(int count) throws IOException {
+            if (count == 1) {
+                memory.add(new ArrayList<>());
+                files = null;
+                outs = null;
+                return;
+            }
+            files = new Path[count];
+            outs = new DataOutputStream[count];
+            boolean success = false;
+            try {
+                for (int p = 0; p < count; p++) {
+                    files[p] = Files.createTempFile(tmpDir,"vector-near-duplicates-",".spill");
+                    outs[p] = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(files[p])));
+                }
+                success = true;
+            } finally {
+                if (success == false) {
+                    close();
+                }
+            }
+        }
+
+        int count() {
+            return files == null ? 1 : files.length;
+        }
+
+        void add(int table,Record record) throws IOException {
+            if (files == null) {
+                memory.get(0).add(new Entry(table,record));
+                return;
+            }
+            final int p = (int) ((Long.hashCode(record.keys[table]) & 0x7FFFFFFFL) % files.length);
+            final DataOutputStream out = outs[p];
+            final int before = out.size();
+            out.writeInt(table);
+            out.writeInt(record.doc);
+            for (long key : record.keys) {
+                out.writeLong(key);
+            }
+            if (hashes) {
+                for (long word : record.hash) {
+                    out.writeLong(word);
+                }
+            } else {
+                for (double v : record.vector) {
+                    out.writeDouble(v);
+                }
+            }
+            progress.spilledBytes += out.size() - before;
+        }
+
+        void finishWriting() throws IOException {
+            if (outs != null) {
+                IOUtils.close(outs);
+            }
+        }
+
+        /**
+         * The entries of partition {@code p}, whose file is deleted if it is read for the last time.
+         */
+        List<Entry> read(int p,boolean last) throws IOException {
+            if (files == null) {
+                final List<Entry> entries = memory.get(0);
+                if (last) {
+                    memory.set(0,new ArrayList<>());
+                }
+                return entries;
+            }
+            final List<Entry> entries = new ArrayList<>();
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(files[p])))) {
+                while (true) {
+                    final int table;
+                    try {
+                        table = in.readInt();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    final int doc = in.readInt();
+                    final long[] keys = new long[tables];
+                    for (int t = 0; t < tables; t++) {
+                        keys[t] = in.readLong();
+                    }
+                    if (hashes) {
+                        final long[] hash = new long[(dims + 7) >>> 3];
+                        for (int w = 0; w < hash.length; w++) {
+                            hash[w] = in.readLong();
+                        }
+                        entries.add(new Entry(table,new Record(doc,keys,null,hash)));
+                    } else {
+                        final double[] vector = new double[dims];
+                        for (int d = 0; d < dims; d++) {
+                            vector[d] = in.readDouble();
+                        }
+                        entries.add(new Entry(table,new Record(doc,keys,vector,null)));
+                    }
+                }
+            }
+            if (last) {
+                Files.deleteIfExists(files[p]);
+            }
+            return entries;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (files == null) {
+                return;
+            }
+            IOUtils.closeWhileHandlingException(outs);
+            IOUtils.deleteFilesIgnoringExceptions(files);
+        }
+    }
+
+    private static final class Record {
+        final int doc;
+        // the bucket of every table, with the table in the high bits
+        final long[] keys;
+        final double[] vector;
+        final long[] hash;
+
+        Record(int doc,long[] keys,double[] vector,long[] hash) {
+            this.doc = doc;
+            this.keys = keys;
+            this.vector = vector;
+            this.hash = hash;
+        }
+    }
+
+    private static final class Entry {
+        final int table;
+        final Record record;
+
+        Entry(int table,Record record) {
+            this.table = table;
+            this.record = record;
+        }
+
+        long key() {
+            return record.keys[table];
+        }
+    }
+
+    public static final class Pair {
+        private final int docA;
+        private final int docB;
+        private final float score;
+
+        Pair(int docA,int docB,float score) {
+            this.docA = docA;
+            this.docB = docB;
+            this.score = score;
+        }
+
+        public int docA() {
+            return docA;
+        }
+
+        public int docB() {
+            return docB;
+        }
+
+        public float score() {
+            return score;
+        }
+    }
+
+    /**
+     * How far a join went, written by the joining thread only and read by the task API.
+     */
+    public static final class Progress {
+        public volatile String phase = "starting";
+        public volatile long docs;
+        public volatile long hashedDocs;
+        public volatile long skippedDocs;
+        public volatile int partitions;
+        public volatile int joinedPartitions;
+        public volatile long buckets;
+        public volatile long skippedBuckets;
+        public volatile long comparisons;
+        public volatile long pairs;
+        public volatile long spilledBytes;
+    }
+}
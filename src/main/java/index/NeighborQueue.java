@@ -0,0 +1,127 @@
+package index;
+
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.NumericUtils;
+
+/**
+ * A binary heap of (node, distance) pairs packed into longs, either closest or furthest first.
+ * The distance is stored in the high bits as a sortable int so that the comparison is a single long compare.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-05 10:30
+ */
+public final class NeighborQueue {
+    // true: the top is the furthest node
+    private final boolean maxHeap;
+    private long[] heap;
+    private int size;
+
+    public NeighborQueue(int initialSize,boolean maxHeap) {
+        this.maxHeap = maxHeap;
+        this.heap = new long[Math.max(1,initialSize)];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public void add(int node,float distance) {
+        if (size == heap.length) {
+            heap = ArrayUtil.grow(heap,size + 1);
+        }
+        heap[size] = encode(node,distance);
+        upHeap(size++);
+    }
+
+    /**
+     * Adds the pair if the queue holds less than {@code capacity} entries, otherwise replaces the top if the
+     * pair would go below it (closer for a furthest first queue), returns whether it was added.
+     */
+    public boolean insertWithOverflow(int node,float distance,int capacity) {
+        if (size < capacity) {
+            add(node,distance);
+            return true;
+        }
+        final long value = encode(node,distance);
+        if (size == 0 || before(heap[0],value) == false) {
+            return false;
+        }
+        heap[0] = value;
+        downHeap(0);
+        return true;
+    }
+
+    public int topNode() {
+        return (int) heap[0];
+    }
+
+    public float topDistance() {
+        return decodeDistance(heap[0]);
+    }
+
+    public int pop() {
+        final int node = (int) heap[0];
+        heap[0] = heap[--size];
+        if (size > 0) {
+            downHeap(0);
+        }
+        return node;
+    }
+
+    public int nodeAt(int i) {
+        return (int) heap[i];
+    }
+
+    public float distanceAt(int i) {
+        return decodeDistance(heap[i]);
+    }
+
+    private static long encode(int node,float distance) {
+        return ((long) NumericUtils.floatToSortableInt(distance) << 32) | (node & 0xFFFFFFFFL);
+    }
+
+    private static float decodeDistance(long value) {
+        return NumericUtils.sortableIntToFloat((int) (value >> 32));
+    }
+
+    // whether a goes above b
+    private boolean before(long a,long b) {
+        return maxHeap ? a > b : a < b;
+    }
+
+    private void upHeap(int i) {
+        final long value = heap[i];
+        while (i > 0) {
+            final int parent = (i - 1) >>> 1;
+            if (before(value,heap[parent]) == false) {
+                break;
+            }
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = value;
+    }
+
+    private void downHeap(int i) {
+        final long value = heap[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && before(heap[child + 1],heap[child])) {
+                child++;
+            }
+            if (before(heap[child],value) == false) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = value;
+    }
+}
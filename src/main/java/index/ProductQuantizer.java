@@ -0,0 +1,230 @@
+package index;
+
+import org.elasticsearch.common.xcontent.ToXContentObject;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Product quantization codebook: vectors are split into {@code m} sub-spaces of {@code dims / m} dimensions and
+ * every sub-vector is replaced by the one-byte code of the closest of the 256 centroids of its sub-space.
+ * <p>
+ * Distances to a query are computed asymmetrically: the query is not quantized, a table of its distance to every
+ * centroid of every sub-space is built once, then the distance to a document is the sum of {@code m} lookups.
+ * The codebook of a field must never change once documents have been encoded with it.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-11 10:20
+ */
+public final class ProductQuantizer implements ToXContentObject {
+    public static final String TYPE = "pq";
+    /**
+     * Number of centroids per sub-space, so that a code fits in a byte.
+     */
+    public static final int CENTROIDS = 256;
+
+    private final String name;
+    private final int dims;
+    private final int m;
+    private final int subDims;
+    // sub-space s, centroid c starts at (s * CENTROIDS + c) * subDims
+    private final float[] centroids;
+
+    public ProductQuantizer(String name,int dims,int m,float[] centroids) {
+        if (m <= 0 || dims % m != 0) {
+            throw new IllegalArgumentException("codebook [" + name + "] has [" + dims + "] dimensions, not a multiple of [m="
+                    + m + "]");
+        }
+        if (centroids.length != dims * CENTROIDS) {
+            throw new IllegalArgumentException("codebook [" + name + "] must have [" + CENTROIDS
+                    + "] centroids per sub-space");
+        }
+        this.name = name;
+        this.dims = dims;
+        this.m = m;
+        this.subDims = dims / m;
+        this.centroids = centroids;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public int dims() {
+        return dims;
+    }
+
+    /**
+     * Number of sub-spaces, the number of bytes of an encoded vector.
+     */
+    public int m() {
+        return m;
+    }
+
+    /**
+     * The codes of {@code vector}, followed by its L2 norm as a float like the other vector encodings.
+     */
+    public byte[] encodeWithNorm(double[] vector) {
+        checkDims(vector);
+        final ByteBuffer buffer = ByteBuffer.allocate(m + 4);
+        double norm = 0d;
+        for (int s = 0; s < m; s++) {
+            int best = 0;
+            double bestDistance = Double.POSITIVE_INFINITY;
+            for (int c = 0; c < CENTROIDS; c++) {
+                final int base = (s * CENTROIDS + c) * subDims;
+                double distance = 0d;
+                for (int d = 0; d < subDims; d++) {
+                    final double diff = vector[s * subDims + d] - centroids[base + d];
+                    distance += diff * diff;
+                }
+                if (distance < bestDistance) {
+                    bestDistance = distance;
+                    best = c;
+                }
+            }
+            buffer.put((byte) best);
+        }
+        for (double v : vector) {
+            norm += v * v;
+        }
+        buffer.putFloat((float) Math.sqrt(norm));
+        return buffer.array();
+    }
+
+    /**
+     * Dot products of every sub-vector of {@code query} with every centroid of its sub-space,
+     * the table of sub-space s starts at {@code s * 256}.
+     */
+    public float[] dotTable(double[] query) {
+        checkDims(query);
+        final float[] table = new float[m * CENTROIDS];
+        for (int s = 0; s < m; s++) {
+            for (int c = 0; c < CENTROIDS; c++) {
+                final int base = (s * CENTROIDS + c) * subDims;
+                double dot = 0d;
+                for (int d = 0; d < subDims; d++) {
+                    dot += query[s * subDims + d] * centroids[base + d];
+                }
+                table[s * CENTROIDS + c] = (float) dot;
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Squared L2 distances of every sub-vector of {@code query} to every centroid of its sub-space,
+     * the table of sub-space s starts at {@code s * 256}.
+     */
+    public float[] squaredDistanceTable(double[] query) {
+        checkDims(query);
+        final float[] table = new float[m * CENTROIDS];
+        for (int s = 0; s < m; s++) {
+            for (int c = 0; c < CENTROIDS; c++) {
+                final int base = (s * CENTROIDS + c) * subDims;
+                double distance = 0d;
+                for (int d = 0; d < subDims; d++) {
+                    final double diff = query[s * subDims + d] - centroids[base + d];
+                    distance += diff * diff;
+                }
+                table[s * CENTROIDS + c] = (float) distance;
+            }
+        }
+        return table;
+    }
+
+    private void checkDims(double[] vector) {
+        if (vector.length != dims) {
+            throw new IllegalArgumentException("codebook [" + name + "] has [" + dims + "] dimensions but the vector has ["
+                    + vector.length + "]");
+        }
+    }
+
+    /**
+     * Trains the 256 centroids of every sub-space with k-means on a sample of at least 256 vectors.
+     */
+    public static ProductQuantizer train(String name,List<double[]> sample,int m,int iterations,long seed) {
+        if (sample.size() < CENTROIDS) {
+            throw new IllegalArgumentException("cannot train codebook [" + name + "] on less than [" + CENTROIDS
+                    + "] vectors");
+        }
+        final int dims = sample.get(0).length;
+        if (m <= 0 || dims % m != 0) {
+            throw new IllegalArgumentException("[m] must divide the [" + dims + "] dimensions");
+        }
+        final int subDims = dims / m;
+        final float[] centroids = new float[dims * CENTROIDS];
+        for (int s = 0; s < m; s++) {
+            final List<double[]> subVectors = new ArrayList<>(sample.size());
+            for (double[] vector : sample) {
+                final double[] subVector = new double[subDims];
+                System.arraycopy(vector,s * subDims,subVector,0,subDims);
+                subVectors.add(subVector);
+            }
+            final Codebook subspace = Codebook.train(name,subVectors,CENTROIDS,VectorSimilarity.L2,iterations,seed + s);
+            subspace.copyCentroids(centroids,s * CENTROIDS * subDims);
+        }
+        return new ProductQuantizer(name,dims,m,centroids);
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder,Params params) throws IOException {
+        builder.startObject();
+        builder.field("type",TYPE);
+        builder.field("name",name);
+        builder.field("dims",dims);
+        builder.field("m",m);
+        builder.startArray("subspaces");
+        for (int s = 0; s < m; s++) {
+            builder.startArray();
+            for (int c = 0; c < CENTROIDS; c++) {
+                builder.startArray();
+                final int base = (s * CENTROIDS + c) * subDims;
+                for (int d = 0; d < subDims; d++) {
+                    builder.value(centroids[base + d]);
+                }
+                builder.endArray();
+            }
+            builder.endArray();
+        }
+        builder.endArray();
+        return builder.endObject();
+    }
+
+    /**
+     * Reads a codebook written by {@link #toXContent}.
+     */
+    public static ProductQuantizer fromMap(String name,Map<String, Object> map) {
+        final Object subspaces = map.get("subspaces");
+        if (subspaces instanceof List == false || ((List<?>) subspaces).isEmpty()) {
+            throw new IllegalArgumentException("codebook [" + name + "] has no [subspaces]");
+        }
+        final List<?> spaces = (List<?>) subspaces;
+        final int m = spaces.size();
+        final List<?> first = (List<?>) spaces.get(0);
+        final int subDims = ((List<?>) first.get(0)).size();
+        final float[] centroids = new float[m * CENTROIDS * subDims];
+        for (int s = 0; s < m; s++) {
+            final List<?> space = (List<?>) spaces.get(s);
+            if (space.size() != CENTROIDS) {
+                throw new IllegalArgumentException("codebook [" + name + "] must have [" + CENTROIDS
+                        + "] centroids per sub-space");
+            }
+            for (int c = 0; c < CENTROIDS; c++) {
+                final List<?> centroid = (List<?>) space.get(c);
+                if (centroid.size() != subDims) {
+                    throw new IllegalArgumentException("codebook [" + name + "] has centroids of [" + centroid.size()
+                            + "] and [" + subDims + "] dimensions");
+                }
+                for (int d = 0; d < subDims; d++) {
+                    centroids[(s * CENTROIDS + c) * subDims + d] = ((Number) centroid.get(d)).floatValue();
+                }
+            }
+        }
+        return new ProductQuantizer(name,m * subDims,m,centroids);
+    }
+}
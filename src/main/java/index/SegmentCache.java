@@ -0,0 +1,161 @@
+package index;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.util.Accountable;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.cache.CacheLoader;
+import org.elasticsearch.common.cache.RemovalNotification;
+import org.elasticsearch.common.unit.ByteSizeValue;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Per-segment structures built lazily on first use and kept until the segment is closed or the
+ * entries are evicted, least recently used first, to stay under a maximum memory size.
+ * <p>
+ * Entries are keyed by the segment core cache key, so they survive deletes and reopenings
+ * of the same segment.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-06 10:05
+ */
+public final class SegmentCache<T extends Accountable> {
+    private static final Logger logger = LogManager.getLogger(SegmentCache.class);
+
+    private final String name;
+    private final Cache<Key, T> cache;
+    // core keys whose closed listener is registered
+    private final Map<IndexReader.CacheKey, Boolean> listening = new ConcurrentHashMap<>();
+    private final LongAdder builds = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public SegmentCache(String name,ByteSizeValue maxSize) {
+        this(name,maxSize,null);
+    }
+
+    /**
+     * A cache calling {@code onRemoval} with every entry it drops, whether evicted, invalidated with its segment
+     * or cleared, to give back what was reserved for it.
+     */
+    public SegmentCache(String name,ByteSizeValue maxSize,Consumer<T> onRemoval) {
+        this.name = name;
+        this.cache = CacheBuilder.<Key, T>builder()
+                .setMaximumWeight(maxSize.getBytes())
+                .weigher((key,value) -> value.ramBytesUsed())
+                .removalListener(notification -> {
+                    if (notification.getRemovalReason() == RemovalNotification.RemovalReason.EVICTED) {
+                        evictions.increment();
+                    }
+                    if (onRemoval != null) {
+                        onRemoval.accept(notification.getValue());
+                    }
+                })
+                .build();
+    }
+
+    /**
+     * Returns the structure {@code id} of the segment, building it if needed. Ids are compared with
+     * {@code equals}, they are usually strings but can be any value object, such as a query.
+     * Returns null if the segment cannot be cached, callers must then fall back to an exact path.
+     */
+    public <K> T get(LeafReader reader,K id,CacheLoader<K, T> loader) throws IOException {
+        final IndexReader.CacheHelper helper = reader.getCoreCacheHelper();
+        if (helper == null) {
+            return null;
+        }
+        final IndexReader.CacheKey coreKey = helper.getKey();
+        if (listening.putIfAbsent(coreKey,Boolean.TRUE) == null) {
+            helper.addClosedListener(this::onClose);
+        }
+        try {
+            return cache.computeIfAbsent(new Key(coreKey,id),key -> {
+                final long start = System.nanoTime();
+                final T value = loader.load(id);
+                builds.increment();
+                logger.debug("built [{}] [{}] of [{}] in [{}ms], cache now holds [{}] entries of [{}]",name,id,
+                        new ByteSizeValue(value.ramBytesUsed()),(System.nanoTime() - start) / 1000000,cache.count() + 1,
+                        new ByteSizeValue(cache.weight() + value.ramBytesUsed()));
+                return value;
+            });
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof ElasticsearchException) {
+                // such as a tripped circuit breaker, for callers to handle
+                throw (ElasticsearchException) e.getCause();
+            }
+            throw new IllegalStateException("failed to build [" + name + "] [" + id + "]",e.getCause());
+        }
+    }
+
+    private void onClose(IndexReader.CacheKey coreKey) {
+        listening.remove(coreKey);
+        for (Key key : cache.keys()) {
+            if (key.coreKey == coreKey) {
+                cache.invalidate(key);
+            }
+        }
+    }
+
+    /**
+     * Drops every entry, of all segments.
+     */
+    public void clear() {
+        cache.invalidateAll();
+    }
+
+    public int count() {
+        return cache.count();
+    }
+
+    public long ramBytesUsed() {
+        return cache.weight();
+    }
+
+    public long builds() {
+        return builds.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    public Cache.CacheStats stats() {
+        return cache.stats();
+    }
+
+    private static final class Key {
+        final IndexReader.CacheKey coreKey;
+        final Object id;
+
+        Key(IndexReader.CacheKey coreKey,Object id) {
+            this.coreKey = coreKey;
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return coreKey == key.coreKey && id.equals(key.id);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(coreKey,id);
+        }
+    }
+}
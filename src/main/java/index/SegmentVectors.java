@@ -0,0 +1,89 @@
+package index;
+
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.RamUsageEstimator;
+import script.DocVectorValues;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * All the vectors of a field on one segment decoded into a flat float array, in doc id order.
+ * Documents whose vector does not have the expected number of dimensions are left out.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-05 11:10
+ */
+public final class SegmentVectors implements Accountable {
+    private final int dims;
+    private final int size;
+    // size * dims values, vector of ordinal i starts at i * dims
+    private final float[] vectors;
+    // ordinal -> doc id, ascending
+    private final int[] docs;
+
+    private SegmentVectors(int dims,int size,float[] vectors,int[] docs) {
+        this.dims = dims;
+        this.size = size;
+        this.vectors = vectors;
+        this.docs = docs;
+    }
+
+    /**
+     * Reads every vector of {@code docVector}, prepared for {@code similarity} if not null.
+     */
+    public static SegmentVectors load(DocVectorValues docVector,int dims,VectorSimilarity similarity) throws IOException {
+        float[] vectors = new float[dims * 16];
+        int[] docs = new int[16];
+        int size = 0;
+        for (int doc = docVector.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = docVector.nextDoc()) {
+            if (docVector.dims() != dims) {
+                continue;
+            }
+            if (size == docs.length) {
+                docs = ArrayUtil.grow(docs,size + 1);
+                vectors = Arrays.copyOf(vectors,docs.length * dims);
+            }
+            docVector.copyTo(vectors,size * dims);
+            if (similarity != null) {
+                similarity.prepare(vectors,size * dims,dims);
+            }
+            docs[size++] = doc;
+        }
+        return new SegmentVectors(dims,size,Arrays.copyOf(vectors,size * dims),Arrays.copyOf(docs,size));
+    }
+
+    public int dims() {
+        return dims;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public float[] vectors() {
+        return vectors;
+    }
+
+    public int offset(int ordinal) {
+        return ordinal * dims;
+    }
+
+    public int doc(int ordinal) {
+        return docs[ordinal];
+    }
+
+    /**
+     * Ordinal of {@code doc}, or a negative value if it has no vector.
+     */
+    public int ordinal(int doc) {
+        return Arrays.binarySearch(docs,0,size,doc);
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        return RamUsageEstimator.sizeOf(vectors) + RamUsageEstimator.sizeOf(docs);
+    }
+}
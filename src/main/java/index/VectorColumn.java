@@ -0,0 +1,135 @@
+package index;
+
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.RamUsageEstimator;
+import script.DocVectorValues;
+import script.VectorKernel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * The vectors of a field on one segment laid out off-heap with a fixed stride: the vector of doc {@code d}
+ * starts at float {@code d * dims}, so reading it needs neither a doc values lookup nor any decoding.
+ * <p>
+ * Values are kept as floats, which is why only float and int8 vectors are cached, see
+ * {@link script.VectorLeafFactory#columns}. Documents without a vector of {@code dims} dimensions keep an empty
+ * slot. The memory is returned once the column is no longer referenced, after its eviction or the close of its
+ * segment.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-13 10:15
+ */
+public final class VectorColumn implements Accountable {
+    private final int dims;
+    private final int maxDoc;
+    // maxDoc * dims values, direct memory
+    private final FloatBuffer vectors;
+    // stored norm of every doc, NaN when there is none
+    private final FloatBuffer norms;
+    private final FixedBitSet docsWithVector;
+
+    private VectorColumn(int dims,int maxDoc,FloatBuffer vectors,FloatBuffer norms,FixedBitSet docsWithVector) {
+        this.dims = dims;
+        this.maxDoc = maxDoc;
+        this.vectors = vectors;
+        this.norms = norms;
+        this.docsWithVector = docsWithVector;
+    }
+
+    /**
+     * Bytes of direct memory taken by the column of a segment of {@code maxDoc} documents.
+     */
+    public static long bytes(int maxDoc,int dims) {
+        return 4L * maxDoc * (dims + 1);
+    }
+
+    /**
+     * Whether the vectors of a segment of {@code maxDoc} documents fit in one buffer, whose floats are indexed by int.
+     */
+    public static boolean fits(int maxDoc,int dims) {
+        return 4L * maxDoc * dims <= Integer.MAX_VALUE;
+    }
+
+    /**
+     * Reads every vector of {@code docVector} with {@code dims} dimensions.
+     */
+    public static VectorColumn load(DocVectorValues docVector,int maxDoc,int dims) throws IOException {
+        if (fits(maxDoc,dims) == false) {
+            throw new IllegalArgumentException("a column of [" + maxDoc + "] vectors of [" + dims
+                    + "] dimensions takes [" + 4L * maxDoc * dims + "] bytes, more than a buffer holds");
+        }
+        final FloatBuffer vectors = allocate(maxDoc * dims);
+        final FloatBuffer norms = allocate(maxDoc);
+        final FixedBitSet docsWithVector = new FixedBitSet(maxDoc);
+        final float[] scratch = new float[dims];
+        for (int doc = docVector.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = docVector.nextDoc()) {
+            if (docVector.dims() != dims) {
+                continue;
+            }
+            docVector.copyTo(scratch,0);
+            vectors.position(doc * dims);
+            vectors.put(scratch);
+            norms.put(doc,docVector.hasNorm() ? (float) docVector.norm() : Float.NaN);
+            docsWithVector.set(doc);
+        }
+        vectors.position(0);
+        return new VectorColumn(dims,maxDoc,vectors,norms,docsWithVector);
+    }
+
+    // only called once the column fits, floats * 4 doesn't overflow
+    private static FloatBuffer allocate(int floats) {
+        return ByteBuffer.allocateDirect(floats * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+    public int dims() {
+        return dims;
+    }
+
+    public int maxDoc() {
+        return maxDoc;
+    }
+
+    public boolean has(int doc) {
+        return docsWithVector.get(doc);
+    }
+
+    /**
+     * The first doc at or after {@code doc} with a vector, {@link DocIdSetIterator#NO_MORE_DOCS} if there is none.
+     */
+    public int nextDoc(int doc) {
+        return doc >= maxDoc ? DocIdSetIterator.NO_MORE_DOCS : docsWithVector.nextSetBit(doc);
+    }
+
+    public float norm(int doc) {
+        return norms.get(doc);
+    }
+
+    public float get(int index) {
+        return vectors.get(index);
+    }
+
+    /**
+     * Dot product of dimensions {@code [from, to)} of the vector starting at {@code base} with {@code query}.
+     */
+    public double dot(int base,double[] query,int from,int to) {
+        return VectorKernel.get().dot(query,vectors,base,from,to);
+    }
+
+    public double squaredNorm(int base,int from,int to) {
+        return VectorKernel.get().squaredNorm(vectors,base,from,to);
+    }
+
+    public double squaredDistance(int base,double[] query,int from,int to) {
+        return VectorKernel.get().squaredDistance(query,vectors,base,from,to);
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        return bytes(maxDoc,dims) + RamUsageEstimator.sizeOf(docsWithVector.getBits());
+    }
+}
@@ -0,0 +1,106 @@
+package index;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.elasticsearch.common.breaker.CircuitBreaker;
+import org.elasticsearch.common.breaker.CircuitBreakingException;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.indices.breaker.CircuitBreakerService;
+import script.VectorReader;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Loads the {@link VectorColumn}s of the segments on first use and keeps them in a bounded {@link SegmentCache}.
+ * <p>
+ * Columns are evicted least recently used first to stay under the cache size, and columns larger than
+ * {@code maxColumnSize} are never loaded, their segments being read from the doc values. While cached, a column
+ * is charged to the {@code fielddata} circuit breaker, which Elasticsearch uses for its own per-segment caches, and
+ * released once it is evicted or its segment closed. A column the breaker has no room for is not loaded either.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-13 10:40
+ */
+public final class VectorColumnCache {
+    private final SegmentCache<VectorColumn> columns;
+    private final long maxColumnSize;
+    private volatile CircuitBreakerService breakerService;
+    // columns whose bytes are charged to the breaker, a column loaded before the breaker was set has none
+    private final Set<VectorColumn> charged = ConcurrentHashMap.newKeySet();
+    private final LongAdder breakerSkips = new LongAdder();
+
+    public VectorColumnCache(ByteSizeValue cacheSize,ByteSizeValue maxColumnSize) {
+        this.columns = new SegmentCache<>("vector column",cacheSize,this::release);
+        this.maxColumnSize = Math.min(cacheSize.getBytes(),maxColumnSize.getBytes());
+    }
+
+    /**
+     * Charges the columns to the fielddata breaker of {@code breakerService} from now on.
+     */
+    public void setBreakerService(CircuitBreakerService breakerService) {
+        this.breakerService = breakerService;
+    }
+
+    public boolean enabled() {
+        return maxColumnSize > 0;
+    }
+
+    /**
+     * The column of the vectors of {@code vectors} with {@code dims} dimensions on this segment,
+     * null if it is too large, would trip the breaker or the segment cannot be cached.
+     */
+    public VectorColumn column(LeafReaderContext context,VectorReader vectors,int dims) throws IOException {
+        final int maxDoc = context.reader().maxDoc();
+        if (VectorColumn.fits(maxDoc,dims) == false || VectorColumn.bytes(maxDoc,dims) > maxColumnSize) {
+            return null;
+        }
+        final String id = vectors.field() + "/" + vectors.encoding() + "/" + dims;
+        try {
+            return columns.get(context.reader(),id,key -> load(context,vectors,maxDoc,dims));
+        } catch (CircuitBreakingException e) {
+            breakerSkips.increment();
+            return null;
+        }
+    }
+
+    private VectorColumn load(LeafReaderContext context,VectorReader vectors,int maxDoc,int dims) throws IOException {
+        final CircuitBreakerService service = breakerService;
+        if (service == null) {
+            return VectorColumn.load(vectors.docValues(context),maxDoc,dims);
+        }
+        final CircuitBreaker breaker = service.getBreaker(CircuitBreaker.FIELDDATA);
+        // reserved before the direct memory is allocated
+        final long estimate = VectorColumn.bytes(maxDoc,dims);
+        breaker.addEstimateBytesAndMaybeBreak(estimate,"<vector_column>");
+        final VectorColumn column;
+        try {
+            column = VectorColumn.load(vectors.docValues(context),maxDoc,dims);
+        } catch (IOException | RuntimeException e) {
+            breaker.addWithoutBreaking(-estimate);
+            throw e;
+        }
+        breaker.addWithoutBreaking(column.ramBytesUsed() - estimate);
+        charged.add(column);
+        return column;
+    }
+
+    private void release(VectorColumn column) {
+        final CircuitBreakerService service = breakerService;
+        if (service != null && charged.remove(column)) {
+            service.getBreaker(CircuitBreaker.FIELDDATA).addWithoutBreaking(-column.ramBytesUsed());
+        }
+    }
+
+    /**
+     * Number of columns not loaded because the breaker had no room for them.
+     */
+    public long breakerSkips() {
+        return breakerSkips.sum();
+    }
+
+    public SegmentCache<VectorColumn> cache() {
+        return columns;
+    }
+}
@@ -0,0 +1,111 @@
+package index;
+
+import java.util.Locale;
+
+/**
+ * Similarities supported by the vector indices, scores are on the same scale as the
+ * {@code cosine} and {@code norm-l2} scripts so that approximate and exact results can be mixed.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-05 10:02
+ */
+public enum VectorSimilarity {
+    /**
+     * Vectors are normalized when loaded, the distance is {@code 1 - dot}.
+     */
+    COSINE("cosine") {
+        @Override
+        public float distance(float[] a,int aOffset,float[] b,int bOffset,int dims) {
+            float dot = 0f;
+            for (int i = 0; i < dims; i++) {
+                dot += a[aOffset + i] * b[bOffset + i];
+            }
+            return 1f - dot;
+        }
+
+        @Override
+        public float score(float distance) {
+            return 1f - distance;
+        }
+    },
+    /**
+     * Squared euclidean distance.
+     */
+    L2("norm-l2") {
+        @Override
+        public float distance(float[] a,int aOffset,float[] b,int bOffset,int dims) {
+            float sum = 0f;
+            for (int i = 0; i < dims; i++) {
+                final float d = a[aOffset + i] - b[bOffset + i];
+                sum += d * d;
+            }
+            return sum;
+        }
+
+        @Override
+        public float score(float distance) {
+            final float s = 1f - (float) Math.sqrt(distance);
+            return s < 0 ? 0 : s;
+        }
+    };
+
+    private final String method;
+
+    VectorSimilarity(String method) {
+        this.method = method;
+    }
+
+    public static VectorSimilarity fromString(String name) {
+        switch (name) {
+            case "cosine":
+                return COSINE;
+            case "l2":
+            case "norm-l2":
+                return L2;
+            default:
+                throw new IllegalArgumentException("Unknown similarity [" + name + "], must be one of [cosine, l2]");
+        }
+    }
+
+    /**
+     * The script method computing the same score exactly.
+     */
+    public String method() {
+        return method;
+    }
+
+    /**
+     * Smaller is closer.
+     */
+    public abstract float distance(float[] a,int aOffset,float[] b,int bOffset,int dims);
+
+    /**
+     * Turns a distance into a score, larger is closer.
+     */
+    public abstract float score(float distance);
+
+    /**
+     * Prepares a vector before it is compared, in place.
+     */
+    public void prepare(float[] vector,int offset,int dims) {
+        if (this != COSINE) {
+            return;
+        }
+        double norm = 0d;
+        for (int i = 0; i < dims; i++) {
+            norm += vector[offset + i] * vector[offset + i];
+        }
+        if (norm == 0d) {
+            return;
+        }
+        final float scale = (float) (1d / Math.sqrt(norm));
+        for (int i = 0; i < dims; i++) {
+            vector[offset + i] *= scale;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
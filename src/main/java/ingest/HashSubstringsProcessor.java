@@ -0,0 +1,77 @@
+package ingest;
+
+import Util.MyUtils;
+import index.HashSubstrings;
+import org.elasticsearch.ingest.AbstractProcessor;
+import org.elasticsearch.ingest.ConfigurationUtils;
+import org.elasticsearch.ingest.IngestDocument;
+import org.elasticsearch.ingest.Processor;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Splits a hash given as an array of byte values into {@code m} substrings, written as terms for multi-index
+ * hashing.
+ * <pre>
+ * { "hash_substrings": { "field": "phash", "m": 4, "target_field": "phash_mih" } }
+ * </pre>
+ * The target field must be indexed as a {@code keyword}, it is the one the {@code hamming_radius} query looks
+ * up with the same {@code m}. Like the {@code hash-hamming} script, every value contributes its low byte.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-14 10:40
+ */
+public final class HashSubstringsProcessor extends AbstractProcessor {
+    public static final String TYPE = "hash_substrings";
+
+    private final String field;
+    private final String targetField;
+    private final int m;
+    private final boolean ignoreMissing;
+
+    HashSubstringsProcessor(String tag,String field,String targetField,int m,boolean ignoreMissing) {
+        super(tag);
+        this.field = field;
+        this.targetField = targetField;
+        this.m = m;
+        this.ignoreMissing = ignoreMissing;
+    }
+
+    @Override
+    public IngestDocument execute(IngestDocument document) {
+        final List<?> values = document.getFieldValue(field,List.class,ignoreMissing);
+        if (values == null) {
+            if (ignoreMissing) {
+                return document;
+            }
+            throw new IllegalArgumentException("field [" + field + "] is null, cannot split it into substrings");
+        }
+        final double[] hash = VectorEncodeProcessor.readVector(field,values);
+        document.setFieldValue(targetField,HashSubstrings.terms(MyUtils.packHash(hash),hash.length * 8,m));
+        return document;
+    }
+
+    @Override
+    public String getType() {
+        return TYPE;
+    }
+
+    public static final class Factory implements Processor.Factory {
+        @Override
+        public HashSubstringsProcessor create(Map<String, Processor.Factory> registry,String tag,
+                                              Map<String, Object> config) {
+            String field = ConfigurationUtils.readStringProperty(TYPE,tag,config,"field");
+            String targetField = ConfigurationUtils.readStringProperty(TYPE,tag,config,"target_field",field + "_mih");
+            Integer m = ConfigurationUtils.readIntProperty(TYPE,tag,config,"m",null);
+            boolean ignoreMissing = ConfigurationUtils.readBooleanProperty(TYPE,tag,config,"ignore_missing",false);
+            if (m == null) {
+                throw ConfigurationUtils.newConfigurationException(TYPE,tag,"m","required property is missing");
+            }
+            if (m <= 0) {
+                throw ConfigurationUtils.newConfigurationException(TYPE,tag,"m","must be positive");
+            }
+            return new HashSubstringsProcessor(tag,field,targetField,m,ignoreMissing);
+        }
+    }
+}
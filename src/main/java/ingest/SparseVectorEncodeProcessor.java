@@ -0,0 +1,95 @@
+package ingest;
+
+import mapper.SparseVectorEncoding;
+import org.elasticsearch.ingest.AbstractProcessor;
+import org.elasticsearch.ingest.ConfigurationUtils;
+import org.elasticsearch.ingest.IngestDocument;
+import org.elasticsearch.ingest.Processor;
+
+import java.util.Base64;
+import java.util.Map;
+
+/**
+ * Turns an object of the non-zero dimensions of a vector into the sparse layout read by the {@code sparse-dot}
+ * and {@code sparse-cosine} scripts.
+ * <pre>
+ * { "sparse_vector_encode": { "field": "tags", "target_field": "tags_bin", "normalize": true } }
+ * </pre>
+ * The field holds dimensions as keys, {@code {"17": 0.5, "90321": 1.2}}, and the result is a base64 string to be
+ * indexed in a {@code binary} field with doc values. With {@code normalize}, vectors are scaled to unit L2 norm
+ * so that {@code sparse-dot} gives their cosine.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-16 17:20
+ */
+public final class SparseVectorEncodeProcessor extends AbstractProcessor {
+    public static final String TYPE = "sparse_vector_encode";
+
+    private final String field;
+    private final String targetField;
+    private final boolean normalize;
+    private final boolean ignoreMissing;
+
+    SparseVectorEncodeProcessor(String tag,String field,String targetField,boolean normalize,boolean ignoreMissing) {
+        super(tag);
+        this.field = field;
+        this.targetField = targetField;
+        this.normalize = normalize;
+        this.ignoreMissing = ignoreMissing;
+    }
+
+    @Override
+    public IngestDocument execute(IngestDocument document) {
+        final Map<?, ?> dimensions = document.getFieldValue(field,Map.class,ignoreMissing);
+        if (dimensions == null) {
+            if (ignoreMissing) {
+                return document;
+            }
+            throw new IllegalArgumentException("field [" + field + "] is null, cannot encode it as a sparse vector");
+        }
+        final int[] indices = new int[dimensions.size()];
+        final double[] values = new double[dimensions.size()];
+        int i = 0;
+        double norm = 0d;
+        for (Map.Entry<?, ?> entry : dimensions.entrySet()) {
+            try {
+                indices[i] = Integer.parseInt(entry.getKey().toString());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("field [" + field + "] must only have integer dimensions, found ["
+                        + entry.getKey() + "]");
+            }
+            if (entry.getValue() instanceof Number == false) {
+                throw new IllegalArgumentException("field [" + field + "] must only contain numbers, found ["
+                        + entry.getValue() + "]");
+            }
+            values[i] = ((Number) entry.getValue()).doubleValue();
+            norm += values[i] * values[i];
+            i++;
+        }
+        if (normalize && norm > 0d) {
+            norm = Math.sqrt(norm);
+            for (i = 0; i < values.length; i++) {
+                values[i] /= norm;
+            }
+        }
+        document.setFieldValue(targetField,Base64.getEncoder().encodeToString(SparseVectorEncoding.encode(indices,values)));
+        return document;
+    }
+
+    @Override
+    public String getType() {
+        return TYPE;
+    }
+
+    public static final class Factory implements Processor.Factory {
+        @Override
+        public SparseVectorEncodeProcessor create(Map<String, Processor.Factory> registry,String tag,
+                                                  Map<String, Object> config) {
+            String field = ConfigurationUtils.readStringProperty(TYPE,tag,config,"field");
+            String targetField = ConfigurationUtils.readStringProperty(TYPE,tag,config,"target_field",field);
+            boolean normalize = ConfigurationUtils.readBooleanProperty(TYPE,tag,config,"normalize",false);
+            boolean ignoreMissing = ConfigurationUtils.readBooleanProperty(TYPE,tag,config,"ignore_missing",false);
+            return new SparseVectorEncodeProcessor(tag,field,targetField,normalize,ignoreMissing);
+        }
+    }
+}
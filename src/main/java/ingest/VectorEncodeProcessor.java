@@ -0,0 +1,142 @@
+package ingest;
+
+import Util.MyUtils;
+import index.CodebookService;
+import index.ProductQuantizer;
+import mapper.VectorEncoding;
+import org.elasticsearch.ingest.AbstractProcessor;
+import org.elasticsearch.ingest.ConfigurationUtils;
+import org.elasticsearch.ingest.IngestDocument;
+import org.elasticsearch.ingest.Processor;
+
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Turns an array of numbers into the binary layout read by the scripts, followed by its precomputed norm.
+ * <pre>
+ * { "vector_encode": { "field": "feature", "target_field": "feature_bin", "dims": 512, "normalize": true } }
+ * </pre>
+ * The result is a base64 string that can be indexed in a {@code binary} field (with the default double
+ * encoding) or in a {@code vector} field of the same encoding. The {@code pq} encoding also takes the
+ * {@code codebook} of the field.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-11-29 11:20
+ */
+public final class VectorEncodeProcessor extends AbstractProcessor {
+    public static final String TYPE = "vector_encode";
+
+    private final String field;
+    private final String targetField;
+    // expected number of dimensions, 0 to accept any
+    private final int dims;
+    private final boolean normalize;
+    private final VectorEncoding encoding;
+    private final boolean ignoreMissing;
+    // only with the pq encoding
+    private final String codebook;
+    private final CodebookService codebooks;
+
+    VectorEncodeProcessor(String tag,String field,String targetField,int dims,boolean normalize,
+                          VectorEncoding encoding,boolean ignoreMissing,String codebook,CodebookService codebooks) {
+        super(tag);
+        this.field = field;
+        this.targetField = targetField;
+        this.dims = dims;
+        this.normalize = normalize;
+        this.encoding = encoding;
+        this.ignoreMissing = ignoreMissing;
+        this.codebook = codebook;
+        this.codebooks = codebooks;
+    }
+
+    @Override
+    public IngestDocument execute(IngestDocument document) {
+        final List<?> values = document.getFieldValue(field,List.class,ignoreMissing);
+        if (values == null) {
+            if (ignoreMissing) {
+                return document;
+            }
+            throw new IllegalArgumentException("field [" + field + "] is null, cannot encode it as a vector");
+        }
+        if (dims > 0 && values.size() != dims) {
+            throw new IllegalArgumentException("field [" + field + "] has [" + values.size() + "] dimensions, expected [" + dims + "]");
+        }
+        final double[] vector = readVector(field,values);
+        if (normalize) {
+            MyUtils.normalize(vector);
+        }
+        final byte[] encoded;
+        if (encoding == VectorEncoding.PQ) {
+            // loaded when documents are encoded, pipelines are created on nodes which may not have the file
+            final ProductQuantizer productQuantizer = codebooks.productQuantizer(codebook);
+            if (dims > 0 && productQuantizer.dims() != dims) {
+                throw new IllegalArgumentException("codebook [" + codebook + "] has [" + productQuantizer.dims()
+                        + "] dimensions, expected [" + dims + "]");
+            }
+            encoded = productQuantizer.encodeWithNorm(vector);
+        } else {
+            encoded = encoding.encodeWithNorm(vector);
+        }
+        document.setFieldValue(targetField,Base64.getEncoder().encodeToString(encoded));
+        return document;
+    }
+
+    static double[] readVector(String field,List<?> values) {
+        final double[] vector = new double[values.size()];
+        for (int i = 0; i < vector.length; i++) {
+            final Object value = values.get(i);
+            if (value instanceof Number == false) {
+                throw new IllegalArgumentException("field [" + field + "] must only contain numbers, found [" + value + "]");
+            }
+            vector[i] = ((Number) value).doubleValue();
+        }
+        return vector;
+    }
+
+    @Override
+    public String getType() {
+        return TYPE;
+    }
+
+    public static final class Factory implements Processor.Factory {
+        private final CodebookService codebooks;
+
+        public Factory(CodebookService codebooks) {
+            this.codebooks = codebooks;
+        }
+
+        @Override
+        public VectorEncodeProcessor create(Map<String, Processor.Factory> registry,String tag,
+                                            Map<String, Object> config) {
+            String field = ConfigurationUtils.readStringProperty(TYPE,tag,config,"field");
+            String targetField = ConfigurationUtils.readStringProperty(TYPE,tag,config,"target_field",field);
+            int dims = ConfigurationUtils.readIntProperty(TYPE,tag,config,"dims",0);
+            boolean normalize = ConfigurationUtils.readBooleanProperty(TYPE,tag,config,"normalize",false);
+            String encoding = ConfigurationUtils.readStringProperty(TYPE,tag,config,"encoding",VectorEncoding.DOUBLE.toString());
+            boolean ignoreMissing = ConfigurationUtils.readBooleanProperty(TYPE,tag,config,"ignore_missing",false);
+            final VectorEncoding vectorEncoding;
+            try {
+                vectorEncoding = VectorEncoding.fromString(encoding);
+            } catch (IllegalArgumentException e) {
+                throw ConfigurationUtils.newConfigurationException(TYPE,tag,"encoding",e.getMessage());
+            }
+            String codebook = ConfigurationUtils.readOptionalStringProperty(TYPE,tag,config,"codebook");
+            if ((vectorEncoding == VectorEncoding.PQ) != (codebook != null)) {
+                throw ConfigurationUtils.newConfigurationException(TYPE,tag,"codebook",
+                        "must be set with, and only with, the [pq] encoding");
+            }
+            if (codebook != null) {
+                try {
+                    CodebookService.checkName(codebook);
+                } catch (IllegalArgumentException e) {
+                    throw ConfigurationUtils.newConfigurationException(TYPE,tag,"codebook",e.getMessage());
+                }
+            }
+            return new VectorEncodeProcessor(tag,field,targetField,dims,normalize,vectorEncoding,ignoreMissing,
+                    codebook,codebooks);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package ingest;
+
+import index.Codebook;
+import index.CodebookService;
+import org.elasticsearch.ingest.AbstractProcessor;
+import org.elasticsearch.ingest.ConfigurationUtils;
+import org.elasticsearch.ingest.IngestDocument;
+import org.elasticsearch.ingest.Processor;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assigns an array of numbers to the partition of its nearest centroid in a {@link Codebook}.
+ * <pre>
+ * { "vector_partition": { "field": "feature", "codebook": "images", "target_field": "feature_partition" } }
+ * </pre>
+ * The partition id is written as a string to be indexed as a {@code keyword}, it is the term the
+ * {@code vector_partitions} query looks up.
+ * The processor reads the raw array, so it must run before {@code vector_encode} replaces it.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-09 14:05
+ */
+public final class VectorPartitionProcessor extends AbstractProcessor {
+    public static final String TYPE = "vector_partition";
+
+    private final String field;
+    private final String targetField;
+    private final String codebook;
+    private final boolean ignoreMissing;
+    private final CodebookService codebooks;
+
+    VectorPartitionProcessor(String tag,String field,String targetField,String codebook,boolean ignoreMissing,
+                             CodebookService codebooks) {
+        super(tag);
+        this.field = field;
+        this.targetField = targetField;
+        this.codebook = codebook;
+        this.ignoreMissing = ignoreMissing;
+        this.codebooks = codebooks;
+    }
+
+    @Override
+    public IngestDocument execute(IngestDocument document) {
+        final List<?> values = document.getFieldValue(field,List.class,ignoreMissing);
+        if (values == null) {
+            if (ignoreMissing) {
+                return document;
+            }
+            throw new IllegalArgumentException("field [" + field + "] is null, cannot assign it to a partition");
+        }
+        //looked up per document so that a reloaded codebook is picked up
+        final int partition = codebooks.get(codebook).nearest(VectorEncodeProcessor.readVector(field,values));
+        document.setFieldValue(targetField,Integer.toString(partition));
+        return document;
+    }
+
+    @Override
+    public String getType() {
+        return TYPE;
+    }
+
+    public static final class Factory implements Processor.Factory {
+        private final CodebookService codebooks;
+
+        public Factory(CodebookService codebooks) {
+            this.codebooks = codebooks;
+        }
+
+        @Override
+        public VectorPartitionProcessor create(Map<String, Processor.Factory> registry,String tag,
+                                               Map<String, Object> config) {
+            String field = ConfigurationUtils.readStringProperty(TYPE,tag,config,"field");
+            String targetField = ConfigurationUtils.readStringProperty(TYPE,tag,config,"target_field",field + "_partition");
+            String codebook = ConfigurationUtils.readStringProperty(TYPE,tag,config,"codebook");
+            boolean ignoreMissing = ConfigurationUtils.readBooleanProperty(TYPE,tag,config,"ignore_missing",false);
+            return new VectorPartitionProcessor(tag,field,targetField,codebook,ignoreMissing,codebooks);
+        }
+    }
+}
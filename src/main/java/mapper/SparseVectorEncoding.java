@@ -0,0 +1,99 @@
+package mapper;
+
+import java.util.Arrays;
+
+/**
+ * Binary layout of sparse vectors, only their non-zero dimensions are stored:
+ * <pre>
+ * [vint count] [vint index delta] * count [float value] * count [float norm]
+ * </pre>
+ * Indices are sorted and written as the difference with the previous one, the first one as is, so that
+ * features hashed into a million dimensions take 1 to 3 bytes each. Values are big-endian floats and the
+ * last 4 bytes are the L2 norm of the vector: values start {@code 4 * (count + 1)} bytes before the end.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-16 16:00
+ */
+public final class SparseVectorEncoding {
+    public static final String NAME = "sparse";
+
+    private SparseVectorEncoding() {
+    }
+
+    /**
+     * Encodes the non-zero values of a vector, {@code indices} being distinct and not negative, in any order.
+     */
+    public static byte[] encode(int[] indices,double[] values) {
+        if (indices.length != values.length) {
+            throw new IllegalArgumentException("a sparse vector needs as many indices as values, got ["
+                    + indices.length + "] and [" + values.length + "]");
+        }
+        final Integer[] order = sortedOrder(indices);
+        // a vint takes at most 5 bytes
+        final byte[] buffer = new byte[5 + indices.length * 9 + VectorEncoding.NORM_BYTES];
+        int pos = 0;
+        int count = 0;
+        for (int i : order) {
+            if (values[i] != 0d) {
+                count++;
+            }
+        }
+        pos = writeVInt(buffer,pos,count);
+        int previous = 0;
+        for (int i : order) {
+            if (values[i] == 0d) {
+                continue;
+            }
+            if (indices[i] < 0) {
+                throw new IllegalArgumentException("sparse vector indices must not be negative, got [" + indices[i] + "]");
+            }
+            pos = writeVInt(buffer,pos,indices[i] - previous);
+            previous = indices[i];
+        }
+        double norm = 0d;
+        for (int i : order) {
+            if (values[i] == 0d) {
+                continue;
+            }
+            pos = writeFloat(buffer,pos,(float) values[i]);
+            norm += values[i] * values[i];
+        }
+        pos = writeFloat(buffer,pos,(float) Math.sqrt(norm));
+        return Arrays.copyOf(buffer,pos);
+    }
+
+    private static int writeVInt(byte[] buffer,int pos,int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[pos++] = (byte) value;
+        return pos;
+    }
+
+    private static int writeFloat(byte[] buffer,int pos,float value) {
+        final int bits = Float.floatToIntBits(value);
+        buffer[pos] = (byte) (bits >>> 24);
+        buffer[pos + 1] = (byte) (bits >>> 16);
+        buffer[pos + 2] = (byte) (bits >>> 8);
+        buffer[pos + 3] = (byte) bits;
+        return pos + 4;
+    }
+
+    /**
+     * Positions of {@code indices} in increasing index order, rejecting duplicates.
+     */
+    private static Integer[] sortedOrder(int[] indices) {
+        final Integer[] order = new Integer[indices.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order,(a,b) -> Integer.compare(indices[a],indices[b]));
+        for (int i = 1; i < order.length; i++) {
+            if (indices[order[i]] == indices[order[i - 1]]) {
+                throw new IllegalArgumentException("sparse vector index [" + indices[order[i]] + "] is repeated");
+            }
+        }
+        return order;
+    }
+}
@@ -0,0 +1,137 @@
+package mapper;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+/**
+ * How the values of a vector are laid out in its binary doc value, all numbers are big-endian.
+ * <p>
+ * {@link #encodeWithNorm(double[])} appends the L2 norm of the vector as a float so that scorers do not
+ * have to recompute it for every document.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-11-27 14:05
+ */
+public enum VectorEncoding {
+    /**
+     * 8 bytes per dimension, the layout of vectors indexed in a plain binary field.
+     */
+    DOUBLE(8,0),
+    /**
+     * 4 bytes per dimension.
+     */
+    FLOAT(4,0),
+    /**
+     * Scalar quantization: a float scale and a float offset followed by one unsigned byte per dimension,
+     * the value of dimension i is {@code offset + scale * byte[i]}.
+     */
+    INT8(1,8),
+    /**
+     * Product quantization: one byte per sub-space, the code of its closest centroid in the
+     * {@link index.ProductQuantizer} of the field. The dimensions of the payload are the sub-spaces,
+     * such vectors are only encoded and scored through their codebook.
+     */
+    PQ(1,0);
+
+    /**
+     * Size of the norm appended by {@link #encodeWithNorm(double[])}.
+     */
+    public static final int NORM_BYTES = 4;
+
+    private final int bytesPerDim;
+    private final int headerBytes;
+
+    VectorEncoding(int bytesPerDim,int headerBytes) {
+        this.bytesPerDim = bytesPerDim;
+        this.headerBytes = headerBytes;
+    }
+
+    public static VectorEncoding fromString(String name) {
+        try {
+            return valueOf(name.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown vector encoding [" + name + "], must be one of [double, float, int8, pq]");
+        }
+    }
+
+    public int headerBytes() {
+        return headerBytes;
+    }
+
+    public int byteLength(int dims) {
+        return headerBytes + dims * bytesPerDim;
+    }
+
+    /**
+     * Number of dimensions of an encoded vector of {@code length} bytes, -1 if the length does not match the encoding.
+     */
+    public int dims(int length) {
+        final int valueBytes = length - headerBytes;
+        if (valueBytes < 0 || valueBytes % bytesPerDim != 0) {
+            return -1;
+        }
+        return valueBytes / bytesPerDim;
+    }
+
+    public byte[] encode(double[] vector) {
+        final ByteBuffer buffer = ByteBuffer.allocate(byteLength(vector.length));
+        encode(vector,buffer);
+        return buffer.array();
+    }
+
+    /**
+     * Encodes the vector followed by its L2 norm.
+     */
+    public byte[] encodeWithNorm(double[] vector) {
+        final ByteBuffer buffer = ByteBuffer.allocate(byteLength(vector.length) + NORM_BYTES);
+        encode(vector,buffer);
+        double norm = 0d;
+        for (double v : vector) {
+            norm += v * v;
+        }
+        buffer.putFloat((float) Math.sqrt(norm));
+        return buffer.array();
+    }
+
+    private void encode(double[] vector,ByteBuffer buffer) {
+        switch (this) {
+            case PQ:
+                throw new IllegalStateException("pq vectors are encoded with the codebook of their field");
+            case DOUBLE:
+                for (double v : vector) {
+                    buffer.putDouble(v);
+                }
+                break;
+            case FLOAT:
+                for (double v : vector) {
+                    buffer.putFloat((float) v);
+                }
+                break;
+            case INT8:
+                double min = Double.POSITIVE_INFINITY;
+                double max = Double.NEGATIVE_INFINITY;
+                for (double v : vector) {
+                    min = Math.min(min,v);
+                    max = Math.max(max,v);
+                }
+                if (vector.length == 0) {
+                    min = max = 0d;
+                }
+                final float scale = (float) ((max - min) / 255d);
+                buffer.putFloat(scale);
+                buffer.putFloat((float) min);
+                for (double v : vector) {
+                    final long q = scale == 0f ? 0 : Math.round((v - min) / scale);
+                    buffer.put((byte) Math.max(0,Math.min(255,q)));
+                }
+                break;
+            default:
+                throw new AssertionError(this);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
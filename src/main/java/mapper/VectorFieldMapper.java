@@ -0,0 +1,443 @@
+package mapper;
+
+import Util.MyUtils;
+import index.CodebookService;
+import index.ProductQuantizer;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.search.DocValuesFieldExistsQuery;
+import org.apache.lucene.search.Query;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
+import org.elasticsearch.index.fielddata.IndexFieldData;
+import org.elasticsearch.index.fielddata.plain.BytesBinaryDVIndexFieldData;
+import org.elasticsearch.index.mapper.ArrayValueMapperParser;
+import org.elasticsearch.index.mapper.BinaryFieldMapper;
+import org.elasticsearch.index.mapper.FieldMapper;
+import org.elasticsearch.index.mapper.MappedFieldType;
+import org.elasticsearch.index.mapper.Mapper;
+import org.elasticsearch.index.mapper.MapperParsingException;
+import org.elasticsearch.index.mapper.ParseContext;
+import org.elasticsearch.index.query.QueryShardContext;
+import org.elasticsearch.search.DocValueFormat;
+import org.joda.time.DateTimeZone;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A field holding one dense vector per document, stored in binary doc values with a configurable
+ * {@link VectorEncoding}.
+ * <pre>
+ * "image_vector": { "type": "vector", "dims": 512, "encoding": "float", "normalize": true }
+ * </pre>
+ * Values are arrays of numbers, or base64 strings already encoded by the {@code vector_encode} ingest processor.
+ * Every vector is stored followed by its L2 norm, with {@code normalize} vectors given as arrays are
+ * L2-normalized first so that cosine is a plain dot product, and encoded vectors must already have a unit norm.
+ * The doc value uses the same layout as the {@code binary} field, so the scripts read both the same way.
+ * <p>
+ * The {@code pq} encoding needs a product quantization {@code codebook} of the same dimensions. Only its name is
+ * part of the mapping: the codebook is taken from the {@link CodebookService} when documents are indexed or
+ * searched, so the mapping can be parsed on nodes without the file and always uses the codebook last reloaded.
+ * With {@code exact_vectors} the vectors are also stored as floats in the {@code <field>._exact} doc values,
+ * which are only read to rescore the top hits exactly.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-11-27 14:40
+ */
+public class VectorFieldMapper extends FieldMapper implements ArrayValueMapperParser {
+    public static final String CONTENT_TYPE = "vector";
+    // how far from 1 the stored norm of an encoded vector of a normalize field may be, float rounding included
+    private static final float UNIT_NORM_TOLERANCE = 1e-4f;
+
+    public static class Defaults {
+        public static final MappedFieldType FIELD_TYPE = new VectorFieldType();
+
+        static {
+            FIELD_TYPE.setTokenized(false);
+            FIELD_TYPE.setIndexOptions(IndexOptions.NONE);
+            FIELD_TYPE.setHasDocValues(true);
+            FIELD_TYPE.setOmitNorms(true);
+            FIELD_TYPE.freeze();
+        }
+    }
+
+    public static class Builder extends FieldMapper.Builder<Builder, VectorFieldMapper> {
+
+        public Builder(String name) {
+            super(name,Defaults.FIELD_TYPE,Defaults.FIELD_TYPE);
+            builder = this;
+        }
+
+        @Override
+        public VectorFieldType fieldType() {
+            return (VectorFieldType) super.fieldType();
+        }
+
+        public Builder dims(int dims) {
+            fieldType().setDims(dims);
+            return this;
+        }
+
+        public Builder encoding(VectorEncoding encoding) {
+            fieldType().setEncoding(encoding);
+            return this;
+        }
+
+        public Builder normalize(boolean normalize) {
+            fieldType().setNormalize(normalize);
+            return this;
+        }
+
+        public Builder codebook(String codebook,CodebookService codebooks) {
+            fieldType().setCodebook(codebook,codebooks);
+            return this;
+        }
+
+        public Builder exactVectors(boolean exactVectors) {
+            fieldType().setExactVectors(exactVectors);
+            return this;
+        }
+
+        @Override
+        public VectorFieldMapper build(BuilderContext context) {
+            setupFieldType(context);
+            return new VectorFieldMapper(name,fieldType,defaultFieldType,context.indexSettings(),
+                    multiFieldsBuilder.build(this,context),copyTo);
+        }
+    }
+
+    public static class TypeParser implements Mapper.TypeParser {
+        private final CodebookService codebooks;
+
+        public TypeParser(CodebookService codebooks) {
+            this.codebooks = codebooks;
+        }
+
+        @Override
+        public Mapper.Builder<?, ?> parse(String name,Map<String, Object> node,ParserContext parserContext)
+                throws MapperParsingException {
+            Builder builder = new Builder(name);
+            String codebook = null;
+            for (Iterator<Map.Entry<String, Object>> iterator = node.entrySet().iterator(); iterator.hasNext(); ) {
+                Map.Entry<String, Object> entry = iterator.next();
+                switch (entry.getKey()) {
+                    case "dims":
+                        builder.dims(XContentMapValues.nodeIntegerValue(entry.getValue()));
+                        iterator.remove();
+                        break;
+                    case "encoding":
+                        builder.encoding(VectorEncoding.fromString(entry.getValue().toString()));
+                        iterator.remove();
+                        break;
+                    case "normalize":
+                        builder.normalize(XContentMapValues.nodeBooleanValue(entry.getValue(),name + ".normalize"));
+                        iterator.remove();
+                        break;
+                    case "codebook":
+                        codebook = entry.getValue().toString();
+                        iterator.remove();
+                        break;
+                    case "exact_vectors":
+                        builder.exactVectors(XContentMapValues.nodeBooleanValue(entry.getValue(),name + ".exact_vectors"));
+                        iterator.remove();
+                        break;
+                    default:
+                        break;
+                }
+            }
+            if (builder.fieldType().dims() <= 0) {
+                throw new MapperParsingException("The [dims] property must be specified and positive for field [" + name + "]");
+            }
+            if ((builder.fieldType().encoding() == VectorEncoding.PQ) != (codebook != null)) {
+                throw new MapperParsingException("The [codebook] property must be specified with, and only with, the [pq] encoding for field [" + name + "]");
+            }
+            if (codebook != null) {
+                try {
+                    CodebookService.checkName(codebook);
+                } catch (IllegalArgumentException e) {
+                    throw new MapperParsingException("Invalid [codebook] for field [" + name + "]",e);
+                }
+                builder.codebook(codebook,codebooks);
+            }
+            return builder;
+        }
+    }
+
+    public static final class VectorFieldType extends MappedFieldType {
+        private int dims;
+        private VectorEncoding encoding = VectorEncoding.DOUBLE;
+        private boolean normalize;
+        // only with the pq encoding, the name of the codebook and where it is loaded from
+        private String codebook;
+        private CodebookService codebooks;
+        private boolean exactVectors;
+
+        public VectorFieldType() {
+        }
+
+        protected VectorFieldType(VectorFieldType ref) {
+            super(ref);
+            this.dims = ref.dims;
+            this.encoding = ref.encoding;
+            this.normalize = ref.normalize;
+            this.codebook = ref.codebook;
+            this.codebooks = ref.codebooks;
+            this.exactVectors = ref.exactVectors;
+        }
+
+        @Override
+        public VectorFieldType clone() {
+            return new VectorFieldType(this);
+        }
+
+        public int dims() {
+            return dims;
+        }
+
+        public void setDims(int dims) {
+            checkIfFrozen();
+            this.dims = dims;
+        }
+
+        public VectorEncoding encoding() {
+            return encoding;
+        }
+
+        public void setEncoding(VectorEncoding encoding) {
+            checkIfFrozen();
+            this.encoding = encoding;
+        }
+
+        public boolean normalize() {
+            return normalize;
+        }
+
+        public void setNormalize(boolean normalize) {
+            checkIfFrozen();
+            this.normalize = normalize;
+        }
+
+        public String codebook() {
+            return codebook;
+        }
+
+        public void setCodebook(String codebook,CodebookService codebooks) {
+            checkIfFrozen();
+            this.codebook = codebook;
+            this.codebooks = codebooks;
+        }
+
+        /**
+         * The codebook of the pq encoding as currently loaded on the node, null for the other encodings.
+         *
+         * @throws IllegalArgumentException if the codebook doesn't have the dimensions of the field
+         */
+        public ProductQuantizer productQuantizer() {
+            if (codebook == null) {
+                return null;
+            }
+            final ProductQuantizer productQuantizer = codebooks.productQuantizer(codebook);
+            if (productQuantizer.dims() != dims) {
+                throw new IllegalArgumentException("The [codebook] [" + codebook + "] of field [" + name() + "] has ["
+                        + productQuantizer.dims() + "] dimensions but the field has [" + dims + "]");
+            }
+            return productQuantizer;
+        }
+
+        public boolean exactVectors() {
+            return exactVectors;
+        }
+
+        public void setExactVectors(boolean exactVectors) {
+            checkIfFrozen();
+            this.exactVectors = exactVectors;
+        }
+
+        /**
+         * Name of the doc values holding the float vectors of {@code exact_vectors}.
+         */
+        public String exactFieldName() {
+            return name() + "._exact";
+        }
+
+        /**
+         * Number of bytes of an encoded vector, without its norm.
+         */
+        public int encodedLength() {
+            return encoding == VectorEncoding.PQ ? productQuantizer().m() : encoding.byteLength(dims);
+        }
+
+        @Override
+        public String typeName() {
+            return CONTENT_TYPE;
+        }
+
+        @Override
+        public void checkCompatibility(MappedFieldType other,List<String> conflicts,boolean strict) {
+            super.checkCompatibility(other,conflicts,strict);
+            VectorFieldType otherType = (VectorFieldType) other;
+            if (dims != otherType.dims) {
+                conflicts.add("mapper [" + name() + "] has different [dims] values");
+            }
+            if (encoding != otherType.encoding) {
+                conflicts.add("mapper [" + name() + "] has different [encoding] values");
+            }
+            if (normalize != otherType.normalize) {
+                conflicts.add("mapper [" + name() + "] has different [normalize] values");
+            }
+            if (Objects.equals(codebook(),otherType.codebook()) == false) {
+                conflicts.add("mapper [" + name() + "] has different [codebook] values");
+            }
+            if (exactVectors != otherType.exactVectors) {
+                conflicts.add("mapper [" + name() + "] has different [exact_vectors] values");
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (super.equals(o) == false) {
+                return false;
+            }
+            VectorFieldType that = (VectorFieldType) o;
+            return dims == that.dims && encoding == that.encoding && normalize == that.normalize
+                    && Objects.equals(codebook(),that.codebook()) && exactVectors == that.exactVectors;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(super.hashCode(),dims,encoding,normalize,codebook(),exactVectors);
+        }
+
+        @Override
+        public DocValueFormat docValueFormat(String format,DateTimeZone timeZone) {
+            throw new UnsupportedOperationException("Field [" + name() + "] of type [" + typeName() + "] doesn't support docvalue_fields or aggregations");
+        }
+
+        @Override
+        public IndexFieldData.Builder fielddataBuilder(String fullyQualifiedIndexName) {
+            return new BytesBinaryDVIndexFieldData.Builder();
+        }
+
+        @Override
+        public Query existsQuery(QueryShardContext context) {
+            return new DocValuesFieldExistsQuery(name());
+        }
+
+        @Override
+        public Query termQuery(Object value,QueryShardContext context) {
+            throw new UnsupportedOperationException("Field [" + name() + "] of type [" + typeName() + "] doesn't support queries");
+        }
+    }
+
+    protected VectorFieldMapper(String simpleName,MappedFieldType fieldType,MappedFieldType defaultFieldType,
+                                Settings indexSettings,MultiFields multiFields,CopyTo copyTo) {
+        super(simpleName,fieldType,defaultFieldType,indexSettings,multiFields,copyTo);
+    }
+
+    @Override
+    public VectorFieldType fieldType() {
+        return (VectorFieldType) super.fieldType();
+    }
+
+    @Override
+    protected void parseCreateField(ParseContext context,List<IndexableField> fields) throws IOException {
+        if (context.externalValueSet()) {
+            throw new IllegalArgumentException("Field [" + name() + "] of type [" + typeName() + "] can't be used in multi-fields");
+        }
+        if (context.doc().getByKey(fieldType().name()) != null) {
+            throw new IllegalArgumentException("Field [" + name() + "] of type [" + typeName() + "] doesn't support indexing multiple values for the same field in the same document");
+        }
+        final XContentParser parser = context.parser();
+        final byte[] value;
+        byte[] exactValue = null;
+        if (parser.currentToken() == XContentParser.Token.VALUE_NULL) {
+            return;
+        } else if (parser.currentToken() == XContentParser.Token.VALUE_STRING) {
+            if (fieldType().exactVectors()) {
+                throw new IllegalArgumentException("Field [" + name() + "] of type [" + typeName() + "] with [exact_vectors] expects an array of numbers");
+            }
+            value = parser.binaryValue();
+            final int expected = fieldType().encodedLength() + VectorEncoding.NORM_BYTES;
+            if (value.length != expected) {
+                throw new IllegalArgumentException("Field [" + name() + "] of type [" + typeName() + "] expects ["
+                        + expected + "] encoded bytes but got [" + value.length + "]");
+            }
+            if (fieldType().normalize()) {
+                // an encoded vector can't be normalized here, scoring it as one would give wrong cosines
+                final float norm = ByteBuffer.wrap(value).getFloat(value.length - VectorEncoding.NORM_BYTES);
+                if ((Math.abs(norm - 1f) <= UNIT_NORM_TOLERANCE) == false) {
+                    throw new IllegalArgumentException("Field [" + name() + "] of type [" + typeName()
+                            + "] with [normalize] expects encoded vectors of unit norm but got a norm of [" + norm + "]");
+                }
+            }
+        } else {
+            final double[] vector = parseVector(parser);
+            if (fieldType().normalize()) {
+                MyUtils.normalize(vector);
+            }
+            if (fieldType().encoding() == VectorEncoding.PQ) {
+                value = fieldType().productQuantizer().encodeWithNorm(vector);
+            } else {
+                value = fieldType().encoding().encodeWithNorm(vector);
+            }
+            if (fieldType().exactVectors()) {
+                exactValue = VectorEncoding.FLOAT.encodeWithNorm(vector);
+            }
+        }
+        BinaryFieldMapper.CustomBinaryDocValuesField field =
+                new BinaryFieldMapper.CustomBinaryDocValuesField(fieldType().name(),value);
+        context.doc().addWithKey(fieldType().name(),field);
+        if (exactValue != null) {
+            context.doc().add(new BinaryFieldMapper.CustomBinaryDocValuesField(fieldType().exactFieldName(),exactValue));
+        }
+    }
+
+    private double[] parseVector(XContentParser parser) throws IOException {
+        XContentParser.Token token = parser.currentToken();
+        if (token != XContentParser.Token.START_ARRAY) {
+            throw new IllegalArgumentException("Field [" + name() + "] of type [" + typeName() + "] expects an array of numbers");
+        }
+        final int dims = fieldType().dims();
+        final double[] vector = new double[dims];
+        int dim = 0;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_ARRAY) {
+            if (token != XContentParser.Token.VALUE_NUMBER) {
+                throw new IllegalArgumentException("Field [" + name() + "] of type [" + typeName() + "] expects an array of numbers");
+            }
+            if (dim == dims) {
+                throw new IllegalArgumentException("Field [" + name() + "] of type [" + typeName() + "] has more than the [" + dims + "] dimensions of its mapping");
+            }
+            vector[dim++] = parser.doubleValue(true);
+        }
+        if (dim != dims) {
+            throw new IllegalArgumentException("Field [" + name() + "] of type [" + typeName() + "] has [" + dim + "] dimensions but its mapping has [" + dims + "]");
+        }
+        return vector;
+    }
+
+    @Override
+    protected void doXContentBody(XContentBuilder builder,boolean includeDefaults,Params params) throws IOException {
+        super.doXContentBody(builder,includeDefaults,params);
+        builder.field("dims",fieldType().dims());
+        builder.field("encoding",fieldType().encoding().toString());
+        builder.field("normalize",fieldType().normalize());
+        if (fieldType().codebook() != null) {
+            builder.field("codebook",fieldType().codebook());
+        }
+        if (includeDefaults || fieldType().exactVectors()) {
+            builder.field("exact_vectors",fieldType().exactVectors());
+        }
+    }
+
+    @Override
+    protected String contentType() {
+        return CONTENT_TYPE;
+    }
+}
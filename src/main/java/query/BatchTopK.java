@@ -0,0 +1,174 @@
+package query;
+
+import index.NeighborQueue;
+import index.VectorSimilarity;
+import mapper.VectorEncoding;
+import mapper.VectorFieldMapper;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.util.Bits;
+import org.elasticsearch.index.mapper.MappedFieldType;
+import org.elasticsearch.index.query.QueryShardContext;
+import script.DocVectorValues;
+import script.ScoringStats;
+import script.VectorKernel;
+import script.VectorReader;
+
+import java.io.IOException;
+
+/**
+ * Exact top k of many query vectors at once: every document vector is decoded once, into a block of
+ * {@value #BLOCK_DOCS} documents that stays in cache while all the queries are scored against it.
+ * <p>
+ * Scores are the ones of the {@code cosine} and {@code norm-l2} scripts. Documents whose vector does not have
+ * the dimensions of the queries are left out instead of scoring 0.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-15 10:20
+ */
+public final class BatchTopK {
+    // documents decoded together, 32 vectors of 128 doubles fill 32KB
+    private static final int BLOCK_DOCS = 32;
+
+    // reads the document vectors of the field
+    private final VectorReader vectors;
+    // whether the vectors of the field have been L2-normalized at index time
+    private final boolean normalized;
+    private final ScoringStats stats;
+    private final double[][] queries;
+    private final VectorSimilarity similarity;
+    private final int k;
+    private final int dims;
+    private final double[] queryNorms;
+    // per query, doc ids of the shard with their score as distance
+    private final NeighborQueue[] tops;
+
+    private final VectorKernel kernel = VectorKernel.get();
+    private final double[] block;
+    private final double[] docNorms = new double[BLOCK_DOCS];
+    private final int[] docs = new int[BLOCK_DOCS];
+    private int size;
+
+    private BatchTopK(VectorReader vectors,boolean normalized,ScoringStats stats,double[][] queries,
+                      VectorSimilarity similarity,int k) {
+        this.vectors = vectors;
+        this.normalized = normalized;
+        this.stats = stats;
+        this.queries = queries;
+        this.similarity = similarity;
+        this.k = k;
+        this.dims = queries[0].length;
+        this.queryNorms = new double[queries.length];
+        this.tops = new NeighborQueue[queries.length];
+        for (int q = 0; q < queries.length; q++) {
+            if (queries[q].length != dims) {
+                throw new IllegalArgumentException("query vectors must all have [" + dims + "] dimensions, ["
+                        + q + "] has [" + queries[q].length + "]");
+            }
+            double norm = 0d;
+            for (double v : queries[q]) {
+                norm += v * v;
+            }
+            queryNorms[q] = Math.sqrt(norm);
+            tops[q] = new NeighborQueue(k,false);
+        }
+        this.block = new double[BLOCK_DOCS * dims];
+    }
+
+    /**
+     * Top k of {@code queries} on the vectors of {@code field} of a shard.
+     */
+    public static BatchTopK create(QueryShardContext context,String field,double[][] queries,
+                                   VectorSimilarity similarity,int k) {
+        final MappedFieldType fieldType = context.fieldMapper(field);
+        final VectorReader vectors = VectorReader.of(field,fieldType);
+        if (vectors.encoding() == VectorEncoding.PQ) {
+            throw new IllegalArgumentException("batches of query vectors don't support the [pq] encoding of field ["
+                    + field + "]");
+        }
+        final boolean normalized = fieldType instanceof VectorFieldMapper.VectorFieldType
+                && ((VectorFieldMapper.VectorFieldType) fieldType).normalize();
+        final ScoringStats stats = ScoringStats.of(context.index().getName(),
+                similarity == VectorSimilarity.COSINE ? "cosine" : "norm-l2",field,fieldType);
+        return new BatchTopK(vectors,normalized,stats,queries,similarity,k);
+    }
+
+    /**
+     * Scores the documents of a segment among {@code candidates}, or all the documents with a vector if null.
+     */
+    public void scan(LeafReaderContext context,DocIdSetIterator candidates) throws IOException {
+        final long start = System.nanoTime();
+        long scored = 0L;
+        long bytes = 0L;
+        long mismatches = 0L;
+        final Bits liveDocs = context.reader().getLiveDocs();
+        final DocVectorValues docVector = vectors.docValues(context);
+        for (int doc = BoundedTopK.next(candidates,docVector); doc != DocIdSetIterator.NO_MORE_DOCS;
+             doc = BoundedTopK.next(candidates,docVector)) {
+            if (liveDocs != null && liveDocs.get(doc) == false) {
+                continue;
+            }
+            if (docVector.dims() != dims) {
+                mismatches++;
+                continue;
+            }
+            scored++;
+            bytes += docVector.length();
+            final int pos = size * dims;
+            docVector.copyTo(block,pos);
+            if (docVector.hasNorm()) {
+                docNorms[size] = docVector.norm();
+            } else {
+                docNorms[size] = Math.sqrt(kernel.dot(block,block,0,pos,pos + dims));
+            }
+            docs[size++] = context.docBase + doc;
+            if (size == BLOCK_DOCS) {
+                flush();
+            }
+        }
+        flush();
+        stats.scored(scored,bytes);
+        stats.mismatches(mismatches);
+        stats.leafScan(System.nanoTime() - start);
+    }
+
+    private void flush() {
+        final VectorKernel kernel = this.kernel;
+        for (int q = 0; q < queries.length; q++) {
+            final double[] query = queries[q];
+            final double queryNorm = queryNorms[q];
+            final NeighborQueue top = tops[q];
+            for (int d = 0, pos = 0; d < size; d++, pos += dims) {
+                final double score;
+                if (similarity == VectorSimilarity.COSINE) {
+                    final double dot = kernel.dot(query,block,pos,0,dims);
+                    //unit document vectors are not divided by their norm, as in the cosine script
+                    final double docNorm = normalized ? 1d : docNorms[d];
+                    score = docNorm == 0 || queryNorm == 0 ? 0d : dot / (docNorm * queryNorm);
+                } else {
+                    score = Math.max(0d,1d - Math.sqrt(kernel.squaredDistance(query,block,pos,0,dims)));
+                }
+                top.insertWithOverflow(docs[d],(float) score,k);
+            }
+        }
+        size = 0;
+    }
+
+    public int queries() {
+        return queries.length;
+    }
+
+    /**
+     * The top hits of query {@code q}, best first, with doc ids of the shard. It empties the heap of the query.
+     */
+    public ScoreDoc[] topDocs(int q) {
+        final NeighborQueue top = tops[q];
+        final ScoreDoc[] hits = new ScoreDoc[top.size()];
+        for (int i = hits.length - 1; i >= 0; i--) {
+            final float score = top.topDistance();
+            hits[i] = new ScoreDoc(top.pop(),score);
+        }
+        return hits;
+    }
+}
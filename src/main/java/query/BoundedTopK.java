@@ -0,0 +1,242 @@
+package query;
+
+import index.NeighborQueue;
+import index.VectorSimilarity;
+import mapper.VectorEncoding;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.Bits;
+import script.DocVectorValues;
+import script.SimilarityScorer;
+import script.VectorScorer;
+
+import java.io.IOException;
+
+/**
+ * Exact top k of a segment that skips the documents which provably cannot beat the current k-th best score.
+ * <p>
+ * Before a vector is decoded, its stored norm bounds the L2 distance: {@code ||q| - |d|| <= |q - d|}. The first
+ * {@code prefix} dimensions are then scored, for L2 their partial distance is a lower bound of the distance,
+ * for cosine the dot product of the remaining dimensions is bounded with Cauchy-Schwarz by the product of
+ * their norms, the one of the document being {@code sqrt(|d|^2 - |d_prefix|^2)}. Only documents passing both
+ * bounds are fully decoded. Bounds on the norm are not used for int8 vectors, whose stored norm is the one of
+ * the original vector. Scores are the ones of the {@code cosine} and {@code norm-l2} scripts.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-12 10:40
+ */
+final class BoundedTopK {
+    // a document is only skipped if its bound is below the k-th score by more than the rounding errors
+    private static final double EPSILON = 1e-6;
+
+    private final SimilarityScorer factory;
+    private final double[] query;
+    private final VectorSimilarity similarity;
+    private final int k;
+    private final int prefix;
+    private final PruningStats stats;
+    // k-th best score over the segments already searched, null to only prune within a segment
+    private final Threshold threshold;
+    private final double querySquaredNorm;
+    // norm of the query dimensions after the prefix
+    private final double queryRestNorm;
+
+    BoundedTopK(SimilarityScorer factory,double[] query,VectorSimilarity similarity,int k,int prefix,
+                PruningStats stats,Threshold threshold) {
+        this.factory = factory;
+        this.query = query;
+        this.similarity = similarity;
+        this.k = k;
+        this.prefix = Math.max(0,Math.min(prefix,query.length));
+        this.stats = stats;
+        this.threshold = threshold;
+        double norm = 0d;
+        double rest = 0d;
+        for (int i = 0; i < query.length; i++) {
+            norm += query[i] * query[i];
+            if (i >= this.prefix) {
+                rest += query[i] * query[i];
+            }
+        }
+        this.querySquaredNorm = norm;
+        this.queryRestNorm = Math.sqrt(rest);
+    }
+
+    /**
+     * The top k of the segment among {@code candidates}, or among all the documents with a vector if null.
+     */
+    LeafHits scan(LeafReaderContext context,DocIdSetIterator candidates) throws IOException {
+        final long start = System.nanoTime();
+        long docs = 0L;
+        long bytes = 0L;
+        final Bits liveDocs = context.reader().getLiveDocs();
+        final DocVectorValues docVector = factory.docVectorValues(context);
+        // pq vectors can only be scored through their tables
+        final VectorScorer scorer = factory.encoding() == VectorEncoding.PQ ? factory.newScorer() : null;
+        final NeighborQueue top = new NeighborQueue(k,false);
+        for (int doc = next(candidates,docVector); doc != DocIdSetIterator.NO_MORE_DOCS; doc = next(candidates,docVector)) {
+            if (liveDocs != null && liveDocs.get(doc) == false) {
+                continue;
+            }
+            docs++;
+            bytes += docVector.length();
+            double min = top.size() >= k ? top.topDistance() : Double.NEGATIVE_INFINITY;
+            if (threshold != null) {
+                min = Math.max(min,threshold.value());
+            }
+            final double score;
+            if (scorer != null) {
+                stats.decoded();
+                score = scorer.score(docVector);
+            } else {
+                score = score(docVector,min);
+            }
+            if (Double.isNaN(score) == false) {
+                top.insertWithOverflow(doc,(float) score,k);
+            }
+        }
+        if (threshold != null) {
+            threshold.merge(top);
+        }
+        factory.stats().scored(docs,bytes);
+        factory.stats().leafScan(System.nanoTime() - start);
+        return LeafHits.fromTopScores(top);
+    }
+
+    /**
+     * The next document of {@code candidates} with a vector, or the next document with a vector if null.
+     */
+    static int next(DocIdSetIterator candidates,DocVectorValues docVector) throws IOException {
+        if (candidates == null) {
+            return docVector.nextDoc();
+        }
+        int doc;
+        do {
+            doc = candidates.nextDoc();
+        } while (doc != DocIdSetIterator.NO_MORE_DOCS && docVector.advanceExact(doc) == false);
+        return doc;
+    }
+
+    /**
+     * Score of the current document, NaN if it was skipped because it cannot score more than {@code min}.
+     */
+    private double score(DocVectorValues docVector,double min) {
+        final int dims = query.length;
+        if (docVector.dims() != dims) {
+            stats.decoded();
+            factory.stats().mismatch();
+            return 0d;
+        }
+        final boolean prune = min != Double.NEGATIVE_INFINITY;
+        // the stored norm is the one of the original vector, int8 values are only close to it
+        final boolean normBound = prune && factory.encoding() != VectorEncoding.INT8;
+        if (similarity == VectorSimilarity.COSINE) {
+            if (querySquaredNorm == 0) {
+                stats.decoded();
+                return 0d;
+            }
+            final double queryNorm = Math.sqrt(querySquaredNorm);
+            if (factory.normalized()) {
+                //unit document vectors, as in the cosine script
+                final double inverseQueryNorm = 1d / queryNorm;
+                double dot = 0d;
+                if (normBound && prefix < dims) {
+                    dot = docVector.dot(query,0,prefix);
+                    final double rest = Math.sqrt(Math.max(0d,1d - docVector.squaredNorm(0,prefix)));
+                    if ((dot + queryRestNorm * rest) * inverseQueryNorm + EPSILON <= min) {
+                        stats.skippedByPrefix();
+                        return Double.NaN;
+                    }
+                    dot += docVector.dot(query,prefix,dims);
+                } else {
+                    dot = docVector.dot(query);
+                }
+                stats.decoded();
+                return dot * inverseQueryNorm;
+            }
+            if (docVector.hasNorm() == false) {
+                //no norm to bound with
+                stats.decoded();
+                final double docNorm = Math.sqrt(docVector.squaredNorm());
+                return docNorm == 0 ? 0d : docVector.dot(query) / (docNorm * queryNorm);
+            }
+            final double docNorm = docVector.norm();
+            if (docNorm == 0) {
+                stats.decoded();
+                return 0d;
+            }
+            double dot;
+            if (normBound && prefix < dims) {
+                dot = docVector.dot(query,0,prefix);
+                final double rest = Math.sqrt(Math.max(0d,docNorm * docNorm - docVector.squaredNorm(0,prefix)));
+                if ((dot + queryRestNorm * rest) / (docNorm * queryNorm) + EPSILON <= min) {
+                    stats.skippedByPrefix();
+                    return Double.NaN;
+                }
+                dot += docVector.dot(query,prefix,dims);
+            } else {
+                dot = docVector.dot(query);
+            }
+            stats.decoded();
+            return dot / (docNorm * queryNorm);
+        }
+        // norm-l2, the score is max(0, 1 - distance)
+        if (normBound && docVector.hasNorm()) {
+            final double lowerBound = Math.abs(Math.sqrt(querySquaredNorm) - docVector.norm());
+            if (1d - lowerBound + EPSILON <= min) {
+                stats.skippedByNorm();
+                return Double.NaN;
+            }
+        }
+        double distance;
+        if (prune && prefix < dims) {
+            distance = docVector.squaredDistance(query,0,prefix);
+            if (1d - Math.sqrt(distance) + EPSILON <= min) {
+                stats.skippedByPrefix();
+                return Double.NaN;
+            }
+            distance += docVector.squaredDistance(query,prefix,dims);
+        } else {
+            distance = docVector.squaredDistance(query);
+        }
+        stats.decoded();
+        final double s = 1 - Math.sqrt(distance);
+        return s < 0 ? 0 : s;
+    }
+
+    /**
+     * The k-th best score over the segments searched so far, shared by the segments of one search.
+     */
+    static final class Threshold {
+        private final int k;
+        private final NeighborQueue scores;
+        private volatile double value = Double.NEGATIVE_INFINITY;
+
+        Threshold(int k) {
+            this.k = k;
+            this.scores = new NeighborQueue(k,false);
+        }
+
+        double value() {
+            return value;
+        }
+
+        synchronized void merge(NeighborQueue leafTop) {
+            for (int i = 0; i < leafTop.size(); i++) {
+                scores.insertWithOverflow(0,leafTop.distanceAt(i),k);
+            }
+            if (scores.size() >= k) {
+                value = scores.topDistance();
+            }
+        }
+
+        synchronized void merge(LeafHits leafHits) {
+            for (int i = 0; i < leafHits.size(); i++) {
+                scores.insertWithOverflow(0,leafHits.score(i),k);
+            }
+            if (scores.size() >= k) {
+                value = scores.topDistance();
+            }
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package query;
+
+import index.VectorSimilarity;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Explanation;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Weight;
+import script.SimilarityScorer;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Exact k nearest neighbours of a vector, every segment being scanned with {@link BoundedTopK}.
+ * <p>
+ * The k-th best score of the segments already searched is shared with the next ones, so that later segments
+ * skip more documents. The documents decoded and skipped are printed in the description of the query.
+ * <p>
+ * With a {@link SegmentSearchExecutor}, the first segment asked for its scorer searches all the segments of
+ * the shard concurrently, the next ones only get their hits.
+ * <p>
+ * With a {@link TopHitsCache}, the hits of every segment are cached. A segment missing from the cache is then
+ * scanned without the threshold of the other segments, its hits must hold whatever segments it is searched with.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-12 11:20
+ */
+public final class ExactKnnQuery extends Query {
+    private final String field;
+    private final double[] vector;
+    private final int k;
+    private final VectorSimilarity similarity;
+    private final int prefix;
+    // only the documents matching it are scanned, may be null
+    private final Query filter;
+    private final SimilarityScorer exact;
+    // searches the segments concurrently, null to search them one after the other
+    private final SegmentSearchExecutor executor;
+    // caches the hits of the segments, may be null
+    private final TopHitsCache results;
+    private final PruningStats stats;
+
+    public ExactKnnQuery(String field,double[] vector,int k,VectorSimilarity similarity,int prefix,Query filter,
+                         SimilarityScorer exact,SegmentSearchExecutor executor,TopHitsCache results) {
+        this(field,vector,k,similarity,prefix,filter,exact,executor,results,new PruningStats());
+    }
+
+    private ExactKnnQuery(String field,double[] vector,int k,VectorSimilarity similarity,int prefix,Query filter,
+                          SimilarityScorer exact,SegmentSearchExecutor executor,TopHitsCache results,
+                          PruningStats stats) {
+        this.field = field;
+        this.vector = vector;
+        this.k = k;
+        this.similarity = similarity;
+        this.prefix = prefix;
+        this.filter = filter;
+        this.exact = exact;
+        this.executor = executor;
+        this.results = results;
+        this.stats = stats;
+    }
+
+    public PruningStats stats() {
+        return stats;
+    }
+
+    @Override
+    public Query rewrite(IndexReader reader) throws IOException {
+        if (filter == null) {
+            return this;
+        }
+        final Query rewritten = filter.rewrite(reader);
+        if (rewritten == filter) {
+            return this;
+        }
+        return new ExactKnnQuery(field,vector,k,similarity,prefix,rewritten,exact,executor,results,stats);
+    }
+
+    @Override
+    public Weight createWeight(IndexSearcher searcher,boolean needsScores,float boost) throws IOException {
+        final Weight filterWeight = filter == null ? null : searcher.createWeight(filter,false,1f);
+        final BoundedTopK.Threshold threshold = new BoundedTopK.Threshold(k);
+        final BoundedTopK topK = new BoundedTopK(exact,vector,similarity,k,prefix,stats,threshold);
+        // the prefix only changes how many documents are decoded, not the hits
+        final TopHitsCache.Key key = results == null || results.enabled() == false ? null
+                : new TopHitsCache.Key(ExactKnnQueryBuilder.NAME,field,vector,"k=" + k + "," + similarity,filter);
+        final List<LeafReaderContext> leaves = searcher.getTopReaderContext().leaves();
+        return new Weight(this) {
+            // hits of all the segments, by leaf ord, once searched concurrently
+            private List<LeafHits> allHits;
+
+            @Override
+            public void extractTerms(Set<Term> terms) {
+            }
+
+            @Override
+            public Explanation explain(LeafReaderContext context,int doc) throws IOException {
+                final DocIdSetIterator candidates = candidates(context);
+                if (filterWeight != null && candidates == null) {
+                    return Explanation.noMatch("no document matches the filter of " + ExactKnnQuery.this.toString());
+                }
+                // without the threshold of the other segments, the segment alone decides
+                final LeafHits hits = new BoundedTopK(exact,vector,similarity,k,prefix,new PruningStats(),null)
+                        .scan(context,candidates);
+                return hits.explain(doc,ExactKnnQuery.this.toString());
+            }
+
+            @Override
+            public Scorer scorer(LeafReaderContext context) throws IOException {
+                final LeafHits hits;
+                if (executor != null && leaves.size() > 1 && context.ord < leaves.size()
+                        && leaves.get(context.ord) == context) {
+                    // null for the segments left when the search timed out
+                    final LeafHits searched = allHits().get(context.ord);
+                    hits = searched == null ? LeafHits.EMPTY : searched;
+                } else {
+                    hits = scan(context);
+                }
+                return hits.size() == 0 ? null : hits.scorer(this,boost);
+            }
+
+            private synchronized List<LeafHits> allHits() throws IOException {
+                if (allHits == null) {
+                    allHits = executor.search(leaves,this::scan);
+                }
+                return allHits;
+            }
+
+            private LeafHits scan(LeafReaderContext context) throws IOException {
+                if (key == null) {
+                    return scan(context,topK);
+                }
+                final LeafHits hits = results.hits(context,key,filterWeight,() -> scan(context,
+                        new BoundedTopK(exact,vector,similarity,k,prefix,stats,null)));
+                threshold.merge(hits);
+                return hits;
+            }
+
+            private LeafHits scan(LeafReaderContext context,BoundedTopK topK) throws IOException {
+                final DocIdSetIterator candidates = candidates(context);
+                if (filterWeight != null && candidates == null) {
+                    return LeafHits.EMPTY;
+                }
+                return topK.scan(context,candidates);
+            }
+
+            private DocIdSetIterator candidates(LeafReaderContext context) throws IOException {
+                if (filterWeight == null) {
+                    return null;
+                }
+                final Scorer scorer = filterWeight.scorer(context);
+                return scorer == null ? null : scorer.iterator();
+            }
+
+            @Override
+            public boolean isCacheable(LeafReaderContext ctx) {
+                return false;
+            }
+        };
+    }
+
+    @Override
+    public String toString(String field) {
+        return "exact_knn(" + this.field + ",k=" + k + "," + similarity + ",prefix=" + prefix
+                + (filter == null ? "" : ",filter=" + filter.toString(field)) + (executor == null ? "" : ",parallel")
+                + ")[" + stats + "]";
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (sameClassAs(other) == false) {
+            return false;
+        }
+        ExactKnnQuery that = (ExactKnnQuery) other;
+        return field.equals(that.field) && Arrays.equals(vector,that.vector) && k == that.k
+                && similarity == that.similarity && prefix == that.prefix && Objects.equals(filter,that.filter);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(classHash(),field,Arrays.hashCode(vector),k,similarity,prefix,filter);
+    }
+}
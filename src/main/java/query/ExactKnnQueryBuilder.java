@@ -0,0 +1,310 @@
+package query;
+
+import index.VectorColumnCache;
+import index.VectorSimilarity;
+import org.apache.lucene.search.Query;
+import org.elasticsearch.common.ParseField;
+import org.elasticsearch.common.ParsingException;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.index.query.AbstractQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryRewriteContext;
+import org.elasticsearch.index.query.QueryShardContext;
+import script.SimilarityScorer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The {@code exact_knn} query, the exact k nearest neighbours of a vector on every shard.
+ * <pre>
+ * "exact_knn": {
+ *   "field": "image_vector",
+ *   "query_vector": [0.1, 0.2, ...],
+ *   "k": 10,
+ *   "similarity": "cosine",
+ *   "prefix_dims": 16,
+ *   "filter": { "term": { "category": "shoes" } },
+ *   "parallel": true
+ * }
+ * </pre>
+ * Documents that cannot beat the current k-th best score are skipped on their stored norm, then on the score
+ * of their first {@code prefix_dims} dimensions, 0 disabling the prefix bound. It returns the same hits as a
+ * {@code script_score} of the {@code cosine} or {@code norm-l2} script sorted on score, provided it is the
+ * top-level query: restrictions belong in its {@code filter}, not in an enclosing {@code bool}.
+ * <p>
+ * With {@code parallel}, the segments of a shard are searched concurrently on the {@code vector_distance}
+ * thread pool instead of one after the other on the search thread.
+ * <p>
+ * The hits of every segment are kept in the node's {@link TopHitsCache}, a repeated query only scans the new
+ * segments.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-12 11:50
+ */
+public class ExactKnnQueryBuilder extends AbstractQueryBuilder<ExactKnnQueryBuilder> {
+    public static final String NAME = "exact_knn";
+
+    private static final ParseField FIELD_FIELD = new ParseField("field");
+    private static final ParseField QUERY_VECTOR_FIELD = new ParseField("query_vector");
+    private static final ParseField K_FIELD = new ParseField("k");
+    private static final ParseField SIMILARITY_FIELD = new ParseField("similarity");
+    private static final ParseField PREFIX_DIMS_FIELD = new ParseField("prefix_dims");
+    private static final ParseField FILTER_FIELD = new ParseField("filter");
+    private static final ParseField PARALLEL_FIELD = new ParseField("parallel");
+
+    private final String field;
+    private final double[] queryVector;
+    private int k = KnnQueryBuilder.DEFAULT_K;
+    private VectorSimilarity similarity = VectorSimilarity.COSINE;
+    private int prefixDims;
+    private QueryBuilder filter;
+    private boolean parallel;
+    private final VectorColumnCache columns;
+    private final SegmentSearchExecutor executor;
+    private final TopHitsCache results;
+
+    public ExactKnnQueryBuilder(String field,double[] queryVector,VectorColumnCache columns,
+                                SegmentSearchExecutor executor,TopHitsCache results) {
+        if (field == null) {
+            throw new IllegalArgumentException("[" + NAME + "] requires a field");
+        }
+        if (queryVector == null || queryVector.length == 0) {
+            throw new IllegalArgumentException("[" + NAME + "] requires a query_vector");
+        }
+        this.field = field;
+        this.queryVector = queryVector;
+        this.prefixDims = defaultPrefixDims(queryVector.length);
+        this.columns = columns;
+        this.executor = executor;
+        this.results = results;
+    }
+
+    public ExactKnnQueryBuilder(StreamInput in,VectorColumnCache columns,SegmentSearchExecutor executor,
+                                TopHitsCache results) throws IOException {
+        super(in);
+        this.field = in.readString();
+        this.queryVector = in.readDoubleArray();
+        this.k = in.readVInt();
+        this.similarity = in.readEnum(VectorSimilarity.class);
+        this.prefixDims = in.readVInt();
+        this.filter = in.readOptionalNamedWriteable(QueryBuilder.class);
+        this.parallel = in.readBoolean();
+        this.columns = columns;
+        this.executor = executor;
+        this.results = results;
+    }
+
+    @Override
+    protected void doWriteTo(StreamOutput out) throws IOException {
+        out.writeString(field);
+        out.writeDoubleArray(queryVector);
+        out.writeVInt(k);
+        out.writeEnum(similarity);
+        out.writeVInt(prefixDims);
+        out.writeOptionalNamedWriteable(filter);
+        out.writeBoolean(parallel);
+    }
+
+    /**
+     * An eighth of the dimensions: enough to bound most documents, small enough to be cheap when it doesn't.
+     */
+    static int defaultPrefixDims(int dims) {
+        return Math.max(1,dims / 8);
+    }
+
+    public ExactKnnQueryBuilder k(int k) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("[" + NAME + "] requires [k] to be positive");
+        }
+        this.k = k;
+        return this;
+    }
+
+    public ExactKnnQueryBuilder similarity(VectorSimilarity similarity) {
+        this.similarity = Objects.requireNonNull(similarity);
+        return this;
+    }
+
+    public ExactKnnQueryBuilder prefixDims(int prefixDims) {
+        if (prefixDims < 0 || prefixDims > queryVector.length) {
+            throw new IllegalArgumentException("[" + NAME + "] requires [prefix_dims] between 0 and ["
+                    + queryVector.length + "]");
+        }
+        this.prefixDims = prefixDims;
+        return this;
+    }
+
+    public ExactKnnQueryBuilder filter(QueryBuilder filter) {
+        this.filter = filter;
+        return this;
+    }
+
+    public ExactKnnQueryBuilder parallel(boolean parallel) {
+        this.parallel = parallel;
+        return this;
+    }
+
+    public String field() {
+        return field;
+    }
+
+    public double[] queryVector() {
+        return queryVector;
+    }
+
+    public int k() {
+        return k;
+    }
+
+    public VectorSimilarity similarity() {
+        return similarity;
+    }
+
+    public int prefixDims() {
+        return prefixDims;
+    }
+
+    public QueryBuilder filter() {
+        return filter;
+    }
+
+    public boolean parallel() {
+        return parallel;
+    }
+
+    @Override
+    protected void doXContent(XContentBuilder builder,Params params) throws IOException {
+        builder.startObject(NAME);
+        builder.field(FIELD_FIELD.getPreferredName(),field);
+        builder.array(QUERY_VECTOR_FIELD.getPreferredName(),queryVector);
+        builder.field(K_FIELD.getPreferredName(),k);
+        builder.field(SIMILARITY_FIELD.getPreferredName(),similarity.toString());
+        builder.field(PREFIX_DIMS_FIELD.getPreferredName(),prefixDims);
+        if (filter != null) {
+            builder.field(FILTER_FIELD.getPreferredName(),filter);
+        }
+        builder.field(PARALLEL_FIELD.getPreferredName(),parallel);
+        printBoostAndQueryName(builder);
+        builder.endObject();
+    }
+
+    public static ExactKnnQueryBuilder fromXContent(XContentParser parser,VectorColumnCache columns,
+                                                    SegmentSearchExecutor executor,TopHitsCache results)
+            throws IOException {
+        String field = null;
+        List<Double> queryVector = null;
+        Integer k = null;
+        String similarity = null;
+        Integer prefixDims = null;
+        QueryBuilder filter = null;
+        boolean parallel = false;
+        float boost = DEFAULT_BOOST;
+        String queryName = null;
+        String currentFieldName = null;
+        XContentParser.Token token;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+            if (token == XContentParser.Token.FIELD_NAME) {
+                currentFieldName = parser.currentName();
+            } else if (token == XContentParser.Token.START_ARRAY) {
+                if (QUERY_VECTOR_FIELD.match(currentFieldName,parser.getDeprecationHandler())) {
+                    queryVector = new ArrayList<>();
+                    while (parser.nextToken() != XContentParser.Token.END_ARRAY) {
+                        queryVector.add(parser.doubleValue());
+                    }
+                } else {
+                    throw new ParsingException(parser.getTokenLocation(),"[" + NAME + "] unknown array [" + currentFieldName + "]");
+                }
+            } else if (token == XContentParser.Token.START_OBJECT) {
+                if (FILTER_FIELD.match(currentFieldName,parser.getDeprecationHandler())) {
+                    filter = parseInnerQueryBuilder(parser);
+                } else {
+                    throw new ParsingException(parser.getTokenLocation(),"[" + NAME + "] unknown object [" + currentFieldName + "]");
+                }
+            } else if (token.isValue()) {
+                if (FIELD_FIELD.match(currentFieldName,parser.getDeprecationHandler())) {
+                    field = parser.text();
+                } else if (K_FIELD.match(currentFieldName,parser.getDeprecationHandler())) {
+                    k = parser.intValue();
+                } else if (SIMILARITY_FIELD.match(currentFieldName,parser.getDeprecationHandler())) {
+                    similarity = parser.text();
+                } else if (PREFIX_DIMS_FIELD.match(currentFieldName,parser.getDeprecationHandler())) {
+                    prefixDims = parser.intValue();
+                } else if (PARALLEL_FIELD.match(currentFieldName,parser.getDeprecationHandler())) {
+                    parallel = parser.booleanValue();
+                } else if (AbstractQueryBuilder.BOOST_FIELD.match(currentFieldName,parser.getDeprecationHandler())) {
+                    boost = parser.floatValue();
+                } else if (AbstractQueryBuilder.NAME_FIELD.match(currentFieldName,parser.getDeprecationHandler())) {
+                    queryName = parser.text();
+                } else {
+                    throw new ParsingException(parser.getTokenLocation(),"[" + NAME + "] unknown field [" + currentFieldName + "]");
+                }
+            } else {
+                throw new ParsingException(parser.getTokenLocation(),"[" + NAME + "] unexpected token [" + token + "]");
+            }
+        }
+        if (queryVector == null) {
+            throw new ParsingException(parser.getTokenLocation(),"[" + NAME + "] requires a [query_vector]");
+        }
+        final double[] vector = new double[queryVector.size()];
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] = queryVector.get(i);
+        }
+        final ExactKnnQueryBuilder builder = new ExactKnnQueryBuilder(field,vector,columns,executor,results);
+        if (k != null) {
+            builder.k(k);
+        }
+        if (similarity != null) {
+            builder.similarity(VectorSimilarity.fromString(similarity));
+        }
+        if (prefixDims != null) {
+            builder.prefixDims(prefixDims);
+        }
+        return builder.filter(filter).parallel(parallel).boost(boost).queryName(queryName);
+    }
+
+    @Override
+    protected QueryBuilder doRewrite(QueryRewriteContext queryRewriteContext) throws IOException {
+        if (filter == null) {
+            return this;
+        }
+        final QueryBuilder rewritten = filter.rewrite(queryRewriteContext);
+        if (rewritten == filter) {
+            return this;
+        }
+        return new ExactKnnQueryBuilder(field,queryVector,columns,executor,results).k(k).similarity(similarity)
+                .prefixDims(prefixDims).filter(rewritten).parallel(parallel).boost(boost).queryName(queryName);
+    }
+
+    @Override
+    protected Query doToQuery(QueryShardContext context) throws IOException {
+        final Query filterQuery = filter == null ? null : filter.toQuery(context);
+        final SimilarityScorer exact = SimilarityScorer.of(context.index().getName(),field,context.fieldMapper(field),
+                queryVector,similarity).columns(columns);
+        return new ExactKnnQuery(field,queryVector,k,similarity,prefixDims,filterQuery,exact,parallel ? executor : null,
+                results);
+    }
+
+    @Override
+    protected boolean doEquals(ExactKnnQueryBuilder other) {
+        return field.equals(other.field) && Arrays.equals(queryVector,other.queryVector) && k == other.k
+                && similarity == other.similarity && prefixDims == other.prefixDims && Objects.equals(filter,other.filter)
+                && parallel == other.parallel;
+    }
+
+    @Override
+    protected int doHashCode() {
+        return Objects.hash(field,Arrays.hashCode(queryVector),k,similarity,prefixDims,filter,parallel);
+    }
+
+    @Override
+    public String getWriteableName() {
+        return NAME;
+    }
+}
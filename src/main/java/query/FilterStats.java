@@ -0,0 +1,81 @@
+package query;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * How the {@code knn} query searched the segments of a shard: the strategy of every segment and the selectivity
+ * of its filter.
+ * <p>
+ * Like {@link PruningStats}, these are printed in the description of the query, where the profile API shows
+ * them.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-18 13:40
+ */
+public final class FilterStats {
+    private final LongAdder exact = new LongAdder();
+    private final LongAdder approximate = new LongAdder();
+    private final LongAdder fallback = new LongAdder();
+    private final LongAdder empty = new LongAdder();
+    private final LongAdder matches = new LongAdder();
+    private final LongAdder docs = new LongAdder();
+
+    void filtered(long matches,int maxDoc) {
+        this.matches.add(matches);
+        this.docs.add(maxDoc);
+    }
+
+    void exact() {
+        exact.increment();
+    }
+
+    void approximate() {
+        approximate.increment();
+    }
+
+    /**
+     * The graph found fewer than k documents of the filter, the segment was scanned again exactly.
+     */
+    void fallback() {
+        fallback.increment();
+    }
+
+    /**
+     * No document of the segment matches the filter.
+     */
+    void empty() {
+        empty.increment();
+    }
+
+    public long exactCount() {
+        return exact.sum();
+    }
+
+    public long approximateCount() {
+        return approximate.sum();
+    }
+
+    public long fallbackCount() {
+        return fallback.sum();
+    }
+
+    public long emptyCount() {
+        return empty.sum();
+    }
+
+    /**
+     * The share of the documents matching the filter over the segments searched, 1 without a filter.
+     */
+    public double selectivity() {
+        final long total = docs.sum();
+        return total == 0 ? 1d : matches.sum() / (double) total;
+    }
+
+    @Override
+    public String toString() {
+        return "exact_segments=" + exact.sum() + ",approximate_segments=" + approximate.sum() + ",fallback_segments="
+                + fallback.sum() + ",empty_segments=" + empty.sum() + ",selectivity="
+                + String.format(Locale.ROOT,"%.4f",selectivity());
+    }
+}
@@ -0,0 +1,55 @@
+package query;
+
+import java.util.Locale;
+
+/**
+ * How the {@code knn} query searches a segment when it has a filter.
+ * <ul>
+ * <li>{@code exact}: every document of the filter bitset is scored, the cost grows with the matches.</li>
+ * <li>{@code approximate}: the HNSW graph is searched and only documents of the bitset are collected, the cost
+ * grows as the filter gets more selective since more nodes are visited to collect {@code ef} of them.</li>
+ * <li>{@code auto}: picks the cheapest of both on every segment, see {@link #exact(long,int,int)}.</li>
+ * </ul>
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-18 13:30
+ */
+public enum FilterStrategy {
+    AUTO, EXACT, APPROXIMATE;
+
+    public static FilterStrategy fromString(String name) {
+        switch (name) {
+            case "auto":
+                return AUTO;
+            case "exact":
+                return EXACT;
+            case "approximate":
+                return APPROXIMATE;
+            default:
+                throw new IllegalArgumentException("Unknown filter strategy [" + name
+                        + "], must be one of [auto, exact, approximate]");
+        }
+    }
+
+    /**
+     * Whether a segment of {@code maxDoc} documents with {@code matches} of them in the filter is scanned exactly.
+     * <p>
+     * A scan scores the {@code matches} documents, a graph search visits about {@code ef} nodes per accepted
+     * one, {@code ef * maxDoc / matches} in all: the scan is cheaper while {@code matches^2 < ef * maxDoc}.
+     */
+    public boolean exact(long matches,int maxDoc,int ef) {
+        switch (this) {
+            case EXACT:
+                return true;
+            case APPROXIMATE:
+                return false;
+            default:
+                return matches * matches < (long) ef * maxDoc;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
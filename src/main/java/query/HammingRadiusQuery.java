@@ -0,0 +1,153 @@
+package query;
+
+import Util.MyUtils;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Explanation;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.TwoPhaseIterator;
+import org.apache.lucene.search.Weight;
+import script.DocVectorValues;
+import script.HashHammingScript;
+import script.VectorKernel;
+import script.VectorReader;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * The documents whose hash is within {@code radius} bits of a query hash, among the {@code candidates} found
+ * through their indexed substrings. Candidates are verified with the exact distance of the {@code hash-hamming}
+ * script, which is also their score.
+ * <p>
+ * The query only holds the {@link VectorReader} of the hashes, their doc values are opened by its weight on every
+ * leaf, so it keeps no state of the request that created it and can be cached.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-14 11:30
+ */
+public final class HammingRadiusQuery extends Query {
+    // reads the hashes of the field
+    private final VectorReader hashes;
+    private final double[] hash;
+    private final int radius;
+    private final Query candidates;
+
+    public HammingRadiusQuery(VectorReader hashes,double[] hash,int radius,Query candidates) {
+        this.hashes = hashes;
+        this.hash = hash;
+        this.radius = radius;
+        this.candidates = candidates;
+    }
+
+    @Override
+    public Query rewrite(IndexReader reader) throws IOException {
+        final Query rewritten = candidates.rewrite(reader);
+        if (rewritten == candidates) {
+            return this;
+        }
+        return new HammingRadiusQuery(hashes,hash,radius,rewritten);
+    }
+
+    @Override
+    public Weight createWeight(IndexSearcher searcher,boolean needsScores,float boost) throws IOException {
+        final Weight candidatesWeight = searcher.createWeight(candidates,false,1f);
+        final String field = hashes.field();
+        final long[] queryHash = MyUtils.packHash(hash);
+        final int bits = hash.length * 8;
+        return new Weight(this) {
+            @Override
+            public void extractTerms(Set<Term> terms) {
+            }
+
+            @Override
+            public Explanation explain(LeafReaderContext context,int doc) throws IOException {
+                final Scorer scorer = scorer(context);
+                if (scorer == null || scorer.iterator().advance(doc) != doc) {
+                    return Explanation.noMatch("hash of [" + field + "] not within [" + radius + "] bits");
+                }
+                return Explanation.match(scorer.score(),"hash of [" + field + "] within [" + radius + "] bits");
+            }
+
+            @Override
+            public Scorer scorer(LeafReaderContext context) throws IOException {
+                final Scorer candidatesScorer = candidatesWeight.scorer(context);
+                if (candidatesScorer == null) {
+                    return null;
+                }
+                final DocIdSetIterator approximation = candidatesScorer.iterator();
+                final DocVectorValues docVector = hashes.docValues(context);
+                final long[] docHash = new long[queryHash.length];
+                final VectorKernel kernel = VectorKernel.get();
+                final TwoPhaseIterator twoPhase = new TwoPhaseIterator(approximation) {
+                    @Override
+                    public boolean matches() throws IOException {
+                        return docVector.advanceExact(approximation.docID())
+                                && HashHammingScript.readHash(docVector,hash.length,docHash)
+                                && kernel.hamming(queryHash,docHash) <= radius;
+                    }
+
+                    @Override
+                    public float matchCost() {
+                        return hash.length;
+                    }
+                };
+                return new Scorer(this) {
+                    @Override
+                    public int docID() {
+                        return approximation.docID();
+                    }
+
+                    @Override
+                    public float score() {
+                        //docHash holds the hash of the current match
+                        return boost * (bits - kernel.hamming(queryHash,docHash)) / bits;
+                    }
+
+                    @Override
+                    public DocIdSetIterator iterator() {
+                        return TwoPhaseIterator.asDocIdSetIterator(twoPhase);
+                    }
+
+                    @Override
+                    public TwoPhaseIterator twoPhaseIterator() {
+                        return twoPhase;
+                    }
+                };
+            }
+
+            @Override
+            public boolean isCacheable(LeafReaderContext ctx) {
+                return candidatesWeight.isCacheable(ctx) && DocValues.isCacheable(ctx,field);
+            }
+        };
+    }
+
+    @Override
+    public String toString(String field) {
+        //the candidate terms are too many to be printed
+        return "hamming_radius(" + hashes.field() + ",radius=" + radius + ")";
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (sameClassAs(other) == false) {
+            return false;
+        }
+        HammingRadiusQuery that = (HammingRadiusQuery) other;
+        return hashes.equals(that.hashes) && Arrays.equals(hash,that.hash) && radius == that.radius
+                && candidates.equals(that.candidates);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(classHash(),hashes,Arrays.hashCode(hash),radius,candidates);
+    }
+}
@@ -0,0 +1,222 @@
+package query;
+
+import Util.MyUtils;
+import index.HashSubstrings;
+import org.apache.lucene.search.MatchNoDocsQuery;
+import org.apache.lucene.search.Query;
+import org.elasticsearch.common.ParseField;
+import org.elasticsearch.common.ParsingException;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.index.mapper.MappedFieldType;
+import org.elasticsearch.index.query.AbstractQueryBuilder;
+import org.elasticsearch.index.query.QueryShardContext;
+import script.VectorReader;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The {@code hamming_radius} query, the documents whose hash is within {@code radius} bits of a query hash.
+ * <pre>
+ * "hamming_radius": {
+ *   "field": "phash",
+ *   "query_hash": [12, 250, 3, 77, 0, 18, 99, 201],
+ *   "radius": 8,
+ *   "m": 4
+ * }
+ * </pre>
+ * Hashes are arrays of byte values as read by the {@code hash-hamming} script, and their {@code m} substrings
+ * must have been indexed in {@code substring_field} (the field followed by {@code _mih} by default) by the
+ * {@code hash_substrings} ingest processor with the same {@code m}. Only the documents sharing a substring
+ * within {@code radius / m} bits of the query are read, the score is the one of the {@code hash-hamming} script.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-14 14:10
+ */
+public class HammingRadiusQueryBuilder extends AbstractQueryBuilder<HammingRadiusQueryBuilder> {
+    public static final String NAME = "hamming_radius";
+
+    private static final ParseField FIELD_FIELD = new ParseField("field");
+    private static final ParseField QUERY_HASH_FIELD = new ParseField("query_hash");
+    private static final ParseField RADIUS_FIELD = new ParseField("radius");
+    private static final ParseField M_FIELD = new ParseField("m");
+    private static final ParseField SUBSTRING_FIELD_FIELD = new ParseField("substring_field");
+
+    private final String field;
+    private final double[] queryHash;
+    private final int radius;
+    private final int m;
+    private String substringField;
+
+    public HammingRadiusQueryBuilder(String field,double[] queryHash,int radius,int m) {
+        if (field == null) {
+            throw new IllegalArgumentException("[" + NAME + "] requires a field");
+        }
+        if (queryHash == null || queryHash.length == 0) {
+            throw new IllegalArgumentException("[" + NAME + "] requires a query_hash");
+        }
+        if (radius < 0) {
+            throw new IllegalArgumentException("[" + NAME + "] requires [radius] to be positive or 0");
+        }
+        HashSubstrings.checkSubstrings(queryHash.length * 8,m);
+        this.field = field;
+        this.queryHash = queryHash;
+        this.radius = radius;
+        this.m = m;
+        this.substringField = field + "_mih";
+    }
+
+    public HammingRadiusQueryBuilder(StreamInput in) throws IOException {
+        super(in);
+        this.field = in.readString();
+        this.queryHash = in.readDoubleArray();
+        this.radius = in.readVInt();
+        this.m = in.readVInt();
+        this.substringField = in.readString();
+    }
+
+    @Override
+    protected void doWriteTo(StreamOutput out) throws IOException {
+        out.writeString(field);
+        out.writeDoubleArray(queryHash);
+        out.writeVInt(radius);
+        out.writeVInt(m);
+        out.writeString(substringField);
+    }
+
+    public HammingRadiusQueryBuilder substringField(String substringField) {
+        this.substringField = Objects.requireNonNull(substringField);
+        return this;
+    }
+
+    public String field() {
+        return field;
+    }
+
+    public double[] queryHash() {
+        return queryHash;
+    }
+
+    public int radius() {
+        return radius;
+    }
+
+    public int m() {
+        return m;
+    }
+
+    public String substringField() {
+        return substringField;
+    }
+
+    @Override
+    protected void doXContent(XContentBuilder builder,Params params) throws IOException {
+        builder.startObject(NAME);
+        builder.field(FIELD_FIELD.getPreferredName(),field);
+        builder.array(QUERY_HASH_FIELD.getPreferredName(),queryHash);
+        builder.field(RADIUS_FIELD.getPreferredName(),radius);
+        builder.field(M_FIELD.getPreferredName(),m);
+        builder.field(SUBSTRING_FIELD_FIELD.getPreferredName(),substringField);
+        printBoostAndQueryName(builder);
+        builder.endObject();
+    }
+
+    public static HammingRadiusQueryBuilder fromXContent(XContentParser parser) throws IOException {
+        String field = null;
+        List<Double> queryHash = null;
+        Integer radius = null;
+        Integer m = null;
+        String substringField = null;
+        float boost = DEFAULT_BOOST;
+        String queryName = null;
+        String currentFieldName = null;
+        XContentParser.Token token;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+            if (token == XContentParser.Token.FIELD_NAME) {
+                currentFieldName = parser.currentName();
+            } else if (token == XContentParser.Token.START_ARRAY) {
+                if (QUERY_HASH_FIELD.match(currentFieldName,parser.getDeprecationHandler())) {
+                    queryHash = new ArrayList<>();
+                    while (parser.nextToken() != XContentParser.Token.END_ARRAY) {
+                        queryHash.add(parser.doubleValue());
+                    }
+                } else {
+                    throw new ParsingException(parser.getTokenLocation(),"[" + NAME + "] unknown array [" + currentFieldName + "]");
+                }
+            } else if (token.isValue()) {
+                if (FIELD_FIELD.match(currentFieldName,parser.getDeprecationHandler())) {
+                    field = parser.text();
+                } else if (RADIUS_FIELD.match(currentFieldName,parser.getDeprecationHandler())) {
+                    radius = parser.intValue();
+                } else if (M_FIELD.match(currentFieldName,parser.getDeprecationHandler())) {
+                    m = parser.intValue();
+                } else if (SUBSTRING_FIELD_FIELD.match(currentFieldName,parser.getDeprecationHandler())) {
+                    substringField = parser.text();
+                } else if (AbstractQueryBuilder.BOOST_FIELD.match(currentFieldName,parser.getDeprecationHandler())) {
+                    boost = parser.floatValue();
+                } else if (AbstractQueryBuilder.NAME_FIELD.match(currentFieldName,parser.getDeprecationHandler())) {
+                    queryName = parser.text();
+                } else {
+                    throw new ParsingException(parser.getTokenLocation(),"[" + NAME + "] unknown field [" + currentFieldName + "]");
+                }
+            } else {
+                throw new ParsingException(parser.getTokenLocation(),"[" + NAME + "] unexpected token [" + token + "]");
+            }
+        }
+        if (queryHash == null) {
+            throw new ParsingException(parser.getTokenLocation(),"[" + NAME + "] requires a [query_hash]");
+        }
+        if (radius == null || m == null) {
+            throw new ParsingException(parser.getTokenLocation(),"[" + NAME + "] requires a [radius] and [m]");
+        }
+        final double[] hash = new double[queryHash.size()];
+        for (int i = 0; i < hash.length; i++) {
+            hash[i] = queryHash.get(i);
+        }
+        final HammingRadiusQueryBuilder builder = new HammingRadiusQueryBuilder(field,hash,radius,m);
+        if (substringField != null) {
+            builder.substringField(substringField);
+        }
+        return builder.boost(boost).queryName(queryName);
+    }
+
+    @Override
+    protected Query doToQuery(QueryShardContext context) {
+        final MappedFieldType fieldType = context.fieldMapper(substringField);
+        if (fieldType == null) {
+            return new MatchNoDocsQuery("unmapped substring field [" + substringField + "]");
+        }
+        final List<Object> terms = new ArrayList<>(
+                HashSubstrings.neighbourhood(MyUtils.packHash(queryHash),queryHash.length * 8,m,radius));
+        return new HammingRadiusQuery(hashes(context),queryHash,radius,fieldType.termsQuery(terms,context));
+    }
+
+    /**
+     * Reads the hashes of the field like the {@code hash-hamming} script, whatever their layout.
+     */
+    private VectorReader hashes(QueryShardContext context) {
+        return VectorReader.of(field,context.fieldMapper(field));
+    }
+
+    @Override
+    protected boolean doEquals(HammingRadiusQueryBuilder other) {
+        return field.equals(other.field) && Arrays.equals(queryHash,other.queryHash) && radius == other.radius
+                && m == other.m && substringField.equals(other.substringField);
+    }
+
+    @Override
+    protected int doHashCode() {
+        return Objects.hash(field,Arrays.hashCode(queryHash),radius,m,substringField);
+    }
+
+    @Override
+    public String getWriteableName() {
+        return NAME;
+    }
+}
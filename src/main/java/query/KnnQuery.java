@@ -0,0 +1,268 @@
+package query;
+
+import index.FilterBitsetCache;
+import index.HnswGraph;
+import index.HnswIndexService;
+import index.NeighborQueue;
+import index.SegmentVectors;
+import index.VectorSimilarity;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Explanation;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.util.BitSet;
+import org.apache.lucene.util.BitSetIterator;
+import org.apache.lucene.util.Bits;
+import script.DocVectorValues;
+import script.SimilarityScorer;
+import script.VectorScorer;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Approximate k nearest neighbours of a vector on every segment, from the segment's {@link HnswGraph}.
+ * <p>
+ * With {@code rescore} the {@code ef} candidates of the graph are scored again with the exact script scorer
+ * of the similarity before the top k are kept. Segments that are small, or that cannot be cached, are
+ * scanned exactly.
+ * <p>
+ * With a {@code filter}, only its documents are hits. Its bitset is taken from the {@link FilterBitsetCache}
+ * and its cardinality decides the {@link FilterStrategy} of the segment: the bitset is scanned exactly when the
+ * filter is selective, otherwise the graph search skips the documents out of it. A graph search finding fewer
+ * than k documents of the filter falls back to the exact scan. The strategies taken are printed in the
+ * description of the query.
+ * <p>
+ * With a {@link TopHitsCache}, the hits of every segment are cached, the strategies of the segments found in
+ * the cache are not counted.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-06 15:10
+ */
+public final class KnnQuery extends Query {
+    private final String field;
+    private final double[] vector;
+    private final int k;
+    private final int ef;
+    private final VectorSimilarity similarity;
+    private final boolean rescore;
+    // exact scorer of the similarity, also reads the field's doc values
+    private final SimilarityScorer exact;
+    private final HnswIndexService service;
+    // only the documents matching it are hits, may be null
+    private final Query filter;
+    private final FilterStrategy strategy;
+    private final FilterBitsetCache filters;
+    // caches the hits of the segments, may be null
+    private final TopHitsCache results;
+    private final FilterStats stats;
+
+    public KnnQuery(String field,double[] vector,int k,int ef,VectorSimilarity similarity,boolean rescore,
+                    SimilarityScorer exact,HnswIndexService service) {
+        this(field,vector,k,ef,similarity,rescore,exact,service,null,FilterStrategy.AUTO,null,null);
+    }
+
+    public KnnQuery(String field,double[] vector,int k,int ef,VectorSimilarity similarity,boolean rescore,
+                    SimilarityScorer exact,HnswIndexService service,Query filter,FilterStrategy strategy,
+                    FilterBitsetCache filters,TopHitsCache results) {
+        this(field,vector,k,ef,similarity,rescore,exact,service,filter,strategy,filters,results,new FilterStats());
+    }
+
+    private KnnQuery(String field,double[] vector,int k,int ef,VectorSimilarity similarity,boolean rescore,
+                     SimilarityScorer exact,HnswIndexService service,Query filter,FilterStrategy strategy,
+                     FilterBitsetCache filters,TopHitsCache results,FilterStats stats) {
+        this.field = field;
+        this.vector = vector;
+        this.k = k;
+        this.ef = Math.max(ef,k);
+        this.similarity = similarity;
+        this.rescore = rescore;
+        this.exact = exact;
+        this.service = service;
+        this.filter = filter;
+        this.strategy = strategy;
+        this.filters = filters;
+        this.results = results;
+        this.stats = stats;
+    }
+
+    public FilterStats stats() {
+        return stats;
+    }
+
+    @Override
+    public Query rewrite(IndexReader reader) throws IOException {
+        if (filter == null) {
+            return this;
+        }
+        final Query rewritten = filter.rewrite(reader);
+        if (rewritten == filter) {
+            return this;
+        }
+        return new KnnQuery(field,vector,k,ef,similarity,rescore,exact,service,rewritten,strategy,filters,results,
+                stats);
+    }
+
+    @Override
+    public Weight createWeight(IndexSearcher searcher,boolean needsScores,float boost) throws IOException {
+        final Weight filterWeight = filter == null ? null : searcher.createWeight(filter,false,1f);
+        final TopHitsCache.Key key = results == null || results.enabled() == false ? null
+                : new TopHitsCache.Key(KnnQueryBuilder.NAME,field,vector,"k=" + k + ",ef=" + ef + "," + similarity
+                + ",rescore=" + rescore + ",strategy=" + strategy,filter);
+        return new Weight(this) {
+            @Override
+            public void extractTerms(Set<Term> terms) {
+            }
+
+            @Override
+            public Explanation explain(LeafReaderContext context,int doc) throws IOException {
+                return search(context,filterWeight).explain(doc,KnnQuery.this.toString());
+            }
+
+            @Override
+            public Scorer scorer(LeafReaderContext context) throws IOException {
+                final LeafHits hits = key == null ? search(context,filterWeight)
+                        : results.hits(context,key,filterWeight,() -> search(context,filterWeight));
+                return hits.size() == 0 ? null : hits.scorer(this,boost);
+            }
+
+            @Override
+            public boolean isCacheable(LeafReaderContext ctx) {
+                return false;
+            }
+        };
+    }
+
+    LeafHits search(LeafReaderContext context,Weight filterWeight) throws IOException {
+        final Bits liveDocs = context.reader().getLiveDocs();
+        final int maxDoc = context.reader().maxDoc();
+        BitSet filterDocs = null;
+        long matches = maxDoc;
+        if (filterWeight != null) {
+            filterDocs = filters == null ? BitSet.of(iterator(context,filterWeight),maxDoc)
+                    : filters.bitset(context,filterWeight);
+            matches = filterDocs.cardinality();
+            stats.filtered(matches,maxDoc);
+            if (matches == 0) {
+                stats.empty();
+                return LeafHits.EMPTY;
+            }
+        }
+        final boolean scan = maxDoc <= ef || (filterDocs != null && strategy.exact(matches,maxDoc,ef));
+        final HnswGraph graph = scan ? null : service.graph(context,exact.reader(),similarity,vector.length);
+        if (graph == null) {
+            stats.exact();
+            return exactSearch(context,liveDocs,filterDocs);
+        }
+        stats.approximate();
+        final Bits acceptDocs = acceptDocs(liveDocs,filterDocs);
+        final float[] query = new float[vector.length];
+        for (int i = 0; i < query.length; i++) {
+            query[i] = (float) vector[i];
+        }
+        similarity.prepare(query,0,query.length);
+        final SegmentVectors vectors = graph.vectors();
+        final NeighborQueue neighbors = graph.search(query,rescore ? ef : k,ef,acceptDocs);
+        if (filterDocs != null && neighbors.size() < Math.min(k,matches)) {
+            // the filter cuts the graph into pieces the search didn't reach
+            stats.fallback();
+            return exactSearch(context,liveDocs,filterDocs);
+        }
+        final NeighborQueue top = new NeighborQueue(k,false);
+        if (rescore == false) {
+            for (int i = 0; i < neighbors.size(); i++) {
+                top.add(vectors.doc(neighbors.nodeAt(i)),similarity.score(neighbors.distanceAt(i)));
+            }
+            return LeafHits.fromTopScores(top);
+        }
+        // doc values can only move forward
+        final int[] docs = new int[neighbors.size()];
+        for (int i = 0; i < docs.length; i++) {
+            docs[i] = vectors.doc(neighbors.nodeAt(i));
+        }
+        Arrays.sort(docs);
+        final DocVectorValues docVector = exact.docValues(context);
+        final VectorScorer scorer = exact.newScorer();
+        for (int doc : docs) {
+            if (docVector.advanceExact(doc)) {
+                top.insertWithOverflow(doc,(float) scorer.score(docVector),k);
+            }
+        }
+        return LeafHits.fromTopScores(top);
+    }
+
+    private LeafHits exactSearch(LeafReaderContext context,Bits liveDocs,BitSet filterDocs) throws IOException {
+        final DocVectorValues docVector = exact.docValues(context);
+        final VectorScorer scorer = exact.newScorer();
+        final NeighborQueue top = new NeighborQueue(k,false);
+        if (filterDocs == null) {
+            for (int doc = docVector.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = docVector.nextDoc()) {
+                if (liveDocs == null || liveDocs.get(doc)) {
+                    top.insertWithOverflow(doc,(float) scorer.score(docVector),k);
+                }
+            }
+            return LeafHits.fromTopScores(top);
+        }
+        final DocIdSetIterator docs = new BitSetIterator(filterDocs,filterDocs.cardinality());
+        for (int doc = docs.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = docs.nextDoc()) {
+            if ((liveDocs == null || liveDocs.get(doc)) && docVector.advanceExact(doc)) {
+                top.insertWithOverflow(doc,(float) scorer.score(docVector),k);
+            }
+        }
+        return LeafHits.fromTopScores(top);
+    }
+
+    private static DocIdSetIterator iterator(LeafReaderContext context,Weight filterWeight) throws IOException {
+        final Scorer scorer = filterWeight.scorer(context);
+        return scorer == null ? DocIdSetIterator.empty() : scorer.iterator();
+    }
+
+    /**
+     * The documents both live and in the filter, either may be null.
+     */
+    private static Bits acceptDocs(Bits liveDocs,BitSet filterDocs) {
+        if (filterDocs == null || liveDocs == null) {
+            return filterDocs != null ? filterDocs : liveDocs;
+        }
+        return new Bits() {
+            @Override
+            public boolean get(int index) {
+                return filterDocs.get(index) && liveDocs.get(index);
+            }
+
+            @Override
+            public int length() {
+                return filterDocs.length();
+            }
+        };
+    }
+
+    @Override
+    public String toString(String field) {
+        return "knn(" + this.field + ",k=" + k + ",ef=" + ef + "," + similarity + (rescore ? ",rescore" : "")
+                + (filter == null ? "" : ",filter=" + filter.toString(field) + ",strategy=" + strategy) + ")[" + stats + "]";
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (sameClassAs(other) == false) {
+            return false;
+        }
+        KnnQuery that = (KnnQuery) other;
+        return field.equals(that.field) && Arrays.equals(vector,that.vector) && k == that.k && ef == that.ef
+                && similarity == that.similarity && rescore == that.rescore && Objects.equals(filter,that.filter)
+                && strategy == that.strategy;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(classHash(),field,Arrays.hashCode(vector),k,ef,similarity,rescore,filter,strategy);
+    }
+}
@@ -0,0 +1,326 @@
+package query;
+
+import index.FilterBitsetCache;
+import index.HnswIndexService;
+import index.VectorSimilarity;
+import mapper.VectorEncoding;
+import org.apache.lucene.search.Query;
+import org.elasticsearch.common.ParseField;
+import org.elasticsearch.common.ParsingException;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.index.query.AbstractQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryRewriteContext;
+import org.elasticsearch.index.query.QueryShardContext;
+import script.SimilarityScorer;
+import script.VectorLeafFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The {@code knn} query, the k nearest neighbours of a vector on every shard.
+ * <pre>
+ * "knn": {
+ *   "field": "image_vector",
+ *   "query_vector": [0.1, 0.2, ...],
+ *   "k": 10,
+ *   "ef_search": 100,
+ *   "similarity": "cosine",
+ *   "rescore": true,
+ *   "filter": { "term": { "tenant": "acme" } },
+ *   "filter_strategy": "auto"
+ * }
+ * </pre>
+ * Scores are the ones of the {@code cosine} and {@code norm-l2} scripts, exactly with {@code rescore}.
+ * <p>
+ * Hits are restricted to the documents of the {@code filter}, the k nearest of them are returned even when
+ * they are far from the query. Every segment is searched with the {@link FilterStrategy} picked from the
+ * selectivity of the filter, {@code exact} or {@code approximate} forcing one. The hits of every segment are
+ * kept in the node's {@link TopHitsCache}.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-06 16:30
+ */
+public class KnnQueryBuilder extends AbstractQueryBuilder<KnnQueryBuilder> {
+    public static final String NAME = "knn";
+
+    public static final int DEFAULT_K = 10;
+    public static final int DEFAULT_EF_SEARCH = 100;
+
+    private static final ParseField FIELD_FIELD = new ParseField("field");
+    private static final ParseField QUERY_VECTOR_FIELD = new ParseField("query_vector");
+    private static final ParseField K_FIELD = new ParseField("k");
+    private static final ParseField EF_SEARCH_FIELD = new ParseField("ef_search");
+    private static final ParseField SIMILARITY_FIELD = new ParseField("similarity");
+    private static final ParseField RESCORE_FIELD = new ParseField("rescore");
+    private static final ParseField FILTER_FIELD = new ParseField("filter");
+    private static final ParseField FILTER_STRATEGY_FIELD = new ParseField("filter_strategy");
+
+    private final String field;
+    private final double[] queryVector;
+    private int k = DEFAULT_K;
+    private int efSearch = DEFAULT_EF_SEARCH;
+    private VectorSimilarity similarity = VectorSimilarity.COSINE;
+    private boolean rescore;
+    private QueryBuilder filter;
+    private FilterStrategy filterStrategy = FilterStrategy.AUTO;
+    private final HnswIndexService service;
+    private final FilterBitsetCache filters;
+    private final TopHitsCache results;
+
+    public KnnQueryBuilder(String field,double[] queryVector,HnswIndexService service,FilterBitsetCache filters,
+                           TopHitsCache results) {
+        if (field == null) {
+            throw new IllegalArgumentException("[" + NAME + "] requires a field");
+        }
+        if (queryVector == null || queryVector.length == 0) {
+            throw new IllegalArgumentException("[" + NAME + "] requires a query_vector");
+        }
+        this.field = field;
+        this.queryVector = queryVector;
+        this.service = service;
+        this.filters = filters;
+        this.results = results;
+    }
+
+    public KnnQueryBuilder(StreamInput in,HnswIndexService service,FilterBitsetCache filters,TopHitsCache results)
+            throws IOException {
+        super(in);
+        this.field = in.readString();
+        this.queryVector = in.readDoubleArray();
+        this.k = in.readVInt();
+        this.efSearch = in.readVInt();
+        this.similarity = in.readEnum(VectorSimilarity.class);
+        this.rescore = in.readBoolean();
+        this.filter = in.readOptionalNamedWriteable(QueryBuilder.class);
+        this.filterStrategy = in.readEnum(FilterStrategy.class);
+        this.service = service;
+        this.filters = filters;
+        this.results = results;
+    }
+
+    @Override
+    protected void doWriteTo(StreamOutput out) throws IOException {
+        out.writeString(field);
+        out.writeDoubleArray(queryVector);
+        out.writeVInt(k);
+        out.writeVInt(efSearch);
+        out.writeEnum(similarity);
+        out.writeBoolean(rescore);
+        out.writeOptionalNamedWriteable(filter);
+        out.writeEnum(filterStrategy);
+    }
+
+    public KnnQueryBuilder k(int k) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("[" + NAME + "] requires [k] to be positive");
+        }
+        this.k = k;
+        return this;
+    }
+
+    public KnnQueryBuilder efSearch(int efSearch) {
+        if (efSearch <= 0) {
+            throw new IllegalArgumentException("[" + NAME + "] requires [ef_search] to be positive");
+        }
+        this.efSearch = efSearch;
+        return this;
+    }
+
+    public KnnQueryBuilder similarity(VectorSimilarity similarity) {
+        this.similarity = Objects.requireNonNull(similarity);
+        return this;
+    }
+
+    public KnnQueryBuilder rescore(boolean rescore) {
+        this.rescore = rescore;
+        return this;
+    }
+
+    public KnnQueryBuilder filter(QueryBuilder filter) {
+        this.filter = filter;
+        return this;
+    }
+
+    public KnnQueryBuilder filterStrategy(FilterStrategy filterStrategy) {
+        this.filterStrategy = Objects.requireNonNull(filterStrategy);
+        return this;
+    }
+
+    public String field() {
+        return field;
+    }
+
+    public double[] queryVector() {
+        return queryVector;
+    }
+
+    public int k() {
+        return k;
+    }
+
+    public int efSearch() {
+        return efSearch;
+    }
+
+    public VectorSimilarity similarity() {
+        return similarity;
+    }
+
+    public boolean rescore() {
+        return rescore;
+    }
+
+    public QueryBuilder filter() {
+        return filter;
+    }
+
+    public FilterStrategy filterStrategy() {
+        return filterStrategy;
+    }
+
+    @Override
+    protected void doXContent(XContentBuilder builder,Params params) throws IOException {
+        builder.startObject(NAME);
+        builder.field(FIELD_FIELD.getPreferredName(),field);
+        builder.array(QUERY_VECTOR_FIELD.getPreferredName(),queryVector);
+        builder.field(K_FIELD.getPreferredName(),k);
+        builder.field(EF_SEARCH_FIELD.getPreferredName(),efSearch);
+        builder.field(SIMILARITY_FIELD.getPreferredName(),similarity.toString());
+        builder.field(RESCORE_FIELD.getPreferredName(),rescore);
+        if (filter != null) {
+            builder.field(FILTER_FIELD.getPreferredName(),filter);
+        }
+        builder.field(FILTER_STRATEGY_FIELD.getPreferredName(),filterStrategy.toString());
+        printBoostAndQueryName(builder);
+        builder.endObject();
+    }
+
+    public static KnnQueryBuilder fromXContent(XContentParser parser,HnswIndexService service,
+                                               FilterBitsetCache filters,TopHitsCache results) throws IOException {
+        String field = null;
+        List<Double> queryVector = null;
+        Integer k = null;
+        Integer efSearch = null;
+        String similarity = null;
+        boolean rescore = false;
+        QueryBuilder filter = null;
+        String filterStrategy = null;
+        float boost = DEFAULT_BOOST;
+        String queryName = null;
+        String currentFieldName = null;
+        XContentParser.Token token;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+            if (token == XContentParser.Token.FIELD_NAME) {
+                currentFieldName = parser.currentName();
+            } else if (token == XContentParser.Token.START_ARRAY) {
+                if (QUERY_VECTOR_FIELD.match(currentFieldName,parser.getDeprecationHandler())) {
+                    queryVector = new ArrayList<>();
+                    while (parser.nextToken() != XContentParser.Token.END_ARRAY) {
+                        queryVector.add(parser.doubleValue());
+                    }
+                } else {
+                    throw new ParsingException(parser.getTokenLocation(),"[" + NAME + "] unknown array [" + currentFieldName + "]");
+                }
+            } else if (token == XContentParser.Token.START_OBJECT) {
+                if (FILTER_FIELD.match(currentFieldName,parser.getDeprecationHandler())) {
+                    filter = parseInnerQueryBuilder(parser);
+                } else {
+                    throw new ParsingException(parser.getTokenLocation(),"[" + NAME + "] unknown object [" + currentFieldName + "]");
+                }
+            } else if (token.isValue()) {
+                if (FIELD_FIELD.match(currentFieldName,parser.getDeprecationHandler())) {
+                    field = parser.text();
+                } else if (K_FIELD.match(currentFieldName,parser.getDeprecationHandler())) {
+                    k = parser.intValue();
+                } else if (EF_SEARCH_FIELD.match(currentFieldName,parser.getDeprecationHandler())) {
+                    efSearch = parser.intValue();
+                } else if (SIMILARITY_FIELD.match(currentFieldName,parser.getDeprecationHandler())) {
+                    similarity = parser.text();
+                } else if (RESCORE_FIELD.match(currentFieldName,parser.getDeprecationHandler())) {
+                    rescore = parser.booleanValue();
+                } else if (FILTER_STRATEGY_FIELD.match(currentFieldName,parser.getDeprecationHandler())) {
+                    filterStrategy = parser.text();
+                } else if (AbstractQueryBuilder.BOOST_FIELD.match(currentFieldName,parser.getDeprecationHandler())) {
+                    boost = parser.floatValue();
+                } else if (AbstractQueryBuilder.NAME_FIELD.match(currentFieldName,parser.getDeprecationHandler())) {
+                    queryName = parser.text();
+                } else {
+                    throw new ParsingException(parser.getTokenLocation(),"[" + NAME + "] unknown field [" + currentFieldName + "]");
+                }
+            } else {
+                throw new ParsingException(parser.getTokenLocation(),"[" + NAME + "] unexpected token [" + token + "]");
+            }
+        }
+        if (queryVector == null) {
+            throw new ParsingException(parser.getTokenLocation(),"[" + NAME + "] requires a [query_vector]");
+        }
+        final double[] vector = new double[queryVector.size()];
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] = queryVector.get(i);
+        }
+        final KnnQueryBuilder builder = new KnnQueryBuilder(field,vector,service,filters,results);
+        if (k != null) {
+            builder.k(k);
+        }
+        if (efSearch != null) {
+            builder.efSearch(efSearch);
+        }
+        if (similarity != null) {
+            builder.similarity(VectorSimilarity.fromString(similarity));
+        }
+        if (filterStrategy != null) {
+            builder.filterStrategy(FilterStrategy.fromString(filterStrategy));
+        }
+        return builder.rescore(rescore).filter(filter).boost(boost).queryName(queryName);
+    }
+
+    @Override
+    protected QueryBuilder doRewrite(QueryRewriteContext queryRewriteContext) throws IOException {
+        if (filter == null) {
+            return this;
+        }
+        final QueryBuilder rewritten = filter.rewrite(queryRewriteContext);
+        if (rewritten == filter) {
+            return this;
+        }
+        return new KnnQueryBuilder(field,queryVector,service,filters,results).k(k).efSearch(efSearch).similarity(similarity)
+                .rescore(rescore).filter(rewritten).filterStrategy(filterStrategy).boost(boost).queryName(queryName);
+    }
+
+    @Override
+    protected Query doToQuery(QueryShardContext context) throws IOException {
+        final SimilarityScorer exact = SimilarityScorer.of(context.index().getName(),field,context.fieldMapper(field),
+                queryVector,similarity);
+        if (exact.encoding() == VectorEncoding.PQ) {
+            throw new IllegalArgumentException("[" + NAME + "] doesn't support the [pq] encoding of field [" + field + "]");
+        }
+        final Query filterQuery = filter == null ? null : filter.toQuery(context);
+        return new KnnQuery(field,queryVector,k,efSearch,similarity,rescore,exact,service,filterQuery,filterStrategy,
+                filters,results);
+    }
+
+    @Override
+    protected boolean doEquals(KnnQueryBuilder other) {
+        return field.equals(other.field) && Arrays.equals(queryVector,other.queryVector) && k == other.k
+                && efSearch == other.efSearch && similarity == other.similarity && rescore == other.rescore
+                && Objects.equals(filter,other.filter) && filterStrategy == other.filterStrategy;
+    }
+
+    @Override
+    protected int doHashCode() {
+        return Objects.hash(field,Arrays.hashCode(queryVector),k,efSearch,similarity,rescore,filter,filterStrategy);
+    }
+
+    @Override
+    public String getWriteableName() {
+        return NAME;
+    }
+}
@@ -0,0 +1,140 @@
+package query;
+
+import index.NeighborQueue;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Explanation;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.InPlaceMergeSorter;
+import org.apache.lucene.util.RamUsageEstimator;
+
+import java.util.Arrays;
+
+/**
+ * The hits of a vector query on one segment, in doc id order. They are immutable, and may be cached.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-06 14:02
+ */
+public final class LeafHits implements Accountable {
+    public static final LeafHits EMPTY = new LeafHits(new int[0],new float[0]);
+
+    private final int[] docs;
+    private final float[] scores;
+
+    public LeafHits(int[] docs,float[] scores) {
+        this.docs = docs;
+        this.scores = scores;
+    }
+
+    /**
+     * Top hits collected in a {@link NeighborQueue} holding doc ids with their score as distance,
+     * lowest score first.
+     */
+    public static LeafHits fromTopScores(NeighborQueue queue) {
+        final int size = queue.size();
+        final int[] docs = new int[size];
+        final float[] scores = new float[size];
+        for (int i = 0; i < size; i++) {
+            docs[i] = queue.nodeAt(i);
+            scores[i] = queue.distanceAt(i);
+        }
+        new InPlaceMergeSorter() {
+            @Override
+            protected int compare(int i,int j) {
+                return Integer.compare(docs[i],docs[j]);
+            }
+
+            @Override
+            protected void swap(int i,int j) {
+                final int doc = docs[i];
+                docs[i] = docs[j];
+                docs[j] = doc;
+                final float score = scores[i];
+                scores[i] = scores[j];
+                scores[j] = score;
+            }
+        }.sort(0,size);
+        return new LeafHits(docs,scores);
+    }
+
+    public int size() {
+        return docs.length;
+    }
+
+    public int doc(int i) {
+        return docs[i];
+    }
+
+    public float score(int i) {
+        return scores[i];
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        return RamUsageEstimator.shallowSizeOfInstance(LeafHits.class) + RamUsageEstimator.sizeOf(docs)
+                + RamUsageEstimator.sizeOf(scores);
+    }
+
+    public Explanation explain(int doc,String description) {
+        final int i = Arrays.binarySearch(docs,doc);
+        if (i < 0) {
+            return Explanation.noMatch("not in the top hits of " + description);
+        }
+        return Explanation.match(scores[i],description);
+    }
+
+    public Scorer scorer(Weight weight,float boost) {
+        return new Scorer(weight) {
+            private int index = -1;
+
+            private final DocIdSetIterator iterator = new DocIdSetIterator() {
+                @Override
+                public int docID() {
+                    return index < 0 ? -1 : index < docs.length ? docs[index] : NO_MORE_DOCS;
+                }
+
+                @Override
+                public int nextDoc() {
+                    if (index < docs.length) {
+                        index++;
+                    }
+                    return docID();
+                }
+
+                @Override
+                public int advance(int target) {
+                    final int from = index + 1;
+                    if (from >= docs.length) {
+                        index = docs.length;
+                        return NO_MORE_DOCS;
+                    }
+                    final int i = Arrays.binarySearch(docs,from,docs.length,target);
+                    index = i < 0 ? -1 - i : i;
+                    return docID();
+                }
+
+                @Override
+                public long cost() {
+                    return docs.length;
+                }
+            };
+
+            @Override
+            public int docID() {
+                return iterator.docID();
+            }
+
+            @Override
+            public float score() {
+                return scores[index] * boost;
+            }
+
+            @Override
+            public DocIdSetIterator iterator() {
+                return iterator;
+            }
+        };
+    }
+}
@@ -0,0 +1,48 @@
+package query;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * How many documents a vector query scored fully and how many it skipped on a bound.
+ * <p>
+ * The profile API of this version has no room for custom counters, so the queries print these in their
+ * description, which the profiler reads once the query has run.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-12 10:10
+ */
+public final class PruningStats {
+    private final LongAdder decoded = new LongAdder();
+    private final LongAdder skippedByNorm = new LongAdder();
+    private final LongAdder skippedByPrefix = new LongAdder();
+
+    void decoded() {
+        decoded.increment();
+    }
+
+    void skippedByNorm() {
+        skippedByNorm.increment();
+    }
+
+    void skippedByPrefix() {
+        skippedByPrefix.increment();
+    }
+
+    public long decodedCount() {
+        return decoded.sum();
+    }
+
+    public long skippedByNormCount() {
+        return skippedByNorm.sum();
+    }
+
+    public long skippedByPrefixCount() {
+        return skippedByPrefix.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "decoded=" + decoded.sum() + ",skipped_by_norm=" + skippedByNorm.sum()
+                + ",skipped_by_prefix=" + skippedByPrefix.sum();
+    }
+}
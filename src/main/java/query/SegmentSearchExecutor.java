@@ -0,0 +1,240 @@
+package query;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.util.Counter;
+import org.apache.lucene.util.SetOnce;
+import org.apache.lucene.util.ThreadInterruptedException;
+import org.elasticsearch.common.CheckedFunction;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.index.shard.SearchOperationListener;
+import org.elasticsearch.search.SearchService;
+import org.elasticsearch.search.internal.SearchContext;
+import org.elasticsearch.tasks.TaskCancelledException;
+import org.elasticsearch.threadpool.ExecutorBuilder;
+import org.elasticsearch.threadpool.FixedExecutorBuilder;
+import org.elasticsearch.threadpool.ThreadPool;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Searches the segments of a shard concurrently on the {@value #THREAD_POOL_NAME} thread pool.
+ * <p>
+ * The search thread takes part in the search: it claims segments like the pool threads do, largest first, so
+ * a full or rejecting pool only means fewer helpers and never a failed search. Once it runs out of segments, the
+ * search thread only waits for the helpers already running: helpers still queued return as soon as they start.
+ * The pool is sized with {@code vector_distance.thread_pool.size} and {@code vector_distance.thread_pool.queue_size}.
+ * <p>
+ * The {@link #searchOperationListener()} records the task and timeout of the query phase running on a thread, the
+ * segments left are then not searched once the task is cancelled or the search timed out.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-16 10:10
+ */
+public final class SegmentSearchExecutor {
+    public static final String THREAD_POOL_NAME = "vector_distance";
+
+    private final SetOnce<ThreadPool> threadPool = new SetOnce<>();
+    // the interruption of the query phase running on the thread, null outside of a query phase
+    private final ThreadLocal<Interruption> current = new ThreadLocal<>();
+
+    /**
+     * The fixed pool of the plugin, as many threads as processors by default.
+     */
+    public static ExecutorBuilder<?> executorBuilder(Settings settings) {
+        return new FixedExecutorBuilder(settings,THREAD_POOL_NAME,EsExecutors.numberOfProcessors(settings),1000,
+                "vector_distance.thread_pool");
+    }
+
+    public void setThreadPool(ThreadPool threadPool) {
+        this.threadPool.set(threadPool);
+    }
+
+    /**
+     * Tracks the query phases of the shards of an index, see {@link org.elasticsearch.plugins.Plugin#onIndexModule}.
+     */
+    public SearchOperationListener searchOperationListener() {
+        return new SearchOperationListener() {
+            @Override
+            public void onPreQueryPhase(SearchContext searchContext) {
+                current.set(Interruption.of(searchContext));
+            }
+
+            @Override
+            public void onFailedQueryPhase(SearchContext searchContext) {
+                current.remove();
+            }
+
+            @Override
+            public void onQueryPhase(SearchContext searchContext,long tookInNanos) {
+                current.remove();
+            }
+        };
+    }
+
+    /**
+     * Applies {@code search} to every leaf, the results being in the order of {@code leaves}.
+     * <p>
+     * If the search timed out, the leaves left are not searched and their result is null. The query phase then
+     * reports the timeout as it checks it before collecting the hits.
+     *
+     * @throws TaskCancelledException if the search task was cancelled
+     */
+    public <T> List<T> search(List<LeafReaderContext> leaves,CheckedFunction<LeafReaderContext, T, IOException> search)
+            throws IOException {
+        final Interruption interruption = current.get();
+        return search(leaves,search,interruption == null ? Interruption.NONE : interruption);
+    }
+
+    <T> List<T> search(List<LeafReaderContext> leaves,CheckedFunction<LeafReaderContext, T, IOException> search,
+                       Interruption interruption) throws IOException {
+        final int n = leaves.size();
+        final List<Integer> order = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            order.add(i);
+        }
+        // the largest segments first, they must not be the last ones left
+        order.sort(Comparator.comparingInt((Integer i) -> leaves.get(i).reader().maxDoc()).reversed());
+        final AtomicReferenceArray<T> results = new AtomicReferenceArray<>(n);
+        final AtomicInteger next = new AtomicInteger();
+        final SetOnce<Exception> failure = new SetOnce<>();
+        final Runnable worker = () -> {
+            while (failure.get() == null && interruption.cancelled() == false && interruption.timedOut() == false) {
+                final int i = next.getAndIncrement();
+                if (i >= n) {
+                    break;
+                }
+                final int leaf = order.get(i);
+                try {
+                    results.set(leaf,search.apply(leaves.get(leaf)));
+                } catch (Exception e) {
+                    try {
+                        failure.set(e);
+                    } catch (SetOnce.AlreadySetException ignored) {
+                        //the first failure is reported
+                    }
+                }
+            }
+        };
+
+        final ThreadPool pool = threadPool.get();
+        final int helpers = pool == null ? 0 : Math.min(n - 1,pool.info(THREAD_POOL_NAME).getMax());
+        final Helpers running = new Helpers();
+        if (helpers > 0) {
+            final ExecutorService executor = pool.executor(THREAD_POOL_NAME);
+            for (int i = 0; i < helpers; i++) {
+                try {
+                    executor.execute(() -> {
+                        if (running.start() == false) {
+                            return;
+                        }
+                        try {
+                            worker.run();
+                        } finally {
+                            running.finish();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    //one helper less
+                }
+            }
+        }
+        worker.run();
+        try {
+            running.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ThreadInterruptedException(e);
+        }
+        if (interruption.cancelled()) {
+            throw new TaskCancelledException("cancelled");
+        }
+
+        final Exception e = failure.get();
+        if (e instanceof IOException) {
+            throw (IOException) e;
+        } else if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        } else if (e != null) {
+            throw new IllegalStateException(e);
+        }
+        final List<T> list = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            list.add(results.get(i));
+        }
+        return list;
+    }
+
+    /**
+     * The helpers running a search. Once closed, helpers starting late don't run.
+     */
+    private static final class Helpers {
+        private int running;
+        private boolean closed;
+
+        synchronized boolean start() {
+            if (closed) {
+                return false;
+            }
+            running++;
+            return true;
+        }
+
+        synchronized void finish() {
+            running--;
+            notifyAll();
+        }
+
+        // waits for the helpers which started
+        synchronized void close() throws InterruptedException {
+            closed = true;
+            while (running > 0) {
+                wait();
+            }
+        }
+    }
+
+    /**
+     * The checks of the query phase: whether its task was cancelled and whether it ran out of time.
+     */
+    static final class Interruption {
+        static final Interruption NONE = new Interruption(() -> false,() -> false);
+
+        private final BooleanSupplier cancelled;
+        private final BooleanSupplier timedOut;
+
+        Interruption(BooleanSupplier cancelled,BooleanSupplier timedOut) {
+            this.cancelled = cancelled;
+            this.timedOut = timedOut;
+        }
+
+        static Interruption of(SearchContext context) {
+            final TimeValue timeout = context.timeout();
+            if (timeout == null || timeout.equals(SearchService.NO_TIMEOUT)) {
+                return new Interruption(context::isCancelled,() -> false);
+            }
+            // the clock of the query phase timeout
+            final Counter clock = context.timeEstimateCounter();
+            final long start = clock.get();
+            final long maxTime = timeout.millis();
+            return new Interruption(context::isCancelled,() -> clock.get() - start > maxTime);
+        }
+
+        boolean cancelled() {
+            return cancelled.getAsBoolean();
+        }
+
+        boolean timedOut() {
+            return timedOut.getAsBoolean();
+        }
+    }
+}
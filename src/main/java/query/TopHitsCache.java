@@ -0,0 +1,174 @@
+package query;
+
+import index.SegmentCache;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.apache.lucene.util.SetOnce;
+import org.elasticsearch.common.CheckedSupplier;
+import org.elasticsearch.common.breaker.CircuitBreaker;
+import org.elasticsearch.common.breaker.CircuitBreakingException;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.indices.breaker.CircuitBreakerService;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps the top hits of the {@code knn} and {@code exact_knn} queries per segment, so that a query repeated or
+ * paged through is only searched on the segments created since it last ran.
+ * <p>
+ * Entries live in a {@link SegmentCache}, weighted by their size and evicted least recently used first, and
+ * are dropped with their segment. A segment keeps its core cache key when documents are deleted from it, so the
+ * number of deleted documents is part of the key: deletes only grow, the same count means the same live docs.
+ * The query vector is compared whole, its hash being computed once per query.
+ * <p>
+ * Hits are not cached when the {@code request} circuit breaker, and so the parent one, has no room left for
+ * them, nor when the filter of the query cannot be cached on the segment.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-18 15:10
+ */
+public final class TopHitsCache {
+    private final SegmentCache<Entry> hits;
+    private final boolean enabled;
+    // known once an index is created on the node
+    private volatile CircuitBreakerService breakerService;
+    private final LongAdder breakerSkips = new LongAdder();
+
+    public TopHitsCache(ByteSizeValue cacheSize) {
+        this.hits = new SegmentCache<>("top hits",cacheSize);
+        this.enabled = cacheSize.getBytes() > 0;
+    }
+
+    public void setBreakerService(CircuitBreakerService breakerService) {
+        this.breakerService = breakerService;
+    }
+
+    public boolean enabled() {
+        return enabled;
+    }
+
+    /**
+     * The hits of {@code key} on the segment, searched with {@code search} if they are not cached.
+     *
+     * @param filterWeight the weight of the filter of the query, null if it has none
+     */
+    public LeafHits hits(LeafReaderContext context,Key key,Weight filterWeight,
+                         CheckedSupplier<LeafHits, IOException> search) throws IOException {
+        if (enabled == false || (filterWeight != null && filterWeight.isCacheable(context) == false)) {
+            return search.get();
+        }
+        final SetOnce<LeafHits> searched = new SetOnce<>();
+        final Entry entry;
+        try {
+            entry = hits.get(context.reader(),key.forSegment(context.reader().numDeletedDocs()),id -> {
+                searched.set(search.get());
+                final Entry loaded = new Entry(searched.get(),id.ramBytesUsed());
+                checkBreaker(loaded.ramBytesUsed());
+                return loaded;
+            });
+        } catch (CircuitBreakingException e) {
+            breakerSkips.increment();
+            // threads waiting for the same entry didn't search
+            return searched.get() != null ? searched.get() : search.get();
+        }
+        return entry != null ? entry.hits : search.get();
+    }
+
+    // throws if the request breaker has no room for the bytes of an entry, which are kept by the cache
+    private void checkBreaker(long bytes) {
+        final CircuitBreakerService service = breakerService;
+        if (service == null) {
+            return;
+        }
+        final CircuitBreaker breaker = service.getBreaker(CircuitBreaker.REQUEST);
+        breaker.addEstimateBytesAndMaybeBreak(bytes,"<top_hits_cache>");
+        breaker.addWithoutBreaking(-bytes);
+    }
+
+    public SegmentCache<Entry> cache() {
+        return hits;
+    }
+
+    /**
+     * How many hits were not cached because the request breaker had no room for them.
+     */
+    public long breakerSkips() {
+        return breakerSkips.sum();
+    }
+
+    /**
+     * What a query is and what it searches for, the same for every segment.
+     */
+    public static final class Key implements Accountable {
+        private final String query;
+        private final String field;
+        private final double[] vector;
+        // the other parameters changing the hits, such as k
+        private final String params;
+        private final Query filter;
+        private final int deletes;
+        private final int hashCode;
+
+        public Key(String query,String field,double[] vector,String params,Query filter) {
+            this(query,field,vector,params,filter,-1,Objects.hash(query,field,Arrays.hashCode(vector),params,filter));
+        }
+
+        private Key(String query,String field,double[] vector,String params,Query filter,int deletes,int hashCode) {
+            this.query = query;
+            this.field = field;
+            this.vector = vector;
+            this.params = params;
+            this.filter = filter;
+            this.deletes = deletes;
+            this.hashCode = hashCode;
+        }
+
+        Key forSegment(int deletes) {
+            return new Key(query,field,vector,params,filter,deletes,31 * hashCode + deletes);
+        }
+
+        @Override
+        public long ramBytesUsed() {
+            // the vector is shared by the keys of all segments, each counts it as if it was alone
+            // strings counted at two bytes a char, plus their header
+            return RamUsageEstimator.shallowSizeOfInstance(Key.class) + RamUsageEstimator.sizeOf(vector)
+                    + 2L * (field.length() + params.length()) + 2L * RamUsageEstimator.NUM_BYTES_ARRAY_HEADER;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return hashCode == key.hashCode && deletes == key.deletes && query.equals(key.query)
+                    && field.equals(key.field) && params.equals(key.params) && Arrays.equals(vector,key.vector)
+                    && Objects.equals(filter,key.filter);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    public static final class Entry implements Accountable {
+        private final LeafHits hits;
+        private final long keyBytes;
+
+        private Entry(LeafHits hits,long keyBytes) {
+            this.hits = hits;
+            this.keyBytes = keyBytes;
+        }
+
+        @Override
+        public long ramBytesUsed() {
+            return RamUsageEstimator.shallowSizeOfInstance(Entry.class) + keyBytes + hits.ramBytesUsed();
+        }
+    }
+}
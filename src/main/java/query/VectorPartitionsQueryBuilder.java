@@ -0,0 +1,227 @@
+package query;
+
+import index.CodebookService;
+import org.apache.lucene.search.MatchNoDocsQuery;
+import org.apache.lucene.search.Query;
+import org.elasticsearch.common.ParseField;
+import org.elasticsearch.common.ParsingException;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.index.mapper.MappedFieldType;
+import org.elasticsearch.index.query.AbstractQueryBuilder;
+import org.elasticsearch.index.query.QueryShardContext;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The {@code vector_partitions} query, the documents of the {@code nprobe} partitions of a codebook closest
+ * to a vector, as assigned by the {@code vector_partition} ingest processor.
+ * <pre>
+ * "vector_partitions": {
+ *   "field": "image_vector",
+ *   "codebook": "images",
+ *   "query_vector": [0.1, 0.2, ...],
+ *   "nprobe": 8
+ * }
+ * </pre>
+ * Used as the query of a {@code function_score} with the {@code cosine} or {@code norm-l2} script, only about
+ * {@code nprobe / nlist} of the documents are scored, and it combines with any other filter. It is the only way to
+ * probe partitions: the scripts reject {@code nprobe}, as they can't keep the other documents from matching.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-09 16:20
+ */
+public class VectorPartitionsQueryBuilder extends AbstractQueryBuilder<VectorPartitionsQueryBuilder> {
+    public static final String NAME = "vector_partitions";
+
+    public static final int DEFAULT_NPROBE = 8;
+
+    private static final ParseField FIELD_FIELD = new ParseField("field");
+    private static final ParseField CODEBOOK_FIELD = new ParseField("codebook");
+    private static final ParseField QUERY_VECTOR_FIELD = new ParseField("query_vector");
+    private static final ParseField NPROBE_FIELD = new ParseField("nprobe");
+    private static final ParseField PARTITION_FIELD_FIELD = new ParseField("partition_field");
+
+    private final String field;
+    private final String codebook;
+    private final double[] queryVector;
+    private int nprobe = DEFAULT_NPROBE;
+    private String partitionField;
+    private final CodebookService codebooks;
+
+    public VectorPartitionsQueryBuilder(String field,String codebook,double[] queryVector,CodebookService codebooks) {
+        if (field == null) {
+            throw new IllegalArgumentException("[" + NAME + "] requires a field");
+        }
+        if (codebook == null) {
+            throw new IllegalArgumentException("[" + NAME + "] requires a codebook");
+        }
+        if (queryVector == null || queryVector.length == 0) {
+            throw new IllegalArgumentException("[" + NAME + "] requires a query_vector");
+        }
+        this.field = field;
+        this.codebook = codebook;
+        this.queryVector = queryVector;
+        this.partitionField = field + "_partition";
+        this.codebooks = codebooks;
+    }
+
+    public VectorPartitionsQueryBuilder(StreamInput in,CodebookService codebooks) throws IOException {
+        super(in);
+        this.field = in.readString();
+        this.codebook = in.readString();
+        this.queryVector = in.readDoubleArray();
+        this.nprobe = in.readVInt();
+        this.partitionField = in.readString();
+        this.codebooks = codebooks;
+    }
+
+    @Override
+    protected void doWriteTo(StreamOutput out) throws IOException {
+        out.writeString(field);
+        out.writeString(codebook);
+        out.writeDoubleArray(queryVector);
+        out.writeVInt(nprobe);
+        out.writeString(partitionField);
+    }
+
+    public VectorPartitionsQueryBuilder nprobe(int nprobe) {
+        if (nprobe <= 0) {
+            throw new IllegalArgumentException("[" + NAME + "] requires [nprobe] to be positive");
+        }
+        this.nprobe = nprobe;
+        return this;
+    }
+
+    public VectorPartitionsQueryBuilder partitionField(String partitionField) {
+        this.partitionField = Objects.requireNonNull(partitionField);
+        return this;
+    }
+
+    public String field() {
+        return field;
+    }
+
+    public String codebook() {
+        return codebook;
+    }
+
+    public double[] queryVector() {
+        return queryVector;
+    }
+
+    public int nprobe() {
+        return nprobe;
+    }
+
+    public String partitionField() {
+        return partitionField;
+    }
+
+    @Override
+    protected void doXContent(XContentBuilder builder,Params params) throws IOException {
+        builder.startObject(NAME);
+        builder.field(FIELD_FIELD.getPreferredName(),field);
+        builder.field(CODEBOOK_FIELD.getPreferredName(),codebook);
+        builder.array(QUERY_VECTOR_FIELD.getPreferredName(),queryVector);
+        builder.field(NPROBE_FIELD.getPreferredName(),nprobe);
+        builder.field(PARTITION_FIELD_FIELD.getPreferredName(),partitionField);
+        printBoostAndQueryName(builder);
+        builder.endObject();
+    }
+
+    public static VectorPartitionsQueryBuilder fromXContent(XContentParser parser,CodebookService codebooks)
+            throws IOException {
+        String field = null;
+        String codebook = null;
+        List<Double> queryVector = null;
+        Integer nprobe = null;
+        String partitionField = null;
+        float boost = DEFAULT_BOOST;
+        String queryName = null;
+        String currentFieldName = null;
+        XContentParser.Token token;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+            if (token == XContentParser.Token.FIELD_NAME) {
+                currentFieldName = parser.currentName();
+            } else if (token == XContentParser.Token.START_ARRAY) {
+                if (QUERY_VECTOR_FIELD.match(currentFieldName,parser.getDeprecationHandler())) {
+                    queryVector = new ArrayList<>();
+                    while (parser.nextToken() != XContentParser.Token.END_ARRAY) {
+                        queryVector.add(parser.doubleValue());
+                    }
+                } else {
+                    throw new ParsingException(parser.getTokenLocation(),"[" + NAME + "] unknown array [" + currentFieldName + "]");
+                }
+            } else if (token.isValue()) {
+                if (FIELD_FIELD.match(currentFieldName,parser.getDeprecationHandler())) {
+                    field = parser.text();
+                } else if (CODEBOOK_FIELD.match(currentFieldName,parser.getDeprecationHandler())) {
+                    codebook = parser.text();
+                } else if (NPROBE_FIELD.match(currentFieldName,parser.getDeprecationHandler())) {
+                    nprobe = parser.intValue();
+                } else if (PARTITION_FIELD_FIELD.match(currentFieldName,parser.getDeprecationHandler())) {
+                    partitionField = parser.text();
+                } else if (AbstractQueryBuilder.BOOST_FIELD.match(currentFieldName,parser.getDeprecationHandler())) {
+                    boost = parser.floatValue();
+                } else if (AbstractQueryBuilder.NAME_FIELD.match(currentFieldName,parser.getDeprecationHandler())) {
+                    queryName = parser.text();
+                } else {
+                    throw new ParsingException(parser.getTokenLocation(),"[" + NAME + "] unknown field [" + currentFieldName + "]");
+                }
+            } else {
+                throw new ParsingException(parser.getTokenLocation(),"[" + NAME + "] unexpected token [" + token + "]");
+            }
+        }
+        if (queryVector == null) {
+            throw new ParsingException(parser.getTokenLocation(),"[" + NAME + "] requires a [query_vector]");
+        }
+        final double[] vector = new double[queryVector.size()];
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] = queryVector.get(i);
+        }
+        final VectorPartitionsQueryBuilder builder = new VectorPartitionsQueryBuilder(field,codebook,vector,codebooks);
+        if (nprobe != null) {
+            builder.nprobe(nprobe);
+        }
+        if (partitionField != null) {
+            builder.partitionField(partitionField);
+        }
+        return builder.boost(boost).queryName(queryName);
+    }
+
+    @Override
+    protected Query doToQuery(QueryShardContext context) {
+        final MappedFieldType fieldType = context.fieldMapper(partitionField);
+        if (fieldType == null) {
+            return new MatchNoDocsQuery("unmapped partition field [" + partitionField + "]");
+        }
+        final List<Object> partitions = new ArrayList<>();
+        for (int partition : codebooks.get(codebook).nearest(queryVector,nprobe)) {
+            partitions.add(Integer.toString(partition));
+        }
+        return fieldType.termsQuery(partitions,context);
+    }
+
+    @Override
+    protected boolean doEquals(VectorPartitionsQueryBuilder other) {
+        return field.equals(other.field) && codebook.equals(other.codebook) && Arrays.equals(queryVector,other.queryVector)
+                && nprobe == other.nprobe && partitionField.equals(other.partitionField);
+    }
+
+    @Override
+    protected int doHashCode() {
+        return Objects.hash(field,codebook,Arrays.hashCode(queryVector),nprobe,partitionField);
+    }
+
+    @Override
+    public String getWriteableName() {
+        return NAME;
+    }
+}
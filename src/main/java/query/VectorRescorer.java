@@ -0,0 +1,127 @@
+package query;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.Explanation;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.elasticsearch.search.rescore.RescoreContext;
+import org.elasticsearch.search.rescore.Rescorer;
+import script.DocVectorValues;
+import script.SimilarityScorer;
+import script.VectorScorer;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Rescores the top hits with the full similarity of their vector, see {@link VectorRescorerBuilder}.
+ * <p>
+ * The hits of the window are scored in doc id order, one scorer per segment, then sorted on their new score.
+ * Hits beyond the window keep their score and come after them, as with the query rescorer.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-17 10:50
+ */
+public final class VectorRescorer implements Rescorer {
+    public static final VectorRescorer INSTANCE = new VectorRescorer();
+
+    private VectorRescorer() {
+    }
+
+    @Override
+    public TopDocs rescore(TopDocs topDocs,IndexSearcher searcher,RescoreContext rescoreContext) throws IOException {
+        final Context context = (Context) rescoreContext;
+        if (topDocs == null || topDocs.scoreDocs.length == 0) {
+            return topDocs;
+        }
+        final ScoreDoc[] hits = topDocs.scoreDocs;
+        final int window = Math.min(context.getWindowSize(),hits.length);
+        final ScoreDoc[] rescored = new ScoreDoc[window];
+        for (int i = 0; i < window; i++) {
+            rescored[i] = new ScoreDoc(hits[i].doc,hits[i].score,hits[i].shardIndex);
+        }
+        // segment by segment, doc values are read forward only
+        Arrays.sort(rescored,Comparator.comparingInt(hit -> hit.doc));
+        final List<LeafReaderContext> leaves = searcher.getIndexReader().leaves();
+        final Set<Integer> rescoredDocs = new HashSet<>(window);
+        LeafReaderContext leaf = null;
+        DocVectorValues docVector = null;
+        VectorScorer scorer = null;
+        for (ScoreDoc hit : rescored) {
+            if (leaf == null || hit.doc >= leaf.docBase + leaf.reader().maxDoc()) {
+                leaf = leaves.get(ReaderUtil.subIndex(hit.doc,leaves));
+                docVector = context.exact.docValues(leaf);
+                scorer = context.exact.newScorer();
+            }
+            hit.score = context.combine(hit.score,similarity(docVector,scorer,hit.doc - leaf.docBase));
+            rescoredDocs.add(hit.doc);
+        }
+        Arrays.sort(rescored,(a,b) -> {
+            final int cmp = Float.compare(b.score,a.score);
+            return cmp != 0 ? cmp : Integer.compare(a.doc,b.doc);
+        });
+        context.setRescoredDocs(rescoredDocs);
+
+        final ScoreDoc[] result = Arrays.copyOf(rescored,hits.length);
+        System.arraycopy(hits,window,result,window,hits.length - window);
+        float maxScore = Float.NEGATIVE_INFINITY;
+        for (ScoreDoc hit : result) {
+            maxScore = Math.max(maxScore,hit.score);
+        }
+        return new TopDocs(topDocs.totalHits,result,maxScore);
+    }
+
+    @Override
+    public Explanation explain(int topLevelDocId,IndexSearcher searcher,RescoreContext rescoreContext,
+                               Explanation sourceExplanation) throws IOException {
+        final Context context = (Context) rescoreContext;
+        if (sourceExplanation == null || context.isRescored(topLevelDocId) == false) {
+            return sourceExplanation;
+        }
+        final List<LeafReaderContext> leaves = searcher.getIndexReader().leaves();
+        final LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(topLevelDocId,leaves));
+        final double similarity = similarity(context.exact.docValues(leaf),context.exact.newScorer(),
+                topLevelDocId - leaf.docBase);
+        final float score = context.combine(sourceExplanation.getValue(),similarity);
+        return Explanation.match(score,"vector rescore, sum of:",
+                Explanation.match(context.queryWeight * sourceExplanation.getValue(),
+                        "first pass score times query_weight [" + context.queryWeight + "]",sourceExplanation),
+                Explanation.match((float) (context.rescoreQueryWeight * similarity),
+                        "full similarity [" + similarity + "] times rescore_query_weight [" + context.rescoreQueryWeight + "]"));
+    }
+
+    /**
+     * The similarity of a document, 0 if it has no vector as with the scripts.
+     */
+    private static double similarity(DocVectorValues docVector,VectorScorer scorer,int doc) throws IOException {
+        return docVector.advanceExact(doc) ? scorer.score(docVector) : 0d;
+    }
+
+    @Override
+    public void extractTerms(IndexSearcher searcher,RescoreContext rescoreContext,Set<Term> termsSet) {
+    }
+
+    static final class Context extends RescoreContext {
+        private final SimilarityScorer exact;
+        private final float queryWeight;
+        private final float rescoreQueryWeight;
+
+        Context(int windowSize,SimilarityScorer exact,float queryWeight,float rescoreQueryWeight) {
+            super(windowSize,INSTANCE);
+            this.exact = exact;
+            this.queryWeight = queryWeight;
+            this.rescoreQueryWeight = rescoreQueryWeight;
+        }
+
+        float combine(float score,double similarity) {
+            return (float) (queryWeight * score + rescoreQueryWeight * similarity);
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package query;
+
+import index.VectorSimilarity;
+import org.elasticsearch.common.ParseField;
+import org.elasticsearch.common.ParsingException;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.index.query.QueryRewriteContext;
+import org.elasticsearch.index.query.QueryShardContext;
+import org.elasticsearch.search.rescore.RescoreContext;
+import org.elasticsearch.search.rescore.RescorerBuilder;
+import script.SimilarityScorer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The {@code vector} rescorer, the full similarity of the top hits of a first pass.
+ * <pre>
+ * "rescore": {
+ *   "window_size": 100,
+ *   "vector": {
+ *     "field": "image_vector",
+ *     "query_vector": [0.1, 0.2, ...],
+ *     "similarity": "cosine",
+ *     "query_weight": 0,
+ *     "rescore_query_weight": 1
+ *   }
+ * }
+ * </pre>
+ * Meant to follow a {@code cosine} or {@code norm-l2} script with {@code prefix_dims}, which only reads the first
+ * dimensions of every matching document: the {@code window_size} best of them are then scored on all their
+ * dimensions, by default replacing the first pass score. Scores are the ones of the scripts without prefix.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-17 10:20
+ */
+public class VectorRescorerBuilder extends RescorerBuilder<VectorRescorerBuilder> {
+    public static final String NAME = "vector";
+
+    public static final float DEFAULT_QUERY_WEIGHT = 0f;
+    public static final float DEFAULT_RESCORE_QUERY_WEIGHT = 1f;
+
+    private static final ParseField FIELD_FIELD = new ParseField("field");
+    private static final ParseField QUERY_VECTOR_FIELD = new ParseField("query_vector");
+    private static final ParseField SIMILARITY_FIELD = new ParseField("similarity");
+    private static final ParseField QUERY_WEIGHT_FIELD = new ParseField("query_weight");
+    private static final ParseField RESCORE_QUERY_WEIGHT_FIELD = new ParseField("rescore_query_weight");
+
+    private final String field;
+    private final double[] queryVector;
+    private VectorSimilarity similarity = VectorSimilarity.COSINE;
+    private float queryWeight = DEFAULT_QUERY_WEIGHT;
+    private float rescoreQueryWeight = DEFAULT_RESCORE_QUERY_WEIGHT;
+
+    public VectorRescorerBuilder(String field,double[] queryVector) {
+        if (field == null) {
+            throw new IllegalArgumentException("[" + NAME + "] requires a field");
+        }
+        if (queryVector == null || queryVector.length == 0) {
+            throw new IllegalArgumentException("[" + NAME + "] requires a query_vector");
+        }
+        this.field = field;
+        this.queryVector = queryVector;
+    }
+
+    public VectorRescorerBuilder(StreamInput in) throws IOException {
+        super(in);
+        this.field = in.readString();
+        this.queryVector = in.readDoubleArray();
+        this.similarity = in.readEnum(VectorSimilarity.class);
+        this.queryWeight = in.readFloat();
+        this.rescoreQueryWeight = in.readFloat();
+    }
+
+    @Override
+    protected void doWriteTo(StreamOutput out) throws IOException {
+        out.writeString(field);
+        out.writeDoubleArray(queryVector);
+        out.writeEnum(similarity);
+        out.writeFloat(queryWeight);
+        out.writeFloat(rescoreQueryWeight);
+    }
+
+    public VectorRescorerBuilder similarity(VectorSimilarity similarity) {
+        this.similarity = Objects.requireNonNull(similarity);
+        return this;
+    }
+
+    public VectorRescorerBuilder queryWeight(float queryWeight) {
+        this.queryWeight = queryWeight;
+        return this;
+    }
+
+    public VectorRescorerBuilder rescoreQueryWeight(float rescoreQueryWeight) {
+        this.rescoreQueryWeight = rescoreQueryWeight;
+        return this;
+    }
+
+    public String field() {
+        return field;
+    }
+
+    public double[] queryVector() {
+        return queryVector;
+    }
+
+    public VectorSimilarity similarity() {
+        return similarity;
+    }
+
+    public float queryWeight() {
+        return queryWeight;
+    }
+
+    public float rescoreQueryWeight() {
+        return rescoreQueryWeight;
+    }
+
+    @Override
+    protected void doXContent(XContentBuilder builder,Params params) throws IOException {
+        builder.startObject(NAME);
+        builder.field(FIELD_FIELD.getPreferredName(),field);
+        builder.array(QUERY_VECTOR_FIELD.getPreferredName(),queryVector);
+        builder.field(SIMILARITY_FIELD.getPreferredName(),similarity.toString());
+        builder.field(QUERY_WEIGHT_FIELD.getPreferredName(),queryWeight);
+        builder.field(RESCORE_QUERY_WEIGHT_FIELD.getPreferredName(),rescoreQueryWeight);
+        builder.endObject();
+    }
+
+    public static VectorRescorerBuilder fromXContent(XContentParser parser) throws IOException {
+        String field = null;
+        List<Double> queryVector = null;
+        String similarity = null;
+        Float queryWeight = null;
+        Float rescoreQueryWeight = null;
+        String currentFieldName = null;
+        XContentParser.Token token;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+            if (token == XContentParser.Token.FIELD_NAME) {
+                currentFieldName = parser.currentName();
+            } else if (token == XContentParser.Token.START_ARRAY) {
+                if (QUERY_VECTOR_FIELD.match(currentFieldName,parser.getDeprecationHandler())) {
+                    queryVector = new ArrayList<>();
+                    while (parser.nextToken() != XContentParser.Token.END_ARRAY) {
+                        queryVector.add(parser.doubleValue());
+                    }
+                } else {
+                    throw new ParsingException(parser.getTokenLocation(),"[" + NAME + "] unknown array [" + currentFieldName + "]");
+                }
+            } else if (token.isValue()) {
+                if (FIELD_FIELD.match(currentFieldName,parser.getDeprecationHandler())) {
+                    field = parser.text();
+                } else if (SIMILARITY_FIELD.match(currentFieldName,parser.getDeprecationHandler())) {
+                    similarity = parser.text();
+                } else if (QUERY_WEIGHT_FIELD.match(currentFieldName,parser.getDeprecationHandler())) {
+                    queryWeight = parser.floatValue();
+                } else if (RESCORE_QUERY_WEIGHT_FIELD.match(currentFieldName,parser.getDeprecationHandler())) {
+                    rescoreQueryWeight = parser.floatValue();
+                } else {
+                    throw new ParsingException(parser.getTokenLocation(),"[" + NAME + "] unknown field [" + currentFieldName + "]");
+                }
+            } else {
+                throw new ParsingException(parser.getTokenLocation(),"[" + NAME + "] unexpected token [" + token + "]");
+            }
+        }
+        if (queryVector == null) {
+            throw new ParsingException(parser.getTokenLocation(),"[" + NAME + "] requires a [query_vector]");
+        }
+        final double[] vector = new double[queryVector.size()];
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] = queryVector.get(i);
+        }
+        final VectorRescorerBuilder builder = new VectorRescorerBuilder(field,vector);
+        if (similarity != null) {
+            builder.similarity(VectorSimilarity.fromString(similarity));
+        }
+        if (queryWeight != null) {
+            builder.queryWeight(queryWeight);
+        }
+        if (rescoreQueryWeight != null) {
+            builder.rescoreQueryWeight(rescoreQueryWeight);
+        }
+        return builder;
+    }
+
+    @Override
+    protected RescoreContext innerBuildContext(int windowSize,QueryShardContext context) {
+        return new VectorRescorer.Context(windowSize,SimilarityScorer.of(context.index().getName(),field,
+                context.fieldMapper(field),queryVector,similarity),queryWeight,rescoreQueryWeight);
+    }
+
+    @Override
+    public VectorRescorerBuilder rewrite(QueryRewriteContext ctx) {
+        return this;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (super.equals(obj) == false) {
+            return false;
+        }
+        final VectorRescorerBuilder other = (VectorRescorerBuilder) obj;
+        return field.equals(other.field) && Arrays.equals(queryVector,other.queryVector)
+                && similarity == other.similarity && queryWeight == other.queryWeight
+                && rescoreQueryWeight == other.rescoreQueryWeight;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(super.hashCode(),field,Arrays.hashCode(queryVector),similarity,queryWeight,rescoreQueryWeight);
+    }
+
+    @Override
+    public String getWriteableName() {
+        return NAME;
+    }
+}
@@ -0,0 +1,122 @@
+package rest;
+
+import action.NearDuplicatesAction;
+import action.NearDuplicatesRequest;
+import org.elasticsearch.action.support.IndicesOptions;
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.common.ParsingException;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.rest.action.RestToXContentListener;
+import org.elasticsearch.tasks.LoggingTaskListener;
+import org.elasticsearch.tasks.Task;
+
+import java.io.IOException;
+
+/**
+ * Finds the near duplicate pairs of vectors within every shard of an index.
+ * <pre>
+ * POST /images/_vector_near_duplicates?wait_for_completion=false
+ * {
+ *   "field": "feature",
+ *   "method": "cosine",
+ *   "threshold": 0.98,
+ *   "tables": 4,
+ *   "bits": 16,
+ *   "max_pairs": 10000,
+ *   "max_bucket_size": 1000,
+ *   "memory_limit": "64mb",
+ *   "seed": 0
+ * }
+ * </pre>
+ * The response has the {@code max_pairs} best pairs of ids scoring at least {@code threshold} with the
+ * {@code cosine}, {@code norm-l2} or {@code hash-hamming} method. Pairs are only searched within shards.
+ * <p>
+ * With {@code wait_for_completion=false} the response is the id of the task, whose progress and result are
+ * then read with {@code GET _tasks/<task>}; {@code POST _tasks/<task>/_cancel} stops every shard.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-18 11:50
+ */
+public class RestNearDuplicatesAction extends BaseRestHandler {
+
+    public RestNearDuplicatesAction(Settings settings,RestController controller) {
+        super(settings);
+        controller.registerHandler(RestRequest.Method.POST,"/{index}/_vector_near_duplicates",this);
+    }
+
+    @Override
+    public String getName() {
+        return "vector_near_duplicates_action";
+    }
+
+    @Override
+    protected RestChannelConsumer prepareRequest(RestRequest request,NodeClient client) throws IOException {
+        final NearDuplicatesRequest joinRequest = new NearDuplicatesRequest(
+                Strings.splitStringByCommaToArray(request.param("index")));
+        joinRequest.indicesOptions(IndicesOptions.fromRequest(request,joinRequest.indicesOptions()));
+        try (XContentParser parser = request.contentParser()) {
+            parse(parser,joinRequest);
+        }
+        if (request.paramAsBoolean("wait_for_completion",true)) {
+            return channel -> client.executeLocally(NearDuplicatesAction.INSTANCE,joinRequest,
+                    new RestToXContentListener<>(channel));
+        }
+        joinRequest.setShouldStoreResult(true);
+        final Task task = client.executeLocally(NearDuplicatesAction.INSTANCE,joinRequest,LoggingTaskListener.instance());
+        return channel -> {
+            try (XContentBuilder builder = channel.newBuilder()) {
+                builder.startObject();
+                builder.field("task",client.getLocalNodeId() + ":" + task.getId());
+                builder.endObject();
+                channel.sendResponse(new BytesRestResponse(RestStatus.OK,builder));
+            }
+        };
+    }
+
+    private static void parse(XContentParser parser,NearDuplicatesRequest request) throws IOException {
+        XContentParser.Token token = parser.nextToken();
+        if (token != XContentParser.Token.START_OBJECT) {
+            throw new ParsingException(parser.getTokenLocation(),"the body must be an object");
+        }
+        String currentFieldName = null;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+            if (token == XContentParser.Token.FIELD_NAME) {
+                currentFieldName = parser.currentName();
+            } else if (token.isValue()) {
+                if ("field".equals(currentFieldName)) {
+                    request.field(parser.text());
+                } else if ("method".equals(currentFieldName)) {
+                    request.method(parser.text());
+                } else if ("threshold".equals(currentFieldName)) {
+                    request.threshold(parser.doubleValue());
+                } else if ("tables".equals(currentFieldName)) {
+                    request.tables(parser.intValue());
+                } else if ("bits".equals(currentFieldName)) {
+                    request.bits(parser.intValue());
+                } else if ("max_pairs".equals(currentFieldName)) {
+                    request.maxPairs(parser.intValue());
+                } else if ("max_bucket_size".equals(currentFieldName)) {
+                    request.maxBucketSize(parser.intValue());
+                } else if ("memory_limit".equals(currentFieldName)) {
+                    request.memoryLimit(ByteSizeValue.parseBytesSizeValue(parser.text(),"memory_limit"));
+                } else if ("seed".equals(currentFieldName)) {
+                    request.seed(parser.longValue());
+                } else {
+                    throw new ParsingException(parser.getTokenLocation(),"unknown field [" + currentFieldName + "]");
+                }
+            } else {
+                throw new ParsingException(parser.getTokenLocation(),"unexpected token [" + token + "] for ["
+                        + currentFieldName + "]");
+            }
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package rest;
+
+import index.Codebook;
+import index.ProductQuantizer;
+import index.VectorSimilarity;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.ClearScrollRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchScrollRequest;
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.ToXContentObject;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.index.query.functionscore.ScoreFunctionBuilders;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.threadpool.ThreadPool;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Trains a codebook with k-means on a random sample of the vectors of an index.
+ * <pre>
+ * POST /images/_vector_codebook/images/_train
+ * { "field": "feature", "nlist": 1024, "similarity": "cosine", "sample_size": 10000, "iterations": 20 }
+ * </pre>
+ * With {@code "type": "pq"} it trains a product quantizer of {@code m} sub-spaces instead of a coarse quantizer.
+ * The vectors are read from the source, as arrays of numbers, by scrolling through the documents in a random order,
+ * so the sample can be larger than {@code index.max_result_window}. The response is the codebook itself, to be saved
+ * as {@code <config>/vector-distance/codebooks/<name>.json} on every node.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-10 10:40
+ */
+public class RestTrainCodebookAction extends BaseRestHandler {
+    public static final int DEFAULT_SAMPLE_SIZE = 10000;
+    public static final int DEFAULT_ITERATIONS = 20;
+    // documents read per scroll page
+    static final int PAGE_SIZE = 1000;
+    private static final TimeValue KEEP_ALIVE = TimeValue.timeValueMinutes(1);
+
+    public RestTrainCodebookAction(Settings settings,RestController controller) {
+        super(settings);
+        controller.registerHandler(RestRequest.Method.POST,"/{index}/_vector_codebook/{name}/_train",this);
+    }
+
+    @Override
+    public String getName() {
+        return "vector_codebook_train_action";
+    }
+
+    @Override
+    protected RestChannelConsumer prepareRequest(RestRequest request,NodeClient client) throws IOException {
+        final String index = request.param("index");
+        final String name = request.param("name");
+        final Map<String, Object> body;
+        try (XContentParser parser = request.contentParser()) {
+            body = parser.map();
+        }
+        final Object field = body.get("field");
+        if (field == null) {
+            throw new IllegalArgumentException("Missing parameter [field]");
+        }
+        final boolean pq = ProductQuantizer.TYPE.equals(body.get("type"));
+        final String sizeParameter = pq ? "m" : "nlist";
+        if (body.containsKey(sizeParameter) == false) {
+            throw new IllegalArgumentException("Missing parameter [" + sizeParameter + "]");
+        }
+        final int size = XContentMapValues.nodeIntegerValue(body.get(sizeParameter));
+        final VectorSimilarity similarity = VectorSimilarity.fromString(
+                XContentMapValues.nodeStringValue(body.get("similarity"),VectorSimilarity.COSINE.toString()));
+        final int sampleSize = XContentMapValues.nodeIntegerValue(body.get("sample_size"),DEFAULT_SAMPLE_SIZE);
+        final int iterations = XContentMapValues.nodeIntegerValue(body.get("iterations"),DEFAULT_ITERATIONS);
+        final long seed = XContentMapValues.nodeLongValue(body.get("seed"),0L);
+        // checked before searching, k-means needs at least a vector per centroid
+        final int minSampleSize = pq ? ProductQuantizer.CENTROIDS : size;
+        if (size <= 0 || sampleSize < minSampleSize) {
+            throw new IllegalArgumentException("[" + sizeParameter + "] must be positive and [sample_size] at least "
+                    + (pq ? ProductQuantizer.CENTROIDS : "[nlist]"));
+        }
+
+        final SearchRequest searchRequest = new SearchRequest(index);
+        searchRequest.scroll(KEEP_ALIVE);
+        searchRequest.source(new SearchSourceBuilder()
+                .query(QueryBuilders.functionScoreQuery(ScoreFunctionBuilders.randomFunction().seed(seed).setField("_seq_no")))
+                .size(Math.min(sampleSize,PAGE_SIZE))
+                .fetchSource(field.toString(),null));
+        return channel -> client.search(searchRequest,new SampleListener(client,field.toString(),sampleSize,sample -> {
+            if (sample.size() < minSampleSize) {
+                sendFailure(channel,new IllegalArgumentException("[" + index + "] only has [" + sample.size()
+                        + "] vectors in field [" + field + "], at least [" + minSampleSize + "] are needed"));
+                return;
+            }
+            // k-means is too slow for a network thread
+            client.threadPool().executor(ThreadPool.Names.GENERIC).execute(() -> {
+                try {
+                    final ToXContentObject codebook = pq
+                            ? ProductQuantizer.train(name,sample,size,iterations,seed)
+                            : Codebook.train(name,sample,size,similarity,iterations,seed);
+                    final XContentBuilder builder = channel.newBuilder();
+                    codebook.toXContent(builder,request);
+                    channel.sendResponse(new BytesRestResponse(RestStatus.OK,builder));
+                } catch (Exception e) {
+                    sendFailure(channel,e);
+                }
+            });
+        },e -> sendFailure(channel,e)));
+    }
+
+    /**
+     * Scrolls until it has read {@code sampleSize} vectors or every document, then clears the scroll.
+     */
+    private static final class SampleListener implements ActionListener<SearchResponse> {
+        private final NodeClient client;
+        private final String field;
+        private final int sampleSize;
+        private final Consumer<List<double[]>> onSample;
+        private final Consumer<Exception> onFailure;
+        private final List<double[]> sample = new ArrayList<>();
+
+        private SampleListener(NodeClient client,String field,int sampleSize,Consumer<List<double[]>> onSample,
+                               Consumer<Exception> onFailure) {
+            this.client = client;
+            this.field = field;
+            this.sampleSize = sampleSize;
+            this.onSample = onSample;
+            this.onFailure = onFailure;
+        }
+
+        @Override
+        public void onResponse(SearchResponse response) {
+            try {
+                addVectors(response.getHits().getHits(),field,sampleSize,sample);
+            } catch (Exception e) {
+                clearScroll(response.getScrollId());
+                onFailure(e);
+                return;
+            }
+            if (sample.size() >= sampleSize || response.getHits().getHits().length == 0) {
+                clearScroll(response.getScrollId());
+                onSample.accept(sample);
+                return;
+            }
+            client.searchScroll(new SearchScrollRequest(response.getScrollId()).scroll(KEEP_ALIVE),this);
+        }
+
+        @Override
+        public void onFailure(Exception e) {
+            onFailure.accept(e);
+        }
+
+        private void clearScroll(String scrollId) {
+            if (scrollId == null) {
+                return;
+            }
+            final ClearScrollRequest clearScroll = new ClearScrollRequest();
+            clearScroll.addScrollId(scrollId);
+            // the scroll also expires on its own, nothing to tell the client
+            client.clearScroll(clearScroll,ActionListener.wrap(r -> {},e -> {}));
+        }
+    }
+
+    /**
+     * Adds the vectors of {@code hits} to {@code sample}, up to {@code sampleSize}.
+     */
+    private static void addVectors(SearchHit[] hits,String field,int sampleSize,List<double[]> sample) {
+        for (SearchHit hit : hits) {
+            if (sample.size() >= sampleSize) {
+                return;
+            }
+            final Object value = hit.getSourceAsMap() == null ? null : XContentMapValues.extractValue(field,hit.getSourceAsMap());
+            if (value instanceof List == false) {
+                continue;
+            }
+            final List<?> values = (List<?>) value;
+            final double[] vector = new double[values.size()];
+            for (int i = 0; i < vector.length; i++) {
+                if (values.get(i) instanceof Number == false) {
+                    throw new IllegalArgumentException("field [" + field + "] of [" + hit.getId() + "] must only contain numbers");
+                }
+                vector[i] = ((Number) values.get(i)).doubleValue();
+            }
+            sample.add(vector);
+        }
+    }
+
+    private static void sendFailure(RestChannel channel,Exception e) {
+        try {
+            channel.sendResponse(new BytesRestResponse(channel,e));
+        } catch (IOException inner) {
+            inner.addSuppressed(e);
+            throw new IllegalStateException("failed to send the failure of codebook training",inner);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package rest;
+
+import action.VectorBatchSearchAction;
+import action.VectorBatchSearchRequest;
+import index.VectorSimilarity;
+import org.elasticsearch.action.support.IndicesOptions;
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.common.ParsingException;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.index.query.AbstractQueryBuilder;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.action.RestToXContentListener;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Scores a batch of query vectors against the vectors of an index in a single pass over the documents.
+ * <pre>
+ * POST /images/_vector_batch_search
+ * {
+ *   "field": "feature",
+ *   "query_vectors": [[0.1, 0.5, 0.2], [0.3, 0.1, 0.9]],
+ *   "k": 10,
+ *   "similarity": "cosine",
+ *   "filter": { "term": { "category": "shoes" } }
+ * }
+ * </pre>
+ * The response has the top {@code k} hits of every query vector, in the order of the queries. Only the
+ * {@code cosine} and {@code norm-l2} similarities are supported, and the field can't be {@code pq} encoded.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-15 14:40
+ */
+public class RestVectorBatchSearchAction extends BaseRestHandler {
+
+    public RestVectorBatchSearchAction(Settings settings,RestController controller) {
+        super(settings);
+        controller.registerHandler(RestRequest.Method.GET,"/{index}/_vector_batch_search",this);
+        controller.registerHandler(RestRequest.Method.POST,"/{index}/_vector_batch_search",this);
+    }
+
+    @Override
+    public String getName() {
+        return "vector_batch_search_action";
+    }
+
+    @Override
+    protected RestChannelConsumer prepareRequest(RestRequest request,NodeClient client) throws IOException {
+        final VectorBatchSearchRequest batchRequest = new VectorBatchSearchRequest(
+                Strings.splitStringByCommaToArray(request.param("index")));
+        batchRequest.indicesOptions(IndicesOptions.fromRequest(request,batchRequest.indicesOptions()));
+        try (XContentParser parser = request.contentParser()) {
+            parse(parser,batchRequest);
+        }
+        return channel -> client.execute(VectorBatchSearchAction.INSTANCE,batchRequest,new RestToXContentListener<>(channel));
+    }
+
+    private static void parse(XContentParser parser,VectorBatchSearchRequest request) throws IOException {
+        XContentParser.Token token = parser.nextToken();
+        if (token != XContentParser.Token.START_OBJECT) {
+            throw new ParsingException(parser.getTokenLocation(),"the body must be an object");
+        }
+        String currentFieldName = null;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+            if (token == XContentParser.Token.FIELD_NAME) {
+                currentFieldName = parser.currentName();
+            } else if ("query_vectors".equals(currentFieldName) && token == XContentParser.Token.START_ARRAY) {
+                final List<double[]> vectors = new ArrayList<>();
+                while (parser.nextToken() != XContentParser.Token.END_ARRAY) {
+                    if (parser.currentToken() != XContentParser.Token.START_ARRAY) {
+                        throw new ParsingException(parser.getTokenLocation(),"[query_vectors] must be arrays of numbers");
+                    }
+                    final List<Double> vector = new ArrayList<>();
+                    while (parser.nextToken() != XContentParser.Token.END_ARRAY) {
+                        vector.add(parser.doubleValue());
+                    }
+                    final double[] values = new double[vector.size()];
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = vector.get(i);
+                    }
+                    vectors.add(values);
+                }
+                request.queryVectors(vectors.toArray(new double[0][]));
+            } else if ("filter".equals(currentFieldName) && token == XContentParser.Token.START_OBJECT) {
+                request.filter(AbstractQueryBuilder.parseInnerQueryBuilder(parser));
+            } else if (token.isValue()) {
+                if ("field".equals(currentFieldName)) {
+                    request.field(parser.text());
+                } else if ("k".equals(currentFieldName)) {
+                    request.k(parser.intValue());
+                } else if ("similarity".equals(currentFieldName)) {
+                    request.similarity(VectorSimilarity.fromString(parser.text()));
+                } else {
+                    throw new ParsingException(parser.getTokenLocation(),"unknown field [" + currentFieldName + "]");
+                }
+            } else {
+                throw new ParsingException(parser.getTokenLocation(),"unexpected token [" + token + "] for ["
+                        + currentFieldName + "]");
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package rest;
+
+import action.VectorStatsAction;
+import action.VectorStatsRequest;
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.action.RestActions;
+
+/**
+ * The scoring and cache stats of the plugin on every node, or on the nodes given as {@code nodeId}.
+ * <pre>
+ * GET /_nodes/vector_distance/stats
+ * GET /_nodes/node-1,node-2/vector_distance/stats
+ * </pre>
+ * For every method and field scored on a node, the response counts the documents scored, those without a value
+ * or with the wrong dimensions, the failed reads and the bytes read, with the time spent per segment. It also
+ * has the entries, memory and hit rates of the prepared query, vector column and HNSW caches.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-17 17:00
+ */
+public class RestVectorStatsAction extends BaseRestHandler {
+
+    public RestVectorStatsAction(Settings settings,RestController controller) {
+        super(settings);
+        controller.registerHandler(RestRequest.Method.GET,"/_nodes/vector_distance/stats",this);
+        controller.registerHandler(RestRequest.Method.GET,"/_nodes/{nodeId}/vector_distance/stats",this);
+    }
+
+    @Override
+    public String getName() {
+        return "vector_distance_stats_action";
+    }
+
+    @Override
+    protected RestChannelConsumer prepareRequest(RestRequest request,NodeClient client) {
+        final VectorStatsRequest statsRequest = new VectorStatsRequest(
+                Strings.splitStringByCommaToArray(request.param("nodeId")));
+        statsRequest.timeout(request.param("timeout"));
+        return channel -> client.execute(VectorStatsAction.INSTANCE,statsRequest,
+                new RestActions.NodesResponseRestListener<>(channel));
+    }
+}
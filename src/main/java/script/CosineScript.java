@@ -0,0 +1,108 @@
+package script;
+
+import index.ProductQuantizer;
+import org.elasticsearch.script.ScoreScript;
+import org.elasticsearch.search.lookup.SearchLookup;
+
+import java.util.Map;
+
+/**
+ * @author yshhuang@foxmail.com
+ * @date 2019-08-26 14:26
+ */
+public class CosineScript implements ImageRevirevalScript {
+    @Override
+    public ScoreScript.LeafFactory getScript(Map<String, Object> p,SearchLookup lookup) {
+        return new VectorLeafFactory(p,lookup) {
+            //score on the first dimensions only, 0 for the whole vectors
+            final int prefixDims = prefixDims();
+            //pq vectors are scored through the codebook, loaded once per query
+            final ProductQuantizer productQuantizer = productQuantizer();
+
+            @Override
+            public VectorScorer newScorer() {
+                return scorer(query(),normalized(),productQuantizer,prefixDims,stats);
+            }
+        };
+    }
+
+    /**
+     * The cosine of {@code query} with the vectors of a field, normalized at index time or not. Vectors with the pq
+     * encoding are scored with the tables of {@code productQuantizer}, null for the other encodings, and only the
+     * first {@code prefixDims} dimensions are scored when it is positive.
+     */
+    static VectorScorer scorer(PreparedQuery query,boolean normalized,ProductQuantizer productQuantizer,int prefixDims,
+                               ScoringStats stats) {
+        //The final comma delimited value representation of the query value
+        final double[] inputVector = query.vector();
+        //The squared norm of the query, computed once per query vector
+        final double queryVectorNorm = query.squaredNorm();
+        if (productQuantizer != null) {
+            //pq vectors: dot products of the query with every centroid, built once per query vector
+            final float[] dotTable = query.dotTable(productQuantizer);
+            //the dot product is m table lookups, the stored norm is the one of the original vector
+            final int m = productQuantizer.m();
+            final double inverseQueryNorm = queryVectorNorm == 0 ? 0d : 1d / Math.sqrt(queryVectorNorm);
+            return docVector -> {
+                if (docVector.dims() != m) {
+                    stats.mismatch();
+                    return 0d;
+                }
+                final double score = docVector.lookup(dotTable) * inverseQueryNorm;
+                if (normalized) {
+                    return score;
+                }
+                return docVector.norm() == 0 ? 0d : score / docVector.norm();
+            };
+        }
+        if (prefixDims > 0) {
+            //the norms of a prefix are not stored, even unit vectors have shorter prefixes
+            final double queryPrefixNorm = Math.sqrt(squaredNorm(inputVector,prefixDims));
+            return docVector -> {
+                if (docVector.dims() < prefixDims) {
+                    stats.mismatch();
+                    return 0d;
+                }
+                if (queryPrefixNorm == 0) {
+                    return 0d;
+                }
+                final double docPrefixNorm = Math.sqrt(docVector.squaredNorm(0,prefixDims));
+                if (docPrefixNorm == 0) {
+                    return 0d;
+                }
+                return docVector.dot(inputVector,0,prefixDims) / (docPrefixNorm * queryPrefixNorm);
+            };
+        }
+        if (normalized) {
+            //unit document vectors: cosine is the dot product scaled by the query norm
+            final double inverseQueryNorm = queryVectorNorm == 0 ? 0d : 1d / Math.sqrt(queryVectorNorm);
+            return docVector -> {
+                if (docVector.dims() != inputVector.length) {
+                    stats.mismatch();
+                    return 0d;
+                }
+                return docVector.dot(inputVector) * inverseQueryNorm;
+            };
+        }
+        return docVector -> {
+            if (docVector.dims() != inputVector.length) {
+                stats.mismatch();
+                return 0d;
+            }
+            //calculate dot product of document value and query value
+            final double score = docVector.dot(inputVector);
+            //the norm stored at index time saves a pass over the vector
+            final double docVectorNorm = docVector.hasNorm() ? docVector.norm() : Math.sqrt(docVector.squaredNorm());
+            if (docVectorNorm == 0 || queryVectorNorm == 0) return 0d;
+            return score / (docVectorNorm * Math.sqrt(queryVectorNorm));
+        };
+    }
+
+    private static double squaredNorm(double[] vector,int dims) {
+        double norm = 0d;
+        for (int i = 0; i < dims; i++) {
+            norm += vector[i] * vector[i];
+        }
+        return norm;
+    }
+}
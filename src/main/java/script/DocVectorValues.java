@@ -0,0 +1,408 @@
+package script;
+
+import index.VectorColumn;
+import mapper.VectorEncoding;
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.store.ByteArrayDataInput;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+
+/**
+ * Per-leaf view of the vector stored in a binary doc value.
+ * <p>
+ * The header vints are parsed once per document into reusable scratch state and the
+ * values are read straight from the {@link BytesRef}, so scoring a document allocates nothing.
+ * The kernels switch on the {@link VectorEncoding} once per document, not per dimension, the loops over
+ * doubles and floats being the ones of the selected {@link VectorKernel}.
+ * <p>
+ * Vectors written by the vector field or the ingest processor end with their precomputed norm,
+ * see {@link VectorEncoding#encodeWithNorm(double[])}. Fields with a mapping always carry it, for plain
+ * binary fields of doubles it is detected from the length: 4 trailing bytes cannot be part of a double.
+ * <p>
+ * When the field is cached in a {@link VectorColumn}, the values are read from it at {@code docId * dims}
+ * instead, as floats, and the raw bytes are not available. The length is then the number of bytes read from the
+ * column.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-11-25 10:12
+ */
+public final class DocVectorValues {
+    // null when the segment has no value for the field
+    private final BinaryDocValues accessor;
+    private final VectorEncoding encoding;
+    // whether every value ends with its norm
+    private final boolean normStored;
+    private final ByteArrayDataInput header = new ByteArrayDataInput();
+    // null when reading from the doc values
+    private final VectorColumn column;
+    // current doc when reading from the column
+    private int columnDoc = -1;
+
+    private byte[] bytes;
+    // absolute position of the first payload byte, or of the first value in the column
+    private int offset;
+    // number of payload bytes, or of bytes read from the column
+    private int length;
+    // number of dimensions, -1 if the length does not match the encoding
+    private int dims;
+    // NaN when the value has no stored norm
+    private float norm;
+
+    public DocVectorValues(BinaryDocValues accessor) {
+        this(accessor,VectorEncoding.DOUBLE,false);
+    }
+
+    public DocVectorValues(BinaryDocValues accessor,VectorEncoding encoding,boolean normStored) {
+        this.accessor = accessor;
+        this.encoding = encoding;
+        this.normStored = normStored;
+        this.column = null;
+    }
+
+    private DocVectorValues(VectorColumn column,VectorEncoding encoding) {
+        this.accessor = null;
+        this.encoding = encoding;
+        this.normStored = true;
+        this.column = column;
+        this.dims = column.dims();
+        this.length = dims * Float.BYTES;
+    }
+
+    public static DocVectorValues of(LeafReader reader,String field,VectorEncoding encoding,boolean normStored)
+            throws IOException {
+        return new DocVectorValues(reader.getBinaryDocValues(field),encoding,normStored);
+    }
+
+    /**
+     * Reads the vectors of a cached column, {@code encoding} being the one they were decoded from.
+     */
+    public static DocVectorValues of(VectorColumn column,VectorEncoding encoding) {
+        return new DocVectorValues(column,encoding);
+    }
+
+    /**
+     * Positions on {@code docId}, returns false if the document has no value for the field.
+     */
+    public boolean advanceExact(int docId) throws IOException {
+        if (column != null) {
+            if (column.has(docId) == false) {
+                return false;
+            }
+            setColumnDoc(docId);
+            return true;
+        }
+        if (accessor == null || accessor.advanceExact(docId) == false) {
+            return false;
+        }
+        reset(accessor.binaryValue());
+        return true;
+    }
+
+    /**
+     * Moves to the next document with a value, returns {@link DocIdSetIterator#NO_MORE_DOCS} when exhausted.
+     */
+    public int nextDoc() throws IOException {
+        if (column != null) {
+            final int docId = column.nextDoc(columnDoc + 1);
+            if (docId != DocIdSetIterator.NO_MORE_DOCS) {
+                setColumnDoc(docId);
+            }
+            return docId;
+        }
+        if (accessor == null) {
+            return DocIdSetIterator.NO_MORE_DOCS;
+        }
+        final int docId = accessor.nextDoc();
+        if (docId != DocIdSetIterator.NO_MORE_DOCS) {
+            reset(accessor.binaryValue());
+        }
+        return docId;
+    }
+
+    private void setColumnDoc(int docId) {
+        columnDoc = docId;
+        offset = docId * dims;
+        norm = column.norm(docId);
+    }
+
+    /**
+     * Parses the header of an encoded value: the number of values followed by the byte length of the first one.
+     */
+    public void reset(BytesRef value) {
+        header.reset(value.bytes,value.offset,value.length);
+        header.readVInt();
+        length = header.readVInt();
+        offset = header.getPosition();
+        bytes = value.bytes;
+        if (normStored || (encoding == VectorEncoding.DOUBLE && (length & 7) == VectorEncoding.NORM_BYTES)) {
+            final int vectorLength = length - VectorEncoding.NORM_BYTES;
+            dims = encoding.dims(vectorLength);
+            norm = dims < 0 ? Float.NaN : Float.intBitsToFloat(readInt(bytes,offset + vectorLength));
+        } else {
+            dims = encoding.dims(length);
+            norm = Float.NaN;
+        }
+    }
+
+    public VectorEncoding encoding() {
+        return encoding;
+    }
+
+    public byte[] bytes() {
+        return bytes;
+    }
+
+    public int offset() {
+        return offset;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Number of dimensions of the current vector, -1 if its length does not match the encoding.
+     */
+    public int dims() {
+        return dims;
+    }
+
+    public boolean hasNorm() {
+        return Float.isNaN(norm) == false;
+    }
+
+    /**
+     * The stored L2 norm of the current vector, only valid if {@link #hasNorm()}.
+     */
+    public double norm() {
+        return norm;
+    }
+
+    public byte byteAt(int i) {
+        return bytes[offset + i];
+    }
+
+    public char charAt(int i) {
+        final int pos = offset + (i << 1);
+        return (char) (((bytes[pos] & 0xFF) << 8) | (bytes[pos + 1] & 0xFF));
+    }
+
+    public double doubleAt(int i) {
+        return Double.longBitsToDouble(readLong(bytes,offset + (i << 3)));
+    }
+
+    public float floatAt(int i) {
+        return Float.intBitsToFloat(readInt(bytes,offset + (i << 2)));
+    }
+
+    /**
+     * Value of dimension {@code i} whatever the encoding, prefer the bulk kernels in loops.
+     */
+    public double valueAt(int i) {
+        if (column != null) {
+            return column.get(offset + i);
+        }
+        switch (encoding) {
+            case DOUBLE:
+                return doubleAt(i);
+            case FLOAT:
+                return floatAt(i);
+            case INT8:
+                return int8Offset() + int8Scale() * (bytes[offset + 8 + i] & 0xFF);
+            case PQ:
+                throw pqNeedsTable();
+            default:
+                throw new AssertionError(encoding);
+        }
+    }
+
+    /**
+     * Decodes the current vector into {@code dst} starting at {@code pos}.
+     */
+    public void copyTo(float[] dst,int pos) {
+        for (int i = 0; i < dims; i++) {
+            dst[pos + i] = (float) valueAt(i);
+        }
+    }
+
+    /**
+     * Decodes the current vector into {@code dst} starting at {@code pos}, at full precision.
+     */
+    public void copyTo(double[] dst,int pos) {
+        if (column != null) {
+            for (int i = 0; i < dims; i++) {
+                dst[pos + i] = column.get(offset + i);
+            }
+            return;
+        }
+        switch (encoding) {
+            case DOUBLE:
+                for (int i = 0; i < dims; i++) {
+                    dst[pos + i] = doubleAt(i);
+                }
+                return;
+            case FLOAT:
+                for (int i = 0; i < dims; i++) {
+                    dst[pos + i] = floatAt(i);
+                }
+                return;
+            case INT8:
+                final int base = offset + 8;
+                final double scale = int8Scale();
+                final double shift = int8Offset();
+                for (int i = 0; i < dims; i++) {
+                    dst[pos + i] = shift + scale * (bytes[base + i] & 0xFF);
+                }
+                return;
+            case PQ:
+                throw pqNeedsTable();
+            default:
+                throw new AssertionError(encoding);
+        }
+    }
+
+    /**
+     * Dot product of the current vector with {@code query}, the dimensions must have been checked.
+     */
+    public double dot(double[] query) {
+        return dot(query,0,query.length);
+    }
+
+    /**
+     * Dot product of dimensions {@code [from, to)} of the current vector with the same dimensions of {@code query}.
+     */
+    public double dot(double[] query,int from,int to) {
+        if (column != null) {
+            return column.dot(offset,query,from,to);
+        }
+        double sum = 0d;
+        switch (encoding) {
+            case DOUBLE:
+                return VectorKernel.get().dotDoubles(query,bytes,offset,from,to);
+            case FLOAT:
+                return VectorKernel.get().dotFloats(query,bytes,offset,from,to);
+            case INT8:
+                // sum(q * (offset + scale * c)) = offset * sum(q) + scale * sum(q * c)
+                final int base = offset + 8;
+                double querySum = 0d;
+                for (int i = from; i < to; i++) {
+                    querySum += query[i];
+                    sum += query[i] * (bytes[base + i] & 0xFF);
+                }
+                return int8Offset() * querySum + int8Scale() * sum;
+            case PQ:
+                throw pqNeedsTable();
+            default:
+                throw new AssertionError(encoding);
+        }
+    }
+
+    /**
+     * Squared L2 norm of the current vector.
+     */
+    public double squaredNorm() {
+        return squaredNorm(0,dims);
+    }
+
+    /**
+     * Squared L2 norm of dimensions {@code [from, to)} of the current vector.
+     */
+    public double squaredNorm(int from,int to) {
+        if (column != null) {
+            return column.squaredNorm(offset,from,to);
+        }
+        double sum = 0d;
+        switch (encoding) {
+            case DOUBLE:
+                return VectorKernel.get().squaredNormDoubles(bytes,offset,from,to);
+            case FLOAT:
+                return VectorKernel.get().squaredNormFloats(bytes,offset,from,to);
+            case INT8:
+                final int base = offset + 8;
+                final double scale = int8Scale();
+                final double shift = int8Offset();
+                for (int i = from; i < to; i++) {
+                    final double v = shift + scale * (bytes[base + i] & 0xFF);
+                    sum += v * v;
+                }
+                return sum;
+            case PQ:
+                throw pqNeedsTable();
+            default:
+                throw new AssertionError(encoding);
+        }
+    }
+
+    /**
+     * Squared L2 distance between the current vector and {@code query}, the dimensions must have been checked.
+     */
+    public double squaredDistance(double[] query) {
+        return squaredDistance(query,0,query.length);
+    }
+
+    /**
+     * Squared L2 distance between dimensions {@code [from, to)} of the current vector and of {@code query},
+     * a lower bound of the full distance.
+     */
+    public double squaredDistance(double[] query,int from,int to) {
+        if (column != null) {
+            return column.squaredDistance(offset,query,from,to);
+        }
+        double sum = 0d;
+        switch (encoding) {
+            case DOUBLE:
+                return VectorKernel.get().squaredDistanceDoubles(query,bytes,offset,from,to);
+            case FLOAT:
+                return VectorKernel.get().squaredDistanceFloats(query,bytes,offset,from,to);
+            case INT8:
+                final int base = offset + 8;
+                final double scale = int8Scale();
+                final double shift = int8Offset();
+                for (int i = from; i < to; i++) {
+                    final double d = query[i] - (shift + scale * (bytes[base + i] & 0xFF));
+                    sum += d * d;
+                }
+                return sum;
+            case PQ:
+                throw pqNeedsTable();
+            default:
+                throw new AssertionError(encoding);
+        }
+    }
+
+    /**
+     * Sum over the sub-spaces of a product quantized vector of the entry of {@code table} for its code,
+     * the table of sub-space s starts at {@code s * 256}.
+     */
+    public double lookup(float[] table) {
+        double sum = 0d;
+        for (int s = 0, base = 0; s < dims; s++, base += 256) {
+            sum += table[base + (bytes[offset + s] & 0xFF)];
+        }
+        return sum;
+    }
+
+    private static IllegalStateException pqNeedsTable() {
+        return new IllegalStateException("pq vectors can only be scored with the distance tables of their codebook");
+    }
+
+    private float int8Scale() {
+        return Float.intBitsToFloat(readInt(bytes,offset));
+    }
+
+    private float int8Offset() {
+        return Float.intBitsToFloat(readInt(bytes,offset + 4));
+    }
+
+    static int readInt(byte[] bytes,int pos) {
+        return ((bytes[pos] & 0xFF) << 24) | ((bytes[pos + 1] & 0xFF) << 16)
+                | ((bytes[pos + 2] & 0xFF) << 8) | (bytes[pos + 3] & 0xFF);
+    }
+
+    static long readLong(byte[] bytes,int pos) {
+        return ((long) readInt(bytes,pos) << 32) | (readInt(bytes,pos + 4) & 0xFFFFFFFFL);
+    }
+}
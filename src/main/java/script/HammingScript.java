@@ -0,0 +1,44 @@
+package script;
+
+import org.elasticsearch.script.ScoreScript;
+import org.elasticsearch.search.lookup.SearchLookup;
+
+import java.util.Map;
+
+/**
+ * @author yshhuang@foxmail.com
+ * @date 2019-08-26 14:26
+ */
+public class HammingScript implements ImageRevirevalScript {
+    @Override
+    public ScoreScript.LeafFactory getScript(Map<String, Object> p,SearchLookup lookup) {
+        return new VectorLeafFactory(p,lookup) {
+            //The query embedded value
+            final String value;
+
+            {
+                if (p.get("value") == null) {
+                    throw new IllegalArgumentException("Must have 'value' as a parameter");
+                }
+                value = p.get("value").toString();
+            }
+
+            @Override
+            public VectorScorer newScorer() {
+                return docVector -> {
+                    final int inputStringLength = value.length();
+                    if (docVector.length() != inputStringLength * 8) {
+                        return mismatch();
+                    }
+                    int counter = 0;
+                    for (int k = 0; k < inputStringLength; k++) {
+                        if (value.charAt(k) != docVector.charAt(k)) {
+                            counter++;
+                        }
+                    }
+                    return 1 - 1.0 * counter / inputStringLength;
+                };
+            }
+        };
+    }
+}
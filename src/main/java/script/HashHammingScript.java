@@ -1,115 +1,60 @@
 package script;
 
 import Util.MyUtils;
-import org.apache.lucene.index.BinaryDocValues;
-import org.apache.lucene.index.LeafReaderContext;
-import org.apache.lucene.store.ByteArrayDataInput;
 import org.elasticsearch.script.ScoreScript;
 import org.elasticsearch.search.lookup.SearchLookup;
 
-import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.DoubleBuffer;
-import java.util.ArrayList;
 import java.util.Map;
 
 /**
+ * Bit level hamming similarity of hashes whose bytes are given as numbers.
+ * <p>
+ * Every value contributes its low byte, so the score is the fraction of equal bits between
+ * {@link MyUtils#doubleToBinaryString(double...)} of the query and of the document. Document hashes are
+ * read as vectors of the field's encoding, one value per byte.
+ *
  * @author yshhuang@foxmail.com
  * @date 2019-11-19 15:33
  */
 public class HashHammingScript implements ImageRevirevalScript {
     @Override
     public ScoreScript.LeafFactory getScript(Map<String, Object> p,SearchLookup lookup) {
-        return new ScoreScript.LeafFactory() {
-            // The field to compare against
-            final String field;
-            //The query embedded value
-            final Object value;
+        return new VectorLeafFactory(p,lookup) {
             //The final comma delimited value representation of the query value
-            double[] inputVector;
-
-            {
-                if (p.containsKey("field") == false) {
-                    throw new IllegalArgumentException("Missing parameter [field]");
-                }
-                field = p.get("field").toString();
-                value = p.get("value");
-
-                //Determine if raw comma-delimited value or embedding was passed
-                if (value != null) {
-                    final ArrayList<Double> tmp = (ArrayList<Double>) value;
-                    inputVector = new double[tmp.size()];
-                    for (int i = 0; i < inputVector.length; i++) {
-                        inputVector[i] = tmp.get(i);
-                    }
-                } else {
-                    throw new IllegalArgumentException("Must have 'value' as a parameter");
-                }
-            }
+            final double[] inputVector = parseVector();
+            //The query hash packed eight bytes per word
+            final long[] inputHash = query().hash();
 
             @Override
-            public ScoreScript newInstance(LeafReaderContext context) throws IOException {
-                return new ScoreScript(p,lookup,context) {
-                    Boolean is_value = false;
-                    // Use Lucene LeafReadContext to access binary values directly.
-                    BinaryDocValues accessor = context.reader().getBinaryDocValues(field);
-
-                    @Override
-                    public void setDocument(int docId) {
-                        try {
-                            accessor.advanceExact(docId);
-                            is_value = true;
-                        } catch (Exception e) {
-                            e.printStackTrace();
-                            is_value = false;
-                        }
-                    }
-
-                    @Override
-                    public double execute() {
-                        //If there is no field value return 0 rather than fail.
-                        if (!is_value) return 0.0d;
-
-                        final int inputVectorSize = inputVector.length;
-                        final byte[] bytes;
-                        try {
-                            bytes = accessor.binaryValue().bytes;
-                        } catch (IOException e) {
-                            return 0d;
-                        }
-                        final ByteArrayDataInput docVector = new ByteArrayDataInput(bytes);
-
-                        docVector.readVInt();
-
-                        final int docVectorLength = docVector.readVInt(); // returns the number of bytes to read
-                        if (docVectorLength != inputVectorSize * 8) {
-                            return 0d;
-                        }
-                        final int position = docVector.getPosition();
-                        final DoubleBuffer doubleBuffer =
-                                ByteBuffer.wrap(bytes,position,docVectorLength).asDoubleBuffer();
-
-                        final double[] doubles = new double[inputVectorSize];
-                        doubleBuffer.get(doubles);
-
-                        String inputHamming = MyUtils.doubleToBinaryString(inputVector);
-                        String docHamming = MyUtils.doubleToBinaryString(doubles);
-                        int counter = 0;
-                        int size = inputHamming.length();
-                        for (int i = 0; i < size; i++) {
-                            if (inputHamming.charAt(i) == docHamming.charAt(i)) {
-                                counter++;
-                            }
-                        }
-                        return 1.0 * counter / size;
+            public VectorScorer newScorer() {
+                final long[] docHash = new long[inputHash.length];
+                final VectorKernel kernel = VectorKernel.get();
+                return docVector -> {
+                    if (readHash(docVector,inputVector.length,docHash) == false) {
+                        return mismatch();
                     }
+                    final int size = inputVector.length * 8;
+                    return 1.0 * (size - kernel.hamming(inputHash,docHash)) / size;
                 };
             }
+        };
+    }
 
-            @Override
-            public boolean needs_score() {
-                return false;
+    /**
+     * Packs the hash of {@code bytes} bytes of the current document into {@code docHash} like
+     * {@link MyUtils#packHash(double...)}, returns false if the document doesn't hold a hash of that size.
+     */
+    public static boolean readHash(DocVectorValues docVector,int bytes,long[] docHash) {
+        if (docVector.dims() != bytes) {
+            return false;
+        }
+        for (int w = 0, i = 0; w < docHash.length; w++) {
+            long word = 0L;
+            for (int shift = 0; shift < 64 && i < bytes; shift += 8, i++) {
+                word |= ((long) ((byte) docVector.valueAt(i) & 0xFF)) << shift;
             }
-        };
+            docHash[w] = word;
+        }
+        return true;
     }
 }
@@ -0,0 +1,109 @@
+package script;
+
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Writeable;
+import org.elasticsearch.common.xcontent.ToXContentFragment;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts durations in power of two buckets of microseconds, cheap enough to record from concurrent searches.
+ * <p>
+ * Bucket 0 holds the durations under a microsecond and bucket {@code b} those in {@code [2^(b-1), 2^b)}
+ * microseconds, so percentiles are reported as the upper bound of their bucket, at most twice the real value.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-17 16:00
+ */
+public final class LatencyHistogram {
+    static final int BUCKETS = 32;
+
+    private final LongAdder[] counts = new LongAdder[BUCKETS];
+    private final LongAdder totalNanos = new LongAdder();
+
+    public LatencyHistogram() {
+        for (int b = 0; b < BUCKETS; b++) {
+            counts[b] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos) {
+        final long micros = Math.max(0L,nanos) / 1000L;
+        final int bucket = micros == 0 ? 0 : Math.min(BUCKETS - 1,64 - Long.numberOfLeadingZeros(micros));
+        counts[bucket].increment();
+        totalNanos.add(nanos);
+    }
+
+    public Snapshot snapshot() {
+        final long[] values = new long[BUCKETS];
+        for (int b = 0; b < BUCKETS; b++) {
+            values[b] = counts[b].sum();
+        }
+        return new Snapshot(values,totalNanos.sum());
+    }
+
+    public static final class Snapshot implements Writeable, ToXContentFragment {
+        private final long[] counts;
+        private final long totalNanos;
+
+        Snapshot(long[] counts,long totalNanos) {
+            this.counts = counts;
+            this.totalNanos = totalNanos;
+        }
+
+        public Snapshot(StreamInput in) throws IOException {
+            this.counts = in.readVLongArray();
+            this.totalNanos = in.readVLong();
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            out.writeVLongArray(counts);
+            out.writeVLong(totalNanos);
+        }
+
+        public long count() {
+            long count = 0L;
+            for (long c : counts) {
+                count += c;
+            }
+            return count;
+        }
+
+        public long totalNanos() {
+            return totalNanos;
+        }
+
+        /**
+         * Upper bound in microseconds of the bucket holding the {@code quantile} of the durations, 0 if there are none.
+         */
+        public long percentileMicros(double quantile) {
+            final long count = count();
+            if (count == 0) {
+                return 0L;
+            }
+            final long rank = Math.max(1L,(long) Math.ceil(quantile * count));
+            long seen = 0L;
+            for (int b = 0; b < counts.length; b++) {
+                seen += counts[b];
+                if (seen >= rank) {
+                    return 1L << b;
+                }
+            }
+            return 1L << (counts.length - 1);
+        }
+
+        @Override
+        public XContentBuilder toXContent(XContentBuilder builder,Params params) throws IOException {
+            builder.field("count",count());
+            builder.field("total_time_in_millis",totalNanos / 1000000L);
+            builder.field("p50_micros",percentileMicros(0.5));
+            builder.field("p90_micros",percentileMicros(0.9));
+            builder.field("p99_micros",percentileMicros(0.99));
+            return builder;
+        }
+    }
+}
@@ -1,16 +1,9 @@
 package script;
 
-import Util.MyUtils;
-import org.apache.lucene.index.BinaryDocValues;
-import org.apache.lucene.index.LeafReaderContext;
-import org.apache.lucene.store.ByteArrayDataInput;
+import index.ProductQuantizer;
 import org.elasticsearch.script.ScoreScript;
 import org.elasticsearch.search.lookup.SearchLookup;
 
-import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.DoubleBuffer;
-import java.util.ArrayList;
 import java.util.Map;
 
 /**
@@ -20,92 +13,57 @@ import java.util.Map;
 public class NormL2Script implements ImageRevirevalScript {
     @Override
     public ScoreScript.LeafFactory getScript(Map<String, Object> p,SearchLookup lookup) {
-        return new ScoreScript.LeafFactory() {
-            // The field to compare against
-            final String field;
-            //The query embedded value
-            final Object value;
-            //The final comma delimited value representation of the query value
-            double[] inputVector;
-
-            {
-                if (p.containsKey("field") == false) {
-                    throw new IllegalArgumentException("Missing parameter [field]");
-                }
-                field = p.get("field").toString();
-                value = p.get("value");
-
-                //Determine if raw comma-delimited value or embedding was passed
-                if (value != null) {
-                    final ArrayList<Double> tmp = (ArrayList<Double>) value;
-                    inputVector = new double[tmp.size()];
-                    for (int i = 0; i < inputVector.length; i++) {
-                        inputVector[i] = tmp.get(i);
-                    }
-                } else {
-                    throw new IllegalArgumentException("Must have 'value' as a parameter");
-                }
-            }
+        return new VectorLeafFactory(p,lookup) {
+            //score on the first dimensions only, 0 for the whole vectors
+            final int prefixDims = prefixDims();
+            //pq vectors are scored through the codebook, loaded once per query
+            final ProductQuantizer productQuantizer = productQuantizer();
 
             @Override
-            public ScoreScript newInstance(LeafReaderContext context) throws IOException {
-                return new ScoreScript(p,lookup,context) {
-                    Boolean is_value = false;
-                    // Use Lucene LeafReadContext to access binary values directly.
-                    BinaryDocValues accessor = context.reader().getBinaryDocValues(field);
-
-                    @Override
-                    public void setDocument(int docId) {
-                        try {
-                            accessor.advanceExact(docId);
-                            is_value = true;
-                        } catch (Exception e) {
-                            e.printStackTrace();
-                            is_value = false;
-                        }
-                    }
-
-                    @Override
-                    public double execute() {
-                        //If there is no field value return 0 rather than fail.
-                        if (!is_value) return 0.0d;
-
-                        final int inputVectorSize = inputVector.length;
-                        final byte[] bytes;
-                        try {
-                            bytes = accessor.binaryValue().bytes;
-                        } catch (IOException e) {
-                            return 0d;
-                        }
-                        final ByteArrayDataInput docVector = new ByteArrayDataInput(bytes);
-
-                        docVector.readVInt();
-
-                        final int docVectorLength = docVector.readVInt(); // returns the number of bytes to read
-                        if (docVectorLength != inputVectorSize * 8) {
-                            return 0d;
-                        }
-                        final int position = docVector.getPosition();
-                        final DoubleBuffer doubleBuffer =
-                                ByteBuffer.wrap(bytes,position,docVectorLength).asDoubleBuffer();
-
-                        final double[] doubles = new double[inputVectorSize];
-                        doubleBuffer.get(doubles);
-
-                        double sum = 0;
-                        for (int i = 0; i != inputVectorSize; i++) {
-                            sum += Math.pow(inputVector[i] - doubles[i],2);
-                        }
-                        double s = 1 - Math.sqrt(sum);
-                        return s < 0 ? 0 : s;
-                    }
-                };
+            public VectorScorer newScorer() {
+                return scorer(query(),productQuantizer,prefixDims,stats);
             }
+        };
+    }
 
-            @Override
-            public boolean needs_score() {
-                return false;
+    /**
+     * {@code max(0, 1 - distance)} of {@code query} to the vectors of a field. Vectors with the pq encoding are scored
+     * with the tables of {@code productQuantizer}, null for the other encodings, and only the first {@code prefixDims}
+     * dimensions are scored when it is positive.
+     */
+    static VectorScorer scorer(PreparedQuery query,ProductQuantizer productQuantizer,int prefixDims,ScoringStats stats) {
+        //The final comma delimited value representation of the query value
+        final double[] inputVector = query.vector();
+        if (productQuantizer != null) {
+            //pq vectors: squared distances of the query to every centroid, built once per query vector
+            final float[] distanceTable = query.squaredDistanceTable(productQuantizer);
+            final int m = productQuantizer.m();
+            return docVector -> {
+                if (docVector.dims() != m) {
+                    stats.mismatch();
+                    return 0d;
+                }
+                double s = 1 - Math.sqrt(docVector.lookup(distanceTable));
+                return s < 0 ? 0 : s;
+            };
+        }
+        if (prefixDims > 0) {
+            return docVector -> {
+                if (docVector.dims() < prefixDims) {
+                    stats.mismatch();
+                    return 0d;
+                }
+                double s = 1 - Math.sqrt(docVector.squaredDistance(inputVector,0,prefixDims));
+                return s < 0 ? 0 : s;
+            };
+        }
+        return docVector -> {
+            if (docVector.dims() != inputVector.length) {
+                stats.mismatch();
+                return 0d;
             }
+            double s = 1 - Math.sqrt(docVector.squaredDistance(inputVector));
+            return s < 0 ? 0 : s;
         };
     }
 }
@@ -0,0 +1,300 @@
+package script;
+
+import Util.MyUtils;
+import index.ProductQuantizer;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.cache.CacheLoader;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * A query vector with what the scripts derive from it: its squared norm, its packed hash and the lookup tables of
+ * a product quantizer. Everything but the norm is computed on first use.
+ * <p>
+ * A search runs one script per shard, and clients page through the same query, so prepared queries are kept in a
+ * node-wide cache, evicted least recently used first to stay under the {@code vector_distance.query_cache.size}
+ * node setting. Entries weigh their vector, their key and what has been derived from them so far, and are weighed
+ * again once they get a hash or a table. The vector is read from the 'value' parameter as:
+ * <ul>
+ * <li>a list of numbers, the JSON array of the request,</li>
+ * <li>a base64 string of big-endian 32 bits floats, the layout of the {@code float} encoding, which spares the
+ * parsing and boxing of every dimension; the string itself is the cache key,</li>
+ * <li>a {@code double[]} or {@code float[]}, from the queries built on the node.</li>
+ * </ul>
+ * Prepared queries are shared between threads, their arrays must not be modified.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-17 14:10
+ */
+public final class PreparedQuery implements Accountable {
+    public static final ByteSizeValue DEFAULT_CACHE_SIZE = new ByteSizeValue(10,ByteSizeUnit.MB);
+    private static final long SHALLOW_SIZE = RamUsageEstimator.shallowSizeOfInstance(PreparedQuery.class);
+    private static final long TABLE_SHALLOW_SIZE = RamUsageEstimator.shallowSizeOfInstance(Table.class);
+
+    private static volatile Cache<Object, Weighed> cache = newCache(DEFAULT_CACHE_SIZE.getBytes());
+
+    // the key of the query in the cache, null if it isn't cached
+    private final Object key;
+    private final double[] vector;
+    private final double squaredNorm;
+    private volatile long[] hash;
+    private volatile Table dotTable;
+    private volatile Table squaredDistanceTable;
+
+    PreparedQuery(double[] vector) {
+        this(null,vector);
+    }
+
+    private PreparedQuery(Object key,double[] vector) {
+        this.key = key;
+        this.vector = vector;
+        double norm = 0d;
+        for (double v : vector) {
+            norm += v * v;
+        }
+        this.squaredNorm = norm;
+    }
+
+    /**
+     * Sets the maximum memory taken by the cached queries, 0 prepares every query again.
+     */
+    public static void cacheSize(ByteSizeValue size) {
+        cache = newCache(size.getBytes());
+    }
+
+    private static Cache<Object, Weighed> newCache(long bytes) {
+        return bytes <= 0 ? null : CacheBuilder.<Object, Weighed>builder()
+                .setMaximumWeight(bytes)
+                .weigher((key,entry) -> entry.bytes)
+                .build();
+    }
+
+    /**
+     * The node-wide cache of prepared queries, null when it is disabled.
+     */
+    public static Cache<Object, ?> cache() {
+        return cache;
+    }
+
+    /**
+     * The prepared query of the 'value' parameter {@code value}, taken from the cache when it is there.
+     */
+    public static PreparedQuery of(Object value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Must have 'value' as a parameter");
+        }
+        final Cache<Object, Weighed> queries = cache;
+        if (value instanceof String) {
+            if (queries == null) {
+                return new PreparedQuery(decode((String) value));
+            }
+            return get(queries,value,key -> new PreparedQuery(key,decode((String) key)));
+        }
+        final double[] vector = toVector(value);
+        if (queries == null) {
+            return new PreparedQuery(vector);
+        }
+        return get(queries,new VectorKey(vector),key -> new PreparedQuery(key,vector));
+    }
+
+    private static PreparedQuery get(Cache<Object, Weighed> queries,Object key,
+                                     CacheLoader<Object, PreparedQuery> loader) {
+        try {
+            return queries.computeIfAbsent(key,k -> new Weighed(loader.load(k))).query;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IllegalArgumentException) {
+                throw (IllegalArgumentException) e.getCause();
+            }
+            throw new IllegalStateException("failed to prepare the query vector",e.getCause());
+        }
+    }
+
+    /**
+     * Decodes a base64 string of big-endian floats.
+     */
+    public static double[] decode(String base64) {
+        final byte[] bytes;
+        try {
+            bytes = Base64.getDecoder().decode(base64);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("'value' must be a list of numbers or a base64 string of floats",e);
+        }
+        if (bytes.length == 0 || bytes.length % Float.BYTES != 0) {
+            throw new IllegalArgumentException("the base64 'value' must hold a positive number of floats, got ["
+                    + bytes.length + "] bytes");
+        }
+        final FloatBuffer floats = ByteBuffer.wrap(bytes).asFloatBuffer();
+        final double[] vector = new double[floats.remaining()];
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] = floats.get(i);
+        }
+        return vector;
+    }
+
+    private static double[] toVector(Object value) {
+        if (value instanceof double[]) {
+            return (double[]) value;
+        }
+        if (value instanceof float[]) {
+            final float[] floats = (float[]) value;
+            final double[] vector = new double[floats.length];
+            for (int i = 0; i < vector.length; i++) {
+                vector[i] = floats[i];
+            }
+            return vector;
+        }
+        if (value instanceof List == false) {
+            throw new IllegalArgumentException("'value' must be a list of numbers or a base64 string of floats");
+        }
+        final List<?> list = (List<?>) value;
+        final double[] vector = new double[list.size()];
+        for (int i = 0; i < vector.length; i++) {
+            final Object v = list.get(i);
+            if (v instanceof Number == false) {
+                throw new IllegalArgumentException("'value' must only contain numbers, found [" + v + "]");
+            }
+            vector[i] = ((Number) v).doubleValue();
+        }
+        return vector;
+    }
+
+    public double[] vector() {
+        return vector;
+    }
+
+    public int dims() {
+        return vector.length;
+    }
+
+    public double squaredNorm() {
+        return squaredNorm;
+    }
+
+    /**
+     * The query hash packed eight bytes per word, see {@link MyUtils#packHash(double...)}.
+     */
+    public long[] hash() {
+        long[] words = hash;
+        if (words == null) {
+            hash = words = MyUtils.packHash(vector);
+            reweigh();
+        }
+        return words;
+    }
+
+    /**
+     * See {@link ProductQuantizer#dotTable(double[])}, the table of the last quantizer asked for is kept.
+     */
+    public float[] dotTable(ProductQuantizer quantizer) {
+        Table table = dotTable;
+        if (table == null || table.quantizer != quantizer) {
+            dotTable = table = new Table(quantizer,quantizer.dotTable(vector));
+            reweigh();
+        }
+        return table.values;
+    }
+
+    /**
+     * See {@link ProductQuantizer#squaredDistanceTable(double[])}, the table of the last quantizer asked for is kept.
+     */
+    public float[] squaredDistanceTable(ProductQuantizer quantizer) {
+        Table table = squaredDistanceTable;
+        if (table == null || table.quantizer != quantizer) {
+            squaredDistanceTable = table = new Table(quantizer,quantizer.squaredDistanceTable(vector));
+            reweigh();
+        }
+        return table.values;
+    }
+
+    /**
+     * Puts the query back in the cache with its new size once it holds more.
+     */
+    private void reweigh() {
+        final Cache<Object, Weighed> queries = cache;
+        if (key != null && queries != null) {
+            queries.put(key,new Weighed(this));
+        }
+    }
+
+    /**
+     * Heap taken by the query, its cache key, its hash and the tables computed so far.
+     */
+    @Override
+    public long ramBytesUsed() {
+        long bytes = SHALLOW_SIZE + RamUsageEstimator.sizeOf(vector);
+        if (key instanceof String) {
+            final long chars = RamUsageEstimator.NUM_BYTES_ARRAY_HEADER + 2L * ((String) key).length();
+            bytes += RamUsageEstimator.shallowSizeOf(key) + RamUsageEstimator.alignObjectSize(chars);
+        } else if (key != null) {
+            //a VectorKey holds the vector of the query
+            bytes += RamUsageEstimator.shallowSizeOf(key);
+        }
+        final long[] words = hash;
+        if (words != null) {
+            bytes += RamUsageEstimator.sizeOf(words);
+        }
+        bytes += sizeOf(dotTable) + sizeOf(squaredDistanceTable);
+        return bytes;
+    }
+
+    private static long sizeOf(Table table) {
+        return table == null ? 0L : TABLE_SHALLOW_SIZE + RamUsageEstimator.sizeOf(table.values);
+    }
+
+    private static final class Table {
+        private final ProductQuantizer quantizer;
+        private final float[] values;
+
+        private Table(ProductQuantizer quantizer,float[] values) {
+            this.quantizer = quantizer;
+            this.values = values;
+        }
+    }
+
+    /**
+     * A cached query with its size when it was put. The cache weighs an entry again when it is replaced, which
+     * must give the weight it was added with, so the size of a query can't be read from the query itself.
+     */
+    private static final class Weighed {
+        private final PreparedQuery query;
+        private final long bytes;
+
+        private Weighed(PreparedQuery query) {
+            this.query = query;
+            this.bytes = query.ramBytesUsed();
+        }
+    }
+
+    /**
+     * A vector compared by its values.
+     */
+    private static final class VectorKey {
+        private final double[] vector;
+        private final int hashCode;
+
+        private VectorKey(double[] vector) {
+            this.vector = vector;
+            this.hashCode = Arrays.hashCode(vector);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof VectorKey && Arrays.equals(vector,((VectorKey) obj).vector);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
@@ -0,0 +1,353 @@
+package script;
+
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Writeable;
+import org.elasticsearch.common.xcontent.ToXContentObject;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.index.mapper.MappedFieldType;
+import org.elasticsearch.index.mapper.MapperService;
+import org.elasticsearch.index.shard.SearchOperationListener;
+import org.elasticsearch.search.internal.SearchContext;
+import org.elasticsearch.search.lookup.SearchLookup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * What scoring the vectors of one field of an index with one method costs on this node, since the index was
+ * created on the node. Only the fields of the mappings are registered, the names sent by requests for fields that
+ * don't exist get stats that are never reported, and the stats of an index are dropped when it is removed from the
+ * node.
+ * <p>
+ * Counters are {@link LongAdder}s, striped under contention. Scripts don't touch them for every document: the
+ * documents scored and missing on a segment are counted in the plain fields of its {@link LeafCounts}, added to
+ * the stats by the {@link #searchOperationListener()} once the query or fetch phase of the thread is done. Leaf
+ * times are recorded twice per segment at most:
+ * <ul>
+ * <li>{@code leaf_setup_time}: opening the doc values, loading the cached columns and the probed partitions of a
+ * segment before a script scores it; a script doesn't know when its segment is done.</li>
+ * <li>{@code leaf_scan_time}: a whole segment scanned by the plugin itself, in {@code exact_knn} and the batch
+ * search.</li>
+ * </ul>
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-17 16:20
+ */
+public final class ScoringStats {
+    private static final Map<String, ScoringStats> STATS = new ConcurrentHashMap<>();
+    // the leaf counts of the scripts run on the thread, not added to their stats yet
+    private static final ThreadLocal<List<LeafCounts>> PENDING = ThreadLocal.withInitial(ArrayList::new);
+    // leaf counts are added to their stats beyond this, when scripts run outside of a search phase
+    private static final int MAX_PENDING = 1024;
+
+    private final String index;
+    private final String method;
+    private final String field;
+    private final LongAdder docs = new LongAdder();
+    private final LongAdder missing = new LongAdder();
+    private final LongAdder mismatches = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LatencyHistogram leafSetup = new LatencyHistogram();
+    private final LatencyHistogram leafScan = new LatencyHistogram();
+
+    private ScoringStats(String index,String method,String field) {
+        this.index = index;
+        this.method = method;
+        this.field = field;
+    }
+
+    /**
+     * The stats of {@code field} of {@code index} scored by {@code method}, created on first use. {@code fieldType}
+     * is the mapping of the field, null if it isn't mapped and its stats are not to be registered.
+     */
+    public static ScoringStats of(String index,String method,String field,MappedFieldType fieldType) {
+        if (index == null || fieldType == null) {
+            return new ScoringStats(index,method,field);
+        }
+        return STATS.computeIfAbsent(index + '\u0000' + method + '\u0000' + field,
+                key -> new ScoringStats(index,method,field));
+    }
+
+    /**
+     * The stats of {@code field} scored by {@code method} in the index of the {@code lookup} of a script.
+     */
+    public static ScoringStats of(SearchLookup lookup,String method,String field) {
+        final MapperService mapperService = lookup == null ? null : lookup.doc().mapperService();
+        if (mapperService == null) {
+            return of(null,method,field,null);
+        }
+        return of(mapperService.index().getName(),method,field,mapperService.fullName(field));
+    }
+
+    /**
+     * Drops the stats of the fields of {@code index}, once it is removed from the node.
+     */
+    public static void remove(String index) {
+        STATS.values().removeIf(stats -> index.equals(stats.index));
+    }
+
+    /**
+     * The stats of every index, method and field, sorted by index, method then field.
+     */
+    public static List<Snapshot> snapshots() {
+        final List<Snapshot> snapshots = new ArrayList<>(STATS.size());
+        for (ScoringStats stats : STATS.values()) {
+            snapshots.add(stats.snapshot());
+        }
+        snapshots.sort(Comparator.comparing((Snapshot s) -> s.index).thenComparing(s -> s.method).thenComparing(s -> s.field));
+        return snapshots;
+    }
+
+    /**
+     * Counts of the documents a script scores on one segment, to be used by the thread creating it only.
+     */
+    public LeafCounts leafCounts() {
+        final List<LeafCounts> pending = PENDING.get();
+        if (pending.size() >= MAX_PENDING) {
+            flushPending();
+        }
+        final LeafCounts counts = new LeafCounts(this);
+        pending.add(counts);
+        return counts;
+    }
+
+    /**
+     * Adds the leaf counts of the scripts run on this thread to their stats.
+     */
+    public static void flushPending() {
+        final List<LeafCounts> pending = PENDING.get();
+        for (LeafCounts counts : pending) {
+            counts.flush();
+        }
+        pending.clear();
+    }
+
+    /**
+     * Adds the leaf counts of the scripts to their stats at the end of the query and fetch phases, which run the
+     * scripts of a shard on one thread.
+     */
+    public static SearchOperationListener searchOperationListener() {
+        return new SearchOperationListener() {
+            @Override
+            public void onQueryPhase(SearchContext searchContext,long tookInNanos) {
+                flushPending();
+            }
+
+            @Override
+            public void onFailedQueryPhase(SearchContext searchContext) {
+                flushPending();
+            }
+
+            @Override
+            public void onFetchPhase(SearchContext searchContext,long tookInNanos) {
+                flushPending();
+            }
+
+            @Override
+            public void onFailedFetchPhase(SearchContext searchContext) {
+                flushPending();
+            }
+        };
+    }
+
+    /**
+     * A document value doesn't have the dimensions of the query, it scores 0.
+     */
+    public void mismatch() {
+        mismatches.increment();
+    }
+
+    /**
+     * A document value could not be read, it scores 0.
+     */
+    public void error() {
+        errors.increment();
+    }
+
+    /**
+     * {@code docs} documents of {@code length} bytes in total were scored, from a loop over a segment.
+     */
+    public void scored(long docs,long length) {
+        this.docs.add(docs);
+        this.bytes.add(length);
+    }
+
+    public void mismatches(long count) {
+        mismatches.add(count);
+    }
+
+    public void leafSetup(long nanos) {
+        leafSetup.record(nanos);
+    }
+
+    public void leafScan(long nanos) {
+        leafScan.record(nanos);
+    }
+
+    /**
+     * The documents a script scored or found without a value on one segment, counted without synchronization.
+     */
+    public static final class LeafCounts {
+        private final ScoringStats stats;
+        private long docs;
+        private long bytes;
+        private long missing;
+
+        private LeafCounts(ScoringStats stats) {
+            this.stats = stats;
+        }
+
+        /**
+         * A document was scored from a value of {@code length} bytes.
+         */
+        public void scored(int length) {
+            docs++;
+            bytes += length;
+        }
+
+        /**
+         * A document to score has no value.
+         */
+        public void missing() {
+            missing++;
+        }
+
+        private void flush() {
+            if (docs > 0) {
+                stats.scored(docs,bytes);
+            }
+            if (missing > 0) {
+                stats.missing.add(missing);
+            }
+            docs = 0;
+            bytes = 0;
+            missing = 0;
+        }
+    }
+
+    public Snapshot snapshot() {
+        return new Snapshot(index,method,field,docs.sum(),missing.sum(),mismatches.sum(),errors.sum(),bytes.sum(),
+                leafSetup.snapshot(),leafScan.snapshot());
+    }
+
+    public static final class Snapshot implements Writeable, ToXContentObject {
+        private final String index;
+        private final String method;
+        private final String field;
+        private final long docs;
+        private final long missing;
+        private final long mismatches;
+        private final long errors;
+        private final long bytes;
+        private final LatencyHistogram.Snapshot leafSetup;
+        private final LatencyHistogram.Snapshot leafScan;
+
+        Snapshot(String index,String method,String field,long docs,long missing,long mismatches,long errors,long bytes,
+                 LatencyHistogram.Snapshot leafSetup,LatencyHistogram.Snapshot leafScan) {
+            this.index = index;
+            this.method = method;
+            this.field = field;
+            this.docs = docs;
+            this.missing = missing;
+            this.mismatches = mismatches;
+            this.errors = errors;
+            this.bytes = bytes;
+            this.leafSetup = leafSetup;
+            this.leafScan = leafScan;
+        }
+
+        public Snapshot(StreamInput in) throws IOException {
+            this.index = in.readString();
+            this.method = in.readString();
+            this.field = in.readString();
+            this.docs = in.readVLong();
+            this.missing = in.readVLong();
+            this.mismatches = in.readVLong();
+            this.errors = in.readVLong();
+            this.bytes = in.readVLong();
+            this.leafSetup = new LatencyHistogram.Snapshot(in);
+            this.leafScan = new LatencyHistogram.Snapshot(in);
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            out.writeString(index);
+            out.writeString(method);
+            out.writeString(field);
+            out.writeVLong(docs);
+            out.writeVLong(missing);
+            out.writeVLong(mismatches);
+            out.writeVLong(errors);
+            out.writeVLong(bytes);
+            leafSetup.writeTo(out);
+            leafScan.writeTo(out);
+        }
+
+        public String index() {
+            return index;
+        }
+
+        public String method() {
+            return method;
+        }
+
+        public String field() {
+            return field;
+        }
+
+        public long docs() {
+            return docs;
+        }
+
+        public long missing() {
+            return missing;
+        }
+
+        public long mismatches() {
+            return mismatches;
+        }
+
+        public long errors() {
+            return errors;
+        }
+
+        public long bytes() {
+            return bytes;
+        }
+
+        public LatencyHistogram.Snapshot leafSetup() {
+            return leafSetup;
+        }
+
+        public LatencyHistogram.Snapshot leafScan() {
+            return leafScan;
+        }
+
+        @Override
+        public XContentBuilder toXContent(XContentBuilder builder,Params params) throws IOException {
+            builder.startObject();
+            builder.field("index",index);
+            builder.field("method",method);
+            builder.field("field",field);
+            builder.field("docs_scored",docs);
+            builder.field("docs_missing",missing);
+            builder.field("dimension_mismatches",mismatches);
+            builder.field("errors",errors);
+            builder.field("bytes_decoded",bytes);
+            builder.startObject("leaf_setup_time");
+            leafSetup.toXContent(builder,params);
+            builder.endObject();
+            builder.startObject("leaf_scan_time");
+            leafScan.toXContent(builder,params);
+            builder.endObject();
+            return builder.endObject();
+        }
+    }
+}
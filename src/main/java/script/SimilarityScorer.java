@@ -0,0 +1,121 @@
+package script;
+
+import index.ProductQuantizer;
+import index.VectorColumn;
+import index.VectorColumnCache;
+import index.VectorSimilarity;
+import mapper.VectorEncoding;
+import mapper.VectorFieldMapper;
+import org.apache.lucene.index.LeafReaderContext;
+import org.elasticsearch.index.mapper.MappedFieldType;
+
+import java.io.IOException;
+import java.util.Objects;
+
+/**
+ * The scores of the {@code cosine} and {@code norm-l2} scripts of a query vector, without a script: the
+ * {@link VectorReader} of the field, its mapping and the {@link PreparedQuery}.
+ * <p>
+ * It holds nothing of the request it was built for, so Lucene queries can keep it and score leaves from many threads.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-18 15:30
+ */
+public final class SimilarityScorer {
+    private final VectorReader reader;
+    // the mapping of the field if it is a vector field, null for plain binary fields
+    private final VectorFieldMapper.VectorFieldType fieldType;
+    private final PreparedQuery query;
+    private final VectorSimilarity similarity;
+    private final ScoringStats stats;
+    // where the segments are cached as vector columns, null to always read the doc values
+    private final VectorColumnCache columns;
+
+    private SimilarityScorer(VectorReader reader,VectorFieldMapper.VectorFieldType fieldType,PreparedQuery query,
+                             VectorSimilarity similarity,ScoringStats stats,VectorColumnCache columns) {
+        this.reader = Objects.requireNonNull(reader);
+        this.fieldType = fieldType;
+        this.query = Objects.requireNonNull(query);
+        this.similarity = Objects.requireNonNull(similarity);
+        this.stats = Objects.requireNonNull(stats);
+        this.columns = columns;
+    }
+
+    /**
+     * Scores {@code vector} against {@code field} of {@code index} with the layout of {@code fieldType}, which is
+     * null if the field isn't mapped.
+     */
+    public static SimilarityScorer of(String index,String field,MappedFieldType fieldType,double[] vector,
+                                      VectorSimilarity similarity) {
+        final ScoringStats stats = ScoringStats.of(index,similarity == VectorSimilarity.COSINE ? "cosine" : "norm-l2",
+                field,fieldType);
+        return new SimilarityScorer(VectorReader.of(field,fieldType),fieldType instanceof VectorFieldMapper.VectorFieldType
+                ? (VectorFieldMapper.VectorFieldType) fieldType : null,PreparedQuery.of(vector),similarity,stats,null);
+    }
+
+    public VectorReader reader() {
+        return reader;
+    }
+
+    public VectorEncoding encoding() {
+        return reader.encoding();
+    }
+
+    public PreparedQuery query() {
+        return query;
+    }
+
+    public ScoringStats stats() {
+        return stats;
+    }
+
+    /**
+     * Whether the vectors of the field have been L2-normalized at index time.
+     */
+    public boolean normalized() {
+        return fieldType != null && fieldType.normalize();
+    }
+
+    /**
+     * The same scorer reading float and int8 vectors from the columns of {@code cache}, loaded on first use with as
+     * many dimensions as the query, see {@link VectorLeafFactory#columns}.
+     */
+    public SimilarityScorer columns(VectorColumnCache cache) {
+        if (cache == null || cache.enabled() == false
+                || (encoding() != VectorEncoding.FLOAT && encoding() != VectorEncoding.INT8)) {
+            return this;
+        }
+        return new SimilarityScorer(reader,fieldType,query,similarity,stats,cache);
+    }
+
+    /**
+     * Opens the vectors of the field on a leaf, from its cached column if there is one.
+     */
+    public DocVectorValues docVectorValues(LeafReaderContext context) throws IOException {
+        if (columns != null) {
+            final VectorColumn column = columns.column(context,reader,query.dims());
+            if (column != null) {
+                return DocVectorValues.of(column,reader.encoding());
+            }
+        }
+        return reader.docValues(context);
+    }
+
+    /**
+     * Opens the doc values of the field on a leaf.
+     */
+    public DocVectorValues docValues(LeafReaderContext context) throws IOException {
+        return reader.docValues(context);
+    }
+
+    /**
+     * Creates the scorer of one leaf.
+     */
+    public VectorScorer newScorer() {
+        final ProductQuantizer productQuantizer = encoding() == VectorEncoding.PQ ? fieldType.productQuantizer() : null;
+        if (similarity == VectorSimilarity.COSINE) {
+            return CosineScript.scorer(query,normalized(),productQuantizer,0,stats);
+        }
+        return NormL2Script.scorer(query,productQuantizer,0,stats);
+    }
+}
@@ -0,0 +1,127 @@
+package script;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.elasticsearch.script.ScoreScript;
+import org.elasticsearch.search.lookup.SearchLookup;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Dot product ({@code sparse-dot}) or cosine similarity ({@code sparse-cosine}) of sparse vectors.
+ * <p>
+ * The query is an object of the non-zero dimensions, {@code "value": {"17": 0.5, "90321": 1.2}}, and the
+ * documents are sparse vectors encoded by the {@code sparse_vector_encode} ingest processor in a
+ * {@code binary} field. The query is sorted once per request, every document is then a merge of its sorted
+ * indices with the ones of the query. Documents without a sparse vector score 0.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-16 17:00
+ */
+public class SparseVectorScript implements ImageRevirevalScript {
+    private final boolean cosine;
+
+    public SparseVectorScript(boolean cosine) {
+        this.cosine = cosine;
+    }
+
+    @Override
+    public ScoreScript.LeafFactory getScript(Map<String, Object> p,SearchLookup lookup) {
+        if (p.containsKey("field") == false) {
+            throw new IllegalArgumentException("Missing parameter [field]");
+        }
+        final String field = p.get("field").toString();
+        final Object value = p.get("value");
+        if (value instanceof Map == false) {
+            throw new IllegalArgumentException("Must have 'value' as a parameter, an object of the non-zero dimensions");
+        }
+        //The query dimensions sorted by index
+        final int[] indices;
+        final double[] values;
+        {
+            final Map<?, ?> dimensions = (Map<?, ?>) value;
+            final long[] entries = new long[dimensions.size()];
+            final double[] unsorted = new double[dimensions.size()];
+            int i = 0;
+            for (Map.Entry<?, ?> entry : dimensions.entrySet()) {
+                final int index;
+                try {
+                    index = Integer.parseInt(entry.getKey().toString());
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("sparse vector dimensions must be integers, got [" + entry.getKey() + "]");
+                }
+                if (index < 0 || entry.getValue() instanceof Number == false) {
+                    throw new IllegalArgumentException("sparse vector dimension [" + entry.getKey()
+                            + "] must not be negative and have a number value");
+                }
+                unsorted[i] = ((Number) entry.getValue()).doubleValue();
+                //the index in the high bits, the position in the low ones, so that sorting keeps them together
+                entries[i] = ((long) index << 32) | i;
+                i++;
+            }
+            Arrays.sort(entries);
+            indices = new int[entries.length];
+            values = new double[entries.length];
+            for (i = 0; i < entries.length; i++) {
+                indices[i] = (int) (entries[i] >>> 32);
+                values[i] = unsorted[(int) entries[i]];
+            }
+            for (i = 1; i < indices.length; i++) {
+                if (indices[i] == indices[i - 1]) {
+                    throw new IllegalArgumentException("sparse vector dimension [" + indices[i] + "] is repeated");
+                }
+            }
+        }
+        double squaredNorm = 0d;
+        for (double v : values) {
+            squaredNorm += v * v;
+        }
+        final double queryNorm = Math.sqrt(squaredNorm);
+        final ScoringStats stats = ScoringStats.of(lookup,cosine ? "sparse-cosine" : "sparse-dot",field);
+
+        return new ScoreScript.LeafFactory() {
+            @Override
+            public ScoreScript newInstance(LeafReaderContext context) throws IOException {
+                final long start = System.nanoTime();
+                final SparseVectorValues docVector = SparseVectorValues.of(context.reader(),field);
+                final ScoringStats.LeafCounts counts = stats.leafCounts();
+                stats.leafSetup(System.nanoTime() - start);
+                return new ScoreScript(p,lookup,context) {
+                    boolean is_value = false;
+
+                    @Override
+                    public void setDocument(int docId) {
+                        try {
+                            is_value = docVector.advanceExact(docId);
+                            if (is_value == false) {
+                                counts.missing();
+                            }
+                        } catch (IOException e) {
+                            is_value = false;
+                            stats.error();
+                        }
+                    }
+
+                    @Override
+                    public double execute() {
+                        //If there is no field value return 0 rather than fail.
+                        if (!is_value) return 0.0d;
+                        counts.scored(docVector.length());
+                        final double dot = docVector.dot(indices,values);
+                        if (cosine == false) {
+                            return dot;
+                        }
+                        if (docVector.norm() == 0 || queryNorm == 0) return 0d;
+                        return dot / (docVector.norm() * queryNorm);
+                    }
+                };
+            }
+
+            @Override
+            public boolean needs_score() {
+                return false;
+            }
+        };
+    }
+}
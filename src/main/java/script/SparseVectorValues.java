@@ -0,0 +1,150 @@
+package script;
+
+import mapper.SparseVectorEncoding;
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.store.ByteArrayDataInput;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+
+/**
+ * Per-leaf view of the sparse vectors of a binary doc value, see {@link SparseVectorEncoding}.
+ * <p>
+ * Like {@link DocVectorValues}, the header is parsed into reusable scratch state and the indices are decoded
+ * while they are intersected with the query, so scoring a document allocates nothing.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-16 16:30
+ */
+public final class SparseVectorValues {
+    // null when the segment has no value for the field
+    private final BinaryDocValues accessor;
+    private final ByteArrayDataInput in = new ByteArrayDataInput();
+
+    private byte[] bytes;
+    private int length;
+    // position of the first index delta
+    private int indicesStart;
+    // position of the first value, -1 if the value is not a sparse vector
+    private int valuesStart;
+    private int count;
+    private float norm;
+
+    private SparseVectorValues(BinaryDocValues accessor) {
+        this.accessor = accessor;
+    }
+
+    public static SparseVectorValues of(LeafReader reader,String field) throws IOException {
+        return new SparseVectorValues(reader.getBinaryDocValues(field));
+    }
+
+    /**
+     * Positions on {@code docId}, returns false if the document has no sparse vector in the field.
+     */
+    public boolean advanceExact(int docId) throws IOException {
+        if (accessor == null || accessor.advanceExact(docId) == false) {
+            return false;
+        }
+        reset(accessor.binaryValue());
+        return valuesStart >= 0;
+    }
+
+    /**
+     * Parses the header of an encoded value: the number of values followed by the byte length of the first one.
+     */
+    public void reset(BytesRef value) {
+        in.reset(value.bytes,value.offset,value.length);
+        in.readVInt();
+        final int length = in.readVInt();
+        final int start = in.getPosition();
+        bytes = value.bytes;
+        this.length = value.length;
+        if (length < 5) {
+            valuesStart = -1;
+            return;
+        }
+        count = in.readVInt();
+        indicesStart = in.getPosition();
+        final int end = start + length;
+        valuesStart = end - ((count + 1) << 2);
+        if (count < 0 || valuesStart < indicesStart) {
+            valuesStart = -1;
+            return;
+        }
+        norm = Float.intBitsToFloat(DocVectorValues.readInt(bytes,end - 4));
+    }
+
+    /**
+     * Number of bytes of the current doc value.
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Number of non-zero dimensions of the current vector.
+     */
+    public int count() {
+        return count;
+    }
+
+    /**
+     * L2 norm of the current vector, stored at index time.
+     */
+    public float norm() {
+        return norm;
+    }
+
+    /**
+     * Dot product of the current vector with a query of sorted distinct {@code indices}.
+     * <p>
+     * The document indices are decoded one after the other, the query skips ahead to each of them by galloping,
+     * so a short document is not slowed down by a long query.
+     */
+    public double dot(int[] indices,double[] values) {
+        double sum = 0d;
+        in.setPosition(indicesStart);
+        int index = 0;
+        int q = 0;
+        for (int i = 0; i < count && q < indices.length; i++) {
+            index += in.readVInt();
+            if (indices[q] < index) {
+                q = advance(indices,q,index);
+                if (q == indices.length) {
+                    break;
+                }
+            }
+            if (indices[q] == index) {
+                sum += values[q] * Float.intBitsToFloat(DocVectorValues.readInt(bytes,valuesStart + (i << 2)));
+                q++;
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * First position after {@code from} whose index is at least {@code target}, {@code indices.length} if none.
+     */
+    static int advance(int[] indices,int from,int target) {
+        int step = 1;
+        int low = from;
+        int high = from + step;
+        while (high < indices.length && indices[high] < target) {
+            low = high;
+            step <<= 1;
+            high = from + step;
+        }
+        high = Math.min(high,indices.length);
+        // indices[low] < target, the answer is in (low, high]
+        while (low + 1 < high) {
+            final int mid = (low + high) >>> 1;
+            if (indices[mid] < target) {
+                low = mid;
+            } else {
+                high = mid;
+            }
+        }
+        return high;
+    }
+}
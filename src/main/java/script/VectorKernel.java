@@ -0,0 +1,457 @@
+package script;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.nio.FloatBuffer;
+import java.util.Locale;
+
+/**
+ * The inner loops of the distances: dot products, squared norms and squared L2 distances over the three
+ * layouts vectors are read from, plus the bit count of hashes.
+ * <p>
+ * Layouts are a {@code double[]} (decoded blocks), a {@link FloatBuffer} (vector columns) and the big-endian
+ * doubles or floats of a binary doc value. In every kernel, dimension {@code i} of the query is multiplied with
+ * the value at {@code base + i}, for {@code i} in {@code [from, to)}.
+ * <p>
+ * One implementation is selected when the plugin starts, with the {@code vector_distance.kernel} node setting:
+ * <ul>
+ * <li>{@code scalar}: one accumulator, every addition waiting for the previous one.</li>
+ * <li>{@code unrolled}: four independent accumulators, so the additions of consecutive dimensions overlap in
+ * the pipeline. The sums are rounded in a different order than {@code scalar}, scores may differ in their last
+ * bits.</li>
+ * <li>{@code auto}, the default: {@code unrolled}, the only faster kernel a Java 8 runtime can use.</li>
+ * </ul>
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-16 14:00
+ */
+public abstract class VectorKernel {
+    public static final String AUTO = "auto";
+    public static final String SCALAR = "scalar";
+    public static final String UNROLLED = "unrolled";
+
+    private static final Logger logger = LogManager.getLogger(VectorKernel.class);
+
+    private static volatile VectorKernel current = new Unrolled();
+
+    /**
+     * The kernel selected at startup.
+     */
+    public static VectorKernel get() {
+        return current;
+    }
+
+    /**
+     * Selects the kernel used from now on by its name, one of {@code auto}, {@code scalar} or {@code unrolled}.
+     */
+    public static VectorKernel select(String name) {
+        final VectorKernel kernel;
+        switch (name.toLowerCase(Locale.ROOT)) {
+            case AUTO:
+            case UNROLLED:
+                kernel = current instanceof Unrolled ? current : new Unrolled();
+                break;
+            case SCALAR:
+                kernel = new Scalar();
+                break;
+            default:
+                throw new IllegalArgumentException("unknown vector kernel [" + name + "], expected one of ["
+                        + AUTO + "], [" + SCALAR + "] or [" + UNROLLED + "]");
+        }
+        current = kernel;
+        logger.info("using [{}] vector distance kernels ([{}] requested)",kernel.name(),name);
+        return kernel;
+    }
+
+    public abstract String name();
+
+    public abstract double dot(double[] query,double[] vectors,int base,int from,int to);
+
+    public abstract double squaredDistance(double[] query,double[] vectors,int base,int from,int to);
+
+    public abstract double dot(double[] query,FloatBuffer vectors,int base,int from,int to);
+
+    public abstract double squaredNorm(FloatBuffer vectors,int base,int from,int to);
+
+    public abstract double squaredDistance(double[] query,FloatBuffer vectors,int base,int from,int to);
+
+    public abstract double dotDoubles(double[] query,byte[] bytes,int base,int from,int to);
+
+    public abstract double squaredNormDoubles(byte[] bytes,int base,int from,int to);
+
+    public abstract double squaredDistanceDoubles(double[] query,byte[] bytes,int base,int from,int to);
+
+    public abstract double dotFloats(double[] query,byte[] bytes,int base,int from,int to);
+
+    public abstract double squaredNormFloats(byte[] bytes,int base,int from,int to);
+
+    public abstract double squaredDistanceFloats(double[] query,byte[] bytes,int base,int from,int to);
+
+    /**
+     * Number of differing bits of two packed hashes of the same length.
+     */
+    public abstract int hamming(long[] a,long[] b);
+
+    private static double doubleAt(byte[] bytes,int base,int i) {
+        return Double.longBitsToDouble(DocVectorValues.readLong(bytes,base + (i << 3)));
+    }
+
+    private static double floatAt(byte[] bytes,int base,int i) {
+        return Float.intBitsToFloat(DocVectorValues.readInt(bytes,base + (i << 2)));
+    }
+
+    static final class Scalar extends VectorKernel {
+        @Override
+        public String name() {
+            return SCALAR;
+        }
+
+        @Override
+        public double dot(double[] query,double[] vectors,int base,int from,int to) {
+            double sum = 0d;
+            for (int i = from; i < to; i++) {
+                sum += query[i] * vectors[base + i];
+            }
+            return sum;
+        }
+
+        @Override
+        public double squaredDistance(double[] query,double[] vectors,int base,int from,int to) {
+            double sum = 0d;
+            for (int i = from; i < to; i++) {
+                final double d = query[i] - vectors[base + i];
+                sum += d * d;
+            }
+            return sum;
+        }
+
+        @Override
+        public double dot(double[] query,FloatBuffer vectors,int base,int from,int to) {
+            double sum = 0d;
+            for (int i = from; i < to; i++) {
+                sum += query[i] * vectors.get(base + i);
+            }
+            return sum;
+        }
+
+        @Override
+        public double squaredNorm(FloatBuffer vectors,int base,int from,int to) {
+            double sum = 0d;
+            for (int i = from; i < to; i++) {
+                final double v = vectors.get(base + i);
+                sum += v * v;
+            }
+            return sum;
+        }
+
+        @Override
+        public double squaredDistance(double[] query,FloatBuffer vectors,int base,int from,int to) {
+            double sum = 0d;
+            for (int i = from; i < to; i++) {
+                final double d = query[i] - vectors.get(base + i);
+                sum += d * d;
+            }
+            return sum;
+        }
+
+        @Override
+        public double dotDoubles(double[] query,byte[] bytes,int base,int from,int to) {
+            double sum = 0d;
+            for (int i = from; i < to; i++) {
+                sum += query[i] * doubleAt(bytes,base,i);
+            }
+            return sum;
+        }
+
+        @Override
+        public double squaredNormDoubles(byte[] bytes,int base,int from,int to) {
+            double sum = 0d;
+            for (int i = from; i < to; i++) {
+                final double v = doubleAt(bytes,base,i);
+                sum += v * v;
+            }
+            return sum;
+        }
+
+        @Override
+        public double squaredDistanceDoubles(double[] query,byte[] bytes,int base,int from,int to) {
+            double sum = 0d;
+            for (int i = from; i < to; i++) {
+                final double d = query[i] - doubleAt(bytes,base,i);
+                sum += d * d;
+            }
+            return sum;
+        }
+
+        @Override
+        public double dotFloats(double[] query,byte[] bytes,int base,int from,int to) {
+            double sum = 0d;
+            for (int i = from; i < to; i++) {
+                sum += query[i] * floatAt(bytes,base,i);
+            }
+            return sum;
+        }
+
+        @Override
+        public double squaredNormFloats(byte[] bytes,int base,int from,int to) {
+            double sum = 0d;
+            for (int i = from; i < to; i++) {
+                final double v = floatAt(bytes,base,i);
+                sum += v * v;
+            }
+            return sum;
+        }
+
+        @Override
+        public double squaredDistanceFloats(double[] query,byte[] bytes,int base,int from,int to) {
+            double sum = 0d;
+            for (int i = from; i < to; i++) {
+                final double d = query[i] - floatAt(bytes,base,i);
+                sum += d * d;
+            }
+            return sum;
+        }
+
+        @Override
+        public int hamming(long[] a,long[] b) {
+            int distance = 0;
+            for (int i = 0; i < a.length; i++) {
+                distance += Long.bitCount(a[i] ^ b[i]);
+            }
+            return distance;
+        }
+    }
+
+    static final class Unrolled extends VectorKernel {
+        @Override
+        public String name() {
+            return UNROLLED;
+        }
+
+        @Override
+        public double dot(double[] query,double[] vectors,int base,int from,int to) {
+            double s0 = 0d, s1 = 0d, s2 = 0d, s3 = 0d;
+            int i = from;
+            for (final int end = to - 3; i < end; i += 4) {
+                s0 += query[i] * vectors[base + i];
+                s1 += query[i + 1] * vectors[base + i + 1];
+                s2 += query[i + 2] * vectors[base + i + 2];
+                s3 += query[i + 3] * vectors[base + i + 3];
+            }
+            for (; i < to; i++) {
+                s0 += query[i] * vectors[base + i];
+            }
+            return (s0 + s1) + (s2 + s3);
+        }
+
+        @Override
+        public double squaredDistance(double[] query,double[] vectors,int base,int from,int to) {
+            double s0 = 0d, s1 = 0d, s2 = 0d, s3 = 0d;
+            int i = from;
+            for (final int end = to - 3; i < end; i += 4) {
+                final double d0 = query[i] - vectors[base + i];
+                final double d1 = query[i + 1] - vectors[base + i + 1];
+                final double d2 = query[i + 2] - vectors[base + i + 2];
+                final double d3 = query[i + 3] - vectors[base + i + 3];
+                s0 += d0 * d0;
+                s1 += d1 * d1;
+                s2 += d2 * d2;
+                s3 += d3 * d3;
+            }
+            for (; i < to; i++) {
+                final double d = query[i] - vectors[base + i];
+                s0 += d * d;
+            }
+            return (s0 + s1) + (s2 + s3);
+        }
+
+        @Override
+        public double dot(double[] query,FloatBuffer vectors,int base,int from,int to) {
+            double s0 = 0d, s1 = 0d, s2 = 0d, s3 = 0d;
+            int i = from;
+            for (final int end = to - 3; i < end; i += 4) {
+                s0 += query[i] * vectors.get(base + i);
+                s1 += query[i + 1] * vectors.get(base + i + 1);
+                s2 += query[i + 2] * vectors.get(base + i + 2);
+                s3 += query[i + 3] * vectors.get(base + i + 3);
+            }
+            for (; i < to; i++) {
+                s0 += query[i] * vectors.get(base + i);
+            }
+            return (s0 + s1) + (s2 + s3);
+        }
+
+        @Override
+        public double squaredNorm(FloatBuffer vectors,int base,int from,int to) {
+            double s0 = 0d, s1 = 0d, s2 = 0d, s3 = 0d;
+            int i = from;
+            for (final int end = to - 3; i < end; i += 4) {
+                final double v0 = vectors.get(base + i);
+                final double v1 = vectors.get(base + i + 1);
+                final double v2 = vectors.get(base + i + 2);
+                final double v3 = vectors.get(base + i + 3);
+                s0 += v0 * v0;
+                s1 += v1 * v1;
+                s2 += v2 * v2;
+                s3 += v3 * v3;
+            }
+            for (; i < to; i++) {
+                final double v = vectors.get(base + i);
+                s0 += v * v;
+            }
+            return (s0 + s1) + (s2 + s3);
+        }
+
+        @Override
+        public double squaredDistance(double[] query,FloatBuffer vectors,int base,int from,int to) {
+            double s0 = 0d, s1 = 0d, s2 = 0d, s3 = 0d;
+            int i = from;
+            for (final int end = to - 3; i < end; i += 4) {
+                final double d0 = query[i] - vectors.get(base + i);
+                final double d1 = query[i + 1] - vectors.get(base + i + 1);
+                final double d2 = query[i + 2] - vectors.get(base + i + 2);
+                final double d3 = query[i + 3] - vectors.get(base + i + 3);
+                s0 += d0 * d0;
+                s1 += d1 * d1;
+                s2 += d2 * d2;
+                s3 += d3 * d3;
+            }
+            for (; i < to; i++) {
+                final double d = query[i] - vectors.get(base + i);
+                s0 += d * d;
+            }
+            return (s0 + s1) + (s2 + s3);
+        }
+
+        @Override
+        public double dotDoubles(double[] query,byte[] bytes,int base,int from,int to) {
+            double s0 = 0d, s1 = 0d, s2 = 0d, s3 = 0d;
+            int i = from;
+            for (final int end = to - 3; i < end; i += 4) {
+                s0 += query[i] * doubleAt(bytes,base,i);
+                s1 += query[i + 1] * doubleAt(bytes,base,i + 1);
+                s2 += query[i + 2] * doubleAt(bytes,base,i + 2);
+                s3 += query[i + 3] * doubleAt(bytes,base,i + 3);
+            }
+            for (; i < to; i++) {
+                s0 += query[i] * doubleAt(bytes,base,i);
+            }
+            return (s0 + s1) + (s2 + s3);
+        }
+
+        @Override
+        public double squaredNormDoubles(byte[] bytes,int base,int from,int to) {
+            double s0 = 0d, s1 = 0d, s2 = 0d, s3 = 0d;
+            int i = from;
+            for (final int end = to - 3; i < end; i += 4) {
+                final double v0 = doubleAt(bytes,base,i);
+                final double v1 = doubleAt(bytes,base,i + 1);
+                final double v2 = doubleAt(bytes,base,i + 2);
+                final double v3 = doubleAt(bytes,base,i + 3);
+                s0 += v0 * v0;
+                s1 += v1 * v1;
+                s2 += v2 * v2;
+                s3 += v3 * v3;
+            }
+            for (; i < to; i++) {
+                final double v = doubleAt(bytes,base,i);
+                s0 += v * v;
+            }
+            return (s0 + s1) + (s2 + s3);
+        }
+
+        @Override
+        public double squaredDistanceDoubles(double[] query,byte[] bytes,int base,int from,int to) {
+            double s0 = 0d, s1 = 0d, s2 = 0d, s3 = 0d;
+            int i = from;
+            for (final int end = to - 3; i < end; i += 4) {
+                final double d0 = query[i] - doubleAt(bytes,base,i);
+                final double d1 = query[i + 1] - doubleAt(bytes,base,i + 1);
+                final double d2 = query[i + 2] - doubleAt(bytes,base,i + 2);
+                final double d3 = query[i + 3] - doubleAt(bytes,base,i + 3);
+                s0 += d0 * d0;
+                s1 += d1 * d1;
+                s2 += d2 * d2;
+                s3 += d3 * d3;
+            }
+            for (; i < to; i++) {
+                final double d = query[i] - doubleAt(bytes,base,i);
+                s0 += d * d;
+            }
+            return (s0 + s1) + (s2 + s3);
+        }
+
+        @Override
+        public double dotFloats(double[] query,byte[] bytes,int base,int from,int to) {
+            double s0 = 0d, s1 = 0d, s2 = 0d, s3 = 0d;
+            int i = from;
+            for (final int end = to - 3; i < end; i += 4) {
+                s0 += query[i] * floatAt(bytes,base,i);
+                s1 += query[i + 1] * floatAt(bytes,base,i + 1);
+                s2 += query[i + 2] * floatAt(bytes,base,i + 2);
+                s3 += query[i + 3] * floatAt(bytes,base,i + 3);
+            }
+            for (; i < to; i++) {
+                s0 += query[i] * floatAt(bytes,base,i);
+            }
+            return (s0 + s1) + (s2 + s3);
+        }
+
+        @Override
+        public double squaredNormFloats(byte[] bytes,int base,int from,int to) {
+            double s0 = 0d, s1 = 0d, s2 = 0d, s3 = 0d;
+            int i = from;
+            for (final int end = to - 3; i < end; i += 4) {
+                final double v0 = floatAt(bytes,base,i);
+                final double v1 = floatAt(bytes,base,i + 1);
+                final double v2 = floatAt(bytes,base,i + 2);
+                final double v3 = floatAt(bytes,base,i + 3);
+                s0 += v0 * v0;
+                s1 += v1 * v1;
+                s2 += v2 * v2;
+                s3 += v3 * v3;
+            }
+            for (; i < to; i++) {
+                final double v = floatAt(bytes,base,i);
+                s0 += v * v;
+            }
+            return (s0 + s1) + (s2 + s3);
+        }
+
+        @Override
+        public double squaredDistanceFloats(double[] query,byte[] bytes,int base,int from,int to) {
+            double s0 = 0d, s1 = 0d, s2 = 0d, s3 = 0d;
+            int i = from;
+            for (final int end = to - 3; i < end; i += 4) {
+                final double d0 = query[i] - floatAt(bytes,base,i);
+                final double d1 = query[i + 1] - floatAt(bytes,base,i + 1);
+                final double d2 = query[i + 2] - floatAt(bytes,base,i + 2);
+                final double d3 = query[i + 3] - floatAt(bytes,base,i + 3);
+                s0 += d0 * d0;
+                s1 += d1 * d1;
+                s2 += d2 * d2;
+                s3 += d3 * d3;
+            }
+            for (; i < to; i++) {
+                final double d = query[i] - floatAt(bytes,base,i);
+                s0 += d * d;
+            }
+            return (s0 + s1) + (s2 + s3);
+        }
+
+        @Override
+        public int hamming(long[] a,long[] b) {
+            int d0 = 0, d1 = 0;
+            int i = 0;
+            for (final int end = a.length - 1; i < end; i += 2) {
+                d0 += Long.bitCount(a[i] ^ b[i]);
+                d1 += Long.bitCount(a[i + 1] ^ b[i + 1]);
+            }
+            if (i < a.length) {
+                d0 += Long.bitCount(a[i] ^ b[i]);
+            }
+            return d0 + d1;
+        }
+    }
+}
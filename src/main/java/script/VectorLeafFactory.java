@@ -0,0 +1,270 @@
+package script;
+
+import index.ProductQuantizer;
+import index.VectorColumn;
+import index.VectorColumnCache;
+import mapper.VectorEncoding;
+import mapper.VectorFieldMapper;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.message.ParameterizedMessage;
+import org.apache.lucene.index.LeafReaderContext;
+import org.elasticsearch.index.mapper.MappedFieldType;
+import org.elasticsearch.script.ScoreScript;
+import org.elasticsearch.search.lookup.SearchLookup;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Base {@link ScoreScript.LeafFactory} of the vector methods.
+ * <p>
+ * Subclasses parse the query once in their constructor and hand out a {@link VectorScorer} per leaf,
+ * the doc values access and the per-document decoding are shared here.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-11-25 10:46
+ */
+public abstract class VectorLeafFactory implements ScoreScript.LeafFactory {
+    private static final Logger logger = LogManager.getLogger(VectorLeafFactory.class);
+
+    protected final Map<String, Object> params;
+    protected final SearchLookup lookup;
+    // The field to compare against
+    protected final String field;
+    // The scoring method, from the 'method' parameter
+    protected final String method;
+    // What scoring the field with the method costs on this node
+    protected final ScoringStats stats;
+    // The mapping of the field if it is a vector field, null for plain binary fields
+    protected final VectorFieldMapper.VectorFieldType vectorFieldType;
+    // Whether to read the float vectors kept by 'exact_vectors' rather than the encoded ones
+    protected final boolean exact;
+    // How the field's vectors are stored, plain binary fields hold doubles
+    protected final VectorEncoding encoding;
+    // Opens the doc values of the vectors
+    private final VectorReader reader;
+    // Where the segments are cached as vector columns, null to always read the doc values
+    private VectorColumnCache columns;
+    private int columnDims;
+    // The query vector, prepared on first use
+    private PreparedQuery query;
+    // The codebook of pq vectors, loaded on first use
+    private volatile ProductQuantizer productQuantizer;
+
+    protected VectorLeafFactory(Map<String, Object> p,SearchLookup lookup) {
+        if (p.containsKey("field") == false) {
+            throw new IllegalArgumentException("Missing parameter [field]");
+        }
+        this.params = p;
+        this.lookup = lookup;
+        this.field = p.get("field").toString();
+        this.method = p.containsKey("method") ? p.get("method").toString() : "script";
+        this.stats = ScoringStats.of(lookup,method,field);
+        this.vectorFieldType = resolveFieldType(lookup,field);
+        this.exact = p.containsKey("exact") && Boolean.parseBoolean(p.get("exact").toString());
+        if (exact && (vectorFieldType == null || vectorFieldType.exactVectors() == false)) {
+            throw new IllegalArgumentException("[exact] needs a vector field [" + field + "] with [exact_vectors]");
+        }
+        if (exact) {
+            this.reader = new VectorReader(vectorFieldType.exactFieldName(),VectorEncoding.FLOAT,true);
+        } else {
+            this.reader = VectorReader.of(field,vectorFieldType);
+        }
+        this.encoding = reader.encoding();
+    }
+
+    private static VectorFieldMapper.VectorFieldType resolveFieldType(SearchLookup lookup,String field) {
+        if (lookup == null || lookup.doc().mapperService() == null) {
+            return null;
+        }
+        final MappedFieldType fieldType = lookup.doc().mapperService().fullName(field);
+        if (fieldType instanceof VectorFieldMapper.VectorFieldType) {
+            return (VectorFieldMapper.VectorFieldType) fieldType;
+        }
+        return null;
+    }
+
+    public String field() {
+        return field;
+    }
+
+    public String method() {
+        return method;
+    }
+
+    public ScoringStats stats() {
+        return stats;
+    }
+
+    public VectorEncoding encoding() {
+        return encoding;
+    }
+
+    /**
+     * Whether every vector of the field ends with its norm, plain binary fields are checked per document.
+     */
+    public boolean normStored() {
+        return reader.normStored();
+    }
+
+    /**
+     * The codebook of the vectors with the pq encoding, null otherwise.
+     */
+    public ProductQuantizer productQuantizer() {
+        if (encoding != VectorEncoding.PQ) {
+            return null;
+        }
+        // loaded once, a query uses the same codebook on every segment
+        if (productQuantizer == null) {
+            productQuantizer = vectorFieldType.productQuantizer();
+        }
+        return productQuantizer;
+    }
+
+    /**
+     * Whether the vectors of the field have been L2-normalized at index time.
+     */
+    public boolean normalized() {
+        return vectorFieldType != null && vectorFieldType.normalize();
+    }
+
+    /**
+     * Opens the vectors of the field on a leaf, from its cached column if there is one.
+     */
+    public DocVectorValues docVectorValues(LeafReaderContext context) throws IOException {
+        if (columns != null) {
+            final VectorColumn column = columns.column(context,reader,columnDims);
+            if (column != null) {
+                return DocVectorValues.of(column,encoding);
+            }
+        }
+        return docValues(context);
+    }
+
+    /**
+     * Opens the doc values of the field on a leaf.
+     */
+    public DocVectorValues docValues(LeafReaderContext context) throws IOException {
+        return reader.docValues(context);
+    }
+
+    /**
+     * The doc values the vectors are read from, the float copy of the field with 'exact'.
+     */
+    public String docValuesField() {
+        return reader.field();
+    }
+
+    /**
+     * Creates the scorer of one leaf.
+     */
+    public abstract VectorScorer newScorer();
+
+    /**
+     * Reads the vectors with as many dimensions as the query from the columns of {@code cache}, loading them
+     * on first use, or with the dimensions of the mapping for a 'prefix_dims' query. Only float and int8 vectors
+     * are cached: the columns hold floats, which would round doubles and score their segments differently from
+     * the uncached ones, and pq vectors are always read from the doc values.
+     */
+    public void columns(VectorColumnCache cache) {
+        if (cache.enabled() == false || (encoding != VectorEncoding.FLOAT && encoding != VectorEncoding.INT8)) {
+            return;
+        }
+        if (prefixDims() > 0) {
+            //a query on a prefix reads the columns of the full vectors, whose dimensions only the mapping knows
+            if (vectorFieldType == null) {
+                return;
+            }
+            this.columnDims = vectorFieldType.dims();
+        } else {
+            this.columnDims = parseVector().length;
+        }
+        this.columns = cache;
+    }
+
+    @Override
+    public ScoreScript newInstance(LeafReaderContext context) throws IOException {
+        final long start = System.nanoTime();
+        final DocVectorValues docVector = docVectorValues(context);
+        final VectorScorer scorer = newScorer();
+        final ScoringStats.LeafCounts counts = stats.leafCounts();
+        stats.leafSetup(System.nanoTime() - start);
+        return new ScoreScript(params,lookup,context) {
+            boolean is_value = false;
+
+            @Override
+            public void setDocument(int docId) {
+                try {
+                    is_value = docVector.advanceExact(docId);
+                    if (is_value == false) {
+                        counts.missing();
+                    }
+                } catch (IOException e) {
+                    is_value = false;
+                    stats.error();
+                    logger.debug(() -> new ParameterizedMessage("failed to read the vector of doc [{}] in field [{}]",
+                            docId,field),e);
+                }
+            }
+
+            @Override
+            public double execute() {
+                //If there is no field value return 0 rather than fail.
+                if (!is_value) return 0.0d;
+                counts.scored(docVector.length());
+                return scorer.score(docVector);
+            }
+        };
+    }
+
+    /**
+     * Score of a document whose vector doesn't have the dimensions of the query, counted in the stats.
+     */
+    protected final double mismatch() {
+        stats.mismatch();
+        return 0d;
+    }
+
+    @Override
+    public boolean needs_score() {
+        return false;
+    }
+
+    /**
+     * Number of leading dimensions scored from the 'prefix_dims' parameter, 0 to score the whole vectors.
+     * The query then needs at least as many dimensions, documents with fewer score 0.
+     */
+    protected int prefixDims() {
+        final Object value = params.get("prefix_dims");
+        if (value == null) {
+            return 0;
+        }
+        final int prefixDims = Integer.parseInt(value.toString());
+        if (prefixDims <= 0 || prefixDims > parseVector().length) {
+            throw new IllegalArgumentException("[prefix_dims] must be between 1 and the dimensions of the query, got ["
+                    + prefixDims + "]");
+        }
+        if (encoding == VectorEncoding.PQ) {
+            throw new IllegalArgumentException("[prefix_dims] can't be used with the [pq] encoding of field [" + field + "]");
+        }
+        return prefixDims;
+    }
+
+    /**
+     * The query vector of the 'value' parameter and what is derived from it, see {@link PreparedQuery}.
+     */
+    protected PreparedQuery query() {
+        if (query == null) {
+            query = PreparedQuery.of(params.get("value"));
+        }
+        return query;
+    }
+
+    /**
+     * Reads the query vector from the 'value' parameter, the returned array is shared and must not be modified.
+     */
+    protected double[] parseVector() {
+        return query().vector();
+    }
+}
@@ -0,0 +1,77 @@
+package script;
+
+import mapper.VectorEncoding;
+import mapper.VectorFieldMapper;
+import org.apache.lucene.index.LeafReaderContext;
+import org.elasticsearch.index.mapper.MappedFieldType;
+
+import java.io.IOException;
+import java.util.Objects;
+
+/**
+ * Opens the vectors of a field on a leaf with the layout of its mapping: the encoding and stored norm of a
+ * {@code vector} field, or doubles whose norm is detected per document for a plain {@code binary} field.
+ * <p>
+ * It only holds the field and its layout, so queries can keep it and leaves can be read from many threads.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-12-18 15:20
+ */
+public final class VectorReader {
+    private final String field;
+    private final VectorEncoding encoding;
+    // whether every value ends with its norm
+    private final boolean normStored;
+
+    public VectorReader(String field,VectorEncoding encoding,boolean normStored) {
+        this.field = Objects.requireNonNull(field);
+        this.encoding = Objects.requireNonNull(encoding);
+        this.normStored = normStored;
+    }
+
+    /**
+     * Reads {@code field} with the layout of {@code fieldType}, which is null if the field isn't mapped.
+     */
+    public static VectorReader of(String field,MappedFieldType fieldType) {
+        if (fieldType instanceof VectorFieldMapper.VectorFieldType) {
+            return new VectorReader(field,((VectorFieldMapper.VectorFieldType) fieldType).encoding(),true);
+        }
+        return new VectorReader(field,VectorEncoding.DOUBLE,false);
+    }
+
+    /**
+     * The doc values field the vectors are read from.
+     */
+    public String field() {
+        return field;
+    }
+
+    public VectorEncoding encoding() {
+        return encoding;
+    }
+
+    public boolean normStored() {
+        return normStored;
+    }
+
+    public DocVectorValues docValues(LeafReaderContext context) throws IOException {
+        return DocVectorValues.of(context.reader(),field,encoding,normStored);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        VectorReader that = (VectorReader) o;
+        return field.equals(that.field) && encoding == that.encoding && normStored == that.normStored;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(field,encoding,normStored);
+    }
+}
@@ -0,0 +1,13 @@
+package script;
+
+/**
+ * Scores the current document of a {@link DocVectorValues} against the query of a {@link VectorLeafFactory}.
+ * <p>
+ * An instance is created per leaf, so it may keep scratch state between documents.
+ *
+ * @author yshhuang@foxmail.com
+ * @date 2019-11-25 10:40
+ */
+public interface VectorScorer {
+    double score(DocVectorValues docVector);
+}
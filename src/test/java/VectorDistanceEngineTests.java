@@ -0,0 +1,24 @@
+import org.elasticsearch.script.ScoreScript;
+import org.elasticsearch.test.ESTestCase;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+public class VectorDistanceEngineTests extends ESTestCase {
+
+    public void testScriptsRejectNprobe() {
+        final ScoreScript.Factory factory = new VectorDistanceEngine(null).compile(null,VectorDistanceConfig.SCRIPT_SOURCE,
+                ScoreScript.CONTEXT,Collections.emptyMap());
+        final Map<String, Object> params = new HashMap<>();
+        params.put("method",randomFrom("cosine","norm-l2"));
+        params.put("field","vector");
+        params.put("value",Arrays.asList(0.1,0.2));
+        params.put("codebook","images");
+        params.put("nprobe",8);
+        final IllegalArgumentException e = expectThrows(IllegalArgumentException.class,
+                () -> factory.newFactory(params,null));
+        assertTrue(e.getMessage(),e.getMessage().contains("[vector_partitions]"));
+    }
+}
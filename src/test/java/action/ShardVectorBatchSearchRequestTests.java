@@ -0,0 +1,45 @@
+package action;
+
+import index.VectorSimilarity;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.io.stream.NamedWriteableAwareStreamInput;
+import org.elasticsearch.common.io.stream.NamedWriteableRegistry;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.index.shard.ShardId;
+import org.elasticsearch.search.SearchModule;
+import org.elasticsearch.search.internal.AliasFilter;
+import org.elasticsearch.test.ESTestCase;
+
+import java.io.IOException;
+import java.util.Collections;
+
+public class ShardVectorBatchSearchRequestTests extends ESTestCase {
+
+    public void testSerializationKeepsTheAliasFilter() throws IOException {
+        final VectorBatchSearchRequest request = new VectorBatchSearchRequest("images")
+                .field("feature")
+                .queryVectors(new double[][]{{1d,0d},{0d,1d}})
+                .k(5)
+                .similarity(VectorSimilarity.COSINE)
+                .filter(QueryBuilders.termQuery("color","red"));
+        final AliasFilter aliasFilter = randomBoolean() ? AliasFilter.EMPTY
+                : new AliasFilter(QueryBuilders.termQuery("owner","alice"),"alice_images");
+        final ShardVectorBatchSearchRequest shardRequest = new ShardVectorBatchSearchRequest(
+                new ShardId("images","_na_",0),request,aliasFilter,randomNonNegativeLong());
+
+        final NamedWriteableRegistry registry = new NamedWriteableRegistry(
+                new SearchModule(Settings.EMPTY,false,Collections.emptyList()).getNamedWriteables());
+        final BytesStreamOutput out = new BytesStreamOutput();
+        shardRequest.writeTo(out);
+        final ShardVectorBatchSearchRequest read = new ShardVectorBatchSearchRequest();
+        try (StreamInput in = new NamedWriteableAwareStreamInput(out.bytes().streamInput(),registry)) {
+            read.readFrom(in);
+        }
+        assertEquals(aliasFilter,read.aliasFilter());
+        assertEquals(shardRequest.nowInMillis(),read.nowInMillis());
+        assertEquals(request.filter(),read.request().filter());
+        assertEquals(2,read.request().queryVectors().length);
+    }
+}
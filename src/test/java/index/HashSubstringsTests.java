@@ -0,0 +1,72 @@
+package index;
+
+import org.elasticsearch.test.ESTestCase;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class HashSubstringsTests extends ESTestCase {
+
+    public void testTermsAreOnePerSubstring() {
+        final long[] hash = randomHash(128);
+        final List<String> terms = HashSubstrings.terms(hash,128,4);
+        assertEquals(4,terms.size());
+        assertEquals(4,new HashSet<>(terms).size());
+        assertEquals(terms,HashSubstrings.terms(hash.clone(),128,4));
+    }
+
+    public void testNeighbourhoodFindsHashesWithinTheRadius() {
+        final int bits = 64;
+        final int m = 4;
+        final int radius = 7;
+        for (int i = 0; i < 100; i++) {
+            final long[] hash = randomHash(bits);
+            final long[] other = hash.clone();
+            final int flips = randomIntBetween(0,radius);
+            final Set<Integer> flipped = new HashSet<>();
+            while (flipped.size() < flips) {
+                flipped.add(randomIntBetween(0,bits - 1));
+            }
+            for (int bit : flipped) {
+                other[bit >>> 6] ^= 1L << (bit & 63);
+            }
+            // one substring at least differs by at most radius / m bits, pigeonhole
+            final Set<String> neighbourhood = new HashSet<>(HashSubstrings.neighbourhood(hash,bits,m,radius));
+            boolean found = false;
+            for (String term : HashSubstrings.terms(other,bits,m)) {
+                found |= neighbourhood.contains(term);
+            }
+            assertTrue("hash at distance " + flips + " not found",found);
+        }
+    }
+
+    public void testNeighbourhoodSize() {
+        final long[] hash = randomHash(64);
+        // 4 substrings of 16 bits with up to 8 / 4 = 2 flips: 1 + 16 + 120 terms each
+        final List<String> neighbourhood = HashSubstrings.neighbourhood(hash,64,4,8);
+        assertEquals(4 * 137,neighbourhood.size());
+        assertEquals(neighbourhood.size(),new HashSet<>(neighbourhood).size());
+        assertEquals(HashSubstrings.terms(hash,64,4),HashSubstrings.neighbourhood(hash,64,4,3));
+    }
+
+    public void testTooLargeNeighbourhoodIsRejected() {
+        expectThrows(IllegalArgumentException.class,() -> HashSubstrings.neighbourhood(randomHash(64),64,1,10));
+    }
+
+    public void testInvalidSubstrings() {
+        expectThrows(IllegalArgumentException.class,() -> HashSubstrings.checkSubstrings(64,0));
+        expectThrows(IllegalArgumentException.class,() -> HashSubstrings.checkSubstrings(64,65));
+        // substrings are at most 64 bits long
+        expectThrows(IllegalArgumentException.class,() -> HashSubstrings.checkSubstrings(256,2));
+        HashSubstrings.checkSubstrings(256,4);
+    }
+
+    private static long[] randomHash(int bits) {
+        final long[] hash = new long[(bits + 63) >>> 6];
+        for (int w = 0; w < hash.length; w++) {
+            hash[w] = randomLong();
+        }
+        return hash;
+    }
+}
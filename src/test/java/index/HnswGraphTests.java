@@ -0,0 +1,103 @@
+package index;
+
+import mapper.VectorEncoding;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.FixedBitSet;
+import org.elasticsearch.index.mapper.BinaryFieldMapper;
+import org.elasticsearch.test.ESTestCase;
+import script.DocVectorValues;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+public class HnswGraphTests extends ESTestCase {
+    private static final int DIMS = 16;
+    private static final int DOCS = 1000;
+
+    public void testRecall() throws IOException {
+        for (VectorSimilarity similarity : VectorSimilarity.values()) {
+            assertRecall(similarity,null);
+        }
+    }
+
+    public void testRecallWithAcceptedDocs() throws IOException {
+        final FixedBitSet even = new FixedBitSet(DOCS);
+        for (int doc = 0; doc < DOCS; doc += 2) {
+            even.set(doc);
+        }
+        assertRecall(VectorSimilarity.L2,even);
+    }
+
+    private void assertRecall(VectorSimilarity similarity,FixedBitSet acceptDocs) throws IOException {
+        // a fixed set, the graph is only approximate
+        final Random random = new Random(42L);
+        final double[][] docs = new double[DOCS][DIMS];
+        for (double[] doc : docs) {
+            for (int d = 0; d < DIMS; d++) {
+                doc[d] = random.nextGaussian();
+            }
+        }
+        try (Directory dir = newDirectory()) {
+            try (IndexWriter writer = new IndexWriter(dir,newIndexWriterConfig())) {
+                for (double[] vector : docs) {
+                    final Document doc = new Document();
+                    doc.add(new BinaryFieldMapper.CustomBinaryDocValuesField("vector",VectorEncoding.DOUBLE.encodeWithNorm(vector)));
+                    writer.addDocument(doc);
+                }
+                writer.forceMerge(1);
+            }
+            try (DirectoryReader reader = DirectoryReader.open(dir)) {
+                final DocVectorValues docVector = DocVectorValues.of(getOnlyLeafReader(reader),"vector",VectorEncoding.DOUBLE,true);
+                final SegmentVectors vectors = SegmentVectors.load(docVector,DIMS,similarity);
+                assertEquals(DOCS,vectors.size());
+                final HnswGraph graph = HnswGraph.build(vectors,similarity,16,100,42L);
+
+                final int k = 10;
+                int found = 0;
+                int total = 0;
+                for (int q = 0; q < 20; q++) {
+                    final float[] query = new float[DIMS];
+                    for (int d = 0; d < DIMS; d++) {
+                        query[d] = (float) random.nextGaussian();
+                    }
+                    similarity.prepare(query,0,DIMS);
+
+                    final float[] distances = new float[vectors.size()];
+                    for (int node = 0; node < vectors.size(); node++) {
+                        final boolean accepted = acceptDocs == null || acceptDocs.get(vectors.doc(node));
+                        distances[node] = accepted ? similarity.distance(query,0,vectors.vectors(),vectors.offset(node),DIMS)
+                                : Float.POSITIVE_INFINITY;
+                    }
+                    final float[] sorted = distances.clone();
+                    Arrays.sort(sorted);
+                    final float kth = sorted[k - 1];
+
+                    final NeighborQueue results = graph.search(query,k,50,acceptDocs);
+                    assertEquals(k,results.size());
+                    float previous = Float.POSITIVE_INFINITY;
+                    while (results.size() > 0) {
+                        final float distance = results.topDistance();
+                        final int node = results.pop();
+                        // furthest first
+                        assertTrue(distance <= previous);
+                        previous = distance;
+                        if (acceptDocs != null) {
+                            assertTrue(acceptDocs.get(vectors.doc(node)));
+                        }
+                        assertEquals(distances[node],distance,1e-5);
+                        if (distance <= kth) {
+                            found++;
+                        }
+                    }
+                    total += k;
+                }
+                final double recall = (double) found / total;
+                assertTrue(similarity + " recall " + recall,recall >= 0.9);
+            }
+        }
+    }
+}
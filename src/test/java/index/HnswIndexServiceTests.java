@@ -0,0 +1,98 @@
+package index;
+
+import mapper.VectorEncoding;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.store.Directory;
+import org.elasticsearch.common.breaker.CircuitBreaker;
+import org.elasticsearch.common.settings.ClusterSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.index.mapper.BinaryFieldMapper;
+import org.elasticsearch.indices.breaker.HierarchyCircuitBreakerService;
+import org.elasticsearch.test.ESTestCase;
+import script.VectorReader;
+
+import java.io.IOException;
+
+public class HnswIndexServiceTests extends ESTestCase {
+    private static final int DIMS = 16;
+    private static final int DOCS = 500;
+
+    public void testGraphIsBuiltAndCached() throws IOException {
+        final HierarchyCircuitBreakerService breakers = breakers("100mb");
+        final HnswIndexService service = new HnswIndexService(new ByteSizeValue(100,ByteSizeUnit.MB),16,100);
+        service.setBreakerService(breakers);
+        withSegment(context -> {
+            final HnswGraph graph = service.graph(context,vectors(),VectorSimilarity.L2,DIMS);
+            assertNotNull(graph);
+            assertSame(graph,service.graph(context,vectors(),VectorSimilarity.L2,DIMS));
+            assertEquals(1,service.cache().builds());
+            assertEquals(0,service.skippedBuilds());
+            // released once the graph is cached
+            assertEquals(0,breakers.getBreaker(CircuitBreaker.REQUEST).getUsed());
+            final long estimate = HnswGraph.estimateRamBytesUsed(DOCS,DIMS,16);
+            assertTrue(graph.ramBytesUsed() + " estimated as " + estimate,
+                    graph.ramBytesUsed() > estimate * 0.8 && graph.ramBytesUsed() < estimate * 1.2);
+        });
+    }
+
+    public void testGraphLargerThanTheCacheIsNotBuilt() throws IOException {
+        final HnswIndexService service = new HnswIndexService(new ByteSizeValue(
+                HnswGraph.estimateRamBytesUsed(DOCS,DIMS,16) / 2),16,100);
+        withSegment(context -> {
+            assertNull(service.graph(context,vectors(),VectorSimilarity.L2,DIMS));
+            assertEquals(0,service.cache().builds());
+            assertEquals(1,service.skippedBuilds());
+        });
+    }
+
+    public void testGraphTrippingTheBreakerIsNotBuilt() throws IOException {
+        final HierarchyCircuitBreakerService breakers = breakers("1kb");
+        final HnswIndexService service = new HnswIndexService(new ByteSizeValue(100,ByteSizeUnit.MB),16,100);
+        service.setBreakerService(breakers);
+        withSegment(context -> {
+            assertNull(service.graph(context,vectors(),VectorSimilarity.L2,DIMS));
+            assertEquals(0,service.cache().count());
+            assertEquals(1,service.skippedBuilds());
+            assertEquals(0,breakers.getBreaker(CircuitBreaker.REQUEST).getUsed());
+        });
+    }
+
+    private static HierarchyCircuitBreakerService breakers(String requestLimit) {
+        return new HierarchyCircuitBreakerService(Settings.builder()
+                .put(HierarchyCircuitBreakerService.REQUEST_CIRCUIT_BREAKER_LIMIT_SETTING.getKey(),requestLimit).build(),
+                new ClusterSettings(Settings.EMPTY,ClusterSettings.BUILT_IN_CLUSTER_SETTINGS));
+    }
+
+    private interface SegmentCheck {
+        void check(LeafReaderContext context) throws IOException;
+    }
+
+    private static void withSegment(SegmentCheck check) throws IOException {
+        try (Directory dir = newDirectory()) {
+            try (IndexWriter writer = new IndexWriter(dir,newIndexWriterConfig())) {
+                for (int i = 0; i < DOCS; i++) {
+                    final double[] vector = new double[DIMS];
+                    for (int d = 0; d < DIMS; d++) {
+                        vector[d] = random().nextGaussian();
+                    }
+                    final Document doc = new Document();
+                    doc.add(new BinaryFieldMapper.CustomBinaryDocValuesField("vector",VectorEncoding.DOUBLE.encodeWithNorm(vector)));
+                    writer.addDocument(doc);
+                }
+                writer.forceMerge(1);
+            }
+            try (DirectoryReader reader = DirectoryReader.open(dir)) {
+                check.check(reader.leaves().get(0));
+            }
+        }
+    }
+
+    private static VectorReader vectors() {
+        return new VectorReader("vector",VectorEncoding.DOUBLE,false);
+    }
+}
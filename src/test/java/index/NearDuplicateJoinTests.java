@@ -0,0 +1,230 @@
+package index;
+
+import mapper.VectorEncoding;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.store.Directory;
+import org.elasticsearch.index.mapper.BinaryFieldMapper;
+import org.elasticsearch.tasks.TaskCancelledException;
+import org.elasticsearch.test.ESTestCase;
+import script.VectorReader;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+public class NearDuplicateJoinTests extends ESTestCase {
+    private static final int DIMS = 16;
+    private static final double THRESHOLD = 0.95;
+
+    public void testFindsThePlantedDuplicates() throws IOException {
+        final List<double[]> vectors = randomVectorsWithDuplicates(1500);
+        try (Directory dir = newDirectory()) {
+            index(dir,vectors);
+            try (DirectoryReader reader = DirectoryReader.open(dir)) {
+                final Set<Long> expected = bruteForce(vectors);
+                assertFalse(expected.isEmpty());
+                // in memory, then spilled to partitions
+                for (long memoryLimit : new long[]{64L << 20,4096L}) {
+                    final Path tmpDir = createTempDir();
+                    final NearDuplicateJoin.Progress progress = new NearDuplicateJoin.Progress();
+                    final List<NearDuplicateJoin.Pair> pairs = join(memoryLimit,tmpDir,progress,() -> {
+                    }).run(reader);
+                    assertEquals("done",progress.phase);
+                    assertEquals(vectors.size(),progress.hashedDocs);
+                    if (memoryLimit < 1 << 20) {
+                        assertTrue(progress.partitions > 1);
+                        assertTrue(progress.spilledBytes > 0);
+                    } else {
+                        assertEquals(1,progress.partitions);
+                    }
+                    final Set<Long> found = new HashSet<>();
+                    float previous = Float.POSITIVE_INFINITY;
+                    for (NearDuplicateJoin.Pair pair : pairs) {
+                        assertTrue(pair.docA() < pair.docB());
+                        assertTrue("pair found twice",found.add(key(pair.docA(),pair.docB())));
+                        assertTrue(pair.score() <= previous);
+                        assertTrue(pair.score() >= THRESHOLD);
+                        previous = pair.score();
+                    }
+                    // the planted duplicates are close enough to always share a bucket
+                    assertTrue(expected.containsAll(found));
+                    assertTrue(found.size() >= expected.size() * 0.9);
+                    // the test file system may add extra files of its own
+                    try (DirectoryStream<Path> files = Files.newDirectoryStream(tmpDir,"*.spill")) {
+                        assertFalse("spill files left",files.iterator().hasNext());
+                    }
+                }
+            }
+        }
+    }
+
+    public void testCancellation() throws IOException {
+        final List<double[]> vectors = randomVectorsWithDuplicates(10000);
+        try (Directory dir = newDirectory()) {
+            index(dir,vectors);
+            try (DirectoryReader reader = DirectoryReader.open(dir)) {
+                final Path tmpDir = createTempDir();
+                final NearDuplicateJoin join = join(4096L,tmpDir,new NearDuplicateJoin.Progress(),() -> {
+                    throw new TaskCancelledException("cancelled");
+                });
+                expectThrows(TaskCancelledException.class,() -> join.run(reader));
+                // the test file system may add extra files of its own
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(tmpDir,"*.spill")) {
+                    assertFalse("spill files left",files.iterator().hasNext());
+                }
+            }
+        }
+    }
+
+    public void testPairOfAnOversizedBucketIsComparedInALaterTable() throws IOException {
+        final int dims = 8;
+        final long seed = 42L;
+        // the hyperplanes of the two tables of one bit, drawn like the join does
+        final Random random = new Random(seed);
+        final double[][] hyperplanes = new double[2][dims];
+        for (double[] hyperplane : hyperplanes) {
+            for (int d = 0; d < dims; d++) {
+                hyperplane[d] = random.nextGaussian();
+            }
+        }
+        // a pair on the positive side of both hyperplanes, ten other vectors only on the positive side of the
+        // first one: table 0 has a single bucket of twelve, table 1 a bucket of the pair and one of ten
+        final Random vectors = new Random(seed);
+        final double[] a = randomVector(vectors,dims,hyperplanes,true,true);
+        final double[] b = a.clone();
+        b[0] += 0.01;
+        final List<double[]> docs = new ArrayList<>();
+        docs.add(a);
+        while (docs.size() < 11) {
+            final double[] other = randomVector(vectors,dims,hyperplanes,true,false);
+            if (cosine(a,other) < THRESHOLD) {
+                docs.add(other);
+            }
+        }
+        docs.add(b);
+        assertTrue(dot(b,hyperplanes[0]) >= 0 && dot(b,hyperplanes[1]) >= 0);
+        try (Directory dir = newDirectory()) {
+            index(dir,docs);
+            try (DirectoryReader reader = DirectoryReader.open(dir)) {
+                final NearDuplicateJoin.Progress progress = new NearDuplicateJoin.Progress();
+                final List<NearDuplicateJoin.Pair> pairs = new NearDuplicateJoin(vectors(),"cosine",2,1,THRESHOLD,10,5,
+                        1L << 20,seed,createTempDir(),progress,() -> {
+                }).run(reader);
+                assertEquals(3,progress.buckets);
+                assertEquals(2,progress.skippedBuckets);
+                assertEquals(1,pairs.size());
+                assertEquals(0,pairs.get(0).docA());
+                assertEquals(11,pairs.get(0).docB());
+            }
+        }
+    }
+
+    public void testInvalidParameters() {
+        expectThrows(IllegalArgumentException.class,() -> new NearDuplicateJoin(vectors(),"dot",8,12,THRESHOLD,10,100,
+                1L << 20,0L,createTempDir(),new NearDuplicateJoin.Progress(),() -> {
+        }));
+        expectThrows(IllegalArgumentException.class,() -> new NearDuplicateJoin(vectors(),"cosine",8,NearDuplicateJoin.MAX_BITS + 1,
+                THRESHOLD,10,100,1L << 20,0L,createTempDir(),new NearDuplicateJoin.Progress(),() -> {
+        }));
+    }
+
+    private static NearDuplicateJoin join(long memoryLimit,Path tmpDir,NearDuplicateJoin.Progress progress,
+                                          Runnable ensureNotCancelled) {
+        return new NearDuplicateJoin(vectors(),"cosine",8,12,THRESHOLD,100000,1000,memoryLimit,0L,tmpDir,progress,
+                ensureNotCancelled);
+    }
+
+    private static double[] randomVector(Random random,int dims,double[][] hyperplanes,boolean first,boolean second) {
+        while (true) {
+            final double[] vector = new double[dims];
+            for (int d = 0; d < dims; d++) {
+                vector[d] = random.nextGaussian();
+            }
+            if (dot(vector,hyperplanes[0]) >= 0 == first && dot(vector,hyperplanes[1]) >= 0 == second) {
+                return vector;
+            }
+        }
+    }
+
+    private static double dot(double[] a,double[] b) {
+        double dot = 0d;
+        for (int d = 0; d < a.length; d++) {
+            dot += a[d] * b[d];
+        }
+        return dot;
+    }
+
+    static VectorReader vectors() {
+        return new VectorReader("vector",VectorEncoding.DOUBLE,false);
+    }
+
+    // random vectors, one in ten a small perturbation of an earlier one
+    private static List<double[]> randomVectorsWithDuplicates(int count) {
+        final List<double[]> vectors = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            final double[] vector = new double[DIMS];
+            if (i % 10 == 9) {
+                final double[] original = vectors.get(randomIntBetween(0,vectors.size() - 1));
+                for (int d = 0; d < DIMS; d++) {
+                    vector[d] = original[d] + random().nextGaussian() * 0.02;
+                }
+            } else {
+                for (int d = 0; d < DIMS; d++) {
+                    vector[d] = random().nextGaussian();
+                }
+            }
+            vectors.add(vector);
+        }
+        return vectors;
+    }
+
+    static void index(Directory dir,List<double[]> vectors) throws IOException {
+        try (IndexWriter writer = new IndexWriter(dir,newIndexWriterConfig().setMergePolicy(NoMergePolicy.INSTANCE))) {
+            for (int i = 0; i < vectors.size(); i++) {
+                final Document doc = new Document();
+                doc.add(new BinaryFieldMapper.CustomBinaryDocValuesField("vector",VectorEncoding.DOUBLE.encodeWithNorm(vectors.get(i))));
+                writer.addDocument(doc);
+                if (i % 500 == 499) {
+                    writer.commit();
+                }
+            }
+        }
+    }
+
+    private static Set<Long> bruteForce(List<double[]> vectors) {
+        final Set<Long> pairs = new HashSet<>();
+        for (int i = 0; i < vectors.size(); i++) {
+            for (int j = i + 1; j < vectors.size(); j++) {
+                if (cosine(vectors.get(i),vectors.get(j)) >= THRESHOLD) {
+                    pairs.add(key(i,j));
+                }
+            }
+        }
+        return pairs;
+    }
+
+    static double cosine(double[] a,double[] b) {
+        double dot = 0d;
+        double normA = 0d;
+        double normB = 0d;
+        for (int d = 0; d < a.length; d++) {
+            dot += a[d] * b[d];
+            normA += a[d] * a[d];
+            normB += b[d] * b[d];
+        }
+        return dot / Math.sqrt(normA * normB);
+    }
+
+    static long key(int docA,int docB) {
+        return ((long) docA << 32) | docB;
+    }
+}
@@ -0,0 +1,117 @@
+package index;
+
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+import org.elasticsearch.test.ESTestCase;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class ProductQuantizerTests extends ESTestCase {
+
+    public void testTablesMatchTheCentroids() {
+        final int m = 4;
+        final int subDims = 3;
+        final float[] centroids = randomCentroids(m * subDims);
+        final ProductQuantizer pq = new ProductQuantizer("pq",m * subDims,m,centroids);
+        final double[] query = randomVector(m * subDims);
+        final float[] dots = pq.dotTable(query);
+        final float[] distances = pq.squaredDistanceTable(query);
+        assertEquals(m * ProductQuantizer.CENTROIDS,dots.length);
+        assertEquals(m * ProductQuantizer.CENTROIDS,distances.length);
+        for (int s = 0; s < m; s++) {
+            for (int c = 0; c < ProductQuantizer.CENTROIDS; c++) {
+                double dot = 0d;
+                double distance = 0d;
+                for (int d = 0; d < subDims; d++) {
+                    final double centroid = centroids[(s * ProductQuantizer.CENTROIDS + c) * subDims + d];
+                    dot += query[s * subDims + d] * centroid;
+                    distance += (query[s * subDims + d] - centroid) * (query[s * subDims + d] - centroid);
+                }
+                assertEquals(dot,dots[s * ProductQuantizer.CENTROIDS + c],1e-5);
+                assertEquals(distance,distances[s * ProductQuantizer.CENTROIDS + c],1e-5);
+            }
+        }
+    }
+
+    public void testEncodeChoosesTheClosestCentroids() {
+        final int m = 2;
+        final int subDims = 4;
+        final ProductQuantizer pq = new ProductQuantizer("pq",m * subDims,m,randomCentroids(m * subDims));
+        for (int i = 0; i < 20; i++) {
+            final double[] vector = randomVector(m * subDims);
+            final ByteBuffer encoded = ByteBuffer.wrap(pq.encodeWithNorm(vector));
+            assertEquals(m + 4,encoded.remaining());
+            // the distance table of the vector itself is minimal at its codes
+            final float[] distances = pq.squaredDistanceTable(vector);
+            for (int s = 0; s < m; s++) {
+                final int code = encoded.get() & 0xFF;
+                for (int c = 0; c < ProductQuantizer.CENTROIDS; c++) {
+                    assertTrue(distances[s * ProductQuantizer.CENTROIDS + code] <= distances[s * ProductQuantizer.CENTROIDS + c]);
+                }
+            }
+            double norm = 0d;
+            for (double v : vector) {
+                norm += v * v;
+            }
+            assertEquals(Math.sqrt(norm),encoded.getFloat(),1e-5);
+        }
+        expectThrows(IllegalArgumentException.class,() -> pq.encodeWithNorm(new double[m * subDims + 1]));
+    }
+
+    public void testXContentRoundTrip() throws IOException {
+        final ProductQuantizer pq = new ProductQuantizer("pq",6,3,randomCentroids(6));
+        final XContentBuilder builder = JsonXContent.contentBuilder();
+        pq.toXContent(builder,ToXContent.EMPTY_PARAMS);
+        final ProductQuantizer read = ProductQuantizer.fromMap("pq",
+                XContentHelper.convertToMap(BytesReference.bytes(builder),false,XContentType.JSON).v2());
+        assertEquals(6,read.dims());
+        assertEquals(3,read.m());
+        final double[] query = randomVector(6);
+        assertArrayEquals(pq.dotTable(query),read.dotTable(query),0f);
+    }
+
+    public void testTrainIsDeterministic() {
+        final List<double[]> sample = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            sample.add(randomVector(8));
+        }
+        final ProductQuantizer a = ProductQuantizer.train("pq",sample,2,3,42L);
+        final ProductQuantizer b = ProductQuantizer.train("pq",sample,2,3,42L);
+        assertEquals(8,a.dims());
+        assertEquals(2,a.m());
+        for (double[] vector : sample.subList(0,20)) {
+            assertArrayEquals(a.encodeWithNorm(vector),b.encodeWithNorm(vector));
+        }
+        expectThrows(IllegalArgumentException.class,() -> ProductQuantizer.train("pq",sample.subList(0,100),2,3,42L));
+        expectThrows(IllegalArgumentException.class,() -> ProductQuantizer.train("pq",sample,3,3,42L));
+    }
+
+    public void testInvalidCodebooks() {
+        expectThrows(IllegalArgumentException.class,() -> new ProductQuantizer("pq",6,4,randomCentroids(6)));
+        expectThrows(IllegalArgumentException.class,() -> new ProductQuantizer("pq",6,3,Arrays.copyOf(randomCentroids(6),10)));
+    }
+
+    private static float[] randomCentroids(int dims) {
+        final float[] centroids = new float[dims * ProductQuantizer.CENTROIDS];
+        for (int i = 0; i < centroids.length; i++) {
+            centroids[i] = (float) randomDoubleBetween(-1,1,true);
+        }
+        return centroids;
+    }
+
+    private static double[] randomVector(int dims) {
+        final double[] vector = new double[dims];
+        for (int d = 0; d < dims; d++) {
+            vector[d] = randomDoubleBetween(-1,1,true);
+        }
+        return vector;
+    }
+}
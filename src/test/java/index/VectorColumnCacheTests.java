@@ -0,0 +1,107 @@
+package index;
+
+import mapper.VectorEncoding;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.store.Directory;
+import org.elasticsearch.common.breaker.CircuitBreaker;
+import org.elasticsearch.common.settings.ClusterSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.index.mapper.BinaryFieldMapper;
+import org.elasticsearch.indices.breaker.HierarchyCircuitBreakerService;
+import org.elasticsearch.test.ESTestCase;
+import script.VectorReader;
+
+import java.io.IOException;
+
+public class VectorColumnCacheTests extends ESTestCase {
+    private static final int DIMS = 16;
+    private static final int DOCS = 200;
+
+    public void testColumnIsChargedUntilCleared() throws IOException {
+        final HierarchyCircuitBreakerService breakers = breakers("100mb");
+        final VectorColumnCache cache = new VectorColumnCache(new ByteSizeValue(10,ByteSizeUnit.MB),
+                new ByteSizeValue(10,ByteSizeUnit.MB));
+        cache.setBreakerService(breakers);
+        final CircuitBreaker breaker = breakers.getBreaker(CircuitBreaker.FIELDDATA);
+        withSegment(context -> {
+            final VectorColumn column = cache.column(context,vectors(),DIMS);
+            assertNotNull(column);
+            assertSame(column,cache.column(context,vectors(),DIMS));
+            assertEquals(column.ramBytesUsed(),breaker.getUsed());
+
+            cache.cache().clear();
+            assertEquals(0,breaker.getUsed());
+        });
+    }
+
+    public void testColumnIsReleasedWhenItsSegmentCloses() throws IOException {
+        final HierarchyCircuitBreakerService breakers = breakers("100mb");
+        final VectorColumnCache cache = new VectorColumnCache(new ByteSizeValue(10,ByteSizeUnit.MB),
+                new ByteSizeValue(10,ByteSizeUnit.MB));
+        cache.setBreakerService(breakers);
+        withSegment(context -> assertNotNull(cache.column(context,vectors(),DIMS)));
+        assertEquals(0,cache.cache().count());
+        assertEquals(0,breakers.getBreaker(CircuitBreaker.FIELDDATA).getUsed());
+    }
+
+    public void testColumnTrippingTheBreakerIsNotLoaded() throws IOException {
+        final HierarchyCircuitBreakerService breakers = breakers("1kb");
+        final VectorColumnCache cache = new VectorColumnCache(new ByteSizeValue(10,ByteSizeUnit.MB),
+                new ByteSizeValue(10,ByteSizeUnit.MB));
+        cache.setBreakerService(breakers);
+        withSegment(context -> {
+            assertNull(cache.column(context,vectors(),DIMS));
+            assertEquals(0,cache.cache().count());
+            assertEquals(1,cache.breakerSkips());
+            assertEquals(0,breakers.getBreaker(CircuitBreaker.FIELDDATA).getUsed());
+        });
+    }
+
+    public void testColumnLargerThanABufferIsRefused() {
+        final int maxDoc = Integer.MAX_VALUE / 4;
+        assertTrue(VectorColumn.fits(maxDoc,1));
+        assertFalse(VectorColumn.fits(maxDoc,2));
+        // maxDoc * dims * 4 would wrap around as an int
+        final int dims = randomIntBetween(2,1024);
+        expectThrows(IllegalArgumentException.class,() -> VectorColumn.load(null,maxDoc,dims));
+    }
+
+    private static HierarchyCircuitBreakerService breakers(String fielddataLimit) {
+        return new HierarchyCircuitBreakerService(Settings.builder()
+                .put(HierarchyCircuitBreakerService.FIELDDATA_CIRCUIT_BREAKER_LIMIT_SETTING.getKey(),fielddataLimit).build(),
+                new ClusterSettings(Settings.EMPTY,ClusterSettings.BUILT_IN_CLUSTER_SETTINGS));
+    }
+
+    private interface SegmentCheck {
+        void check(LeafReaderContext context) throws IOException;
+    }
+
+    private static void withSegment(SegmentCheck check) throws IOException {
+        try (Directory dir = newDirectory()) {
+            try (IndexWriter writer = new IndexWriter(dir,newIndexWriterConfig())) {
+                for (int i = 0; i < DOCS; i++) {
+                    final double[] vector = new double[DIMS];
+                    for (int d = 0; d < DIMS; d++) {
+                        vector[d] = random().nextGaussian();
+                    }
+                    final Document doc = new Document();
+                    doc.add(new BinaryFieldMapper.CustomBinaryDocValuesField("vector",VectorEncoding.FLOAT.encodeWithNorm(vector)));
+                    writer.addDocument(doc);
+                }
+                writer.forceMerge(1);
+            }
+            try (DirectoryReader reader = DirectoryReader.open(dir)) {
+                check.check(reader.leaves().get(0));
+            }
+        }
+    }
+
+    private static VectorReader vectors() {
+        return new VectorReader("vector",VectorEncoding.FLOAT,true);
+    }
+}
@@ -0,0 +1,93 @@
+package ingest;
+
+import index.CodebookService;
+import index.ProductQuantizer;
+import org.elasticsearch.ElasticsearchParseException;
+import org.elasticsearch.ResourceNotFoundException;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+import org.elasticsearch.ingest.IngestDocument;
+import org.elasticsearch.test.ESTestCase;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class VectorEncodeProcessorTests extends ESTestCase {
+
+    public void testCodebookIsLoadedWhenDocumentsAreEncoded() throws IOException {
+        final Path config = createTempDir();
+        final CodebookService codebooks = new CodebookService(config);
+        // the pipeline can be created before the codebook is copied to the node
+        final VectorEncodeProcessor processor = new VectorEncodeProcessor.Factory(codebooks)
+                .create(null,"tag",config("images"));
+        expectThrows(ResourceNotFoundException.class,() -> processor.execute(document(4)));
+
+        final ProductQuantizer pq = new ProductQuantizer("images",4,2,randomCentroids(4));
+        write(codebooks,pq);
+        final IngestDocument document = document(4);
+        processor.execute(document);
+        final byte[] encoded = Base64.getDecoder().decode(document.getFieldValue("feature_bin",String.class));
+        assertEquals(pq.m() + 4,encoded.length);
+
+        expectThrows(IllegalArgumentException.class,() -> processor.execute(document(6)));
+    }
+
+    public void testCodebookDimensionsAreCheckedWhenDocumentsAreEncoded() throws IOException {
+        final CodebookService codebooks = new CodebookService(createTempDir());
+        write(codebooks,new ProductQuantizer("images",6,3,randomCentroids(6)));
+        final Map<String, Object> config = config("images");
+        config.put("dims",4);
+        final VectorEncodeProcessor processor = new VectorEncodeProcessor.Factory(codebooks).create(null,"tag",config);
+        final IllegalArgumentException e = expectThrows(IllegalArgumentException.class,() -> processor.execute(document(4)));
+        assertEquals("codebook [images] has [6] dimensions, expected [4]",e.getMessage());
+    }
+
+    public void testInvalidCodebookNameIsRejected() {
+        final CodebookService codebooks = new CodebookService(createTempDir());
+        expectThrows(ElasticsearchParseException.class,
+                () -> new VectorEncodeProcessor.Factory(codebooks).create(null,"tag",config("../images")));
+    }
+
+    private static Map<String, Object> config(String codebook) {
+        final Map<String, Object> config = new HashMap<>();
+        config.put("field","feature");
+        config.put("target_field","feature_bin");
+        config.put("encoding","pq");
+        config.put("codebook",codebook);
+        return config;
+    }
+
+    private static IngestDocument document(int dims) {
+        final List<Double> vector = new ArrayList<>();
+        for (int d = 0; d < dims; d++) {
+            vector.add(randomDoubleBetween(-1,1,true));
+        }
+        final Map<String, Object> source = new HashMap<>();
+        source.put("feature",vector);
+        return new IngestDocument(source,new HashMap<>());
+    }
+
+    private static void write(CodebookService codebooks,ProductQuantizer pq) throws IOException {
+        final XContentBuilder builder = JsonXContent.contentBuilder();
+        pq.toXContent(builder,ToXContent.EMPTY_PARAMS);
+        Files.createDirectories(codebooks.directory());
+        Files.write(codebooks.directory().resolve(pq.name() + ".json"),Strings.toString(builder).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static float[] randomCentroids(int dims) {
+        final float[] centroids = new float[dims * ProductQuantizer.CENTROIDS];
+        for (int i = 0; i < centroids.length; i++) {
+            centroids[i] = (float) randomDoubleBetween(-1,1,true);
+        }
+        return centroids;
+    }
+}
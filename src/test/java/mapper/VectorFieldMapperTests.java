@@ -0,0 +1,133 @@
+package mapper;
+
+import Util.MyUtils;
+import index.CodebookService;
+import index.ProductQuantizer;
+import org.elasticsearch.ResourceNotFoundException;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.compress.CompressedXContent;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.MapperTestUtils;
+import org.elasticsearch.index.mapper.DocumentMapper;
+import org.elasticsearch.index.mapper.Mapper;
+import org.elasticsearch.index.mapper.MapperParsingException;
+import org.elasticsearch.index.mapper.ParsedDocument;
+import org.elasticsearch.index.mapper.SourceToParse;
+import org.elasticsearch.indices.IndicesModule;
+import org.elasticsearch.plugins.MapperPlugin;
+import org.elasticsearch.plugins.Plugin;
+import org.elasticsearch.test.ESTestCase;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Map;
+
+public class VectorFieldMapperTests extends ESTestCase {
+
+    // only the mapper of the plugin, which lives in the default package
+    private static class VectorMapperPlugin extends Plugin implements MapperPlugin {
+        private final CodebookService codebooks;
+
+        VectorMapperPlugin(CodebookService codebooks) {
+            this.codebooks = codebooks;
+        }
+
+        @Override
+        public Map<String, Mapper.TypeParser> getMappers() {
+            return Collections.singletonMap(VectorFieldMapper.CONTENT_TYPE,new VectorFieldMapper.TypeParser(codebooks));
+        }
+    }
+
+    public void testEncodedVectorsOfNormalizedFieldsMustHaveAUnitNorm() throws IOException {
+        final VectorEncoding encoding = randomFrom(VectorEncoding.DOUBLE,VectorEncoding.FLOAT,VectorEncoding.INT8);
+        final DocumentMapper mapper = mapper(encoding,true);
+        final double[] vector = randomVector();
+        MyUtils.normalize(vector);
+        final ParsedDocument doc = mapper.parse(source(encoding.encodeWithNorm(vector)));
+        assertNotNull(doc.rootDoc().getField("feature"));
+
+        for (int d = 0; d < vector.length; d++) {
+            vector[d] *= 2;
+        }
+        final MapperParsingException e = expectThrows(MapperParsingException.class,
+                () -> mapper.parse(source(encoding.encodeWithNorm(vector))));
+        assertTrue(e.getCause().getMessage(),e.getCause().getMessage().contains("expects encoded vectors of unit norm"));
+    }
+
+    public void testEncodedVectorsOfOtherFieldsKeepTheirNorm() throws IOException {
+        final DocumentMapper mapper = mapper(VectorEncoding.FLOAT,false);
+        final double[] vector = randomVector();
+        final ParsedDocument doc = mapper.parse(source(VectorEncoding.FLOAT.encodeWithNorm(vector)));
+        assertNotNull(doc.rootDoc().getField("feature"));
+    }
+
+    public void testCodebookIsLoadedWhenDocumentsAreIndexed() throws IOException {
+        final CodebookService codebooks = new CodebookService(createTempDir());
+        // the mapping is parsed on nodes which may not have the codebook yet
+        final DocumentMapper mapper = mapper(codebooks,VectorEncoding.PQ,false,"images");
+        final MapperParsingException e = expectThrows(MapperParsingException.class,() -> mapper.parse(source(randomVector())));
+        assertTrue(e.getCause() instanceof ResourceNotFoundException);
+
+        final float[] centroids = new float[4 * ProductQuantizer.CENTROIDS];
+        for (int i = 0; i < centroids.length; i++) {
+            centroids[i] = (float) randomDoubleBetween(-1,1,true);
+        }
+        final XContentBuilder codebook = XContentFactory.jsonBuilder();
+        new ProductQuantizer("images",4,2,centroids).toXContent(codebook,ToXContent.EMPTY_PARAMS);
+        Files.createDirectories(codebooks.directory());
+        Files.write(codebooks.directory().resolve("images.json"),Strings.toString(codebook).getBytes(StandardCharsets.UTF_8));
+        final ParsedDocument doc = mapper.parse(source(randomVector()));
+        assertNotNull(doc.rootDoc().getField("feature"));
+
+        expectThrows(MapperParsingException.class,() -> mapper(codebooks,VectorEncoding.PQ,false,"../images"));
+    }
+
+    private DocumentMapper mapper(VectorEncoding encoding,boolean normalize) throws IOException {
+        return mapper(new CodebookService(createTempDir()),encoding,normalize,null);
+    }
+
+    private DocumentMapper mapper(CodebookService codebooks,VectorEncoding encoding,boolean normalize,String codebook)
+            throws IOException {
+        final XContentBuilder field = XContentFactory.jsonBuilder().startObject()
+                .startObject("_doc").startObject("properties").startObject("feature")
+                .field("type",VectorFieldMapper.CONTENT_TYPE)
+                .field("dims",4)
+                .field("encoding",encoding.toString())
+                .field("normalize",normalize);
+        if (codebook != null) {
+            field.field("codebook",codebook);
+        }
+        final String mapping = Strings.toString(field.endObject().endObject().endObject().endObject());
+        final IndicesModule indicesModule = new IndicesModule(Collections.singletonList(new VectorMapperPlugin(codebooks)));
+        return MapperTestUtils.newMapperService(xContentRegistry(),createTempDir(),Settings.EMPTY,indicesModule,"test")
+                .documentMapperParser().parse("_doc",new CompressedXContent(mapping));
+    }
+
+    private static SourceToParse source(double[] vector) throws IOException {
+        return SourceToParse.source("test","_doc","1",BytesReference.bytes(XContentFactory.jsonBuilder().startObject()
+                .array("feature",vector)
+                .endObject()),XContentType.JSON);
+    }
+
+    private static SourceToParse source(byte[] encoded) throws IOException {
+        return SourceToParse.source("test","_doc","1",BytesReference.bytes(XContentFactory.jsonBuilder().startObject()
+                .field("feature",Base64.getEncoder().encodeToString(encoded))
+                .endObject()),XContentType.JSON);
+    }
+
+    private static double[] randomVector() {
+        final double[] vector = new double[4];
+        for (int d = 0; d < vector.length; d++) {
+            vector[d] = randomDoubleBetween(0.1,1,true);
+        }
+        return vector;
+    }
+}
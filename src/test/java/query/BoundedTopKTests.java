@@ -0,0 +1,102 @@
+package query;
+
+import index.VectorSimilarity;
+import mapper.VectorEncoding;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.store.Directory;
+import org.elasticsearch.index.mapper.BinaryFieldMapper;
+import org.elasticsearch.test.ESTestCase;
+import script.SimilarityScorer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class BoundedTopKTests extends ESTestCase {
+    private static final int DIMS = 32;
+
+    public void testPrunedTopKMatchesTheScripts() throws IOException {
+        final List<double[]> vectors = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            // most of the energy in the prefix and norms spread out, so both bounds prune
+            final double scale = 0.5 / Math.sqrt(DIMS) * (0.5 + randomDouble());
+            final double[] vector = new double[DIMS];
+            for (int d = 0; d < DIMS; d++) {
+                vector[d] = random().nextGaussian() * scale * (d < 8 ? 3 : 1);
+            }
+            vectors.add(vector);
+        }
+        try (Directory dir = newDirectory()) {
+            try (IndexWriter writer = new IndexWriter(dir,newIndexWriterConfig().setMergePolicy(NoMergePolicy.INSTANCE))) {
+                for (int i = 0; i < vectors.size(); i++) {
+                    final Document doc = new Document();
+                    doc.add(new BinaryFieldMapper.CustomBinaryDocValuesField("vector",VectorEncoding.DOUBLE.encodeWithNorm(vectors.get(i))));
+                    writer.addDocument(doc);
+                    if (i % 1000 == 999) {
+                        writer.commit();
+                    }
+                }
+            }
+            try (DirectoryReader reader = DirectoryReader.open(dir)) {
+                for (VectorSimilarity similarity : VectorSimilarity.values()) {
+                    final PruningStats stats = new PruningStats();
+                    for (int q = 0; q < 10; q++) {
+                        final double[] query = vectors.get(randomIntBetween(0,vectors.size() - 1)).clone();
+                        for (int d = 0; d < DIMS; d++) {
+                            query[d] += random().nextGaussian() * 0.02;
+                        }
+                        assertTopK(reader,vectors,similarity,query,10,stats);
+                    }
+                    assertTrue(similarity + " pruned nothing: " + stats,
+                            stats.skippedByNormCount() + stats.skippedByPrefixCount() > 0);
+                    assertEquals(10L * vectors.size(),
+                            stats.decodedCount() + stats.skippedByNormCount() + stats.skippedByPrefixCount());
+                }
+            }
+        }
+    }
+
+    private static void assertTopK(DirectoryReader reader,List<double[]> vectors,VectorSimilarity similarity,double[] query,
+                                   int k,PruningStats stats) throws IOException {
+        final SimilarityScorer factory = SimilarityScorer.of("test","vector",null,query,similarity);
+        final BoundedTopK.Threshold threshold = new BoundedTopK.Threshold(k);
+        final List<Float> pruned = new ArrayList<>();
+        final List<Float> expected = new ArrayList<>();
+        for (LeafReaderContext context : reader.leaves()) {
+            final LeafHits hits = new BoundedTopK(factory,query,similarity,k,8,stats,threshold).scan(context,null);
+            for (int i = 0; i < hits.size(); i++) {
+                pruned.add(hits.score(i));
+            }
+        }
+        for (double[] vector : vectors) {
+            expected.add((float) score(similarity,query,vector));
+        }
+        pruned.sort((a,b) -> Float.compare(b,a));
+        expected.sort((a,b) -> Float.compare(b,a));
+        for (int i = 0; i < k; i++) {
+            assertEquals(expected.get(i),pruned.get(i),1e-5f);
+        }
+    }
+
+    // the scores of the cosine and norm-l2 scripts
+    private static double score(VectorSimilarity similarity,double[] query,double[] vector) {
+        double dot = 0d;
+        double queryNorm = 0d;
+        double norm = 0d;
+        double distance = 0d;
+        for (int d = 0; d < query.length; d++) {
+            dot += query[d] * vector[d];
+            queryNorm += query[d] * query[d];
+            norm += vector[d] * vector[d];
+            distance += (query[d] - vector[d]) * (query[d] - vector[d]);
+        }
+        if (similarity == VectorSimilarity.COSINE) {
+            return dot / Math.sqrt(queryNorm * norm);
+        }
+        return Math.max(0d,1d - Math.sqrt(distance));
+    }
+}
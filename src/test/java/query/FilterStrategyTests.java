@@ -0,0 +1,39 @@
+package query;
+
+import org.elasticsearch.test.ESTestCase;
+
+public class FilterStrategyTests extends ESTestCase {
+
+    public void testAutoScansWhileMatchesSquaredAreUnderEfTimesMaxDoc() {
+        // 100 * 10000 = 1000^2
+        assertTrue(FilterStrategy.AUTO.exact(999,10000,100));
+        assertFalse(FilterStrategy.AUTO.exact(1000,10000,100));
+        assertFalse(FilterStrategy.AUTO.exact(10000,10000,100));
+        assertTrue(FilterStrategy.AUTO.exact(0,10000,100));
+        for (int iter = 0; iter < 100; iter++) {
+            final int maxDoc = randomIntBetween(1,Integer.MAX_VALUE);
+            final int ef = randomIntBetween(1,10000);
+            final long matches = randomLongBetween(0,maxDoc);
+            assertEquals(matches * matches < (long) ef * maxDoc,FilterStrategy.AUTO.exact(matches,maxDoc,ef));
+        }
+    }
+
+    public void testAutoDoesNotOverflowOnLargeSegments() {
+        // ef * maxDoc overflows an int
+        assertTrue(FilterStrategy.AUTO.exact(100000,Integer.MAX_VALUE,512));
+        assertFalse(FilterStrategy.AUTO.exact(Integer.MAX_VALUE,Integer.MAX_VALUE,512));
+    }
+
+    public void testExactAndApproximateIgnoreTheFilter() {
+        final long matches = randomLongBetween(0,1000);
+        assertTrue(FilterStrategy.EXACT.exact(matches,1000,randomIntBetween(1,500)));
+        assertFalse(FilterStrategy.APPROXIMATE.exact(matches,1000,randomIntBetween(1,500)));
+    }
+
+    public void testFromString() {
+        for (FilterStrategy strategy : FilterStrategy.values()) {
+            assertSame(strategy,FilterStrategy.fromString(strategy.toString()));
+        }
+        expectThrows(IllegalArgumentException.class,() -> FilterStrategy.fromString("graph"));
+    }
+}
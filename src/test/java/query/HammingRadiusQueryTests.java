@@ -0,0 +1,103 @@
+package query;
+
+import mapper.VectorEncoding;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.elasticsearch.index.mapper.BinaryFieldMapper;
+import org.elasticsearch.test.ESTestCase;
+import script.VectorReader;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class HammingRadiusQueryTests extends ESTestCase {
+    private static final int BYTES = 8;
+    private static final VectorReader HASHES = new VectorReader("hash",VectorEncoding.DOUBLE,false);
+
+    public void testMatchesTheHashesWithinTheRadius() throws IOException {
+        final double[] query = randomHash();
+        final int radius = randomIntBetween(0,16);
+        final HammingRadiusQuery hammingQuery = new HammingRadiusQuery(HASHES,query,radius,new MatchAllDocsQuery());
+        // the same query runs on readers it was not created for
+        for (int r = 0; r < 2; r++) {
+            final List<double[]> hashes = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                hashes.add(flip(query,randomIntBetween(0,32)));
+            }
+            try (Directory dir = newDirectory()) {
+                try (IndexWriter writer = new IndexWriter(dir,newIndexWriterConfig())) {
+                    for (double[] hash : hashes) {
+                        final Document doc = new Document();
+                        doc.add(new BinaryFieldMapper.CustomBinaryDocValuesField("hash",VectorEncoding.DOUBLE.encodeWithNorm(hash)));
+                        writer.addDocument(doc);
+                    }
+                }
+                try (DirectoryReader reader = DirectoryReader.open(dir)) {
+                    final IndexSearcher searcher = newSearcher(reader);
+                    final TopDocs topDocs = searcher.search(hammingQuery,hashes.size());
+                    int expected = 0;
+                    for (double[] hash : hashes) {
+                        if (distance(query,hash) <= radius) {
+                            expected++;
+                        }
+                    }
+                    assertEquals(expected,topDocs.totalHits);
+                    for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
+                        final int distance = distance(query,hashes.get(scoreDoc.doc));
+                        assertTrue(distance <= radius);
+                        assertEquals((BYTES * 8 - distance) / (float) (BYTES * 8),scoreDoc.score,1e-6f);
+                    }
+                }
+            }
+        }
+    }
+
+    public void testEquality() {
+        final double[] hash = randomHash();
+        final HammingRadiusQuery query = new HammingRadiusQuery(HASHES,hash,4,new MatchAllDocsQuery());
+        assertEquals(query,new HammingRadiusQuery(HASHES,hash.clone(),4,new MatchAllDocsQuery()));
+        assertEquals(query.hashCode(),new HammingRadiusQuery(HASHES,hash.clone(),4,new MatchAllDocsQuery()).hashCode());
+        assertNotEquals(query,new HammingRadiusQuery(new VectorReader("hash",VectorEncoding.FLOAT,true),hash,4,new MatchAllDocsQuery()));
+        assertNotEquals(query,new HammingRadiusQuery(HASHES,hash,5,new MatchAllDocsQuery()));
+    }
+
+    private static double[] randomHash() {
+        final double[] hash = new double[BYTES];
+        for (int i = 0; i < BYTES; i++) {
+            hash[i] = randomIntBetween(0,255);
+        }
+        return hash;
+    }
+
+    // the hash with up to {@code bits} random bits flipped
+    private static double[] flip(double[] hash,int bits) {
+        final int[] bytes = new int[BYTES];
+        for (int i = 0; i < BYTES; i++) {
+            bytes[i] = (int) hash[i];
+        }
+        for (int b = 0; b < bits; b++) {
+            final int bit = randomIntBetween(0,BYTES * 8 - 1);
+            bytes[bit >>> 3] ^= 1 << (bit & 7);
+        }
+        final double[] flipped = new double[BYTES];
+        for (int i = 0; i < BYTES; i++) {
+            flipped[i] = bytes[i];
+        }
+        return flipped;
+    }
+
+    private static int distance(double[] a,double[] b) {
+        int distance = 0;
+        for (int i = 0; i < BYTES; i++) {
+            distance += Integer.bitCount(((int) a[i] ^ (int) b[i]) & 0xFF);
+        }
+        return distance;
+    }
+}
@@ -0,0 +1,122 @@
+package query;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.store.Directory;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.tasks.TaskCancelledException;
+import org.elasticsearch.test.ESTestCase;
+import org.elasticsearch.threadpool.ThreadPool;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SegmentSearchExecutorTests extends ESTestCase {
+    private static final int SEGMENTS = 6;
+
+    public void testSearchesEveryLeafInOrder() throws Exception {
+        final ThreadPool pool = threadPool(3);
+        try (Directory dir = newDirectory()) {
+            index(dir);
+            try (DirectoryReader reader = DirectoryReader.open(dir)) {
+                final SegmentSearchExecutor executor = new SegmentSearchExecutor();
+                executor.setThreadPool(pool);
+                final List<Integer> maxDocs = executor.search(reader.leaves(),context -> context.reader().maxDoc());
+                assertEquals(SEGMENTS,maxDocs.size());
+                for (LeafReaderContext context : reader.leaves()) {
+                    assertEquals(context.reader().maxDoc(),(int) maxDocs.get(context.ord));
+                }
+            }
+        } finally {
+            ThreadPool.terminate(pool,10,TimeUnit.SECONDS);
+        }
+    }
+
+    public void testDoesNotWaitForQueuedHelpers() throws Exception {
+        final ThreadPool pool = threadPool(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        try (Directory dir = newDirectory()) {
+            index(dir);
+            // the only thread of the pool is busy, the helpers stay queued
+            final CountDownLatch blocked = new CountDownLatch(1);
+            pool.executor(SegmentSearchExecutor.THREAD_POOL_NAME).execute(() -> {
+                blocked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            blocked.await();
+            try (DirectoryReader reader = DirectoryReader.open(dir)) {
+                final SegmentSearchExecutor executor = new SegmentSearchExecutor();
+                executor.setThreadPool(pool);
+                final AtomicInteger searched = new AtomicInteger();
+                final List<Integer> ords = executor.search(reader.leaves(),context -> {
+                    searched.incrementAndGet();
+                    return context.ord;
+                });
+                assertEquals(SEGMENTS,searched.get());
+                for (int i = 0; i < SEGMENTS; i++) {
+                    assertEquals(i,(int) ords.get(i));
+                }
+            }
+        } finally {
+            release.countDown();
+            ThreadPool.terminate(pool,10,TimeUnit.SECONDS);
+        }
+    }
+
+    public void testStopsWhenCancelled() throws IOException {
+        try (Directory dir = newDirectory()) {
+            index(dir);
+            try (DirectoryReader reader = DirectoryReader.open(dir)) {
+                final AtomicInteger searched = new AtomicInteger();
+                final SegmentSearchExecutor.Interruption cancelled =
+                        new SegmentSearchExecutor.Interruption(() -> searched.get() >= 2,() -> false);
+                expectThrows(TaskCancelledException.class,() -> new SegmentSearchExecutor().search(reader.leaves(),
+                        context -> searched.incrementAndGet(),cancelled));
+                assertEquals(2,searched.get());
+            }
+        }
+    }
+
+    public void testLeavesLeftAfterATimeoutAreNull() throws IOException {
+        try (Directory dir = newDirectory()) {
+            index(dir);
+            try (DirectoryReader reader = DirectoryReader.open(dir)) {
+                final AtomicInteger searched = new AtomicInteger();
+                final SegmentSearchExecutor.Interruption timedOut =
+                        new SegmentSearchExecutor.Interruption(() -> false,() -> searched.get() >= 2);
+                final List<Integer> results = new SegmentSearchExecutor().search(reader.leaves(),
+                        context -> searched.incrementAndGet(),timedOut);
+                assertEquals(SEGMENTS,results.size());
+                assertEquals(SEGMENTS - 2,results.stream().filter(r -> r == null).count());
+            }
+        }
+    }
+
+    private static ThreadPool threadPool(int size) {
+        final Settings settings = Settings.builder().put("node.name","test")
+                .put("vector_distance.thread_pool.size",size).build();
+        return new ThreadPool(settings,SegmentSearchExecutor.executorBuilder(settings));
+    }
+
+    // segments of different sizes
+    private static void index(Directory dir) throws IOException {
+        try (IndexWriter writer = new IndexWriter(dir,newIndexWriterConfig().setMergePolicy(NoMergePolicy.INSTANCE))) {
+            for (int s = 0; s < SEGMENTS; s++) {
+                for (int i = 0; i <= s; i++) {
+                    writer.addDocument(new Document());
+                }
+                writer.commit();
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package query;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.Explanation;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.store.Directory;
+import org.elasticsearch.common.breaker.CircuitBreaker;
+import org.elasticsearch.common.settings.ClusterSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.indices.breaker.HierarchyCircuitBreakerService;
+import org.elasticsearch.test.ESTestCase;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TopHitsCacheTests extends ESTestCase {
+    private static final TopHitsCache.Key KEY = new TopHitsCache.Key("knn","vector",new double[]{1,2,3},"k=10",null);
+
+    public void testHitsAreCachedPerSegmentAndDeletes() throws IOException {
+        final TopHitsCache cache = new TopHitsCache(new ByteSizeValue(1,ByteSizeUnit.MB));
+        final AtomicInteger searches = new AtomicInteger();
+        try (Directory dir = newDirectory()) {
+            try (IndexWriter writer = new IndexWriter(dir,newIndexWriterConfig())) {
+                for (int i = 0; i < 10; i++) {
+                    final Document doc = new Document();
+                    doc.add(new StringField("id",Integer.toString(i),Field.Store.NO));
+                    writer.addDocument(doc);
+                }
+                writer.forceMerge(1);
+                writer.commit();
+                try (DirectoryReader reader = DirectoryReader.open(writer)) {
+                    final LeafReaderContext context = reader.leaves().get(0);
+                    final LeafHits first = cache.hits(context,KEY,null,() -> search(searches));
+                    assertSame(first,cache.hits(context,KEY,null,() -> search(searches)));
+                    assertEquals(1,searches.get());
+                }
+                writer.deleteDocuments(new Term("id","3"));
+                try (DirectoryReader reader = DirectoryReader.open(writer)) {
+                    cache.hits(reader.leaves().get(0),KEY,null,() -> search(searches));
+                    assertEquals(2,searches.get());
+                }
+            }
+        }
+    }
+
+    public void testHitsOfAnUncacheableFilterAreNotCached() throws IOException {
+        final TopHitsCache cache = new TopHitsCache(new ByteSizeValue(1,ByteSizeUnit.MB));
+        final AtomicInteger searches = new AtomicInteger();
+        withSegment(context -> {
+            final Weight uncacheable = new Weight(new MatchAllDocsQuery()) {
+                @Override
+                public void extractTerms(Set<Term> terms) {
+                }
+
+                @Override
+                public Explanation explain(LeafReaderContext context,int doc) {
+                    return Explanation.noMatch("test");
+                }
+
+                @Override
+                public Scorer scorer(LeafReaderContext context) {
+                    return null;
+                }
+
+                @Override
+                public boolean isCacheable(LeafReaderContext ctx) {
+                    return false;
+                }
+            };
+            cache.hits(context,KEY,uncacheable,() -> search(searches));
+            cache.hits(context,KEY,uncacheable,() -> search(searches));
+            assertEquals(2,searches.get());
+            assertEquals(0,cache.cache().count());
+        });
+    }
+
+    public void testHitsAreNotCachedWhenTheBreakerHasNoRoom() throws IOException {
+        final HierarchyCircuitBreakerService breakers = new HierarchyCircuitBreakerService(Settings.builder()
+                .put(HierarchyCircuitBreakerService.REQUEST_CIRCUIT_BREAKER_LIMIT_SETTING.getKey(),"10b").build(),
+                new ClusterSettings(Settings.EMPTY,ClusterSettings.BUILT_IN_CLUSTER_SETTINGS));
+        final TopHitsCache cache = new TopHitsCache(new ByteSizeValue(1,ByteSizeUnit.MB));
+        cache.setBreakerService(breakers);
+        final AtomicInteger searches = new AtomicInteger();
+        withSegment(context -> {
+            final LeafHits hits = cache.hits(context,KEY,null,() -> search(searches));
+            assertEquals(2,hits.size());
+            cache.hits(context,KEY,null,() -> search(searches));
+            assertEquals(2,searches.get());
+            assertEquals(0,cache.cache().count());
+            assertEquals(2,cache.breakerSkips());
+            assertEquals(0,breakers.getBreaker(CircuitBreaker.REQUEST).getUsed());
+        });
+    }
+
+    private static LeafHits search(AtomicInteger searches) {
+        searches.incrementAndGet();
+        return new LeafHits(new int[]{1,4},new float[]{0.9f,0.5f});
+    }
+
+    private interface SegmentCheck {
+        void check(LeafReaderContext context) throws IOException;
+    }
+
+    private static void withSegment(SegmentCheck check) throws IOException {
+        try (Directory dir = newDirectory()) {
+            try (IndexWriter writer = new IndexWriter(dir,newIndexWriterConfig())) {
+                writer.addDocument(new Document());
+            }
+            try (DirectoryReader reader = DirectoryReader.open(dir)) {
+                check.check(reader.leaves().get(0));
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package query;
+
+import index.VectorSimilarity;
+import mapper.VectorEncoding;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.elasticsearch.index.mapper.BinaryFieldMapper;
+import org.elasticsearch.test.ESTestCase;
+import script.DocVectorValues;
+import script.SimilarityScorer;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class VectorRescorerTests extends ESTestCase {
+    private static final int DIMS = 8;
+    private static final int DOCS = 100;
+
+    public void testWindowIsRescoredAndMergedWithTheOtherHits() throws IOException {
+        final double[] query = randomVector();
+        try (Directory dir = newDirectory()) {
+            try (IndexWriter writer = new IndexWriter(dir,newIndexWriterConfig().setMergePolicy(NoMergePolicy.INSTANCE))) {
+                for (int i = 0; i < DOCS; i++) {
+                    final Document doc = new Document();
+                    // a few documents have no vector and score 0
+                    if (rarely() == false) {
+                        doc.add(new BinaryFieldMapper.CustomBinaryDocValuesField("vector",
+                                VectorEncoding.DOUBLE.encodeWithNorm(randomVector())));
+                    }
+                    writer.addDocument(doc);
+                    // hits of the window fall in several segments
+                    if (i % 30 == 29) {
+                        writer.commit();
+                    }
+                }
+            }
+            try (DirectoryReader reader = DirectoryReader.open(dir)) {
+                final IndexSearcher searcher = new IndexSearcher(reader);
+                final SimilarityScorer exact = SimilarityScorer.of("test","vector",null,query,
+                        randomFrom(VectorSimilarity.COSINE,VectorSimilarity.L2));
+                final VectorRescorer.Context context = new VectorRescorer.Context(randomIntBetween(1,40),exact,
+                        randomFloat(),randomFloat() + 0.5f);
+
+                // first pass hits in decreasing score order, in no particular doc order
+                final int numHits = randomIntBetween(1,60);
+                final ScoreDoc[] hits = new ScoreDoc[numHits];
+                final Set<Integer> docs = new HashSet<>();
+                for (int i = 0; i < numHits; i++) {
+                    int doc;
+                    do {
+                        doc = randomIntBetween(0,DOCS - 1);
+                    } while (docs.add(doc) == false);
+                    hits[i] = new ScoreDoc(doc,numHits - i);
+                }
+                final TopDocs rescored = VectorRescorer.INSTANCE.rescore(new TopDocs(numHits,hits.clone(),numHits),
+                        searcher,context);
+
+                final int window = Math.min(context.getWindowSize(),numHits);
+                assertEquals(numHits,rescored.scoreDocs.length);
+                final Set<Integer> windowDocs = new HashSet<>();
+                for (int i = 0; i < window; i++) {
+                    windowDocs.add(hits[i].doc);
+                }
+                float maxScore = Float.NEGATIVE_INFINITY;
+                for (int i = 0; i < numHits; i++) {
+                    final ScoreDoc hit = rescored.scoreDocs[i];
+                    maxScore = Math.max(maxScore,hit.score);
+                    if (i < window) {
+                        assertTrue(windowDocs.remove(hit.doc));
+                        assertTrue(context.isRescored(hit.doc));
+                        final float firstPass = numHits - indexOf(hits,hit.doc);
+                        assertEquals(context.combine(firstPass,similarity(reader,exact,hit.doc)),hit.score,0f);
+                        if (i > 0) {
+                            assertTrue(rescored.scoreDocs[i - 1].score >= hit.score);
+                        }
+                    } else {
+                        // hits beyond the window keep their rank and score
+                        assertEquals(hits[i].doc,hit.doc);
+                        assertEquals(hits[i].score,hit.score,0f);
+                        assertFalse(context.isRescored(hit.doc));
+                    }
+                }
+                assertEquals(maxScore,rescored.getMaxScore(),0f);
+            }
+        }
+    }
+
+    private static double similarity(DirectoryReader reader,SimilarityScorer exact,int doc) throws IOException {
+        final List<LeafReaderContext> leaves = reader.leaves();
+        final LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(doc,leaves));
+        final DocVectorValues docVector = exact.docValues(leaf);
+        return docVector.advanceExact(doc - leaf.docBase) ? exact.newScorer().score(docVector) : 0d;
+    }
+
+    private static int indexOf(ScoreDoc[] hits,int doc) {
+        for (int i = 0; i < hits.length; i++) {
+            if (hits[i].doc == doc) {
+                return i;
+            }
+        }
+        throw new AssertionError("doc [" + doc + "] is not a hit");
+    }
+
+    private static double[] randomVector() {
+        final double[] vector = new double[DIMS];
+        for (int d = 0; d < DIMS; d++) {
+            vector[d] = randomDoubleBetween(-1,1,true);
+        }
+        return vector;
+    }
+}
@@ -0,0 +1,97 @@
+package script;
+
+import index.VectorColumn;
+import index.VectorColumnCache;
+import mapper.VectorEncoding;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.store.Directory;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.index.mapper.BinaryFieldMapper;
+import org.elasticsearch.test.ESTestCase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class DocVectorValuesTests extends ESTestCase {
+    private static final int DIMS = 16;
+
+    public void testColumnReadsTheValuesOfTheDocValues() throws IOException {
+        final List<double[]> vectors = randomVectors(30);
+        try (Directory dir = newDirectory()) {
+            index(dir,vectors,VectorEncoding.FLOAT);
+            try (DirectoryReader reader = DirectoryReader.open(dir)) {
+                final LeafReader leaf = getOnlyLeafReader(reader);
+                final VectorColumn column = VectorColumn.load(DocVectorValues.of(leaf,"vector",VectorEncoding.FLOAT,true),
+                        leaf.maxDoc(),DIMS);
+                final DocVectorValues docValues = DocVectorValues.of(leaf,"vector",VectorEncoding.FLOAT,true);
+                final DocVectorValues columnValues = DocVectorValues.of(column,VectorEncoding.FLOAT);
+                final double[] query = randomVectors(1).get(0);
+                for (int doc = 0; doc < vectors.size(); doc++) {
+                    assertTrue(docValues.advanceExact(doc));
+                    assertTrue(columnValues.advanceExact(doc));
+                    assertEquals(DIMS,columnValues.dims());
+                    // the bytes read from the column, the float values without their norm
+                    assertEquals(DIMS * Float.BYTES,columnValues.length());
+                    assertEquals(docValues.norm(),columnValues.norm(),0d);
+                    assertEquals(docValues.dot(query),columnValues.dot(query),1e-9);
+                    assertEquals(docValues.squaredDistance(query),columnValues.squaredDistance(query),1e-9);
+                }
+            }
+        }
+    }
+
+    public void testDoubleVectorsAreNotReadFromColumns() throws IOException {
+        final List<double[]> vectors = randomVectors(10);
+        try (Directory dir = newDirectory()) {
+            index(dir,vectors,VectorEncoding.DOUBLE);
+            try (DirectoryReader reader = DirectoryReader.open(dir)) {
+                final Map<String, Object> params = new HashMap<>();
+                params.put("field","vector");
+                params.put("value",Collections.nCopies(DIMS,1d));
+                final VectorLeafFactory factory = (VectorLeafFactory) new CosineScript().getScript(params,null);
+                assertEquals(VectorEncoding.DOUBLE,factory.encoding());
+                factory.columns(new VectorColumnCache(new ByteSizeValue(1,ByteSizeUnit.MB),new ByteSizeValue(1,ByteSizeUnit.MB)));
+                final DocVectorValues values = factory.docVectorValues(getOnlyLeafReader(reader).getContext());
+                for (int doc = 0; doc < vectors.size(); doc++) {
+                    assertTrue(values.advanceExact(doc));
+                    // read at full precision from the doc values, a column has no bytes
+                    assertNotNull(values.bytes());
+                    for (int d = 0; d < DIMS; d++) {
+                        assertEquals(vectors.get(doc)[d],values.doubleAt(d),0d);
+                    }
+                }
+            }
+        }
+    }
+
+    private static List<double[]> randomVectors(int count) {
+        final List<double[]> vectors = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            final double[] vector = new double[DIMS];
+            for (int d = 0; d < DIMS; d++) {
+                vector[d] = random().nextGaussian();
+            }
+            vectors.add(vector);
+        }
+        return vectors;
+    }
+
+    private static void index(Directory dir,List<double[]> vectors,VectorEncoding encoding) throws IOException {
+        try (IndexWriter writer = new IndexWriter(dir,newIndexWriterConfig())) {
+            for (double[] vector : vectors) {
+                final Document doc = new Document();
+                doc.add(new BinaryFieldMapper.CustomBinaryDocValuesField("vector",encoding.encodeWithNorm(vector)));
+                writer.addDocument(doc);
+            }
+            writer.forceMerge(1);
+        }
+    }
+}
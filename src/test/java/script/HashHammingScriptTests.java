@@ -0,0 +1,42 @@
+package script;
+
+import Util.MyUtils;
+import mapper.VectorEncoding;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.Directory;
+import org.elasticsearch.index.mapper.BinaryFieldMapper;
+import org.elasticsearch.test.ESTestCase;
+
+import java.io.IOException;
+
+public class HashHammingScriptTests extends ESTestCase {
+
+    public void testReadHashPacksLikeTheQuery() throws IOException {
+        final VectorEncoding encoding = randomFrom(VectorEncoding.DOUBLE,VectorEncoding.FLOAT);
+        final double[] hash = new double[randomIntBetween(1,24)];
+        for (int i = 0; i < hash.length; i++) {
+            hash[i] = randomIntBetween(0,255);
+        }
+        try (Directory dir = newDirectory()) {
+            try (IndexWriter writer = new IndexWriter(dir,newIndexWriterConfig())) {
+                final Document doc = new Document();
+                doc.add(new BinaryFieldMapper.CustomBinaryDocValuesField("hash",encoding.encodeWithNorm(hash)));
+                writer.addDocument(doc);
+            }
+            try (DirectoryReader reader = DirectoryReader.open(dir)) {
+                final DocVectorValues docVector = new VectorReader("hash",encoding,true)
+                        .docValues(getOnlyLeafReader(reader).getContext());
+                assertTrue(docVector.advanceExact(0));
+                final long[] expected = MyUtils.packHash(hash);
+                final long[] docHash = new long[expected.length];
+                assertTrue(HashHammingScript.readHash(docVector,hash.length,docHash));
+                assertArrayEquals(expected,docHash);
+                // a hash of another size is a mismatch, whatever its byte length
+                assertFalse(HashHammingScript.readHash(docVector,hash.length + 1,new long[expected.length + 1]));
+                assertFalse(HashHammingScript.readHash(docVector,docVector.length(),new long[(docVector.length() + 7) / 8]));
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package script;
+
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.test.ESTestCase;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+public class PreparedQueryTests extends ESTestCase {
+    private static final int DIMS = 64;
+
+    @Override
+    public void tearDown() throws Exception {
+        PreparedQuery.cacheSize(PreparedQuery.DEFAULT_CACHE_SIZE);
+        super.tearDown();
+    }
+
+    public void testCacheIsBoundedByBytes() {
+        final long bytes = new PreparedQuery(randomVector()).ramBytesUsed();
+        PreparedQuery.cacheSize(new ByteSizeValue(bytes * 10));
+        for (int i = 0; i < 100; i++) {
+            PreparedQuery.of(randomVector());
+        }
+        final Cache<Object, ?> cache = PreparedQuery.cache();
+        assertTrue(cache.weight() + " bytes cached",cache.weight() <= bytes * 10);
+        assertTrue(cache.count() + " queries cached",cache.count() > 0 && cache.count() < 10);
+    }
+
+    public void testQueryIsWeighedAgainOnceHashed() {
+        PreparedQuery.cacheSize(new ByteSizeValue(1,ByteSizeUnit.MB));
+        final PreparedQuery query = PreparedQuery.of(randomVector());
+        final long weight = PreparedQuery.cache().weight();
+        assertEquals(query.ramBytesUsed(),weight);
+
+        query.hash();
+        assertEquals(query.ramBytesUsed(),PreparedQuery.cache().weight());
+        assertTrue(PreparedQuery.cache().weight() > weight);
+        assertEquals(1,PreparedQuery.cache().count());
+    }
+
+    public void testZeroDisablesTheCache() {
+        PreparedQuery.cacheSize(new ByteSizeValue(0));
+        assertNull(PreparedQuery.cache());
+        final double[] vector = randomVector();
+        assertNotSame(PreparedQuery.of(vector),PreparedQuery.of(vector));
+    }
+
+    public void testBase64FloatsAreDecoded() {
+        final double[] vector = randomVector();
+        final ByteBuffer buffer = ByteBuffer.allocate(vector.length * Float.BYTES);
+        for (double v : vector) {
+            buffer.putFloat((float) v);
+        }
+        final String base64 = Base64.getEncoder().encodeToString(buffer.array());
+        final PreparedQuery query = PreparedQuery.of(base64);
+        assertEquals(DIMS,query.dims());
+        for (int d = 0; d < DIMS; d++) {
+            assertEquals((float) vector[d],query.vector()[d],0d);
+        }
+        // the same floats as a JSON array
+        final List<Double> list = new ArrayList<>();
+        for (double v : vector) {
+            list.add((double) (float) v);
+        }
+        assertArrayEquals(PreparedQuery.of(list).vector(),query.vector(),0d);
+    }
+
+    public void testInvalidBase64IsRejected() {
+        // not base64, and a number of bytes that isn't a whole number of floats
+        for (String value : new String[]{"not base64!",Base64.getEncoder().encodeToString(new byte[]{1,2,3}),""}) {
+            final IllegalArgumentException e = expectThrows(IllegalArgumentException.class,() -> PreparedQuery.of(value));
+            assertTrue(e.getMessage(),e.getMessage().contains("'value'"));
+        }
+    }
+
+    public void testCacheHits() {
+        PreparedQuery.cacheSize(new ByteSizeValue(1,ByteSizeUnit.MB));
+        final double[] vector = randomVector();
+        final PreparedQuery query = PreparedQuery.of(vector);
+        // equal vectors hit, whatever array they come in
+        assertSame(query,PreparedQuery.of(vector.clone()));
+        final List<Double> list = new ArrayList<>();
+        for (double v : vector) {
+            list.add(v);
+        }
+        assertSame(query,PreparedQuery.of(list));
+        assertNotSame(query,PreparedQuery.of(randomVector()));
+
+        final String base64 = Base64.getEncoder().encodeToString(new byte[DIMS * Float.BYTES]);
+        assertSame(PreparedQuery.of(base64),PreparedQuery.of(base64));
+        assertEquals(3,PreparedQuery.cache().stats().getHits());
+        assertEquals(3,PreparedQuery.cache().stats().getMisses());
+    }
+
+    private static double[] randomVector() {
+        final double[] vector = new double[DIMS];
+        for (int d = 0; d < DIMS; d++) {
+            vector[d] = randomDoubleBetween(-1,1,true);
+        }
+        return vector;
+    }
+}
@@ -0,0 +1,106 @@
+package script;
+
+import mapper.VectorFieldMapper;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.test.ESTestCase;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class ScoringStatsTests extends ESTestCase {
+
+    public void testOnlyMappedFieldsAreRegistered() {
+        final String index = randomAlphaOfLength(10).toLowerCase();
+        final ScoringStats mapped = ScoringStats.of(index,"cosine","vector",new VectorFieldMapper.VectorFieldType());
+        assertSame(mapped,ScoringStats.of(index,"cosine","vector",new VectorFieldMapper.VectorFieldType()));
+        mapped.scored(3L,96L);
+        // a field the mapping doesn't have, named by a request
+        final ScoringStats unmapped = ScoringStats.of(index,"cosine","vectr",null);
+        assertNotSame(unmapped,ScoringStats.of(index,"cosine","vectr",null));
+        unmapped.scored(1L,32L);
+
+        final List<ScoringStats.Snapshot> snapshots = snapshots(index);
+        assertEquals(1,snapshots.size());
+        assertEquals("vector",snapshots.get(0).field());
+        assertEquals(3L,snapshots.get(0).docs());
+        assertEquals(96L,snapshots.get(0).bytes());
+        ScoringStats.remove(index);
+    }
+
+    public void testStatsOfRemovedIndicesAreDropped() {
+        final String index = randomAlphaOfLength(10).toLowerCase();
+        final String other = index + "-other";
+        ScoringStats.of(index,"cosine","vector",new VectorFieldMapper.VectorFieldType()).scored(1L,32L);
+        ScoringStats.of(index,"norm-l2","vector",new VectorFieldMapper.VectorFieldType()).scored(1L,32L);
+        ScoringStats.of(other,"cosine","vector",new VectorFieldMapper.VectorFieldType()).scored(1L,32L);
+        assertEquals(2,snapshots(index).size());
+
+        ScoringStats.remove(index);
+        assertEquals(0,snapshots(index).size());
+        assertEquals(1,snapshots(other).size());
+        ScoringStats.remove(other);
+    }
+
+    public void testLeafCountsAreAddedOnceFlushed() {
+        final String index = randomAlphaOfLength(10).toLowerCase();
+        final ScoringStats stats = ScoringStats.of(index,"cosine","vector",new VectorFieldMapper.VectorFieldType());
+        final int leaves = randomIntBetween(1,5);
+        long docs = 0;
+        for (int leaf = 0; leaf < leaves; leaf++) {
+            final ScoringStats.LeafCounts counts = stats.leafCounts();
+            for (int doc = randomIntBetween(0,100); doc > 0; doc--) {
+                counts.scored(64);
+                docs++;
+            }
+            counts.missing();
+        }
+        assertEquals(0L,stats.snapshot().docs());
+
+        ScoringStats.flushPending();
+        assertEquals(docs,stats.snapshot().docs());
+        assertEquals(docs * 64,stats.snapshot().bytes());
+        assertEquals(leaves,stats.snapshot().missing());
+        // counts are only added once
+        ScoringStats.flushPending();
+        assertEquals(docs,stats.snapshot().docs());
+        ScoringStats.remove(index);
+    }
+
+    public void testSnapshotSerialization() throws IOException {
+        final String index = randomAlphaOfLength(10).toLowerCase();
+        final ScoringStats stats = ScoringStats.of(index,"norm-l2","vector",new VectorFieldMapper.VectorFieldType());
+        stats.scored(randomLongBetween(0,1000),randomLongBetween(0,100000));
+        stats.mismatches(randomLongBetween(0,10));
+        stats.error();
+        stats.leafSetup(randomLongBetween(0,1000000));
+        stats.leafScan(randomLongBetween(0,100000000));
+        final ScoringStats.Snapshot snapshot = stats.snapshot();
+
+        final BytesStreamOutput out = new BytesStreamOutput();
+        snapshot.writeTo(out);
+        final ScoringStats.Snapshot read;
+        try (StreamInput in = out.bytes().streamInput()) {
+            read = new ScoringStats.Snapshot(in);
+        }
+        assertEquals(index,read.index());
+        assertEquals("norm-l2",read.method());
+        assertEquals("vector",read.field());
+        assertEquals(snapshot.docs(),read.docs());
+        assertEquals(snapshot.missing(),read.missing());
+        assertEquals(snapshot.mismatches(),read.mismatches());
+        assertEquals(1L,read.errors());
+        assertEquals(snapshot.bytes(),read.bytes());
+        assertEquals(1L,read.leafSetup().count());
+        assertEquals(snapshot.leafScan().totalNanos(),read.leafScan().totalNanos());
+        // what the stats api renders
+        assertEquals(Strings.toString(snapshot),Strings.toString(read));
+        ScoringStats.remove(index);
+    }
+
+    private static List<ScoringStats.Snapshot> snapshots(String index) {
+        return ScoringStats.snapshots().stream().filter(s -> s.index().equals(index)).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,123 @@
+package script;
+
+import index.VectorSimilarity;
+import mapper.VectorEncoding;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.store.Directory;
+import org.elasticsearch.index.mapper.BinaryFieldMapper;
+import org.elasticsearch.test.ESTestCase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class SimilarityScorerTests extends ESTestCase {
+    private static final int DIMS = 8;
+
+    public void testScoresLikeTheScripts() throws IOException {
+        final VectorSimilarity similarity = randomFrom(VectorSimilarity.COSINE,VectorSimilarity.L2);
+        final double[] query = randomVector();
+        try (Directory dir = newDirectory()) {
+            try (IndexWriter writer = new IndexWriter(dir,newIndexWriterConfig())) {
+                for (int i = 0; i < 50; i++) {
+                    final Document doc = new Document();
+                    // a few documents don't have the dimensions of the query
+                    final double[] vector = rarely() ? new double[DIMS + 1] : randomVector();
+                    doc.add(new BinaryFieldMapper.CustomBinaryDocValuesField("vector",VectorEncoding.DOUBLE.encodeWithNorm(vector)));
+                    writer.addDocument(doc);
+                }
+                writer.forceMerge(1);
+            }
+            try (DirectoryReader reader = DirectoryReader.open(dir)) {
+                final SimilarityScorer exact = SimilarityScorer.of("test","vector",null,query,similarity);
+                final LeafReaderContext context = getOnlyLeafReader(reader).getContext();
+                final DocVectorValues docVector = exact.docValues(context);
+                final VectorScorer scorer = exact.newScorer();
+                final VectorLeafFactory factory = script(similarity,query);
+                final DocVectorValues scriptVector = factory.docVectorValues(context);
+                final VectorScorer script = factory.newScorer();
+                for (int doc = 0; doc < reader.maxDoc(); doc++) {
+                    assertTrue(docVector.advanceExact(doc));
+                    assertTrue(scriptVector.advanceExact(doc));
+                    assertEquals(script.score(scriptVector),scorer.score(docVector),0d);
+                }
+            }
+        }
+    }
+
+    public void testPrefixDimsMustBeWithinTheQuery() {
+        final VectorSimilarity similarity = randomFrom(VectorSimilarity.COSINE,VectorSimilarity.L2);
+        final double[] query = randomVector();
+        for (int prefixDims : new int[]{0,-1,DIMS + 1}) {
+            final Map<String, Object> params = params(query);
+            params.put("prefix_dims",prefixDims);
+            final IllegalArgumentException e = expectThrows(IllegalArgumentException.class,() -> script(similarity,params));
+            assertTrue(e.getMessage(),e.getMessage().contains("[prefix_dims]"));
+        }
+    }
+
+    public void testPrefixOfAllDimensionsScoresLikeTheWholeVector() throws IOException {
+        final VectorSimilarity similarity = randomFrom(VectorSimilarity.COSINE,VectorSimilarity.L2);
+        final double[] query = randomVector();
+        try (Directory dir = newDirectory()) {
+            try (IndexWriter writer = new IndexWriter(dir,newIndexWriterConfig())) {
+                for (int i = 0; i < 20; i++) {
+                    final Document doc = new Document();
+                    doc.add(new BinaryFieldMapper.CustomBinaryDocValuesField("vector",VectorEncoding.DOUBLE.encodeWithNorm(randomVector())));
+                    writer.addDocument(doc);
+                }
+                writer.forceMerge(1);
+            }
+            try (DirectoryReader reader = DirectoryReader.open(dir)) {
+                final LeafReaderContext context = getOnlyLeafReader(reader).getContext();
+                final Map<String, Object> params = params(query);
+                params.put("prefix_dims",DIMS);
+                final VectorLeafFactory prefix = script(similarity,params);
+                final VectorLeafFactory whole = script(similarity,query);
+                final DocVectorValues prefixVector = prefix.docVectorValues(context);
+                final DocVectorValues wholeVector = whole.docVectorValues(context);
+                final VectorScorer prefixScorer = prefix.newScorer();
+                final VectorScorer wholeScorer = whole.newScorer();
+                for (int doc = 0; doc < reader.maxDoc(); doc++) {
+                    assertTrue(prefixVector.advanceExact(doc));
+                    assertTrue(wholeVector.advanceExact(doc));
+                    // the whole vector is scored with the norm stored as a float, a prefix with the computed one
+                    assertEquals(wholeScorer.score(wholeVector),prefixScorer.score(prefixVector),1e-6);
+                }
+            }
+        }
+    }
+
+    private static VectorLeafFactory script(VectorSimilarity similarity,double[] query) {
+        return script(similarity,params(query));
+    }
+
+    private static VectorLeafFactory script(VectorSimilarity similarity,Map<String, Object> params) {
+        return (VectorLeafFactory) (similarity == VectorSimilarity.COSINE ? new CosineScript().getScript(params,null)
+                : new NormL2Script().getScript(params,null));
+    }
+
+    private static Map<String, Object> params(double[] query) {
+        final Map<String, Object> params = new HashMap<>();
+        params.put("field","vector");
+        final List<Double> value = new ArrayList<>();
+        for (double v : query) {
+            value.add(v);
+        }
+        params.put("value",value);
+        return params;
+    }
+
+    private static double[] randomVector() {
+        final double[] vector = new double[DIMS];
+        for (int d = 0; d < DIMS; d++) {
+            vector[d] = randomDoubleBetween(-1,1,true);
+        }
+        return vector;
+    }
+}
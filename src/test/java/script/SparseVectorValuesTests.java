@@ -0,0 +1,127 @@
+package script;
+
+import mapper.SparseVectorEncoding;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.Directory;
+import org.elasticsearch.index.mapper.BinaryFieldMapper;
+import org.elasticsearch.test.ESTestCase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class SparseVectorValuesTests extends ESTestCase {
+
+    public void testRoundTrip() throws IOException {
+        final List<Map<Integer, Double>> docs = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            docs.add(randomSparse(randomIntBetween(0,200),10000));
+        }
+        try (Directory dir = newDirectory()) {
+            index(dir,docs);
+            try (DirectoryReader reader = DirectoryReader.open(dir)) {
+                final SparseVectorValues values = SparseVectorValues.of(getOnlyLeafReader(reader),"sparse");
+                for (int doc = 0; doc < docs.size(); doc++) {
+                    assertTrue(values.advanceExact(doc));
+                    final Map<Integer, Double> vector = docs.get(doc);
+                    // a few shared indices, otherwise the dot product is almost always 0
+                    final Map<Integer, Double> query = randomSparse(randomIntBetween(1,200),10000);
+                    for (int index : vector.keySet()) {
+                        if (randomBoolean()) {
+                            query.put(index,randomDoubleBetween(-1,1,true));
+                        }
+                    }
+                    double norm = 0d;
+                    double dot = 0d;
+                    for (Map.Entry<Integer, Double> e : vector.entrySet()) {
+                        norm += e.getValue() * e.getValue();
+                        if (query.containsKey(e.getKey())) {
+                            dot += (float) (double) e.getValue() * query.get(e.getKey());
+                        }
+                    }
+                    assertEquals(vector.size(),values.count());
+                    assertEquals(Math.sqrt(norm),values.norm(),1e-5);
+
+                    final int[] indices = query.keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+                    final double[] queryValues = new double[indices.length];
+                    for (int i = 0; i < indices.length; i++) {
+                        queryValues[i] = query.get(indices[i]);
+                    }
+                    assertEquals(dot,values.dot(indices,queryValues),1e-9);
+                }
+            }
+        }
+    }
+
+    public void testZerosAreDropped() throws IOException {
+        final Map<Integer, Double> vector = new HashMap<>();
+        vector.put(7,2d);
+        vector.put(3,0d);
+        vector.put(12,-1d);
+        try (Directory dir = newDirectory()) {
+            index(dir,Collections.singletonList(vector));
+            try (DirectoryReader reader = DirectoryReader.open(dir)) {
+                final SparseVectorValues values = SparseVectorValues.of(getOnlyLeafReader(reader),"sparse");
+                assertTrue(values.advanceExact(0));
+                assertEquals(2,values.count());
+                assertEquals(Math.sqrt(5),values.norm(),1e-6);
+                assertEquals(-2d,values.dot(new int[]{3,7,12},new double[]{5d,1d,4d}),1e-9);
+            }
+        }
+    }
+
+    public void testInvalidVectorsAreRejected() {
+        expectThrows(IllegalArgumentException.class,() -> SparseVectorEncoding.encode(new int[]{1,1},new double[]{1d,2d}));
+        expectThrows(IllegalArgumentException.class,() -> SparseVectorEncoding.encode(new int[]{-1},new double[]{1d}));
+        expectThrows(IllegalArgumentException.class,() -> SparseVectorEncoding.encode(new int[]{1},new double[]{1d,2d}));
+    }
+
+    public void testAdvance() {
+        for (int iter = 0; iter < 1000; iter++) {
+            final int[] indices = randomSparse(randomIntBetween(1,300),1000).keySet().stream()
+                    .mapToInt(Integer::intValue).sorted().toArray();
+            final int from = randomIntBetween(0,indices.length - 1);
+            final int target = randomIntBetween(indices[from] + 1,1100);
+            int expected = from + 1;
+            while (expected < indices.length && indices[expected] < target) {
+                expected++;
+            }
+            assertEquals(Arrays.toString(indices) + " from " + from + " to " + target,
+                    expected,SparseVectorValues.advance(indices,from,target));
+        }
+    }
+
+    private static Map<Integer, Double> randomSparse(int count,int maxIndex) {
+        final Map<Integer, Double> vector = new HashMap<>();
+        while (vector.size() < count) {
+            double value = randomDoubleBetween(-1,1,true);
+            vector.put(randomIntBetween(0,maxIndex - 1),value == 0d ? 1d : value);
+        }
+        return vector;
+    }
+
+    private static void index(Directory dir,List<Map<Integer, Double>> vectors) throws IOException {
+        // log merges keep the documents in order
+        try (IndexWriter writer = new IndexWriter(dir,newIndexWriterConfig().setMergePolicy(newLogMergePolicy()))) {
+            for (Map<Integer, Double> vector : vectors) {
+                final int[] indices = new int[vector.size()];
+                final double[] values = new double[vector.size()];
+                int i = 0;
+                for (Map.Entry<Integer, Double> e : vector.entrySet()) {
+                    indices[i] = e.getKey();
+                    values[i++] = e.getValue();
+                }
+                final Document doc = new Document();
+                doc.add(new BinaryFieldMapper.CustomBinaryDocValuesField("sparse",SparseVectorEncoding.encode(indices,values)));
+                writer.addDocument(doc);
+            }
+            writer.forceMerge(1);
+        }
+    }
+}
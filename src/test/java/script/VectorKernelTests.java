@@ -0,0 +1,85 @@
+package script;
+
+import mapper.VectorEncoding;
+import org.elasticsearch.test.ESTestCase;
+
+import java.nio.FloatBuffer;
+
+public class VectorKernelTests extends ESTestCase {
+    private final VectorKernel scalar = new VectorKernel.Scalar();
+    private final VectorKernel unrolled = new VectorKernel.Unrolled();
+
+    public void testUnrolledAgreesWithScalar() {
+        for (int iter = 0; iter < 100; iter++) {
+            // every remainder of the four accumulators, and ranges that don't start at the first dimension
+            final int dims = randomIntBetween(1,67);
+            final int from = randomIntBetween(0,dims - 1);
+            final int to = randomIntBetween(from,dims);
+            final double[] query = randomVector(dims);
+            final double[] vector = randomVector(dims);
+
+            final int base = randomIntBetween(0,5);
+            final double[] doubles = new double[base + dims];
+            final FloatBuffer floats = FloatBuffer.allocate(base + dims);
+            for (int i = 0; i < dims; i++) {
+                doubles[base + i] = vector[i];
+                floats.put(base + i,(float) vector[i]);
+            }
+            assertClose(scalar.dot(query,doubles,base,from,to),unrolled.dot(query,doubles,base,from,to));
+            assertClose(scalar.squaredDistance(query,doubles,base,from,to),
+                    unrolled.squaredDistance(query,doubles,base,from,to));
+            assertClose(scalar.dot(query,floats,base,from,to),unrolled.dot(query,floats,base,from,to));
+            assertClose(scalar.squaredNorm(floats,base,from,to),unrolled.squaredNorm(floats,base,from,to));
+            assertClose(scalar.squaredDistance(query,floats,base,from,to),
+                    unrolled.squaredDistance(query,floats,base,from,to));
+
+            final byte[] doubleBytes = VectorEncoding.DOUBLE.encode(vector);
+            assertClose(scalar.dotDoubles(query,doubleBytes,0,from,to),unrolled.dotDoubles(query,doubleBytes,0,from,to));
+            assertClose(scalar.squaredNormDoubles(doubleBytes,0,from,to),unrolled.squaredNormDoubles(doubleBytes,0,from,to));
+            assertClose(scalar.squaredDistanceDoubles(query,doubleBytes,0,from,to),
+                    unrolled.squaredDistanceDoubles(query,doubleBytes,0,from,to));
+
+            final byte[] floatBytes = VectorEncoding.FLOAT.encode(vector);
+            assertClose(scalar.dotFloats(query,floatBytes,0,from,to),unrolled.dotFloats(query,floatBytes,0,from,to));
+            assertClose(scalar.squaredNormFloats(floatBytes,0,from,to),unrolled.squaredNormFloats(floatBytes,0,from,to));
+            assertClose(scalar.squaredDistanceFloats(query,floatBytes,0,from,to),
+                    unrolled.squaredDistanceFloats(query,floatBytes,0,from,to));
+        }
+    }
+
+    public void testUnrolledHammingIsExact() {
+        for (int iter = 0; iter < 100; iter++) {
+            final long[] a = new long[randomIntBetween(1,13)];
+            final long[] b = new long[a.length];
+            for (int i = 0; i < a.length; i++) {
+                a[i] = randomLong();
+                b[i] = randomLong();
+            }
+            assertEquals(scalar.hamming(a,b),unrolled.hamming(a,b));
+        }
+    }
+
+    public void testSelect() {
+        final VectorKernel current = VectorKernel.get();
+        try {
+            assertEquals(VectorKernel.SCALAR,VectorKernel.select("SCALAR").name());
+            assertEquals(VectorKernel.UNROLLED,VectorKernel.select(VectorKernel.AUTO).name());
+            expectThrows(IllegalArgumentException.class,() -> VectorKernel.select("simd"));
+        } finally {
+            VectorKernel.select(current.name());
+        }
+    }
+
+    // the sums are only rounded in a different order
+    private static void assertClose(double expected,double actual) {
+        assertEquals(expected,actual,1e-9 * Math.max(1d,Math.abs(expected)));
+    }
+
+    private static double[] randomVector(int dims) {
+        final double[] vector = new double[dims];
+        for (int d = 0; d < dims; d++) {
+            vector[d] = randomDoubleBetween(-1,1,true);
+        }
+        return vector;
+    }
+}